@@ -0,0 +1,144 @@
+package net.virtalab.databazer;
+
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of current thread's work with database.
+ * <p>
+ * While deadline is started, connections of {@link NamedDataSource} obey it. Connection is not taken when budget
+ * is already spent, time spent on taking connection is deducted from budget, and every statement of connection
+ * gets {@link java.sql.Statement#setQueryTimeout(int) query timeout} from time left just before it is executed.
+ * Statement which would start after deadline fails at once. So request which has run out of time does not keep
+ * connection busy with query whose result nobody waits for.
+ * <pre>
+ *   Deadline deadline = Deadline.start(2, TimeUnit.SECONDS);
+ *   try{
+ *       List&lt;Order&gt; orders = jdbc.query("SELECT * FROM orders WHERE user_id = ?", ORDER_MAPPER, userId);
+ *       ...
+ *   } finally {
+ *       deadline.end();
+ *   }
+ * </pre>
+ * Deadlines nest: deadline started inside other one cannot end later than outer one.
+ * Failures caused by deadline are {@link SQLTimeoutException}
+ * (wrapped into {@link org.springframework.dao.QueryTimeoutException} by Spring templates).
+ * <p>
+ * Deadline belongs to thread which started it. Connection taken under deadline follows deadline which is current
+ * at thread executing its statement: after {@link #end()} statements of same connection run without deadline.
+ * Connection taken without deadline is not wrapped and ignores deadlines, unless its DataSource
+ * {@link NamedDataSource#setFollowDeadlines(boolean) follows deadlines} for all connections.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+    //System.nanoTime() value
+    private final long expiresAt;
+    private final Deadline outer;
+
+    private Deadline(long expiresAt, Deadline outer){
+        this.expiresAt = expiresAt;
+        this.outer = outer;
+    }
+
+    /**
+     * Starts deadline for current thread. Should be ended by {@link #end()} in {@code finally} block.
+     *
+     * @param timeout time from now till deadline
+     * @param unit unit of timeout
+     * @return started deadline
+     * @throws java.lang.IllegalArgumentException when timeout is negative or unit is NULL
+     */
+    public static Deadline start(long timeout, TimeUnit unit){
+        if(unit==null){
+            throw new IllegalArgumentException("Unit cannot be NULL");
+        }
+        if(timeout < 0){
+            throw new IllegalArgumentException("Timeout cannot be less than 0");
+        }
+        Deadline outer = current.get();
+        long expiresAt = System.nanoTime() + unit.toNanos(timeout);
+        if(outer!=null && outer.expiresAt - expiresAt < 0){
+            expiresAt = outer.expiresAt;
+        }
+        Deadline deadline = new Deadline(expiresAt, outer);
+        current.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Reports deadline of current thread
+     *
+     * @return innermost started deadline or NULL when there is none
+     */
+    public static Deadline current(){
+        return current.get();
+    }
+
+    /**
+     * Ends deadline: outer deadline (if any) becomes current again
+     *
+     * @throws java.lang.IllegalStateException when this deadline is not current one of thread
+     *                                         (not started at this thread, already ended or inner one is not ended)
+     */
+    public void end(){
+        if(current.get()!=this){
+            throw new IllegalStateException("Deadline is not current one of thread");
+        }
+        if(this.outer==null){
+            current.remove();
+        } else {
+            current.set(this.outer);
+        }
+    }
+
+    /**
+     * Reports time left
+     *
+     * @param unit unit of result
+     * @return time left, 0 or negative when deadline has passed
+     */
+    public long remaining(TimeUnit unit){
+        return unit.convert(this.expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Tells if deadline has passed
+     *
+     * @return true when no time is left
+     */
+    public boolean isExpired(){
+        return this.expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Fails when deadline has passed
+     *
+     * @param action what was about to be done, for message
+     * @throws SQLTimeoutException when no time is left
+     */
+    public void check(String action) throws SQLTimeoutException {
+        if(this.isExpired()){
+            throw new SQLTimeoutException("Deadline passed before " + action);
+        }
+    }
+
+    /**
+     * Query timeout for statement which starts now
+     *
+     * @return seconds left rounded up, at least 1
+     * @throws SQLTimeoutException when no time is left
+     */
+    int queryTimeout() throws SQLTimeoutException {
+        long left = this.expiresAt - System.nanoTime();
+        if(left <= 0){
+            throw new SQLTimeoutException("Deadline passed before statement execution");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toSeconds(left + 999999999L));
+    }
+}
@@ -0,0 +1,114 @@
+package net.virtalab.databazer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * Connection which obeys {@link Deadline}: its statements get query timeout from time left before every execution.
+ * Deadline is looked up when statement is executed, so connection held across deadlines follows current one.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+class DeadlineConnection implements InvocationHandler {
+    private final Connection target;
+
+    DeadlineConnection(Connection target){
+        this.target = target;
+    }
+
+    /**
+     * Wraps connection
+     *
+     * @param connection connection of DataSource
+     * @return connection proxy
+     */
+    static Connection wrap(Connection connection){
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new DeadlineConnection(connection));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+
+        if(methodName.equals("equals")){
+            return proxy == args[0];
+        } else if(methodName.equals("hashCode")){
+            return System.identityHashCode(proxy);
+        } else if(methodName.equals("toString")){
+            return "Connection with deadline to " + this.target;
+        }
+
+        Object result = call(this.target, method, args);
+        if(result instanceof Statement && (methodName.equals("prepareStatement") || methodName.equals("createStatement") ||
+                methodName.equals("prepareCall"))){
+            Class<?> type = method.getReturnType();
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new DeadlineStatement((Statement) result, (Connection) proxy));
+        }
+        return result;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Statement of connection with deadline
+     */
+    private static class DeadlineStatement implements InvocationHandler {
+        private final Statement target;
+        private final Connection connection;
+        //timeout set by user, 0 is no timeout
+        private int queryTimeout = 0;
+        //timeout set at statement of driver
+        private int appliedTimeout = 0;
+
+        private DeadlineStatement(Statement target, Connection connection){
+            this.target = target;
+            this.connection = connection;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.target.toString();
+            } else if(methodName.equals("getConnection")){
+                return this.connection;
+            } else if(methodName.equals("setQueryTimeout")){
+                this.queryTimeout = (Integer) args[0];
+                return null;
+            } else if(methodName.equals("getQueryTimeout")){
+                return this.queryTimeout;
+            } else if(methodName.startsWith("execute")){
+                Deadline deadline = Deadline.current();
+                int timeout = this.queryTimeout;
+                if(deadline!=null){
+                    int left = deadline.queryTimeout();
+                    if(timeout==0 || left < timeout){
+                        timeout = left;
+                    }
+                }
+                if(timeout!=this.appliedTimeout){
+                    this.target.setQueryTimeout(timeout);
+                    this.appliedTimeout = timeout;
+                }
+            }
+            return call(this.target, method, args);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package net.virtalab.databazer;
 
+import net.virtalab.databazer.cache.MetadataCache;
+import net.virtalab.databazer.cache.QueryCache;
+import net.virtalab.databazer.query.FetchSizeTuner;
 import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
 /**
  * The NamedDataSource is {@link org.springframework.jdbc.datasource.SimpleDriverDataSource} from Spring Framework with name.
  * <p></p>
@@ -18,6 +25,17 @@ import org.springframework.jdbc.datasource.SimpleDriverDataSource;
  * No. But if you use {@link #getName()} without calling {@link #setName(String)} before, {@link java.lang.NullPointerException} will be thrown.
  * <p></p>
  * By design all concrete DataSources in Databazer extend this class.
+ * <p></p>
+ * Optional {@link #setQueryCache(QueryCache) query cache} can be set here: connections then answer repeated reads from it.
+ * <p></p>
+ * Optional {@link #setMetadataCache(MetadataCache) metadata cache} can be set here: connections then share
+ * results of {@link java.sql.DatabaseMetaData} calls.
+ * <p></p>
+ * Optional {@link #setFetchSizeTuner(FetchSizeTuner) fetch size tuner} can be set here: connections then choose fetch size
+ * for each SQL from results it gave before.
+ * <p></p>
+ * Connections taken under {@link Deadline} obey it: see {@link Deadline} for details. Other connections are not wrapped
+ * and cost nothing, unless {@link #setFollowDeadlines(boolean) all connections follow deadlines}.
  */
 public class NamedDataSource extends SimpleDriverDataSource {
     /**
@@ -25,6 +43,26 @@ public class NamedDataSource extends SimpleDriverDataSource {
      */
     private String name;
 
+    /**
+     * Cache of query results, NULL when there is no cache
+     */
+    private volatile QueryCache queryCache;
+
+    /**
+     * Cache of metadata, NULL when there is no cache
+     */
+    private volatile MetadataCache metadataCache;
+
+    /**
+     * Tuner of fetch size, NULL when fetch size is not tuned
+     */
+    private volatile FetchSizeTuner fetchSizeTuner;
+
+    /**
+     * Connections taken without deadline follow deadlines started later
+     */
+    private volatile boolean followDeadlines = false;
+
     /**
      * Reports name of current DataSource
      *
@@ -46,4 +84,119 @@ public class NamedDataSource extends SimpleDriverDataSource {
     public void setName(String name) {
         this.name = name;
     }
+
+    /**
+     * Reports cache of query results
+     *
+     * @return cache or NULL
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets cache of query results. Connections taken after this call read through cache
+     * and invalidate it by their writes. See {@link QueryCache} for details.
+     *
+     * @param queryCache cache or NULL to turn caching off. Cache should not be shared with other DataSources.
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Reports cache of metadata
+     *
+     * @return cache or NULL
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Sets cache of metadata. Connections taken after this call share results of {@link java.sql.DatabaseMetaData}
+     * and invalidate them by DDL. See {@link MetadataCache} for details.
+     *
+     * @param metadataCache cache or NULL to turn caching off. Cache should not be shared with other DataSources.
+     */
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Reports tuner of fetch size
+     *
+     * @return tuner or NULL
+     */
+    public FetchSizeTuner getFetchSizeTuner() {
+        return fetchSizeTuner;
+    }
+
+    /**
+     * Sets tuner of fetch size. Connections taken after this call measure results of queries
+     * and set fetch size of next executions. See {@link FetchSizeTuner} for details.
+     *
+     * @param fetchSizeTuner tuner or NULL to turn tuning off
+     */
+    public void setFetchSizeTuner(FetchSizeTuner fetchSizeTuner) {
+        this.fetchSizeTuner = fetchSizeTuner;
+    }
+
+    /**
+     * Reports if connections taken without deadline follow deadlines
+     *
+     * @return true when all connections follow deadlines
+     */
+    public boolean isFollowDeadlines() {
+        return followDeadlines;
+    }
+
+    /**
+     * Makes connections taken without {@link Deadline} follow deadlines started while they are held.
+     * Default is false: only connections taken under deadline are wrapped, so others have no proxy per statement.
+     *
+     * @param followDeadlines true to wrap all connections taken after this call
+     */
+    public void setFollowDeadlines(boolean followDeadlines) {
+        this.followDeadlines = followDeadlines;
+    }
+
+    /**
+     * Gives out connection of driver, wrapped by {@link FetchSizeTuner}, {@link QueryCache} and {@link MetadataCache}
+     * if there are ones.
+     * Under {@link Deadline} connection is not taken when time is over. Statements of connection taken under deadline
+     * (or of any connection when {@link #setFollowDeadlines(boolean) set}) get timeout from time left of deadline,
+     * which is current when they are executed.
+     */
+    @Override
+    protected Connection getConnectionFromDriver(Properties props) throws SQLException {
+        Deadline deadline = Deadline.current();
+        if(deadline!=null){
+            deadline.check("connection was taken");
+        }
+        //innermost: statements of other wrappers stay what application sees
+        Connection connection = super.getConnectionFromDriver(props);
+        if(deadline!=null || this.followDeadlines){
+            connection = DeadlineConnection.wrap(connection);
+        }
+        //tuner sees only results which come from database
+        FetchSizeTuner tuner = this.fetchSizeTuner;
+        if(tuner!=null){
+            connection = tuner.wrap(connection);
+        }
+        QueryCache cache = this.queryCache;
+        if(cache!=null){
+            connection = cache.wrap(connection);
+        }
+        MetadataCache metadataCache = this.metadataCache;
+        if(metadataCache!=null){
+            connection = metadataCache.wrap(connection);
+        }
+        if(deadline!=null && deadline.isExpired()){
+            //time was spent on taking connection
+            connection.close();
+            deadline.check("connection was given out");
+        }
+        return connection;
+    }
 }
@@ -0,0 +1,108 @@
+package net.virtalab.databazer;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+
+/**
+ * Database vendor behind DataSource.
+ * <p>
+ * Some features (streaming, bulk loading, retries etc.) work differently for different databases.
+ * Vendor is detected by JDBC URL, so it works for any {@link NamedDataSource}, not only for concrete DataSources of Databazer.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public enum Vendor {
+    /**
+     * MySQL Database, URL starts with {@code jdbc:mysql:}
+     */
+    MYSQL("jdbc:mysql:"),
+    /**
+     * H2 Database, URL starts with {@code jdbc:h2:}
+     */
+    H2("jdbc:h2:"),
+    /**
+     * Any other Database. Only standard JDBC features are used for it.
+     */
+    OTHER(null);
+
+    //MySQL: ER_LOCK_DEADLOCK, ER_LOCK_WAIT_TIMEOUT
+    private static final int MYSQL_DEADLOCK = 1213;
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    //H2: DEADLOCK_1, LOCK_TIMEOUT_1
+    private static final int H2_DEADLOCK = 40001;
+    private static final int H2_LOCK_TIMEOUT = 50200;
+    //standard: serialization failure; PostgreSQL: deadlock detected
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    private final String urlPrefix;
+
+    Vendor(String urlPrefix){
+        this.urlPrefix = urlPrefix;
+    }
+
+    /**
+     * Detects vendor by JDBC URL
+     *
+     * @param url JDBC URL
+     * @return detected vendor or {@link #OTHER} when URL is NULL or unknown
+     */
+    public static Vendor of(String url){
+        if(url!=null){
+            for(Vendor vendor: values()){
+                if(vendor.urlPrefix!=null && url.startsWith(vendor.urlPrefix)){
+                    return vendor;
+                }
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Detects vendor of DataSource
+     *
+     * @param dataSource DataSource with URL set
+     * @return detected vendor or {@link #OTHER} when URL is not set or unknown
+     */
+    public static Vendor of(NamedDataSource dataSource){
+        return of(dataSource.getUrl());
+    }
+
+    /**
+     * Tells if failure is transient conflict with other transactions (deadlock, lock wait timeout,
+     * serialization failure), so transaction which failed can be run again from start.
+     * Causes of exception are checked as well.
+     *
+     * @param e failure of statement or commit
+     * @return true when transaction can be retried
+     */
+    public boolean isRetryable(Throwable e){
+        for(Throwable cause = e; cause!=null; cause = cause.getCause()){
+            if(cause instanceof SQLException && this.isConflict((SQLException) cause)){
+                return true;
+            }
+            if(cause.getCause()==cause){
+                break;
+            }
+        }
+        return false;
+    }
+
+    private boolean isConflict(SQLException e){
+        if(e instanceof SQLTransactionRollbackException || SERIALIZATION_FAILURE.equals(e.getSQLState()) ||
+                DEADLOCK_DETECTED.equals(e.getSQLState())){
+            return true;
+        }
+        switch (this){
+            case MYSQL:
+                return e.getErrorCode()==MYSQL_DEADLOCK || e.getErrorCode()==MYSQL_LOCK_WAIT_TIMEOUT;
+            case H2:
+                return e.getErrorCode()==H2_DEADLOCK || e.getErrorCode()==H2_LOCK_TIMEOUT;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package net.virtalab.databazer.batch;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Collects single-row writes from many threads into JDBC batches, which are committed as group.
+ * <p>
+ * Writer is bound to DataSource and one SQL statement with parameters (normally {@code INSERT}).
+ * Each {@link #write(Object...) write} puts row into queue and returns {@link Future},
+ * which completes when row is committed. Background thread takes rows from queue and flushes them as one batch
+ * and one commit, when {@link #setBatchSize(int) batch size} is reached or
+ * {@link #setMaxDelay(long) max delay} since first row of batch elapsed.
+ * With default max delay (0) writer takes all rows which came while previous batch was committed,
+ * so batches grow with load without adding latency.
+ * <p>
+ * When queue is full (see {@link #setQueueCapacity(int)}), callers of {@link #write(Object...)} wait - this is backpressure.
+ * <p>
+ * If batch fails, rows of this batch are re-tried one-by-one, so only broken rows fail their futures.
+ * Unexpected failure of background thread fails all rows, which are not written yet, and stops writer.
+ * <pre>
+ *   BatchingWriter writer = new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)");
+ *   writer.start();
+ *
+ *   Future&lt;Integer&gt; written = writer.write(id, payload);
+ *   written.get(); //row is durable here
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class BatchingWriter {
+    private static final Log log = LogFactory.getLog(BatchingWriter.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_MAX_DELAY = 0;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    //how long caller holds enqueue lock while waiting for free space at queue
+    private static final long ENQUEUE_WAIT = 10;
+
+    private final NamedDataSource dataSource;
+    private final String sql;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    private BlockingQueue<PendingWrite> queue;
+    private Thread flusher;
+    private volatile boolean running = false;
+    //rows are queued under read lock, writer is stopped under write lock: no row is queued after stop
+    private final ReadWriteLock enqueueLock = new ReentrantReadWriteLock();
+
+    //metrics
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * Creates writer. Writer does not accept rows until {@link #start()} is called.
+     *
+     * @param dataSource DataSource to write to
+     * @param sql SQL statement with {@code ?} placeholders
+     * @throws java.lang.IllegalArgumentException when DataSource or SQL is NULL
+     */
+    public BatchingWriter(NamedDataSource dataSource, String sql){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        if(sql==null){
+            throw new IllegalArgumentException("SQL cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.sql = sql;
+    }
+
+    /**
+     * Starts background flushing thread
+     *
+     * @throws java.lang.IllegalStateException when writer is already started
+     */
+    public synchronized void start(){
+        if(this.running){
+            throw new IllegalStateException("Writer is already started");
+        }
+        this.queue = new LinkedBlockingQueue<PendingWrite>(this.queueCapacity);
+        this.running = true;
+        this.flusher = new Thread(new Flusher(), "databazer-writer-" + this.dataSource.getName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Stops accepting new rows, flushes queued ones and stops background thread.
+     *
+     * @throws InterruptedException when interrupted while waiting for flusher
+     */
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this){
+            if(!this.running){
+                return;
+            }
+            this.halt();
+            thread = this.flusher;
+            this.flusher = null;
+        }
+        thread.join();
+    }
+
+    private void halt(){
+        this.enqueueLock.writeLock().lock();
+        try{
+            this.running = false;
+        } finally {
+            this.enqueueLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Queues row for writing. Waits when queue is full.
+     *
+     * @param params statement parameters in placeholder order
+     * @return future which gives update count of row when it is committed, or fails with {@link SQLException} as cause
+     * @throws InterruptedException when interrupted while waiting for free space at queue
+     * @throws java.lang.IllegalStateException when writer is not started
+     */
+    public Future<Integer> write(Object... params) throws InterruptedException {
+        PendingWrite pending = new PendingWrite(params);
+        while (!this.enqueue(pending, ENQUEUE_WAIT)){
+            //queue is full: wait more
+        }
+        return pending;
+    }
+
+    /**
+     * Queues row for writing if there is free space at queue within timeout.
+     *
+     * @param timeout how long to wait for free space
+     * @param unit unit of timeout
+     * @param params statement parameters in placeholder order
+     * @return future (see {@link #write(Object...)}) or NULL when queue stayed full
+     * @throws InterruptedException when interrupted while waiting
+     * @throws java.lang.IllegalStateException when writer is not started
+     */
+    public Future<Integer> offer(long timeout, TimeUnit unit, Object... params) throws InterruptedException {
+        PendingWrite pending = new PendingWrite(params);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true){
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if(this.enqueue(pending, Math.max(0, Math.min(left, ENQUEUE_WAIT)))){
+                return pending;
+            }
+            if(left <= 0){
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Queues row while writer is running, waiting for free space at most given time
+     *
+     * @return true when queued, false when queue stayed full
+     */
+    private boolean enqueue(PendingWrite pending, long wait) throws InterruptedException {
+        this.enqueueLock.readLock().lock();
+        try{
+            if(!this.running){
+                throw new IllegalStateException("Writer is not started");
+            }
+            return this.queue.offer(pending, wait, TimeUnit.MILLISECONDS);
+        } finally {
+            this.enqueueLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes batch from queue: waits for first row, then collects more until batch is full or max delay elapsed.
+     * Interrupt stops writer, rows taken already are returned and written like rows left at queue.
+     */
+    private List<PendingWrite> nextBatch() {
+        List<PendingWrite> batch = new ArrayList<PendingWrite>(this.batchSize);
+        try{
+            PendingWrite first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+            if(first==null){
+                return batch;
+            }
+            batch.add(first);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxDelay);
+            while (batch.size() < this.batchSize){
+                //take what is already there without waiting
+                this.queue.drainTo(batch, this.batchSize - batch.size());
+                if(batch.size() >= this.batchSize){
+                    break;
+                }
+                long left = deadline - System.nanoTime();
+                if(left <= 0){
+                    break;
+                }
+                PendingWrite next = this.queue.poll(left, TimeUnit.NANOSECONDS);
+                if(next==null){
+                    break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException e){
+            //interrupt is not kept: driver could abort I/O of flush because of it
+            this.halt();
+        }
+        return batch;
+    }
+
+    private Connection flush(Connection connection, List<PendingWrite> batch){
+        PreparedStatement statement = null;
+        try{
+            if(connection==null){
+                connection = this.dataSource.getConnection();
+                connection.setAutoCommit(false);
+            }
+            statement = connection.prepareStatement(this.sql);
+            for(PendingWrite row: batch){
+                bind(statement, row.params);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            connection.commit();
+
+            for(int i=0;i<batch.size();i++){
+                batch.get(i).complete(i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO);
+            }
+            this.rowsWritten.addAndGet(batch.size());
+            this.batchCount.incrementAndGet();
+            return connection;
+        } catch (SQLException e){
+            rollback(connection);
+            JdbcUtils.closeStatement(statement);
+            statement = null;
+            if(batch.size() > 1){
+                //find broken rows
+                for(PendingWrite row: batch){
+                    List<PendingWrite> single = new ArrayList<PendingWrite>(1);
+                    single.add(row);
+                    connection = this.flush(connection, single);
+                }
+                return connection;
+            }
+            batch.get(0).fail(e);
+            this.rowsFailed.incrementAndGet();
+            //connection may be broken, so next batch gets new one
+            JdbcUtils.closeConnection(connection);
+            return null;
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for(int i=0;i<params.length;i++){
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    private static void rollback(Connection connection){
+        if(connection==null){
+            return;
+        }
+        try{
+            connection.rollback();
+        } catch (SQLException e){
+            log.debug("Rollback failed", e);
+        }
+    }
+
+    /**
+     * Reports number of rows committed
+     *
+     * @return row count
+     */
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    /**
+     * Reports number of rows which failed
+     *
+     * @return row count
+     */
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    /**
+     * Reports number of batches committed
+     *
+     * @return batch count
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Reports number of rows waiting at queue
+     *
+     * @return queue size
+     */
+    public int getQueueSize(){
+        return this.queue==null ? 0 : this.queue.size();
+    }
+
+    /**
+     * Maximum number of rows in one batch. Default is 100.
+     *
+     * @param batchSize batch size. Should be 1 or more. Takes effect immediately.
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Batch size cannot be less than 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Maximum time first row of batch waits for other rows. Default is 0: no waiting.
+     *
+     * @param maxDelay delay in milliseconds. Takes effect immediately.
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Maximum number of rows waiting for flush. Default is 10000.
+     *
+     * @param queueCapacity queue capacity. Should be 1 or more. Takes effect on next {@link #start()}.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 1){
+            throw new IllegalArgumentException("Queue capacity cannot be less than 1");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    private class Flusher implements Runnable {
+        public void run() {
+            Connection connection = null;
+            List<PendingWrite> batch = null;
+            try{
+                while (running || !queue.isEmpty()){
+                    batch = nextBatch();
+                    if(batch.size() > 0){
+                        connection = flush(connection, batch);
+                    }
+                    batch = null;
+                }
+            } catch (RuntimeException e){
+                this.failed(batch, e);
+            } catch (Error e){
+                this.failed(batch, e);
+                throw e;
+            } finally {
+                //writer cannot be running without flusher
+                halt();
+                JdbcUtils.closeConnection(connection);
+                //rows which came after stop
+                List<PendingWrite> left = new ArrayList<PendingWrite>();
+                queue.drainTo(left);
+                for(PendingWrite row: left){
+                    row.fail(new SQLException("Writer is stopped"));
+                }
+            }
+        }
+
+        private void failed(List<PendingWrite> batch, Throwable e){
+            log.error("Writer of " + dataSource.getName() + " failed and is stopped", e);
+            //callers who see failed row should see stopped writer as well
+            halt();
+            if(batch==null){
+                return;
+            }
+            SQLException failure = new SQLException("Flush failed: " + e, e);
+            for(PendingWrite row: batch){
+                if(!row.isDone()){
+                    row.fail(failure);
+                    rowsFailed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Row waiting for flush. Completes when row is committed or failed.
+     */
+    private static class PendingWrite implements Future<Integer> {
+        private final Object[] params;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int updateCount;
+        private volatile SQLException failure;
+
+        private PendingWrite(Object[] params){
+            this.params = params;
+        }
+
+        private void complete(int updateCount){
+            this.updateCount = updateCount;
+            this.done.countDown();
+        }
+
+        private void fail(SQLException failure){
+            this.failure = failure;
+            this.done.countDown();
+        }
+
+        /**
+         * Queued row cannot be cancelled
+         *
+         * @return false always
+         */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return this.done.getCount()==0;
+        }
+
+        public Integer get() throws InterruptedException, ExecutionException {
+            this.done.await();
+            return this.result();
+        }
+
+        public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if(!this.done.await(timeout, unit)){
+                throw new TimeoutException("Row is not written yet");
+            }
+            return this.result();
+        }
+
+        private Integer result() throws ExecutionException {
+            if(this.failure!=null){
+                throw new ExecutionException(this.failure);
+            }
+            return this.updateCount;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package net.virtalab.databazer.batch;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gives out unique increasing IDs of one sequence, reserved from database in blocks ("hi/lo" allocation).
+ * <p>
+ * Sequence is row of sequence table, which keeps next free value. One short transaction moves it forward
+ * by {@link #setBlockSize(int) block size} and IDs of reserved block are then given out from memory, without locks
+ * (by atomic increment). When {@link #setPrefetchThreshold(double) part} of block is given out, next block is reserved
+ * in background, so callers do not wait for database when block runs out. Rows can be inserted with IDs known
+ * in advance, in batches, instead of reading {@code AUTO_INCREMENT} value or {@code NEXT VALUE FOR} after every row.
+ * <p>
+ * Works with MySQL, H2 and other databases with standard {@code UPDATE}. Generators of same sequence
+ * (at other threads, processes or hosts) never give out same ID. IDs are not contiguous: IDs of block which
+ * was not used up before restart are lost.
+ * <pre>
+ *   BlockIdGenerator ids = new BlockIdGenerator(ds, "orders");
+ *   ids.createTable();
+ *
+ *   long id = ids.next();
+ * </pre>
+ * Sequence table, created by {@link #createTable()}:
+ * <pre>
+ *   CREATE TABLE databazer_sequence(name VARCHAR(100) PRIMARY KEY, next_value BIGINT NOT NULL)
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.batch.TypedStatement
+ * @version 0.5
+ * @since 0.5
+ */
+public class BlockIdGenerator {
+    private static final Log log = LogFactory.getLog(BlockIdGenerator.class);
+
+    private static final String DEFAULT_TABLE = "databazer_sequence";
+    private static final int DEFAULT_BLOCK_SIZE = 1000;
+    private static final double DEFAULT_PREFETCH_THRESHOLD = 0.5;
+
+    private final NamedDataSource dataSource;
+    private final String sequence;
+
+    private String table = DEFAULT_TABLE;
+    private volatile int blockSize = DEFAULT_BLOCK_SIZE;
+    private long initialValue = 1;
+    private volatile double prefetchThreshold = DEFAULT_PREFETCH_THRESHOLD;
+
+    private final AtomicReference<Block> current = new AtomicReference<Block>(new Block(0, 0, 0));
+    //guarded by this
+    private Future<Block> prefetched;
+    private ThreadPoolExecutor prefetcher;
+
+    //metrics
+    private final AtomicLong blocks = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /**
+     * Creates generator of sequence
+     *
+     * @param dataSource DataSource with sequence table
+     * @param sequence name of sequence, row key at sequence table
+     * @throws java.lang.IllegalArgumentException when DataSource or sequence is NULL
+     */
+    public BlockIdGenerator(NamedDataSource dataSource, String sequence){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        if(sequence==null){
+            throw new IllegalArgumentException("Sequence cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Creates sequence table unless it exists
+     *
+     * @throws SQLException when table cannot be created
+     */
+    public void createTable() throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        Statement statement = null;
+        try{
+            statement = connection.createStatement();
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.table +
+                    "(name VARCHAR(100) PRIMARY KEY, next_value BIGINT NOT NULL)");
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Gives out next ID
+     *
+     * @return ID, unique within sequence
+     * @throws SQLException when block of IDs cannot be reserved
+     */
+    public long next() throws SQLException {
+        while (true){
+            Block block = this.current.get();
+            long id = block.next.getAndIncrement();
+            if(id < block.end){
+                if(id >= block.prefetchAt && block.prefetching.compareAndSet(false, true)){
+                    this.prefetch();
+                }
+                return id;
+            }
+            this.replace(block);
+        }
+    }
+
+    /**
+     * Moves to next block unless other thread already did
+     */
+    private synchronized void replace(Block used) throws SQLException {
+        if(this.current.get()!=used){
+            return;
+        }
+        Future<Block> prefetched = this.prefetched;
+        this.prefetched = null;
+        Block block = null;
+        if(prefetched!=null){
+            if(!prefetched.isDone()){
+                this.waits.incrementAndGet();
+            }
+            try{
+                block = prefetched.get();
+            } catch (ExecutionException e){
+                log.warn("Prefetch of IDs of " + this.sequence + " failed, reserving again", e.getCause());
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for block of IDs", e);
+            }
+        } else {
+            this.waits.incrementAndGet();
+        }
+        if(block==null){
+            block = this.reserve();
+        }
+        this.current.set(block);
+    }
+
+    private synchronized void prefetch(){
+        if(this.prefetched!=null){
+            return;
+        }
+        if(this.prefetcher==null){
+            final String name = this.dataSource.getName();
+            //single thread, which exits when idle
+            this.prefetcher = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "databazer-ids-" + name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        this.prefetched = this.prefetcher.submit(new Callable<Block>() {
+            public Block call() throws SQLException {
+                return reserve();
+            }
+        });
+    }
+
+    /**
+     * Moves sequence forward by one block in its own transaction
+     *
+     * @return reserved block
+     */
+    private Block reserve() throws SQLException {
+        int size = this.blockSize;
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement update = null;
+        PreparedStatement select = null;
+        ResultSet rs = null;
+        boolean autoCommit = true;
+        try{
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try{
+                update = connection.prepareStatement("UPDATE " + this.table + " SET next_value = next_value + ? WHERE name = ?");
+                update.setLong(1, size);
+                update.setString(2, this.sequence);
+                if(update.executeUpdate()==0){
+                    //new sequence: other generator may insert it at same time, then its row is updated on retry
+                    connection.rollback();
+                    this.insert(connection);
+                    update.executeUpdate();
+                }
+                select = connection.prepareStatement("SELECT next_value FROM " + this.table + " WHERE name = ?");
+                select.setString(1, this.sequence);
+                rs = select.executeQuery();
+                if(!rs.next()){
+                    throw new SQLException("Sequence " + this.sequence + " is not found at " + this.table);
+                }
+                long end = rs.getLong(1);
+                connection.commit();
+                this.blocks.incrementAndGet();
+                return new Block(end - size, end, end - size + (long) Math.ceil(size * this.prefetchThreshold));
+            } catch (SQLException e){
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(select);
+            JdbcUtils.closeStatement(update);
+            try{
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException e){
+                log.debug("Could not restore auto-commit", e);
+            }
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private void insert(Connection connection) throws SQLException {
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.table + "(name, next_value) VALUES(?, ?)");
+        try{
+            insert.setString(1, this.sequence);
+            insert.setLong(2, this.initialValue);
+            insert.executeUpdate();
+            connection.commit();
+        } catch (SQLException e){
+            connection.rollback();
+            log.debug("Sequence " + this.sequence + " was created concurrently", e);
+        } finally {
+            JdbcUtils.closeStatement(insert);
+        }
+    }
+
+    /**
+     * Reports number of blocks reserved from database
+     *
+     * @return block count
+     */
+    public long getBlockCount() {
+        return blocks.get();
+    }
+
+    /**
+     * Reports number of times when callers waited for block, because prefetch was late or off
+     *
+     * @return wait count
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * Name of sequence table. Default is {@code databazer_sequence}.
+     *
+     * @param table table name, may be qualified by schema
+     * @throws java.lang.IllegalArgumentException when name is not plain identifier
+     */
+    public void setTable(String table) {
+        if(table==null || !table.matches("[A-Za-z_][A-Za-z0-9_$]*(\\.[A-Za-z_][A-Za-z0-9_$]*)?")){
+            throw new IllegalArgumentException("Table should be plain identifier, but got " + table);
+        }
+        this.table = table;
+    }
+
+    /**
+     * Number of IDs reserved at once. Default is 1000.
+     * Bigger blocks mean less database calls and more IDs lost at restart.
+     *
+     * @param blockSize ID count. Should be 1 or more. Takes effect on next reserve.
+     */
+    public void setBlockSize(int blockSize) {
+        if(blockSize < 1){
+            throw new IllegalArgumentException("Block size cannot be less than 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * First ID of sequence which does not exist yet. Default is 1.
+     *
+     * @param initialValue first ID
+     */
+    public void setInitialValue(long initialValue) {
+        this.initialValue = initialValue;
+    }
+
+    /**
+     * Part of block given out when next block is reserved in background. Default is 0.5.
+     *
+     * @param prefetchThreshold part from 0 (at once) to 1 (no prefetch: block is reserved when previous one runs out)
+     */
+    public void setPrefetchThreshold(double prefetchThreshold) {
+        if(prefetchThreshold < 0 || prefetchThreshold > 1){
+            throw new IllegalArgumentException("Prefetch threshold should be from 0 to 1");
+        }
+        this.prefetchThreshold = prefetchThreshold;
+    }
+
+    /**
+     * Reserved IDs from {@code next} (inclusive) till {@code end} (exclusive)
+     */
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        private Block(long start, long end, long prefetchAt){
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package net.virtalab.databazer.batch;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link BulkLoader bulk load}: rows loaded and chunks which failed.
+ * <p>
+ * Each chunk is loaded in its own transaction, so failed chunk leaves no rows, while other chunks stay loaded.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.batch.BulkLoader
+ * @version 0.5
+ * @since 0.5
+ */
+public class BulkLoadResult {
+    private final long rowsLoaded;
+    private final int chunkCount;
+    private final List<ChunkError> errors;
+
+    BulkLoadResult(long rowsLoaded, int chunkCount, List<ChunkError> errors){
+        this.rowsLoaded = rowsLoaded;
+        this.chunkCount = chunkCount;
+        List<ChunkError> sorted = new ArrayList<ChunkError>(errors);
+        Collections.sort(sorted);
+        this.errors = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Reports number of rows committed
+     *
+     * @return row count as reported by database
+     */
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    /**
+     * Reports number of chunks input was split into
+     *
+     * @return chunk count
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Reports failed chunks
+     *
+     * @return errors in chunk order, empty when all chunks are loaded
+     */
+    public List<ChunkError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Tells if all chunks are loaded
+     *
+     * @return true when there are no errors
+     */
+    public boolean isSuccess(){
+        return this.errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadResult{rowsLoaded=" + rowsLoaded + ", chunkCount=" + chunkCount + ", errors=" + errors.size() + "}";
+    }
+
+    /**
+     * Failure of one chunk
+     */
+    public static class ChunkError implements Comparable<ChunkError> {
+        private final int chunk;
+        private final long firstRow;
+        private final int rowCount;
+        private final SQLException cause;
+
+        ChunkError(int chunk, long firstRow, int rowCount, SQLException cause){
+            this.chunk = chunk;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.cause = cause;
+        }
+
+        /**
+         * Reports number of chunk
+         *
+         * @return chunk number, starting from 0
+         */
+        public int getChunk() {
+            return chunk;
+        }
+
+        /**
+         * Reports position of first row of chunk at input
+         *
+         * @return row number, starting from 0
+         */
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        /**
+         * Reports number of rows in chunk, which are not loaded
+         *
+         * @return row count
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Reports error returned by database
+         *
+         * @return cause of failure
+         */
+        public SQLException getCause() {
+            return cause;
+        }
+
+        public int compareTo(ChunkError other) {
+            return this.chunk < other.chunk ? -1 : (this.chunk == other.chunk ? 0 : 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk " + chunk + " (rows " + firstRow + ".." + (firstRow + rowCount - 1) + "): " + cause.getMessage();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package net.virtalab.databazer.batch;
+
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.Vendor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads lots of rows into table with native bulk load of database instead of single or batched inserts.
+ * <ul>
+ *     <li>MySQL - {@code LOAD DATA LOCAL INFILE}, data is streamed to driver from memory, no temporary files</li>
+ *     <li>H2 (embedded: mem or file) - {@code INSERT ... DIRECT SELECT * FROM CSVREAD(...)}
+ *     from in-memory file system of H2</li>
+ * </ul>
+ * Input is either {@link #load(Iterator) iterator of rows} or {@link #load(InputStream) CSV stream}.
+ * It is split into chunks of {@link #setChunkSize(int) chunk size} rows, which are loaded in parallel,
+ * each by its own connection and transaction. Failure of chunk does not stop other chunks,
+ * it is reported in {@link BulkLoadResult#getErrors()}.
+ * At most two chunks per thread are kept in memory, so reading of input waits for slow database.
+ * <p>
+ * CSV format (same for both vendors): UTF-8, fields separated by comma, lines terminated by {@code \n},
+ * strings enclosed in double quotes with quotes inside doubled, unquoted {@code NULL} is NULL, no header line.
+ * Backslash has no special meaning. Rows given as {@code Object[]} are written in this format.
+ * <p>
+ * Note: MySQL turns errors of {@code LOAD DATA LOCAL} into warnings (row is skipped or value is adjusted),
+ * so compare {@link BulkLoadResult#getRowsLoaded()} with input size when it matters.
+ * <pre>
+ *   BulkLoader loader = new BulkLoader(ds, "person", "id", "name", "born");
+ *   BulkLoadResult result = loader.load(rows.iterator());
+ * </pre>
+ * Table and column names are put into SQL as is, so they should not come from untrusted input.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.batch.BulkLoadResult
+ * @version 0.5
+ * @since 0.5
+ */
+public class BulkLoader {
+    private static final Log log = LogFactory.getLog(BulkLoader.class);
+
+    private static final int DEFAULT_CHUNK_SIZE = 10000;
+    private static final int DEFAULT_THREADS = 4;
+    private static final String CHARSET = "UTF-8";
+    private static final String MYSQL_STATEMENT = "com.mysql.jdbc.Statement";
+
+    private final NamedDataSource dataSource;
+    private final Vendor vendor;
+    private final String table;
+    private final String[] columns;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threads = DEFAULT_THREADS;
+
+    /**
+     * Creates loader for table
+     *
+     * @param dataSource MySQL or embedded H2 DataSource
+     * @param table table name
+     * @param columns columns in order of fields at input
+     * @throws java.lang.IllegalArgumentException when argument is NULL, no columns given or DataSource has no bulk load
+     */
+    public BulkLoader(NamedDataSource dataSource, String table, String... columns){
+        if(dataSource==null || table==null){
+            throw new IllegalArgumentException("DataSource and table cannot be NULL");
+        }
+        if(columns==null || columns.length==0){
+            throw new IllegalArgumentException("Columns cannot be empty");
+        }
+        this.vendor = Vendor.of(dataSource);
+        boolean remoteH2 = this.vendor==Vendor.H2 &&
+                (dataSource.getUrl().startsWith("jdbc:h2:tcp:") || dataSource.getUrl().startsWith("jdbc:h2:ssl:"));
+        if(this.vendor==Vendor.OTHER || remoteH2){
+            throw new IllegalArgumentException("Bulk load needs MySQL or embedded H2 DataSource, got " + dataSource.getUrl());
+        }
+        this.dataSource = dataSource;
+        this.table = table;
+        this.columns = columns.clone();
+    }
+
+    /**
+     * Loads rows
+     * <p>
+     * Each chunk is committed on its own, so load is not rolled back as a whole. When iterator or row throws
+     * exception midway, chunks submitted before stay loaded: exception is thrown after they are finished.
+     * Rows read after last submitted chunk are not loaded.
+     *
+     * @param rows rows with values in column order. Numbers, strings, booleans, dates and NULLs are supported.
+     * @return outcome of load
+     * @throws InterruptedException when interrupted while waiting for chunks to load
+     * @throws java.lang.IllegalArgumentException when row has wrong number of values or unsupported value
+     */
+    public BulkLoadResult load(Iterator<Object[]> rows) throws InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        try{
+            StringBuilder chunk = new StringBuilder();
+            int chunkRows = 0;
+            while (rows.hasNext()){
+                this.writeRow(rows.next(), chunk);
+                if(++chunkRows >= this.chunkSize){
+                    pipeline.submit(encode(chunk), chunkRows);
+                    chunk.setLength(0);
+                    chunkRows = 0;
+                }
+            }
+            if(chunkRows > 0){
+                pipeline.submit(encode(chunk), chunkRows);
+            }
+        } finally {
+            pipeline.finish();
+        }
+        return pipeline.result();
+    }
+
+    /**
+     * Loads rows from CSV stream (see format above). Stream is not closed.
+     * <p>
+     * As with {@link #load(java.util.Iterator)}, chunks read before stream fails stay loaded.
+     *
+     * @param csv CSV data
+     * @return outcome of load
+     * @throws IOException when stream cannot be read
+     * @throws InterruptedException when interrupted while waiting for chunks to load
+     */
+    public BulkLoadResult load(InputStream csv) throws IOException, InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        try{
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            boolean quoted = false;
+            int chunkRows = 0;
+            int read;
+            while ((read = csv.read(buffer)) != -1){
+                int from = 0;
+                for(int i=0;i<read;i++){
+                    byte b = buffer[i];
+                    if(b=='"'){
+                        quoted = !quoted;
+                    } else if(b=='\n' && !quoted && ++chunkRows >= this.chunkSize){
+                        chunk.write(buffer, from, i + 1 - from);
+                        from = i + 1;
+                        pipeline.submit(chunk.toByteArray(), chunkRows);
+                        chunk.reset();
+                        chunkRows = 0;
+                    }
+                }
+                chunk.write(buffer, from, read - from);
+            }
+            if(chunk.size() > 0){
+                byte[] data = chunk.toByteArray();
+                if(data[data.length - 1]!='\n'){
+                    chunk.write('\n');
+                    chunkRows++;
+                    data = chunk.toByteArray();
+                }
+                pipeline.submit(data, chunkRows);
+            }
+        } finally {
+            pipeline.finish();
+        }
+        return pipeline.result();
+    }
+
+    private void writeRow(Object[] row, StringBuilder out){
+        if(row==null || row.length!=this.columns.length){
+            throw new IllegalArgumentException("Row should have " + this.columns.length + " values");
+        }
+        for(int i=0;i<row.length;i++){
+            if(i > 0){
+                out.append(',');
+            }
+            writeValue(row[i], out);
+        }
+        out.append('\n');
+    }
+
+    private static void writeValue(Object value, StringBuilder out){
+        if(value==null){
+            out.append("NULL");
+        } else if(value instanceof Number){
+            out.append(value);
+        } else if(value instanceof Boolean){
+            out.append((Boolean) value ? '1' : '0');
+        } else if(value instanceof byte[]){
+            throw new IllegalArgumentException("Binary values are not supported");
+        } else {
+            String string = value instanceof Date && !(value instanceof java.sql.Date || value instanceof java.sql.Time) ?
+                    new Timestamp(((Date) value).getTime()).toString() : value.toString();
+            out.append('"').append(string.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    private static byte[] encode(StringBuilder chunk){
+        try{
+            return chunk.toString().getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e){
+            throw new IllegalStateException(CHARSET + " is not supported", e);
+        }
+    }
+
+    /**
+     * Loads chunk in one transaction
+     *
+     * @return rows loaded
+     */
+    private int loadChunk(byte[] data) throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        try{
+            connection.setAutoCommit(false);
+            int loaded = this.vendor==Vendor.MYSQL ? this.loadMySQL(connection, data) : this.loadH2(connection, data);
+            connection.commit();
+            return loaded;
+        } catch (SQLException e){
+            rollback(connection);
+            throw e;
+        } catch (RuntimeException e){
+            rollback(connection);
+            throw e;
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private static void rollback(Connection connection){
+        try{
+            connection.rollback();
+        } catch (SQLException re){
+            log.debug("Rollback failed", re);
+        }
+    }
+
+    private int loadMySQL(Connection connection, byte[] data) throws SQLException {
+        String sql = "LOAD DATA LOCAL INFILE 'databazer-bulk' INTO TABLE " + this.table +
+                " CHARACTER SET utf8 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''" +
+                " LINES TERMINATED BY '\\n' (" + join(this.columns, ",") + ")";
+        Statement statement = connection.createStatement();
+        try{
+            //Connector/J reads file named at statement from this stream instead of file system
+            Object mysqlStatement = statement;
+            try{
+                Class<?> type = Class.forName(MYSQL_STATEMENT);
+                if(statement.isWrapperFor(type)){
+                    mysqlStatement = statement.unwrap(type);
+                }
+                Method setStream = type.getMethod("setLocalInfileInputStream", InputStream.class);
+                setStream.invoke(mysqlStatement, new ByteArrayInputStream(data));
+            } catch (ClassNotFoundException e){
+                throw new SQLException("MySQL Connector/J is not found", e);
+            } catch (NoSuchMethodException e){
+                throw new SQLException("MySQL Connector/J does not support streams for LOAD DATA", e);
+            } catch (IllegalAccessException e){
+                throw new SQLException("MySQL Connector/J does not support streams for LOAD DATA", e);
+            } catch (InvocationTargetException e){
+                throw new SQLException("Cannot set stream for LOAD DATA", e.getCause());
+            }
+            return statement.executeUpdate(sql);
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    private int loadH2(Connection connection, byte[] data) throws SQLException {
+        String file;
+        try{
+            file = H2MemFiles.write("databazer-bulk-" + UUID.randomUUID() + ".csv", data, data.length);
+        } catch (IOException e){
+            throw new SQLException("Cannot write chunk to memFS", e);
+        }
+        StringBuilder names = new StringBuilder();
+        for(int i=1;i<=this.columns.length;i++){
+            names.append(i > 1 ? "," : "").append('C').append(i);
+        }
+        String sql = "INSERT INTO " + this.table + "(" + join(this.columns, ",") + ") DIRECT SELECT * FROM CSVREAD('" +
+                file + "', '" + names + "', 'charset=UTF-8 nullString=NULL')";
+        Statement statement = connection.createStatement();
+        try{
+            return statement.executeUpdate(sql);
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            H2MemFiles.delete(file);
+        }
+    }
+
+    private static String join(String[] parts, String separator){
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<parts.length;i++){
+            sb.append(i > 0 ? separator : "").append(parts[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Rows per chunk (and per transaction). Default is 10000.
+     *
+     * @param chunkSize chunk size. Should be 1 or more.
+     */
+    public void setChunkSize(int chunkSize) {
+        if(chunkSize < 1){
+            throw new IllegalArgumentException("Chunk size cannot be less than 1");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Number of chunks loaded in parallel (and connections used). Default is 4.
+     *
+     * @param threads thread count. Should be 1 or more.
+     */
+    public void setThreads(int threads) {
+        if(threads < 1){
+            throw new IllegalArgumentException("Thread count cannot be less than 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Loads chunks at pool of threads and collects outcome
+     */
+    private class Pipeline {
+        private final ExecutorService executor;
+        private final Semaphore inFlight;
+        private final AtomicLong rowsLoaded = new AtomicLong();
+        private final List<BulkLoadResult.ChunkError> errors =
+                Collections.synchronizedList(new ArrayList<BulkLoadResult.ChunkError>());
+        private int chunkCount = 0;
+        private long rowsSubmitted = 0;
+
+        private Pipeline(){
+            this.inFlight = new Semaphore(threads * 2);
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "databazer-bulk-" + table + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        private void submit(final byte[] data, final int rows) throws InterruptedException {
+            this.inFlight.acquire();
+            final int chunk = this.chunkCount++;
+            final long firstRow = this.rowsSubmitted;
+            this.rowsSubmitted += rows;
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    try{
+                        rowsLoaded.addAndGet(loadChunk(data));
+                    } catch (SQLException e){
+                        log.warn("Chunk " + chunk + " of " + table + " is not loaded: " + e.getMessage());
+                        errors.add(new BulkLoadResult.ChunkError(chunk, firstRow, rows, e));
+                    } catch (RuntimeException e){
+                        log.error("Chunk " + chunk + " of " + table + " is not loaded", e);
+                        errors.add(new BulkLoadResult.ChunkError(chunk, firstRow, rows,
+                                new SQLException("Load of chunk failed: " + e, e)));
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
+
+        private void finish() throws InterruptedException {
+            this.executor.shutdown();
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        private BulkLoadResult result(){
+            return new BulkLoadResult(this.rowsLoaded.get(), this.chunkCount, this.errors);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.virtalab.databazer.batch;
+
+import org.h2.store.fs.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Access to in-memory file system of H2 ({@code memFS:}), which {@code CSVREAD} can read from.
+ * Kept apart from {@link BulkLoader}, so H2 classes are needed only when H2 is loaded.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+final class H2MemFiles {
+    private static final String PREFIX = "memFS:";
+
+    private H2MemFiles(){}
+
+    /**
+     * Writes bytes to in-memory file
+     *
+     * @return name of file to be used in SQL
+     */
+    static String write(String name, byte[] data, int length) throws IOException {
+        String file = PREFIX + name;
+        OutputStream out = FileUtils.newOutputStream(file, false);
+        try{
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    static void delete(String file){
+        FileUtils.delete(file);
+    }
+}
@@ -0,0 +1,473 @@
+package net.virtalab.databazer.batch;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Prepared statement for hot write paths, which binds primitives by typed setters instead of {@code setObject}
+ * with boxed values.
+ * <p>
+ * Values are kept at reusable per-parameter buffers (one {@code long} slot for integral, boolean and double values,
+ * one reference slot for objects) and go to JDBC statement on {@link #addBatch()}. Parameters keep their values
+ * between rows, like at {@link PreparedStatement}, and parameter which did not change since previous row is not bound
+ * again, so constant columns cost nothing. Objects of mutable types (dates, arrays etc.) are bound each time they are set,
+ * as caller may have changed same instance between rows. Primitive {@code addBatch} overloads set leading parameters and add row
+ * in one call. Steady-state insert loop allocates nothing at this class; what driver allocates per value is up to driver.
+ * <p>
+ * Statement takes its own connection (auto-commit off) on first use. Rows are sent to database every
+ * {@link #setBatchSize(int) batch size} rows and committed by {@link #commit()}. Statement is not thread-safe:
+ * keep one per thread.
+ * <pre>
+ *   TypedStatement insert = new TypedStatement(ds, "INSERT INTO tick(instrument, time, price) VALUES(?, ?, ?)");
+ *   try{
+ *       for(Tick tick: ticks){
+ *           insert.addBatch(tick.instrument, tick.time, tick.price);
+ *       }
+ *       insert.commit();
+ *   } finally {
+ *       insert.close();
+ *   }
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.batch.BatchingWriter
+ * @version 0.5
+ * @since 0.5
+ */
+public class TypedStatement {
+    private static final Log log = LogFactory.getLog(TypedStatement.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    //kinds of parameter values
+    private static final byte UNSET = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte OBJECT = 5;
+    private static final byte NULL = 6;
+
+    private final NamedDataSource dataSource;
+    private final String sql;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private Connection connection;
+    private PreparedStatement statement;
+
+    //parameter buffers, index 0 is parameter 1
+    private byte[] kinds;
+    private long[] values;
+    private Object[] objects;
+    private boolean[] changed;
+
+    private int pendingRows = 0;
+    private long rowsAdded = 0;
+    private long batchCount = 0;
+
+    /**
+     * Creates statement. Connection is taken on first use.
+     *
+     * @param dataSource DataSource to write to
+     * @param sql SQL statement with {@code ?} placeholders
+     * @throws java.lang.IllegalArgumentException when DataSource or SQL is NULL
+     */
+    public TypedStatement(NamedDataSource dataSource, String sql){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        if(sql==null){
+            throw new IllegalArgumentException("SQL cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.sql = sql;
+    }
+
+    /**
+     * Takes connection, prepares statement and sizes buffers by its parameter count
+     */
+    private void open() throws SQLException {
+        if(this.statement!=null){
+            return;
+        }
+        Connection connection = this.dataSource.getConnection();
+        try{
+            connection.setAutoCommit(false);
+            this.statement = connection.prepareStatement(this.sql);
+        } catch (SQLException e){
+            JdbcUtils.closeConnection(connection);
+            throw e;
+        }
+        this.connection = connection;
+        int count = this.statement.getParameterMetaData().getParameterCount();
+        this.kinds = new byte[count];
+        this.values = new long[count];
+        this.objects = new Object[count];
+        this.changed = new boolean[count];
+    }
+
+    private int slot(int index) throws SQLException {
+        this.open();
+        if(index < 1 || index > this.kinds.length){
+            throw new IllegalArgumentException("Parameter index " + index + " is out of 1.." + this.kinds.length);
+        }
+        return index - 1;
+    }
+
+    private void put(int slot, byte kind, long value){
+        if(this.kinds[slot]!=kind || this.values[slot]!=value || this.objects[slot]!=null){
+            this.kinds[slot] = kind;
+            this.values[slot] = value;
+            this.objects[slot] = null;
+            this.changed[slot] = true;
+        }
+    }
+
+    /**
+     * Sets parameter to {@code int} value
+     *
+     * @param index parameter index, from 1
+     * @param value value
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setInt(int index, int value) throws SQLException {
+        this.put(this.slot(index), INT, value);
+        return this;
+    }
+
+    /**
+     * Sets parameter to {@code long} value
+     *
+     * @param index parameter index, from 1
+     * @param value value
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setLong(int index, long value) throws SQLException {
+        this.put(this.slot(index), LONG, value);
+        return this;
+    }
+
+    /**
+     * Sets parameter to {@code double} value
+     *
+     * @param index parameter index, from 1
+     * @param value value
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setDouble(int index, double value) throws SQLException {
+        this.put(this.slot(index), DOUBLE, Double.doubleToRawLongBits(value));
+        return this;
+    }
+
+    /**
+     * Sets parameter to {@code boolean} value
+     *
+     * @param index parameter index, from 1
+     * @param value value
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setBoolean(int index, boolean value) throws SQLException {
+        this.put(this.slot(index), BOOLEAN, value ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * Sets parameter to NULL
+     *
+     * @param index parameter index, from 1
+     * @param sqlType one of {@link java.sql.Types}
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setNull(int index, int sqlType) throws SQLException {
+        this.put(this.slot(index), NULL, sqlType);
+        return this;
+    }
+
+    /**
+     * Sets parameter to object ({@code String}, {@code BigDecimal}, date etc.), bound by {@link PreparedStatement#setObject(int, Object)}.
+     * Same instance of immutable type ({@code String}, {@code BigDecimal}, primitive wrappers) as at previous row
+     * is not bound again; other objects, like {@code Timestamp} or {@code byte[]}, are bound every time they are set.
+     *
+     * @param index parameter index, from 1
+     * @param value value, NULL is allowed
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setObject(int index, Object value) throws SQLException {
+        int slot = this.slot(index);
+        if(this.kinds[slot]!=OBJECT || this.objects[slot]!=value || !isImmutable(value)){
+            this.kinds[slot] = OBJECT;
+            this.objects[slot] = value;
+            this.changed[slot] = true;
+        }
+        return this;
+    }
+
+    private static boolean isImmutable(Object value){
+        return value==null || value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Boolean || value instanceof BigDecimal
+                || value instanceof BigInteger || value instanceof Short || value instanceof Byte
+                || value instanceof Float || value instanceof Character;
+    }
+
+    /**
+     * Sets parameter to string. Same as {@link #setObject(int, Object)}.
+     *
+     * @param index parameter index, from 1
+     * @param value value, NULL is allowed
+     * @return this statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    public TypedStatement setString(int index, String value) throws SQLException {
+        return this.setObject(index, value);
+    }
+
+    /**
+     * Binds changed parameters to JDBC statement
+     */
+    private void bind() throws SQLException {
+        this.open();
+        for(int i=0;i<this.kinds.length;i++){
+            if(!this.changed[i]){
+                if(this.kinds[i]==UNSET){
+                    throw new IllegalStateException("Parameter " + (i + 1) + " is not set");
+                }
+                continue;
+            }
+            switch (this.kinds[i]){
+                case INT:
+                    this.statement.setInt(i + 1, (int) this.values[i]);
+                    break;
+                case LONG:
+                    this.statement.setLong(i + 1, this.values[i]);
+                    break;
+                case DOUBLE:
+                    this.statement.setDouble(i + 1, Double.longBitsToDouble(this.values[i]));
+                    break;
+                case BOOLEAN:
+                    this.statement.setBoolean(i + 1, this.values[i]!=0);
+                    break;
+                case NULL:
+                    this.statement.setNull(i + 1, (int) this.values[i]);
+                    break;
+                default:
+                    this.statement.setObject(i + 1, this.objects[i]);
+                    break;
+            }
+            this.changed[i] = false;
+        }
+    }
+
+    /**
+     * Adds row with current parameter values. Sends batch to database when batch size is reached.
+     *
+     * @throws SQLException when batch fails
+     * @throws java.lang.IllegalStateException when some parameter was never set
+     */
+    public void addBatch() throws SQLException {
+        this.bind();
+        this.statement.addBatch();
+        this.pendingRows++;
+        this.rowsAdded++;
+        if(this.pendingRows >= this.batchSize){
+            this.executeBatch();
+        }
+    }
+
+    /**
+     * Sets parameter 1 and adds row
+     *
+     * @param p1 parameter 1
+     * @throws SQLException when batch fails
+     */
+    public void addBatch(long p1) throws SQLException {
+        this.setLong(1, p1);
+        this.addBatch();
+    }
+
+    /**
+     * Sets parameters 1-2 and adds row
+     *
+     * @param p1 parameter 1
+     * @param p2 parameter 2
+     * @throws SQLException when batch fails
+     */
+    public void addBatch(long p1, long p2) throws SQLException {
+        this.setLong(1, p1).setLong(2, p2);
+        this.addBatch();
+    }
+
+    /**
+     * Sets parameters 1-2 and adds row
+     *
+     * @param p1 parameter 1
+     * @param p2 parameter 2
+     * @throws SQLException when batch fails
+     */
+    public void addBatch(long p1, double p2) throws SQLException {
+        this.setLong(1, p1).setDouble(2, p2);
+        this.addBatch();
+    }
+
+    /**
+     * Sets parameters 1-3 and adds row
+     *
+     * @param p1 parameter 1
+     * @param p2 parameter 2
+     * @param p3 parameter 3
+     * @throws SQLException when batch fails
+     */
+    public void addBatch(long p1, long p2, long p3) throws SQLException {
+        this.setLong(1, p1).setLong(2, p2).setLong(3, p3);
+        this.addBatch();
+    }
+
+    /**
+     * Sets parameters 1-3 and adds row
+     *
+     * @param p1 parameter 1
+     * @param p2 parameter 2
+     * @param p3 parameter 3
+     * @throws SQLException when batch fails
+     */
+    public void addBatch(long p1, long p2, double p3) throws SQLException {
+        this.setLong(1, p1).setLong(2, p2).setDouble(3, p3);
+        this.addBatch();
+    }
+
+    /**
+     * Sets parameters 1-4 and adds row
+     *
+     * @param p1 parameter 1
+     * @param p2 parameter 2
+     * @param p3 parameter 3
+     * @param p4 parameter 4
+     * @throws SQLException when batch fails
+     */
+    public void addBatch(long p1, long p2, long p3, double p4) throws SQLException {
+        this.setLong(1, p1).setLong(2, p2).setLong(3, p3).setDouble(4, p4);
+        this.addBatch();
+    }
+
+    /**
+     * Sends rows added since last send to database. Does not commit.
+     *
+     * @return number of rows sent
+     * @throws SQLException when batch fails. Transaction should be rolled back then.
+     */
+    public int executeBatch() throws SQLException {
+        if(this.pendingRows==0){
+            return 0;
+        }
+        int rows = this.pendingRows;
+        this.pendingRows = 0;
+        this.statement.executeBatch();
+        this.batchCount++;
+        return rows;
+    }
+
+    /**
+     * Executes statement once with current parameter values, outside of batch
+     *
+     * @return update count
+     * @throws SQLException when statement fails
+     * @throws java.lang.IllegalStateException when rows are added to batch and not sent yet
+     */
+    public int executeUpdate() throws SQLException {
+        if(this.pendingRows > 0){
+            throw new IllegalStateException("Batch of " + this.pendingRows + " rows is not sent");
+        }
+        this.bind();
+        return this.statement.executeUpdate();
+    }
+
+    /**
+     * Sends pending rows and commits transaction
+     *
+     * @throws SQLException when batch or commit fails
+     */
+    public void commit() throws SQLException {
+        if(this.connection==null){
+            return;
+        }
+        this.executeBatch();
+        this.connection.commit();
+    }
+
+    /**
+     * Drops pending rows and rolls transaction back
+     *
+     * @throws SQLException when rollback fails
+     */
+    public void rollback() throws SQLException {
+        if(this.connection==null){
+            return;
+        }
+        this.pendingRows = 0;
+        this.statement.clearBatch();
+        this.connection.rollback();
+    }
+
+    /**
+     * Closes statement and returns connection. Uncommitted rows are rolled back.
+     */
+    public void close(){
+        if(this.connection==null){
+            return;
+        }
+        try{
+            this.connection.rollback();
+        } catch (SQLException e){
+            log.debug("Rollback failed", e);
+        }
+        JdbcUtils.closeStatement(this.statement);
+        JdbcUtils.closeConnection(this.connection);
+        this.statement = null;
+        this.connection = null;
+        this.pendingRows = 0;
+    }
+
+    /**
+     * Reports number of rows added to batches
+     *
+     * @return row count
+     */
+    public long getRowsAdded() {
+        return rowsAdded;
+    }
+
+    /**
+     * Reports number of batches sent to database
+     *
+     * @return batch count
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Rows per batch sent to database. Default is 1000.
+     *
+     * @param batchSize batch size. Should be 1 or more.
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Batch size cannot be less than 1");
+        }
+        this.batchSize = batchSize;
+    }
+}
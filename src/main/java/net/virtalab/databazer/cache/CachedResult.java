@@ -0,0 +1,411 @@
+package net.virtalab.databazer.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of query, read into memory: rows as arrays of {@link ResultSet#getObject(int)} values and snapshot of metadata.
+ * <p>
+ * Result is immutable after it is read and can be replayed to any number of callers at once
+ * by {@link #open(Statement)}. LOBs are read into {@code String} and {@code byte[]}.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+final class CachedResult {
+    //rough sizes of objects at 64-bit JVM with compressed references
+    private static final int OBJECT_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    private final Column[] columns;
+    private final List<Object[]> rows;
+    private final Set<String> tables;
+    private final long bytes;
+    private final long created;
+
+    private CachedResult(Column[] columns, List<Object[]> rows, Set<String> tables, long bytes){
+        this.columns = columns;
+        this.rows = rows;
+        this.tables = tables;
+        this.bytes = bytes;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads result set into memory, up to limit
+     *
+     * @param rs result set positioned before first row. It is not closed here.
+     * @param tables tables result is read from
+     * @param maxRows how many rows to read at most
+     * @return result. It is complete when {@link #size()} is less than {@code maxRows + 1}.
+     * @throws SQLException when result set cannot be read
+     */
+    static CachedResult read(ResultSet rs, Set<String> tables, int maxRows) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        Column[] columns = new Column[meta.getColumnCount()];
+        long bytes = OBJECT_HEADER * 4;
+        for(int i=0;i<columns.length;i++){
+            columns[i] = new Column(meta, i + 1);
+            bytes += OBJECT_HEADER * 2 + 2 * (columns[i].label.length() + columns[i].name.length());
+        }
+        List<Object[]> rows = new ArrayList<Object[]>();
+        while (rows.size() <= maxRows && rs.next()){
+            Object[] row = new Object[columns.length];
+            bytes += OBJECT_HEADER + REFERENCE * (columns.length + 1);
+            for(int i=0;i<row.length;i++){
+                row[i] = value(rs.getObject(i + 1));
+                bytes += sizeOf(row[i]);
+            }
+            rows.add(row);
+        }
+        return new CachedResult(columns, rows, tables, bytes);
+    }
+
+    private static Object value(Object value) throws SQLException {
+        if(value instanceof Clob){
+            Clob clob = (Clob) value;
+            return clob.getSubString(1, (int) clob.length());
+        }
+        if(value instanceof Blob){
+            Blob blob = (Blob) value;
+            return blob.getBytes(1, (int) blob.length());
+        }
+        return value;
+    }
+
+    /**
+     * Estimates heap size of value
+     */
+    static long sizeOf(Object value){
+        if(value==null){
+            return 0;
+        }
+        if(value instanceof String){
+            return OBJECT_HEADER * 3 + 2L * ((String) value).length();
+        }
+        if(value instanceof byte[]){
+            return OBJECT_HEADER + ((byte[]) value).length;
+        }
+        if(value instanceof Long || value instanceof Double){
+            return OBJECT_HEADER + 8;
+        }
+        if(value instanceof BigDecimal){
+            return OBJECT_HEADER * 4 + ((BigDecimal) value).unscaledValue().bitLength() / 8;
+        }
+        if(value instanceof java.util.Date){
+            return OBJECT_HEADER * 2;
+        }
+        return OBJECT_HEADER;
+    }
+
+    /**
+     * Gives out result set over rows of this result
+     *
+     * @param statement statement result set reports as its owner
+     * @return result set proxy
+     */
+    ResultSet open(Statement statement){
+        return open(statement, null);
+    }
+
+    /**
+     * Gives out result set over rows of this result, continued by rows of live result set
+     *
+     * @param statement statement result set reports as its owner
+     * @param rest result set rows of this result were read from, or NULL
+     * @return result set proxy
+     */
+    ResultSet open(Statement statement, ResultSet rest){
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                new Cursor(statement, rest));
+    }
+
+    int size(){
+        return this.rows.size();
+    }
+
+    Set<String> getTables() {
+        return tables;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getCreated() {
+        return created;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getTargetException();
+        }
+    }
+
+    private static Object wrapper(Object proxy, String methodName, Class<?> iface) throws SQLException {
+        if(methodName.equals("isWrapperFor")){
+            return iface.isInstance(proxy);
+        }
+        if(iface.isInstance(proxy)){
+            return proxy;
+        }
+        throw new SQLException("Cached result is not a wrapper for " + iface.getName());
+    }
+
+    /**
+     * Metadata of one column
+     */
+    private static class Column {
+        private final String label;
+        private final String name;
+        private final int type;
+        private final String typeName;
+        private final String className;
+        private final int precision;
+        private final int scale;
+        private final int nullable;
+        private final boolean signed;
+        private final int displaySize;
+        private final String table;
+        private final String schema;
+        private final String catalog;
+
+        private Column(ResultSetMetaData meta, int column) throws SQLException {
+            this.label = meta.getColumnLabel(column);
+            this.name = meta.getColumnName(column);
+            this.type = meta.getColumnType(column);
+            this.typeName = meta.getColumnTypeName(column);
+            this.className = meta.getColumnClassName(column);
+            this.precision = meta.getPrecision(column);
+            this.scale = meta.getScale(column);
+            this.nullable = meta.isNullable(column);
+            this.signed = meta.isSigned(column);
+            this.displaySize = meta.getColumnDisplaySize(column);
+            this.table = meta.getTableName(column);
+            this.schema = meta.getSchemaName(column);
+            this.catalog = meta.getCatalogName(column);
+        }
+    }
+
+    /**
+     * Snapshot of metadata, as {@link ResultSetMetaData}
+     */
+    private class MetaData implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if(methodName.equals("getColumnCount")){
+                return columns.length;
+            } else if(methodName.equals("unwrap") || methodName.equals("isWrapperFor")){
+                return wrapper(proxy, methodName, (Class<?>) args[0]);
+            } else if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return "Cached result metadata";
+            }
+            int index = (Integer) args[0];
+            if(index < 1 || index > columns.length){
+                throw new SQLException("Column index " + index + " is out of 1.." + columns.length);
+            }
+            Column column = columns[index - 1];
+            if(methodName.equals("getColumnLabel")){
+                return column.label;
+            } else if(methodName.equals("getColumnName")){
+                return column.name;
+            } else if(methodName.equals("getColumnType")){
+                return column.type;
+            } else if(methodName.equals("getColumnTypeName")){
+                return column.typeName;
+            } else if(methodName.equals("getColumnClassName")){
+                return column.className;
+            } else if(methodName.equals("getPrecision")){
+                return column.precision;
+            } else if(methodName.equals("getScale")){
+                return column.scale;
+            } else if(methodName.equals("isNullable")){
+                return column.nullable;
+            } else if(methodName.equals("isSigned")){
+                return column.signed;
+            } else if(methodName.equals("getColumnDisplaySize")){
+                return column.displaySize;
+            } else if(methodName.equals("getTableName")){
+                return column.table;
+            } else if(methodName.equals("getSchemaName")){
+                return column.schema;
+            } else if(methodName.equals("getCatalogName")){
+                return column.catalog;
+            } else if(methodName.equals("isReadOnly")){
+                return true;
+            } else if(methodName.equals("isWritable") || methodName.equals("isDefinitelyWritable") ||
+                    methodName.equals("isAutoIncrement") || methodName.equals("isCurrency")){
+                return false;
+            } else if(methodName.equals("isCaseSensitive") || methodName.equals("isSearchable")){
+                return true;
+            }
+            throw new SQLFeatureNotSupportedException("ResultSetMetaData." + methodName + " is not supported by cached result");
+        }
+    }
+
+    /**
+     * Forward-only, read-only result set over rows. When rows end and there is live result set, it takes over.
+     */
+    private class Cursor implements InvocationHandler {
+        private final Statement statement;
+        private ResultSet rest;
+        private boolean onRest = false;
+        private int row = -1;
+        private boolean wasNull = false;
+        private boolean closed = false;
+        private ResultSetMetaData metaData;
+
+        private Cursor(Statement statement, ResultSet rest){
+            this.statement = statement;
+            this.rest = rest;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            Class<?>[] types = method.getParameterTypes();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return "Cached result set of " + rows.size() + " rows" + (this.rest==null ? "" : " and more");
+            } else if(methodName.equals("close")){
+                this.close();
+                return null;
+            } else if(methodName.equals("isClosed")){
+                return this.closed;
+            } else if(methodName.equals("getStatement")){
+                return this.statement;
+            } else if(methodName.equals("getMetaData")){
+                if(this.metaData==null){
+                    this.metaData = (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(),
+                            new Class<?>[]{ResultSetMetaData.class}, new MetaData());
+                }
+                return this.metaData;
+            } else if(methodName.equals("unwrap") || methodName.equals("isWrapperFor")){
+                return wrapper(proxy, methodName, (Class<?>) args[0]);
+            }
+
+            if(this.closed){
+                throw new SQLException("Result set is closed");
+            }
+            if(methodName.equals("next")){
+                return this.next();
+            }
+            if(this.onRest){
+                return call(this.rest, method, args);
+            }
+
+            if(methodName.equals("wasNull")){
+                return this.wasNull;
+            } else if(methodName.equals("findColumn")){
+                return this.findColumn((String) args[0]);
+            } else if(methodName.equals("getRow")){
+                return this.row < rows.size() ? this.row + 1 : 0;
+            } else if(methodName.equals("isBeforeFirst")){
+                return this.row < 0 && !rows.isEmpty();
+            } else if(methodName.equals("isAfterLast")){
+                return this.row >= rows.size() && !rows.isEmpty();
+            } else if(methodName.equals("isFirst")){
+                return this.row==0;
+            } else if(methodName.equals("isLast")){
+                return this.rest==null && this.row==rows.size() - 1;
+            } else if(methodName.equals("getType")){
+                return ResultSet.TYPE_FORWARD_ONLY;
+            } else if(methodName.equals("getConcurrency")){
+                return ResultSet.CONCUR_READ_ONLY;
+            } else if(methodName.equals("getHoldability")){
+                return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+            } else if(methodName.equals("getFetchDirection")){
+                return ResultSet.FETCH_FORWARD;
+            } else if(methodName.equals("getFetchSize")){
+                return 0;
+            } else if(methodName.equals("setFetchSize") || methodName.equals("setFetchDirection") ||
+                    methodName.equals("clearWarnings")){
+                return null;
+            } else if(methodName.equals("getWarnings")){
+                return null;
+            } else if(methodName.startsWith("get") && types.length >= 1 &&
+                    (types[0]==int.class || types[0]==String.class)){
+                int column = types[0]==int.class ? (Integer) args[0] : this.findColumn((String) args[0]);
+                Object value = this.value(column);
+                this.wasNull = value==null;
+                return Values.convert(value, methodName, types, args);
+            }
+            throw new SQLFeatureNotSupportedException("ResultSet." + methodName + " is not supported by cached result");
+        }
+
+        private boolean next() throws SQLException {
+            if(this.onRest){
+                return this.rest.next();
+            }
+            if(this.row < rows.size()){
+                this.row++;
+            }
+            if(this.row < rows.size()){
+                return true;
+            }
+            if(this.rest!=null){
+                this.onRest = true;
+                return this.rest.next();
+            }
+            return false;
+        }
+
+        private Object value(int column) throws SQLException {
+            if(this.row < 0 || this.row >= rows.size()){
+                throw new SQLException("Result set is not positioned on row");
+            }
+            if(column < 1 || column > columns.length){
+                throw new SQLException("Column index " + column + " is out of 1.." + columns.length);
+            }
+            return rows.get(this.row)[column - 1];
+        }
+
+        private int findColumn(String label) throws SQLException {
+            for(int i=0;i<columns.length;i++){
+                if(columns[i].label.equalsIgnoreCase(label)){
+                    return i + 1;
+                }
+            }
+            for(int i=0;i<columns.length;i++){
+                if(columns[i].name.equalsIgnoreCase(label)){
+                    return i + 1;
+                }
+            }
+            throw new SQLException("Column " + label + " not found");
+        }
+
+        private void close() throws SQLException {
+            if(this.closed){
+                return;
+            }
+            this.closed = true;
+            if(this.rest!=null){
+                this.rest.close();
+                this.rest = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package net.virtalab.databazer.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Connection of DataSource with {@link QueryCache}: answers cacheable reads from cache and reports writes to it.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+class CachingConnection implements InvocationHandler {
+    //marker of NULL parameter, so key differs from parameter which was not set
+    private static final Object NULL = new Object();
+
+    private final QueryCache cache;
+    private final Connection target;
+
+    //tables written in current transaction
+    private final Set<String> written = new HashSet<String>();
+    private boolean writtenUnknown = false;
+
+    CachingConnection(QueryCache cache, Connection target){
+        this.cache = cache;
+        this.target = target;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+
+        if(methodName.equals("equals")){
+            return proxy == args[0];
+        } else if(methodName.equals("hashCode")){
+            return System.identityHashCode(proxy);
+        } else if(methodName.equals("toString")){
+            return "Caching connection to " + this.target;
+        }
+
+        Object result = call(this.target, method, args);
+        if(methodName.equals("prepareStatement")){
+            return statement(PreparedStatement.class, (Statement) result, proxy, (String) args[0]);
+        } else if(methodName.equals("createStatement")){
+            return statement(Statement.class, (Statement) result, proxy, null);
+        } else if(methodName.equals("prepareCall")){
+            //procedure may write anything
+            return statement(CallableStatement.class, (Statement) result, proxy, null);
+        } else if(methodName.equals("commit") || methodName.equals("rollback") && (args==null || args.length==0) ||
+                methodName.equals("close") || methodName.equals("setAutoCommit") && (Boolean) args[0]){
+            this.endTransaction();
+        }
+        return result;
+    }
+
+    private Object statement(Class<? extends Statement> type, Statement statement, Object connection, String sql){
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                new CachingStatement(statement, (Connection) connection, sql, type==CallableStatement.class));
+    }
+
+    /**
+     * Invalidates again what was written in transaction: others may have cached old rows while it was open
+     */
+    private void endTransaction(){
+        if(this.writtenUnknown){
+            this.cache.invalidateAll();
+        } else if(!this.written.isEmpty()){
+            this.cache.invalidate(this.written);
+        }
+        this.written.clear();
+        this.writtenUnknown = false;
+    }
+
+    private void wrote(SqlTables sql) throws SQLException {
+        if(sql.isRead()){
+            return;
+        }
+        boolean inTransaction = !this.target.getAutoCommit();
+        if(sql.isUnknownWrite()){
+            this.cache.invalidateAll();
+            this.writtenUnknown |= inTransaction;
+        } else if(!sql.getTables().isEmpty()){
+            this.cache.invalidate(sql.getTables());
+            if(inTransaction){
+                this.written.addAll(sql.getTables());
+            }
+        }
+    }
+
+    /**
+     * Tells if transaction of this connection changed tables of read, so read should see database
+     */
+    private boolean dirty(SqlTables sql){
+        if(this.writtenUnknown){
+            return true;
+        }
+        for(String table: sql.getTables()){
+            if(this.written.contains(table)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Statement, prepared statement or call of caching connection
+     */
+    private class CachingStatement implements InvocationHandler {
+        private final Statement target;
+        private final Connection connection;
+        private final SqlTables sql;
+        private final String sqlText;
+        private final boolean call;
+
+        private final List<Object> params = new ArrayList<Object>();
+        private boolean cacheableParams = true;
+        private List<SqlTables> batch;
+
+        private CachingStatement(Statement target, Connection connection, String sql, boolean call){
+            this.target = target;
+            this.connection = connection;
+            this.sqlText = sql;
+            this.sql = sql==null ? null : SqlTables.of(sql);
+            this.call = call;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            Class<?>[] types = method.getParameterTypes();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.target.toString();
+            } else if(methodName.equals("getConnection")){
+                return this.connection;
+            } else if(methodName.equals("executeQuery")){
+                if(args==null || args.length==0){
+                    return this.query((Statement) proxy, this.sqlText, this.sql, this.params(), method, args);
+                }
+                String sql = (String) args[0];
+                return this.query((Statement) proxy, sql, SqlTables.of(sql), new Object[0], method, args);
+            } else if(methodName.startsWith("execute")){
+                Object result = call(this.target, method, args);
+                this.executed(args==null || args.length==0 || !(args[0] instanceof String) ?
+                        this.sql : SqlTables.of((String) args[0]), methodName.equals("executeBatch"));
+                return result;
+            } else if(methodName.equals("addBatch") && args!=null && args.length==1 && args[0] instanceof String){
+                if(this.batch==null){
+                    this.batch = new ArrayList<SqlTables>();
+                }
+                this.batch.add(SqlTables.of((String) args[0]));
+            } else if(methodName.equals("clearBatch")){
+                this.batch = null;
+            } else if(methodName.equals("clearParameters")){
+                this.params.clear();
+                this.cacheableParams = true;
+            } else if(methodName.startsWith("set") && types.length >= 2 && types[0]==int.class &&
+                    this.target instanceof PreparedStatement){
+                this.parameter((Integer) args[0], methodName.equals("setNull") || args[1]==null ? NULL : args[1]);
+            }
+            return call(this.target, method, args);
+        }
+
+        private void parameter(int index, Object value){
+            while (this.params.size() < index){
+                this.params.add(null);
+            }
+            this.params.set(index - 1, value);
+            if(value!=NULL && !QueryCache.Key.isKeyValue(value)){
+                this.cacheableParams = false;
+            }
+        }
+
+        private Object[] params(){
+            return this.cacheableParams ? this.params.toArray() : null;
+        }
+
+        private ResultSet query(Statement proxy, String sqlText, SqlTables sql, Object[] params, Method method, Object[] args)
+                throws Throwable {
+            //streaming result (MySQL) should stay streaming
+            boolean cacheable = !this.call && sql!=null && sql.isCacheable() && params!=null &&
+                    this.target.getFetchSize()!=Integer.MIN_VALUE && this.target.getMaxRows()==0 && !dirty(sql);
+            if(!cacheable){
+                return (ResultSet) call(this.target, method, args);
+            }
+            QueryCache.Key key = new QueryCache.Key(sqlText, params);
+            CachedResult cached = cache.get(key);
+            if(cached!=null){
+                return cached.open(proxy);
+            }
+            long generation = cache.generation();
+            ResultSet rs = (ResultSet) call(this.target, method, args);
+            CachedResult result;
+            try{
+                result = CachedResult.read(rs, sql.getTables(), cache.getMaxRows());
+            } catch (SQLException e){
+                rs.close();
+                throw e;
+            }
+            if(result.size() > cache.getMaxRows()){
+                //too big: rest of rows comes from database
+                return result.open(proxy, rs);
+            }
+            rs.close();
+            //snapshot of transaction may predate commits which already invalidated cache
+            if(CachingConnection.this.target.getAutoCommit()){
+                cache.put(key, result, generation);
+            }
+            return result.open(proxy);
+        }
+
+        private void executed(SqlTables sql, boolean batch) throws SQLException {
+            if(this.call){
+                wrote(SqlTables.of(null));
+                return;
+            }
+            if(sql!=null){
+                wrote(sql);
+            }
+            if(batch && this.batch!=null){
+                for(SqlTables batched: this.batch){
+                    wrote(batched);
+                }
+                this.batch = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package net.virtalab.databazer.cache;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs read queries so that concurrent identical queries (same SQL, same parameters) share one execution.
+ * <p>
+ * First caller of query executes it and reads result into memory; callers which come with same query while it runs
+ * wait and get same rows, each mapped by its own {@link RowMapper}. When query is done, next call runs it again:
+ * this is not a cache, only concurrent calls are merged. So when popular key of cache expires and many threads
+ * miss at once, database gets one query instead of hundreds. With {@link QueryCache} on DataSource
+ * that one query also refills cache.
+ * <p>
+ * Coalescing is opt-in per query: use this class for queries where it is safe to share result
+ * (reads outside of transaction), and plain JDBC or {@link org.springframework.jdbc.core.JdbcTemplate} for others.
+ * Queries with parameters without value-based {@code equals()} (like {@code byte[]}) are not coalesced.
+ * <pre>
+ *   CoalescingQuery coalescing = new CoalescingQuery(ds);
+ *
+ *   //from many threads at once
+ *   List&lt;Rate&gt; rates = coalescing.query("SELECT * FROM rate WHERE currency = ?", RATE_MAPPER, "EUR");
+ * </pre>
+ * If shared execution fails, all its callers get {@link SQLException}.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.cache.QueryCache
+ * @version 0.5
+ * @since 0.5
+ */
+public class CoalescingQuery {
+    private final NamedDataSource dataSource;
+    private final ConcurrentMap<QueryCache.Key, Flight> flights = new ConcurrentHashMap<QueryCache.Key, Flight>();
+
+    //metrics
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Creates coalescing query runner for DataSource
+     *
+     * @param dataSource DataSource to query
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public CoalescingQuery(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Runs query or joins identical one which is running now, and maps its rows
+     *
+     * @param sql query with {@code ?} placeholders
+     * @param rowMapper maps current row to object
+     * @param params query parameters in placeholder order
+     * @param <T> type of row object
+     * @return mapped rows
+     * @throws SQLException when query fails or waiting for it is interrupted
+     */
+    public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... params) throws SQLException {
+        if(sql==null){
+            throw new IllegalArgumentException("SQL cannot be NULL");
+        }
+        if(rowMapper==null){
+            throw new IllegalArgumentException("RowMapper cannot be NULL");
+        }
+        CachedResult result = this.result(sql, params);
+        ResultSet rs = result.open(null);
+        List<T> rows = new ArrayList<T>(result.size());
+        int rowNum = 0;
+        while (rs.next()){
+            rows.add(rowMapper.mapRow(rs, rowNum++));
+        }
+        return rows;
+    }
+
+    private CachedResult result(String sql, Object[] params) throws SQLException {
+        for(Object param: params){
+            if(!QueryCache.Key.isKeyValue(param)){
+                return this.execute(sql, params);
+            }
+        }
+        QueryCache.Key key = new QueryCache.Key(sql, params.clone());
+        Flight flight = new Flight();
+        Flight running = this.flights.putIfAbsent(key, flight);
+        if(running!=null){
+            this.coalesced.incrementAndGet();
+            return running.await();
+        }
+        try{
+            flight.result = this.execute(sql, params);
+        } catch (SQLException e){
+            flight.failure = e;
+            throw e;
+        } catch (RuntimeException e){
+            flight.failure = e;
+            throw e;
+        } catch (Error e){
+            flight.failure = e;
+            throw e;
+        } finally {
+            //calls from now on run query again
+            this.flights.remove(key, flight);
+            flight.done.countDown();
+        }
+        return flight.result;
+    }
+
+    private CachedResult execute(String sql, Object[] params) throws SQLException {
+        this.executions.incrementAndGet();
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try{
+            statement = connection.prepareStatement(sql);
+            for(int i=0;i<params.length;i++){
+                statement.setObject(i + 1, params[i]);
+            }
+            rs = statement.executeQuery();
+            return CachedResult.read(rs, SqlTables.of(sql).getTables(), Integer.MAX_VALUE - 1);
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Reports number of queries sent to database
+     *
+     * @return execution count
+     */
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    /**
+     * Reports number of calls which joined running query instead of sending their own
+     *
+     * @return call count
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Reports number of queries running now
+     *
+     * @return query count
+     */
+    public int getInFlightCount(){
+        return this.flights.size();
+    }
+
+    /**
+     * Query which is running, with its outcome when done
+     */
+    private static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile CachedResult result;
+        private volatile Throwable failure;
+
+        private CachedResult await() throws SQLException {
+            try{
+                this.done.await();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for coalesced query", e);
+            }
+            if(this.failure instanceof SQLException){
+                SQLException cause = (SQLException) this.failure;
+                throw new SQLException("Coalesced query failed: " + cause.getMessage(), cause.getSQLState(),
+                        cause.getErrorCode(), cause);
+            }
+            if(this.failure!=null){
+                throw new SQLException("Coalesced query failed: " + this.failure, this.failure);
+            }
+            return this.result;
+        }
+    }
+}
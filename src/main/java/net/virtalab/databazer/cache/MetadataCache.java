@@ -0,0 +1,202 @@
+package net.virtalab.databazer.cache;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of {@link java.sql.DatabaseMetaData} results shared by all connections of one {@link net.virtalab.databazer.NamedDataSource}.
+ * <p>
+ * Cache is set by {@link net.virtalab.databazer.NamedDataSource#setMetadataCache(MetadataCache)}. Then metadata of
+ * connections answers repeated calls of methods which return result sets ({@code getTables}, {@code getColumns},
+ * {@code getIndexInfo}, {@code getPrimaryKeys}, {@code getImportedKeys} etc.) with same arguments from memory,
+ * whatever connection asks. ORM boot and schema validation, which ask same questions about every table,
+ * go to database once per question.
+ * <p>
+ * DDL ({@code CREATE}, {@code ALTER}, {@code DROP}, {@code RENAME}) run through connections of same DataSource
+ * drops whole cache. Schema changes made around DataSource are seen after {@link #setTimeToLive(long) time to live}
+ * or after {@link #invalidateAll()}.
+ * <pre>
+ *   ds.setMetadataCache(new MetadataCache());
+ *
+ *   //every connection of ds from now on
+ *   ResultSet columns = connection.getMetaData().getColumns(null, null, "ORDERS", null);
+ * </pre>
+ * Results are kept by method, arguments and current catalog of connection.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource#setMetadataCache(MetadataCache)
+ * @version 0.5
+ * @since 0.5
+ */
+public class MetadataCache {
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final long DEFAULT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    //guarded by this
+    private final LinkedHashMap<List<Object>, CachedResult> entries = new LinkedHashMap<List<Object>, CachedResult>(16, 0.75f, true);
+    private long generation = 0;
+
+    //metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Wraps connection of DataSource, so its metadata is answered from this cache and its DDL invalidates it.
+     * Used by {@link net.virtalab.databazer.NamedDataSource}, there is no need to call it directly.
+     *
+     * @param connection connection of DataSource
+     * @return connection proxy
+     */
+    public Connection wrap(Connection connection){
+        if(connection==null){
+            throw new IllegalArgumentException("Connection cannot be NULL");
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new MetadataConnection(this, connection));
+    }
+
+    /**
+     * Makes key of metadata call: arrays of arguments are compared by content
+     */
+    static List<Object> key(String catalog, String method, Object[] args){
+        List<Object> key = new ArrayList<Object>();
+        key.add(catalog);
+        key.add(method);
+        if(args!=null){
+            for(Object arg: args){
+                if(arg instanceof Object[]){
+                    key.add(Arrays.asList((Object[]) arg));
+                } else if(arg instanceof int[]){
+                    List<Integer> values = new ArrayList<Integer>();
+                    for(int value: (int[]) arg){
+                        values.add(value);
+                    }
+                    key.add(values);
+                } else {
+                    key.add(arg);
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Finds fresh result
+     *
+     * @return result or NULL
+     */
+    synchronized CachedResult get(List<Object> key){
+        CachedResult result = this.entries.get(key);
+        if(result!=null && System.currentTimeMillis() - result.getCreated() > this.timeToLive){
+            this.entries.remove(key);
+            result = null;
+        }
+        if(result==null){
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Stamp to pass to {@link #put(List, CachedResult, long)}: taken before metadata is read,
+     * so result read before concurrent DDL is not stored
+     */
+    synchronized long generation(){
+        return this.generation;
+    }
+
+    /**
+     * Stores result unless cache was invalidated since stamp
+     */
+    synchronized void put(List<Object> key, CachedResult result, long generation){
+        if(generation!=this.generation){
+            return;
+        }
+        this.entries.put(key, result);
+        while (this.entries.size() > this.maxEntries){
+            //least recently used first
+            this.entries.remove(this.entries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Drops all results
+     */
+    public synchronized void invalidateAll(){
+        this.generation++;
+        this.invalidations.incrementAndGet();
+        this.entries.clear();
+    }
+
+    /**
+     * Reports number of metadata calls answered from cache
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Reports number of metadata calls which went to database
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Reports number of times cache was dropped by DDL or explicitly
+     *
+     * @return invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Reports number of cached results
+     *
+     * @return entry count
+     */
+    public synchronized int getSize(){
+        return this.entries.size();
+    }
+
+    /**
+     * Maximum number of cached results. Default is 10000.
+     *
+     * @param maxEntries entry count. Should be 1 or more.
+     */
+    public void setMaxEntries(int maxEntries) {
+        if(maxEntries < 1){
+            throw new IllegalArgumentException("Max entries cannot be less than 1");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * How long result is given out after it was read. Default is 10 minutes.
+     *
+     * @param timeToLive time in milliseconds. Should be positive.
+     */
+    public void setTimeToLive(long timeToLive) {
+        if(timeToLive < 1){
+            throw new IllegalArgumentException("Time to live cannot be less than 1");
+        }
+        this.timeToLive = timeToLive;
+    }
+}
@@ -0,0 +1,164 @@
+package net.virtalab.databazer.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Connection of DataSource with {@link MetadataCache}: answers metadata from cache and drops cache on DDL.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+class MetadataConnection implements InvocationHandler {
+    private final MetadataCache cache;
+    private final Connection target;
+
+    private DatabaseMetaData metaData;
+
+    MetadataConnection(MetadataCache cache, Connection target){
+        this.cache = cache;
+        this.target = target;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+
+        if(methodName.equals("equals")){
+            return proxy == args[0];
+        } else if(methodName.equals("hashCode")){
+            return System.identityHashCode(proxy);
+        } else if(methodName.equals("toString")){
+            return "Connection with metadata cache to " + this.target;
+        } else if(methodName.equals("getMetaData")){
+            if(this.metaData==null){
+                this.metaData = (DatabaseMetaData) Proxy.newProxyInstance(DatabaseMetaData.class.getClassLoader(),
+                        new Class<?>[]{DatabaseMetaData.class},
+                        new MetaData(this.target.getMetaData(), (Connection) proxy));
+            }
+            return this.metaData;
+        }
+
+        Object result = call(this.target, method, args);
+        if(result instanceof Statement && (methodName.equals("prepareStatement") || methodName.equals("createStatement") ||
+                methodName.equals("prepareCall"))){
+            Class<?> type = method.getReturnType();
+            String sql = methodName.equals("createStatement") ? null : (String) args[0];
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new DdlWatcher((Statement) result, (Connection) proxy, sql));
+        }
+        return result;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Metadata which answers calls returning result sets from cache
+     */
+    private class MetaData implements InvocationHandler {
+        private final DatabaseMetaData target;
+        private final Connection connection;
+
+        private MetaData(DatabaseMetaData target, Connection connection){
+            this.target = target;
+            this.connection = connection;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.target.toString();
+            } else if(methodName.equals("getConnection")){
+                return this.connection;
+            } else if(method.getReturnType()!=ResultSet.class){
+                return call(this.target, method, args);
+            }
+
+            List<Object> key = MetadataCache.key(MetadataConnection.this.target.getCatalog(), methodName, args);
+            CachedResult cached = cache.get(key);
+            if(cached!=null){
+                return cached.open(null);
+            }
+            long generation = cache.generation();
+            ResultSet rs = (ResultSet) call(this.target, method, args);
+            CachedResult result;
+            try{
+                result = CachedResult.read(rs, Collections.<String>emptySet(), Integer.MAX_VALUE - 1);
+            } finally {
+                rs.close();
+            }
+            cache.put(key, result, generation);
+            return result.open(null);
+        }
+    }
+
+    /**
+     * Statement which drops metadata cache when it runs DDL
+     */
+    private class DdlWatcher implements InvocationHandler {
+        private final Statement target;
+        private final Connection connection;
+        private final boolean schemaChange;
+
+        private boolean batchSchemaChange = false;
+
+        private DdlWatcher(Statement target, Connection connection, String sql){
+            this.target = target;
+            this.connection = connection;
+            this.schemaChange = sql!=null && SqlTables.of(sql).isSchemaChange();
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.target.toString();
+            } else if(methodName.equals("getConnection")){
+                return this.connection;
+            } else if(methodName.equals("addBatch") && args!=null && args.length==1 && args[0] instanceof String){
+                this.batchSchemaChange |= SqlTables.of((String) args[0]).isSchemaChange();
+            } else if(methodName.equals("clearBatch")){
+                this.batchSchemaChange = false;
+            } else if(methodName.startsWith("execute")){
+                boolean schemaChange = args!=null && args.length > 0 && args[0] instanceof String ?
+                        SqlTables.of((String) args[0]).isSchemaChange() : this.schemaChange;
+                if(methodName.equals("executeBatch")){
+                    schemaChange |= this.batchSchemaChange;
+                    this.batchSchemaChange = false;
+                }
+                if(schemaChange){
+                    try{
+                        return call(this.target, method, args);
+                    } finally {
+                        //DDL may be partly done even when it fails
+                        cache.invalidateAll();
+                    }
+                }
+            }
+            return call(this.target, method, args);
+        }
+    }
+}
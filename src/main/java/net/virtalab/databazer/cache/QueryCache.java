@@ -0,0 +1,368 @@
+package net.virtalab.databazer.cache;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of query results for one {@link net.virtalab.databazer.NamedDataSource}.
+ * <p>
+ * Cache is set by {@link net.virtalab.databazer.NamedDataSource#setQueryCache(QueryCache)}. Then connections of DataSource
+ * answer repeated reads ({@code SELECT} by statement or prepared statement with same SQL and same parameters)
+ * from memory, and every write made through connections of same DataSource ({@code INSERT}, {@code UPDATE},
+ * {@code DELETE}, {@code MERGE}, DDL etc.) drops cached results which read from written tables.
+ * Invalidation is done when statement is executed and again at commit or rollback, so other connections
+ * do not keep result read before commit. Connection with uncommitted writes to table reads this table from database.
+ * Tables are found in SQL by light analysis; write with unknown tables drops whole cache.
+ * <p>
+ * Cache is bounded by {@link #setMaxEntries(int) entries} and {@link #setMaxBytes(long) estimated memory}
+ * and evicts least recently used results. Results older than {@link #setTimeToLive(long) time to live} are not given out,
+ * which bounds staleness caused by writes which go around DataSource (other applications, triggers).
+ * Results bigger than {@link #setMaxRows(int) max rows} are not cached. Reads with functions like {@code NOW()} or
+ * {@code RAND()}, locking reads and reads of streaming statements are not cached.
+ * <pre>
+ *   QueryCache cache = new QueryCache();
+ *   cache.setMaxEntries(5000);
+ *   cache.setTimeToLive(30000);
+ *   ds.setQueryCache(cache);
+ *
+ *   jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI"); //database
+ *   jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI"); //cache
+ *   jdbc.update("UPDATE country SET title = ? WHERE code = ?", "Suomi", "FI");           //drops results of country
+ * </pre>
+ * One cache serves one DataSource: results are kept by SQL and parameters only, without database identity.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource#setQueryCache(QueryCache)
+ * @version 0.5
+ * @since 0.5
+ */
+public class QueryCache {
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_TIME_TO_LIVE = 60000;
+    private static final int DEFAULT_MAX_ROWS = 1000;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+    private int maxRows = DEFAULT_MAX_ROWS;
+
+    //guarded by this
+    private final LinkedHashMap<Key, CachedResult> entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true);
+    private final Map<String, Set<Key>> byTable = new HashMap<String, Set<Key>>();
+    private final Map<String, Long> invalidatedAt = new HashMap<String, Long>();
+    private long generation = 0;
+    private long allInvalidatedAt = 0;
+    private long bytes = 0;
+
+    //metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Wraps connection of DataSource, so its reads go through this cache and its writes invalidate it.
+     * Used by {@link net.virtalab.databazer.NamedDataSource}, there is no need to call it directly.
+     *
+     * @param connection connection of DataSource
+     * @return connection proxy
+     */
+    public Connection wrap(Connection connection){
+        if(connection==null){
+            throw new IllegalArgumentException("Connection cannot be NULL");
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new CachingConnection(this, connection));
+    }
+
+    /**
+     * Finds fresh result
+     *
+     * @return result or NULL
+     */
+    synchronized CachedResult get(Key key){
+        CachedResult result = this.entries.get(key);
+        if(result!=null && System.currentTimeMillis() - result.getCreated() > this.timeToLive){
+            this.remove(key);
+            result = null;
+        }
+        if(result==null){
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Stamp to pass to {@link #put(Key, CachedResult, long)}: taken before query runs,
+     * so result read before concurrent invalidation is not stored
+     */
+    synchronized long generation(){
+        return this.generation;
+    }
+
+    /**
+     * Stores result unless its tables were invalidated since stamp
+     */
+    synchronized void put(Key key, CachedResult result, long generation){
+        if(this.allInvalidatedAt > generation){
+            return;
+        }
+        for(String table: result.getTables()){
+            Long invalidated = this.invalidatedAt.get(table);
+            if(invalidated!=null && invalidated > generation){
+                return;
+            }
+        }
+        this.remove(key);
+        this.entries.put(key, result);
+        this.bytes += result.getBytes();
+        for(String table: result.getTables()){
+            Set<Key> keys = this.byTable.get(table);
+            if(keys==null){
+                keys = new HashSet<Key>();
+                this.byTable.put(table, keys);
+            }
+            keys.add(key);
+        }
+        //least recently used first
+        Iterator<Map.Entry<Key, CachedResult>> eldest = this.entries.entrySet().iterator();
+        while ((this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) && eldest.hasNext()){
+            Map.Entry<Key, CachedResult> entry = eldest.next();
+            eldest.remove();
+            this.forget(entry.getKey(), entry.getValue());
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Key key){
+        CachedResult removed = this.entries.remove(key);
+        if(removed!=null){
+            this.forget(key, removed);
+        }
+    }
+
+    private void forget(Key key, CachedResult result){
+        this.bytes -= result.getBytes();
+        for(String table: result.getTables()){
+            Set<Key> keys = this.byTable.get(table);
+            if(keys!=null){
+                keys.remove(key);
+                if(keys.isEmpty()){
+                    this.byTable.remove(table);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops results which read from table
+     *
+     * @param table table name, case and qualifier (schema) are ignored
+     */
+    public void invalidate(String table){
+        this.invalidate(Arrays.asList(table));
+    }
+
+    /**
+     * Drops results which read from tables
+     *
+     * @param tables table names, case and qualifier (schema) are ignored
+     */
+    public synchronized void invalidate(Collection<String> tables){
+        this.generation++;
+        for(String table: tables){
+            String name = SqlTables.tableName(table);
+            this.invalidatedAt.put(name, this.generation);
+            Set<Key> keys = this.byTable.remove(name);
+            if(keys==null){
+                continue;
+            }
+            for(Key key: keys.toArray(new Key[keys.size()])){
+                this.remove(key);
+                this.invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all results
+     */
+    public synchronized void invalidateAll(){
+        this.generation++;
+        this.allInvalidatedAt = this.generation;
+        this.invalidations.addAndGet(this.entries.size());
+        this.entries.clear();
+        this.byTable.clear();
+        this.invalidatedAt.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Reports number of reads answered from cache
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Reports number of cacheable reads which went to database
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Reports share of cacheable reads answered from cache
+     *
+     * @return ratio from 0 to 1, 0 when there were no reads
+     */
+    public double getHitRatio(){
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total==0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Reports number of results evicted by size limits
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Reports number of results dropped by writes and explicit invalidation
+     *
+     * @return invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Reports number of cached results
+     *
+     * @return entry count
+     */
+    public synchronized int getSize(){
+        return this.entries.size();
+    }
+
+    /**
+     * Reports estimated heap memory taken by cached results
+     *
+     * @return bytes
+     */
+    public synchronized long getMemoryBytes(){
+        return this.bytes;
+    }
+
+    /**
+     * Maximum number of cached results. Default is 10000.
+     *
+     * @param maxEntries entry count. Should be 1 or more.
+     */
+    public void setMaxEntries(int maxEntries) {
+        if(maxEntries < 1){
+            throw new IllegalArgumentException("Max entries cannot be less than 1");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Maximum estimated memory of cached results. Default is 64 MB.
+     *
+     * @param maxBytes bytes. Should be positive.
+     */
+    public void setMaxBytes(long maxBytes) {
+        if(maxBytes < 1){
+            throw new IllegalArgumentException("Max bytes cannot be less than 1");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * How long result is given out after it was read. Default is 60 seconds.
+     *
+     * @param timeToLive time in milliseconds. Should be positive.
+     */
+    public void setTimeToLive(long timeToLive) {
+        if(timeToLive < 1){
+            throw new IllegalArgumentException("Time to live cannot be less than 1");
+        }
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Results with more rows are not cached. Default is 1000.
+     *
+     * @param maxRows row count. Should be 0 or more.
+     */
+    public void setMaxRows(int maxRows) {
+        if(maxRows < 0){
+            throw new IllegalArgumentException("Max rows cannot be less than 0");
+        }
+        this.maxRows = maxRows;
+    }
+
+    int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * SQL and parameters of query
+     */
+    static final class Key {
+        private final String sql;
+        private final Object[] params;
+        private final int hash;
+
+        Key(String sql, Object[] params){
+            this.sql = sql;
+            this.params = params;
+            this.hash = 31 * sql.hashCode() + Arrays.hashCode(params);
+        }
+
+        /**
+         * Tells if parameter value can be part of key: it has value-based {@code equals()}
+         */
+        static boolean isKeyValue(Object value){
+            return value==null || value instanceof String || value instanceof Number || value instanceof Boolean ||
+                    value instanceof java.util.Date || value instanceof Character;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this==o){
+                return true;
+            }
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key) o;
+            return this.hash==key.hash && this.sql.equals(key.sql) && Arrays.equals(this.params, key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
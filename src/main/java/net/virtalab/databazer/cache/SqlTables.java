@@ -0,0 +1,258 @@
+package net.virtalab.databazer.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Light SQL analysis: tells reads from writes and finds tables statement touches.
+ * <p>
+ * It is not a parser: SQL is split into statements by {@code ;}, statement is split into words, string literals and comments are skipped, and names after
+ * {@code FROM}, {@code JOIN}, {@code INTO}, {@code UPDATE}, {@code TABLE} and {@code TRUNCATE} are taken as tables. Mistakes go to safe side:
+ * write with unknown tables invalidates everything, and read which may be non-deterministic is not cached.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+final class SqlTables {
+    private static final Set<String> READS = setOf("SELECT", "WITH", "SHOW", "VALUES", "EXPLAIN", "DESCRIBE", "DESC");
+    private static final Set<String> NO_EFFECT = setOf("SET", "BEGIN", "START", "COMMIT", "ROLLBACK", "SAVEPOINT",
+            "RELEASE", "USE");
+    private static final Set<String> SCHEMA_CHANGES = setOf("CREATE", "ALTER", "DROP", "RENAME");
+    private static final Set<String> TABLE_BEFORE = setOf("FROM", "JOIN", "INTO", "UPDATE", "TABLE", "TRUNCATE");
+    //words after which cached result could differ from database even without writes
+    private static final Set<String> VOLATILE = setOf("RAND", "RANDOM", "NOW", "SYSDATE", "CURDATE", "CURTIME",
+            "CURRENT_DATE", "CURRENT_TIME", "CURRENT_TIMESTAMP", "LOCALTIME", "LOCALTIMESTAMP", "UUID", "RANDOM_UUID",
+            "NEXTVAL", "NEXT", "LAST_INSERT_ID", "IDENTITY", "SCOPE_IDENTITY", "FOUND_ROWS", "ROW_COUNT",
+            "CONNECTION_ID", "SESSION_ID", "SLEEP", "LOCK", "SHARE", "FOR");
+    private static final Set<String> NOT_TABLES = setOf("TABLE", "LOW_PRIORITY", "IGNORE",
+            "QUICK", "DELAYED", "HIGH_PRIORITY", "ONLY", "LATERAL", "IF", "EXISTS", "NOT", "TEMPORARY", "DUAL");
+
+    private static final SqlTables OTHER = new SqlTables(false, false, true, false, Collections.<String>emptySet());
+
+    private final boolean read;
+    private final boolean cacheable;
+    private final boolean unknownWrite;
+    private final boolean schemaChange;
+    private final Set<String> tables;
+
+    private SqlTables(boolean read, boolean cacheable, boolean unknownWrite, boolean schemaChange, Set<String> tables){
+        this.read = read;
+        this.cacheable = cacheable;
+        this.unknownWrite = unknownWrite;
+        this.schemaChange = schemaChange;
+        this.tables = tables;
+    }
+
+    /**
+     * Analyzes statement
+     *
+     * @param sql statement
+     * @return analysis
+     */
+    static SqlTables of(String sql){
+        if(sql==null){
+            return OTHER;
+        }
+        List<SqlTables> statements = new ArrayList<SqlTables>();
+        List<String> words = words(sql);
+        int start = 0;
+        for(int i=0;i<=words.size();i++){
+            if(i==words.size() || words.get(i).equals(";")){
+                if(i > start){
+                    statements.add(ofStatement(words.subList(start, i)));
+                }
+                start = i + 1;
+            }
+        }
+        if(statements.isEmpty()){
+            return OTHER;
+        }
+        if(statements.size()==1){
+            return statements.get(0);
+        }
+        //several statements: read only when all of them read, never cached
+        boolean read = true;
+        boolean unknownWrite = false;
+        boolean schemaChange = false;
+        Set<String> tables = new LinkedHashSet<String>();
+        for(SqlTables statement: statements){
+            read &= statement.read;
+            unknownWrite |= statement.unknownWrite;
+            schemaChange |= statement.schemaChange;
+            tables.addAll(statement.tables);
+        }
+        return new SqlTables(read, false, unknownWrite, schemaChange, unknownWrite ? Collections.<String>emptySet() : tables);
+    }
+
+    /**
+     * Analyzes one statement of SQL
+     */
+    private static SqlTables ofStatement(List<String> words){
+        String first = words.get(0);
+        Set<String> tables = new LinkedHashSet<String>();
+        boolean cacheable = true;
+        boolean afterFrom = false;
+        for(int i=0;i<words.size();i++){
+            String word = words.get(i);
+            if(VOLATILE.contains(word)){
+                cacheable = false;
+            }
+            if(TABLE_BEFORE.contains(word)){
+                afterFrom = word.equals("FROM") || word.equals("TABLE");
+                int next = i + 1;
+                while (next < words.size() && NOT_TABLES.contains(words.get(next))){
+                    next++;
+                }
+                if(next < words.size() && isName(words.get(next))){
+                    tables.add(tableName(words.get(next)));
+                }
+            } else if(afterFrom && word.equals(",") && i + 1 < words.size() && isName(words.get(i + 1))){
+                //FROM a, b
+                tables.add(tableName(words.get(i + 1)));
+            } else if(!word.equals(",") && !isName(word)){
+                afterFrom = false;
+            } else if(isKeyword(word)){
+                afterFrom = false;
+            }
+        }
+        if(READS.contains(first)){
+            return new SqlTables(true, cacheable && !first.equals("EXPLAIN"), false, false, tables);
+        }
+        if(NO_EFFECT.contains(first)){
+            return new SqlTables(false, false, false, false, Collections.<String>emptySet());
+        }
+        //writes and DDL: known tables or everything
+        boolean known = !tables.isEmpty() && (first.equals("INSERT") || first.equals("UPDATE") || first.equals("DELETE") ||
+                first.equals("REPLACE") || first.equals("MERGE") || first.equals("TRUNCATE") ||
+                ((first.equals("ALTER") || first.equals("DROP") || first.equals("CREATE") || first.equals("RENAME"))
+                        && words.contains("TABLE")));
+        return new SqlTables(false, false, !known, SCHEMA_CHANGES.contains(first),
+                known ? tables : Collections.<String>emptySet());
+    }
+
+    /**
+     * Splits statement to upper-case words, quoted names and single-char symbols. String literals and comments are dropped.
+     */
+    private static List<String> words(String sql){
+        List<String> words = new ArrayList<String>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length){
+            char c = sql.charAt(i);
+            if(Character.isWhitespace(c)){
+                i++;
+            } else if(c=='\''){
+                i = skipQuoted(sql, i, '\'');
+                words.add("'");
+            } else if(c=='-' && i + 1 < length && sql.charAt(i + 1)=='-' || c=='#'){
+                while (i < length && sql.charAt(i)!='\n'){
+                    i++;
+                }
+            } else if(c=='/' && i + 1 < length && sql.charAt(i + 1)=='*'){
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if(Character.isLetterOrDigit(c) || c=='_' || c=='`' || c=='"'){
+                //name, possibly qualified and quoted: `db`.`table`
+                int start = i;
+                while (i < length){
+                    char n = sql.charAt(i);
+                    if(n=='`' || n=='"'){
+                        i = skipQuoted(sql, i, n);
+                    } else if(Character.isLetterOrDigit(n) || n=='_' || n=='$' || n=='.'){
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                words.add(sql.substring(start, i).toUpperCase(Locale.US));
+            } else {
+                words.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return words;
+    }
+
+    private static int skipQuoted(String sql, int start, char quote){
+        int i = start + 1;
+        while (i < sql.length()){
+            if(sql.charAt(i)==quote){
+                if(i + 1 < sql.length() && sql.charAt(i + 1)==quote){
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isName(String word){
+        char c = word.charAt(0);
+        return Character.isLetter(c) || c=='_' || c=='`' || c=='"';
+    }
+
+    private static boolean isKeyword(String word){
+        return word.equals("WHERE") || word.equals("GROUP") || word.equals("ORDER") || word.equals("HAVING") ||
+                word.equals("LIMIT") || word.equals("UNION") || word.equals("ON") || word.equals("USING");
+    }
+
+    /**
+     * Unqualified, unquoted, upper-case table name
+     */
+    static String tableName(String name){
+        String table = name;
+        int dot = table.lastIndexOf('.');
+        if(dot >= 0 && dot < table.length() - 1){
+            table = table.substring(dot + 1);
+        }
+        return table.replace("`", "").replace("\"", "").toUpperCase(Locale.US);
+    }
+
+    private static Set<String> setOf(String... words){
+        Set<String> set = new LinkedHashSet<String>();
+        Collections.addAll(set, words);
+        return set;
+    }
+
+    /**
+     * Tells if statement only reads
+     */
+    boolean isRead() {
+        return read;
+    }
+
+    /**
+     * Tells if result of statement may be cached: deterministic read
+     */
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * Tells if statement may write to tables which are not known
+     */
+    boolean isUnknownWrite() {
+        return unknownWrite;
+    }
+
+    /**
+     * Tells if statement is DDL which may change schema (tables, columns, indexes)
+     */
+    boolean isSchemaChange() {
+        return schemaChange;
+    }
+
+    /**
+     * Tables read or written by statement, unqualified and upper-case
+     */
+    Set<String> getTables() {
+        return tables;
+    }
+}
@@ -0,0 +1,203 @@
+package net.virtalab.databazer.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Conversions of cached values for typed getters of {@link java.sql.ResultSet}, close to what drivers do.
+ * Calendar arguments of date getters are ignored: values are already converted by driver when read.
+ * Mutable values ({@code byte[]} and dates) are given out as copies, so callers cannot change cached result.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+final class Values {
+    private Values(){}
+
+    /**
+     * Converts value for getter
+     *
+     * @param value value of column, may be NULL
+     * @param getter name of {@link java.sql.ResultSet} getter
+     * @param types parameter types of getter
+     * @param args arguments of getter
+     * @return converted value
+     * @throws SQLException when value cannot be converted
+     */
+    static Object convert(Object value, String getter, Class<?>[] types, Object[] args) throws SQLException {
+        try{
+            if(getter.equals("getObject")){
+                if(types.length==2 && args[1] instanceof Class){
+                    return copy(toClass(value, (Class<?>) args[1]));
+                }
+                return copy(value);
+            } else if(getter.equals("getString") || getter.equals("getNString")){
+                return toString(value);
+            } else if(getter.equals("getBoolean")){
+                return toBoolean(value);
+            } else if(getter.equals("getByte")){
+                return toNumber(value).byteValue();
+            } else if(getter.equals("getShort")){
+                return toNumber(value).shortValue();
+            } else if(getter.equals("getInt")){
+                return toNumber(value).intValue();
+            } else if(getter.equals("getLong")){
+                return toNumber(value).longValue();
+            } else if(getter.equals("getFloat")){
+                return toNumber(value).floatValue();
+            } else if(getter.equals("getDouble")){
+                return toNumber(value).doubleValue();
+            } else if(getter.equals("getBigDecimal")){
+                BigDecimal decimal = toBigDecimal(value);
+                if(decimal!=null && types.length==2 && types[1]==int.class){
+                    decimal = decimal.setScale((Integer) args[1], RoundingMode.HALF_UP);
+                }
+                return decimal;
+            } else if(getter.equals("getTimestamp")){
+                java.util.Date date = toDate(value);
+                return date==null || date instanceof Timestamp ? copy(date) : new Timestamp(date.getTime());
+            } else if(getter.equals("getDate")){
+                java.util.Date date = toDate(value);
+                return date==null || date instanceof java.sql.Date ? copy(date) : new java.sql.Date(date.getTime());
+            } else if(getter.equals("getTime")){
+                java.util.Date date = toDate(value);
+                return date==null || date instanceof Time ? copy(date) : new Time(date.getTime());
+            } else if(getter.equals("getBytes")){
+                return copy(toBytes(value));
+            } else if(getter.equals("getCharacterStream") || getter.equals("getNCharacterStream")){
+                return value==null ? null : new StringReader(toString(value));
+            } else if(getter.equals("getBinaryStream")){
+                return value==null ? null : new ByteArrayInputStream(toBytes(value));
+            }
+        } catch (NumberFormatException e){
+            throw new SQLException("Cannot convert " + value + " by " + getter, e);
+        } catch (IllegalArgumentException e){
+            throw new SQLException("Cannot convert " + value + " by " + getter, e);
+        }
+        throw new SQLFeatureNotSupportedException("ResultSet." + getter + " is not supported by cached result");
+    }
+
+    private static Object copy(Object value){
+        if(value instanceof byte[]){
+            return ((byte[]) value).clone();
+        } else if(value instanceof java.util.Date){
+            return ((java.util.Date) value).clone();
+        }
+        return value;
+    }
+
+    private static Object toClass(Object value, Class<?> type) throws SQLException {
+        if(value==null || type.isInstance(value)){
+            return value;
+        }
+        if(type==String.class){
+            return toString(value);
+        } else if(type==Integer.class){
+            return toNumber(value).intValue();
+        } else if(type==Long.class){
+            return toNumber(value).longValue();
+        } else if(type==Double.class){
+            return toNumber(value).doubleValue();
+        } else if(type==Boolean.class){
+            return toBoolean(value);
+        } else if(type==BigDecimal.class){
+            return toBigDecimal(value);
+        } else if(type==Timestamp.class){
+            return new Timestamp(toDate(value).getTime());
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to " + type.getName());
+    }
+
+    private static String toString(Object value){
+        if(value==null){
+            return null;
+        }
+        if(value instanceof byte[]){
+            StringBuilder hex = new StringBuilder();
+            for(byte b: (byte[]) value){
+                hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            }
+            return hex.toString();
+        }
+        return value.toString();
+    }
+
+    private static boolean toBoolean(Object value){
+        if(value==null){
+            return false;
+        }
+        if(value instanceof Boolean){
+            return (Boolean) value;
+        }
+        if(value instanceof Number){
+            return ((Number) value).doubleValue()!=0;
+        }
+        String text = value.toString().trim();
+        return text.equalsIgnoreCase("true") || text.equals("1");
+    }
+
+    private static Number toNumber(Object value){
+        if(value==null){
+            return 0;
+        }
+        if(value instanceof Number){
+            return (Number) value;
+        }
+        if(value instanceof Boolean){
+            return (Boolean) value ? 1 : 0;
+        }
+        return new BigDecimal(value.toString().trim());
+    }
+
+    private static BigDecimal toBigDecimal(Object value){
+        if(value==null){
+            return null;
+        }
+        if(value instanceof BigDecimal){
+            return (BigDecimal) value;
+        }
+        if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte){
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if(value instanceof Boolean){
+            return (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+        return new BigDecimal(value.toString().trim());
+    }
+
+    private static java.util.Date toDate(Object value){
+        if(value==null){
+            return null;
+        }
+        if(value instanceof java.util.Date){
+            return (java.util.Date) value;
+        }
+        if(value instanceof Number){
+            return new Timestamp(((Number) value).longValue());
+        }
+        String text = value.toString().trim();
+        return text.length() <= 10 ? java.sql.Date.valueOf(text) : Timestamp.valueOf(text);
+    }
+
+    private static byte[] toBytes(Object value) throws SQLException {
+        if(value==null){
+            return null;
+        }
+        if(value instanceof byte[]){
+            return (byte[]) value;
+        }
+        try{
+            return value.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e){
+            throw new SQLException("UTF-8 is not supported", e);
+        }
+    }
+}
@@ -0,0 +1,718 @@
+package net.virtalab.databazer.copy;
+
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.query.TableScanner;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies table from one DataSource to another (for example MySQL to H2) in parallel, resumable way.
+ * <p>
+ * Source table is split into ranges of numeric key (see {@link TableScanner#split()}).
+ * Ranges are copied in parallel by {@link #setThreads(int) threads} pairs of stages:
+ * <ul>
+ *     <li>reader - reads range from source page by page with keyset pagination</li>
+ *     <li>writer - writes each page into target as one JDBC batch and one transaction</li>
+ * </ul>
+ * Stages are connected by bounded queue of {@link #setQueueCapacity(int) pages}, so reading and writing overlap,
+ * but memory use stays bounded.
+ * <p>
+ * Values are read by {@link ResultSet#getObject(int)}, LOBs are read into {@code String} or {@code byte[]},
+ * then passed through {@link #setConverter(ValueConverter) converter} if set.
+ * <p>
+ * Progress is stored in target database, at {@link #setProgressTable(String) progress table}:
+ * each committed page also updates last copied key of its range in the same transaction.
+ * So if copy is interrupted (by {@link #stop()}, error or crash), next {@link #copy()} with same
+ * {@link #setName(String) name} continues where each range stopped, without gaps or duplicates.
+ * When copy is completed, next {@link #copy()} does nothing, until {@link #reset()} is called.
+ * <pre>
+ *   TableCopier copier = new TableCopier(mysql, h2, "person", "id");
+ *   copier.setThreads(8);
+ *   long rows = copier.copy();
+ * </pre>
+ * Target table should exist and have same column names as source (or as {@link #setColumns(String) columns}).
+ * Table and column names are put into SQL as is, so they should not come from untrusted input.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.TableScanner
+ * @version 0.5
+ * @since 0.5
+ */
+public class TableCopier {
+    private static final Log log = LogFactory.getLog(TableCopier.class);
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4;
+    private static final String DEFAULT_PROGRESS_TABLE = "databazer_copy_progress";
+
+    private final NamedDataSource source;
+    private final NamedDataSource target;
+    private final String table;
+    private final String keyColumn;
+
+    private String name;
+    private String targetTable;
+    private String columns = "*";
+    private String progressTable = DEFAULT_PROGRESS_TABLE;
+    private int threads = DEFAULT_THREADS;
+    private int rangeCount = 0;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private double sampleRate = 0;
+    private ValueConverter converter;
+
+    private volatile boolean stopped = false;
+
+    //metrics
+    private final AtomicLong rowsCopied = new AtomicLong();
+    private final AtomicLong pagesCopied = new AtomicLong();
+    private final AtomicInteger rangesTotal = new AtomicInteger();
+    private final AtomicInteger rangesDone = new AtomicInteger();
+    private final AtomicLong keysTotal = new AtomicLong();
+    private final AtomicLong keysDone = new AtomicLong();
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+    /**
+     * Creates copier of table
+     *
+     * @param source DataSource to read from
+     * @param target DataSource to write to
+     * @param table table name, same for source and target unless {@link #setTargetTable(String) target table} set
+     * @param keyColumn name of numeric unique key column of source, normally primary key
+     * @throws java.lang.IllegalArgumentException when any argument is NULL
+     */
+    public TableCopier(NamedDataSource source, NamedDataSource target, String table, String keyColumn){
+        if(source==null || target==null){
+            throw new IllegalArgumentException("Source and target cannot be NULL");
+        }
+        if(table==null || keyColumn==null){
+            throw new IllegalArgumentException("Table and key column cannot be NULL");
+        }
+        this.source = source;
+        this.target = target;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.name = table;
+        this.targetTable = table;
+    }
+
+    /**
+     * Copies table or what is left of it since previous interrupted run
+     *
+     * @return number of rows copied by this run
+     * @throws SQLException when reading or writing fails. Pages committed before failure stay, next run continues after them.
+     * @throws InterruptedException when interrupted while waiting for ranges to complete
+     */
+    public long copy() throws SQLException, InterruptedException {
+        this.stopped = false;
+        this.rowsCopied.set(0);
+        this.pagesCopied.set(0);
+        this.rangesDone.set(0);
+        this.keysDone.set(0);
+        this.keysTotal.set(0);
+        this.startTime = System.currentTimeMillis();
+        this.endTime = 0;
+
+        List<Range> ranges = this.loadRanges();
+        this.rangesTotal.set(ranges.size());
+        List<Range> left = new ArrayList<Range>();
+        for(Range range: ranges){
+            this.keysTotal.addAndGet(range.end - range.start);
+            if(range.done){
+                this.rangesDone.incrementAndGet();
+                this.keysDone.addAndGet(range.end - range.start);
+            } else {
+                this.keysDone.addAndGet(range.lastKey - range.start);
+                left.add(range);
+            }
+        }
+        if(left.isEmpty()){
+            this.endTime = System.currentTimeMillis();
+            return 0;
+        }
+        log.info("Copying " + this.table + " from " + this.source.getName() + " to " + this.target.getName() + ": " +
+                left.size() + " of " + ranges.size() + " ranges left");
+
+        final AtomicReference<SQLException> failure = new AtomicReference<SQLException>();
+        ExecutorService readers = newPool("reader", Math.min(this.threads, left.size()));
+        ExecutorService writers = newPool("writer", Math.min(this.threads, left.size()));
+        try{
+            List<Future<?>> copies = new ArrayList<Future<?>>();
+            for(final Range range: left){
+                copies.add(writers.submit(new RangeCopy(range, readers, failure)));
+            }
+            for(Future<?> copy: copies){
+                try{
+                    copy.get();
+                } catch (ExecutionException e){
+                    Throwable cause = e.getCause();
+                    if(cause instanceof RuntimeException){
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException("Range copy failed", cause);
+                }
+            }
+        } catch (InterruptedException e){
+            this.stopped = true;
+            throw e;
+        } finally {
+            writers.shutdown();
+            readers.shutdown();
+            writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            readers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            this.endTime = System.currentTimeMillis();
+        }
+
+        if(failure.get()!=null){
+            throw failure.get();
+        }
+        log.info("Copied " + this.rowsCopied.get() + " rows of " + this.table + " in " + (this.endTime - this.startTime) + " ms" +
+                (this.stopped ? ", stopped before completion" : ""));
+        return this.rowsCopied.get();
+    }
+
+    /**
+     * Stops running copy after pages being written now. Next {@link #copy()} continues from there.
+     */
+    public void stop(){
+        this.stopped = true;
+    }
+
+    /**
+     * Forgets progress, so next {@link #copy()} copies whole table again. Does not touch target table.
+     *
+     * @throws SQLException when progress table cannot be cleaned
+     */
+    public void reset() throws SQLException {
+        Connection connection = this.target.getConnection();
+        PreparedStatement statement = null;
+        try{
+            this.createProgressTable(connection);
+            statement = connection.prepareStatement("DELETE FROM " + this.progressTable + " WHERE name = ?");
+            statement.setString(1, this.name);
+            statement.executeUpdate();
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Reads ranges of this copy from progress table, or splits source and stores ranges when there are none
+     */
+    private List<Range> loadRanges() throws SQLException {
+        Connection connection = this.target.getConnection();
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try{
+            this.createProgressTable(connection);
+            statement = connection.prepareStatement("SELECT range_start, range_end, last_key, done FROM " + this.progressTable +
+                    " WHERE name = ? ORDER BY range_start");
+            statement.setString(1, this.name);
+            rs = statement.executeQuery();
+            List<Range> ranges = new ArrayList<Range>();
+            while (rs.next()){
+                ranges.add(new Range(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getBoolean(4)));
+            }
+            JdbcUtils.closeResultSet(rs);
+            rs = null;
+            JdbcUtils.closeStatement(statement);
+            statement = null;
+            if(!ranges.isEmpty()){
+                return ranges;
+            }
+
+            TableScanner scanner = new TableScanner(this.source, this.table, this.keyColumn);
+            scanner.setThreads(this.threads);
+            if(this.rangeCount > 0){
+                scanner.setRangeCount(this.rangeCount);
+            }
+            scanner.setSampleRate(this.sampleRate);
+            statement = connection.prepareStatement("INSERT INTO " + this.progressTable +
+                    "(name, range_start, range_end, last_key, rows_copied, done) VALUES(?, ?, ?, ?, 0, ?)");
+            for(long[] bounds: scanner.split()){
+                Range range = new Range(bounds[0], bounds[1], bounds[0], false);
+                statement.setString(1, this.name);
+                statement.setLong(2, range.start);
+                statement.setLong(3, range.end);
+                statement.setLong(4, range.lastKey);
+                statement.setBoolean(5, false);
+                statement.addBatch();
+                ranges.add(range);
+            }
+            if(!ranges.isEmpty()){
+                statement.executeBatch();
+            }
+            return ranges;
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private void createProgressTable(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try{
+            statement.execute("CREATE TABLE IF NOT EXISTS " + this.progressTable + "(" +
+                    "name VARCHAR(200) NOT NULL, range_start BIGINT NOT NULL, range_end BIGINT NOT NULL, " +
+                    "last_key BIGINT NOT NULL, rows_copied BIGINT NOT NULL, done BOOLEAN NOT NULL, " +
+                    "PRIMARY KEY(name, range_start))");
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    private ExecutorService newPool(final String stage, int size){
+        return Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-copy-" + table + "-" + stage + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Reads range from source into queue of pages
+     */
+    private void readRange(Range range, BlockingQueue<Page> queue, AtomicReference<SQLException> failure)
+            throws SQLException, InterruptedException {
+        String sql = "SELECT " + this.columns + " FROM " + this.table +
+                " WHERE " + this.keyColumn + " > ? AND " + this.keyColumn + " <= ? ORDER BY " + this.keyColumn + " LIMIT ?";
+        Connection connection = this.source.getConnection();
+        PreparedStatement statement = null;
+        try{
+            statement = connection.prepareStatement(sql);
+            long lastKey = range.lastKey;
+            String[] names = null;
+            int keyIndex = -1;
+            boolean fullPage = true;
+            while (fullPage && !this.stopped && failure.get()==null){
+                statement.setLong(1, lastKey);
+                statement.setLong(2, range.end);
+                statement.setInt(3, this.pageSize);
+                ResultSet rs = statement.executeQuery();
+                List<Object[]> rows = new ArrayList<Object[]>(this.pageSize);
+                try{
+                    if(names==null){
+                        names = columnNames(rs.getMetaData());
+                        keyIndex = indexOf(names, this.keyColumn);
+                    }
+                    while (rs.next()){
+                        Object[] row = new Object[names.length];
+                        for(int i=0;i<row.length;i++){
+                            row[i] = this.read(rs, i + 1, names[i]);
+                        }
+                        lastKey = rs.getLong(keyIndex + 1);
+                        rows.add(row);
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                }
+                fullPage = (rows.size() == this.pageSize);
+                Page page = new Page(names, rows, fullPage ? lastKey : range.end, !fullPage);
+                while (!queue.offer(page, 100, TimeUnit.MILLISECONDS)){
+                    if(this.stopped || failure.get()!=null){
+                        return;
+                    }
+                }
+            }
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private Object read(ResultSet rs, int index, String column) throws SQLException {
+        Object value = rs.getObject(index);
+        //LOBs are valid only while result set is open
+        if(value instanceof Clob){
+            Clob clob = (Clob) value;
+            value = clob.getSubString(1, (int) clob.length());
+        } else if(value instanceof Blob){
+            Blob blob = (Blob) value;
+            value = blob.getBytes(1, (int) blob.length());
+        }
+        return this.converter==null ? value : this.converter.convert(column, value);
+    }
+
+    private static String[] columnNames(ResultSetMetaData meta) throws SQLException {
+        String[] names = new String[meta.getColumnCount()];
+        for(int i=0;i<names.length;i++){
+            names[i] = meta.getColumnLabel(i + 1);
+        }
+        return names;
+    }
+
+    private static int indexOf(String[] names, String column) throws SQLException {
+        for(int i=0;i<names.length;i++){
+            if(names[i].equalsIgnoreCase(column)){
+                return i;
+            }
+        }
+        throw new SQLException("Key column " + column + " is not selected");
+    }
+
+    /**
+     * Writes pages of range from queue into target, each page with progress in one transaction
+     */
+    private void writeRange(Range range, BlockingQueue<Page> queue, Future<?> reader, AtomicReference<SQLException> failure)
+            throws SQLException, InterruptedException {
+        Connection connection = this.target.getConnection();
+        PreparedStatement insert = null;
+        PreparedStatement progress = null;
+        try{
+            connection.setAutoCommit(false);
+            progress = connection.prepareStatement("UPDATE " + this.progressTable +
+                    " SET last_key = ?, rows_copied = rows_copied + ?, done = ? WHERE name = ? AND range_start = ?");
+            long lastKey = range.lastKey;
+            while (true){
+                Page page = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(page==null){
+                    if(reader.isDone() && queue.isEmpty()){
+                        //reader stopped or failed
+                        if(!this.stopped && failure.get()==null){
+                            throw new SQLException("Reading of " + this.table + " ended before range (" +
+                                    range.start + ", " + range.end + "] was read");
+                        }
+                        return;
+                    }
+                    continue;
+                }
+                if(insert==null && !page.rows.isEmpty()){
+                    insert = connection.prepareStatement(insertSql(page.columns));
+                }
+                for(Object[] row: page.rows){
+                    for(int i=0;i<row.length;i++){
+                        insert.setObject(i + 1, row[i]);
+                    }
+                    insert.addBatch();
+                }
+                if(!page.rows.isEmpty()){
+                    insert.executeBatch();
+                }
+                progress.setLong(1, page.lastKey);
+                progress.setLong(2, page.rows.size());
+                progress.setBoolean(3, page.last);
+                progress.setString(4, this.name);
+                progress.setLong(5, range.start);
+                progress.executeUpdate();
+                connection.commit();
+
+                this.rowsCopied.addAndGet(page.rows.size());
+                this.pagesCopied.incrementAndGet();
+                this.keysDone.addAndGet(page.lastKey - lastKey);
+                lastKey = page.lastKey;
+                if(page.last){
+                    this.rangesDone.incrementAndGet();
+                    return;
+                }
+                if(this.stopped || failure.get()!=null){
+                    return;
+                }
+            }
+        } catch (SQLException e){
+            try{
+                connection.rollback();
+            } catch (SQLException re){
+                log.debug("Rollback failed", re);
+            }
+            throw e;
+        } finally {
+            JdbcUtils.closeStatement(insert);
+            JdbcUtils.closeStatement(progress);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private String insertSql(String[] names){
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(this.targetTable).append("(");
+        StringBuilder values = new StringBuilder();
+        for(int i=0;i<names.length;i++){
+            sql.append(i > 0 ? "," : "").append(names[i]);
+            values.append(i > 0 ? "," : "").append('?');
+        }
+        return sql.append(") VALUES(").append(values).append(")").toString();
+    }
+
+    /**
+     * Reports rows committed to target by current (or last) run
+     *
+     * @return row count
+     */
+    public long getRowsCopied() {
+        return rowsCopied.get();
+    }
+
+    /**
+     * Reports pages (batches and transactions) committed to target by current (or last) run
+     *
+     * @return page count
+     */
+    public long getPagesCopied() {
+        return pagesCopied.get();
+    }
+
+    /**
+     * Reports number of ranges table is split into
+     *
+     * @return range count
+     */
+    public int getRangesTotal() {
+        return rangesTotal.get();
+    }
+
+    /**
+     * Reports number of completed ranges, including ones completed by previous runs
+     *
+     * @return range count
+     */
+    public int getRangesDone() {
+        return rangesDone.get();
+    }
+
+    /**
+     * Estimates share of table copied, by share of key space behind last copied keys of ranges
+     *
+     * @return value from 0 to 1
+     */
+    public double getProgress(){
+        long total = this.keysTotal.get();
+        return total==0 ? (this.rangesTotal.get() == this.rangesDone.get() && this.startTime > 0 ? 1 : 0) :
+                (double) this.keysDone.get() / total;
+    }
+
+    /**
+     * Reports throughput of current (or last) run
+     *
+     * @return rows copied per second
+     */
+    public double getRowsPerSecond(){
+        if(this.startTime==0){
+            return 0;
+        }
+        long end = this.endTime > 0 ? this.endTime : System.currentTimeMillis();
+        long elapsed = Math.max(1, end - this.startTime);
+        return this.rowsCopied.get() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Name of copy, which identifies its progress. Default is table name.
+     *
+     * @param name copy name
+     */
+    public void setName(String name) {
+        if(name==null){
+            throw new IllegalArgumentException("Name cannot be NULL");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Name of table at target. Default is same as source.
+     *
+     * @param targetTable table name
+     */
+    public void setTargetTable(String targetTable) {
+        if(targetTable==null){
+            throw new IllegalArgumentException("Target table cannot be NULL");
+        }
+        this.targetTable = targetTable;
+    }
+
+    /**
+     * Columns to copy. Default is {@code *}. Should include key column.
+     *
+     * @param columns comma separated list of columns
+     */
+    public void setColumns(String columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Table at target database, where progress is kept. Default is {@code databazer_copy_progress}. Created when missing.
+     *
+     * @param progressTable table name
+     */
+    public void setProgressTable(String progressTable) {
+        this.progressTable = progressTable;
+    }
+
+    /**
+     * Number of ranges copied in parallel. Each one uses reader thread with source connection
+     * and writer thread with target connection. Default is 4.
+     *
+     * @param threads thread count. Should be 1 or more.
+     */
+    public void setThreads(int threads) {
+        if(threads < 1){
+            throw new IllegalArgumentException("Thread count cannot be less than 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Number of key ranges. Default is 4 ranges per thread. Used only when copy starts from scratch.
+     *
+     * @param rangeCount number of ranges. Should be 1 or more.
+     */
+    public void setRangeCount(int rangeCount) {
+        if(rangeCount < 1){
+            throw new IllegalArgumentException("Range count cannot be less than 1");
+        }
+        this.rangeCount = rangeCount;
+    }
+
+    /**
+     * Rows per page: read by one query and written by one batch and transaction. Default is 1000.
+     *
+     * @param pageSize page size. Should be 1 or more.
+     */
+    public void setPageSize(int pageSize) {
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size cannot be less than 1");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Pages read ahead of writer for each range. Default is 4.
+     *
+     * @param queueCapacity queue capacity. Should be 1 or more.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 1){
+            throw new IllegalArgumentException("Queue capacity cannot be less than 1");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Share of keys sampled to split table. See {@link TableScanner#setSampleRate(double)}. Default is 0.
+     *
+     * @param sampleRate from 0 (no sampling) to 1
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Converter of values. Default is none: values are written as read.
+     *
+     * @param converter converter or NULL
+     */
+    public void setConverter(ValueConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Copies one range: reader at reader pool, writer at current thread
+     */
+    private class RangeCopy implements Runnable {
+        private final Range range;
+        private final ExecutorService readers;
+        private final AtomicReference<SQLException> failure;
+
+        private RangeCopy(Range range, ExecutorService readers, AtomicReference<SQLException> failure){
+            this.range = range;
+            this.readers = readers;
+            this.failure = failure;
+        }
+
+        public void run() {
+            if(stopped || failure.get()!=null){
+                return;
+            }
+            final BlockingQueue<Page> queue = new ArrayBlockingQueue<Page>(queueCapacity);
+            Future<?> reader = this.readers.submit(new Runnable() {
+                public void run() {
+                    try{
+                        readRange(range, queue, failure);
+                    } catch (SQLException e){
+                        failure.compareAndSet(null, e);
+                    } catch (InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e){
+                        //converter or driver: nobody else looks at this thread
+                        failure.compareAndSet(null, new SQLException("Reading of " + table + " failed: " + e, e));
+                    } catch (Error e){
+                        failure.compareAndSet(null, new SQLException("Reading of " + table + " failed: " + e, e));
+                        throw e;
+                    }
+                }
+            });
+            try{
+                writeRange(this.range, queue, reader, this.failure);
+            } catch (SQLException e){
+                this.failure.compareAndSet(null, e);
+            } catch (InterruptedException e){
+                stopped = true;
+                Thread.currentThread().interrupt();
+            } finally {
+                //let reader leave, if it waits for space at queue
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Key range {@code (start, end]} and its progress
+     */
+    private static class Range {
+        private final long start;
+        private final long end;
+        private final long lastKey;
+        private final boolean done;
+
+        private Range(long start, long end, long lastKey, boolean done){
+            this.start = start;
+            this.end = end;
+            this.lastKey = lastKey;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Rows read by one query
+     */
+    private static class Page {
+        private final String[] columns;
+        private final List<Object[]> rows;
+        private final long lastKey;
+        private final boolean last;
+
+        private Page(String[] columns, List<Object[]> rows, long lastKey, boolean last){
+            this.columns = columns;
+            this.rows = rows;
+            this.lastKey = lastKey;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.virtalab.databazer.copy;
+
+import java.sql.SQLException;
+
+/**
+ * Converts values read from source table into values written to target table,
+ * when JDBC types of source and target databases do not match.
+ * <p>
+ * LOBs are already read into {@code String} and {@code byte[]} when converter gets them.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.copy.TableCopier
+ * @version 0.5
+ * @since 0.5
+ */
+public interface ValueConverter {
+    /**
+     * Converts one value
+     *
+     * @param column column name as reported by source
+     * @param value value read from source, may be NULL
+     * @return value to write into target
+     * @throws SQLException when value cannot be converted. Fails copy of range.
+     */
+    Object convert(String column, Object value) throws SQLException;
+}
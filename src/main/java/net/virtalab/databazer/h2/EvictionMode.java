@@ -0,0 +1,21 @@
+package net.virtalab.databazer.h2;
+
+/**
+ * What happens to in-memory H2 Database when it is evicted by {@link H2MemoryManager}
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2MemoryManager
+ * @version 0.5
+ * @since 0.5
+ */
+public enum EvictionMode {
+    /**
+     * Database is closed and its data is lost. Next connection gets empty database.
+     */
+    DROP,
+    /**
+     * Database is written to compressed script file and closed.
+     * Next connection transparently restores it from that file.
+     */
+    SPILL
+}
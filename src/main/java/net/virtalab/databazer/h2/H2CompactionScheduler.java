@@ -0,0 +1,389 @@
+package net.virtalab.databazer.h2;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background compaction of file-mode H2 databases.
+ * <p>
+ * Scheduler is attached to {@link H2DataSource} created with {@link H2DataSource.Creator#file() file mode}.
+ * It periodically checks size of database file and I/O activity of database,
+ * and compacts database when all of following is true:
+ * <ol>
+ *     <li>File is bigger than {@link #setMinFileSize(long) minimal size}</li>
+ *     <li>File has grown by {@link #setGrowthRatio(double) growth ratio} since last compaction (any file,
+ *     when there was no compaction yet), or its fill rate is below {@link #setMinFillRate(double) minimal fill rate}</li>
+ *     <li>Database is quiet: no other sessions are open and I/O since last check is below {@link #setQuietIoThreshold(long) threshold}</li>
+ *     <li>Last compaction was at least {@link #setMinCompactionInterval(long) minimal interval} ago</li>
+ * </ol>
+ * <p>
+ * Please note that H2 PageStore (default store of H2 1.3) compacts file only when database closes,
+ * so compaction is done by {@code SHUTDOWN COMPACT}: database is closed, compacted and re-opened by next connection.
+ * That's why compaction runs only when no other session is open.
+ * <p>
+ * Fill rate is part of file used by tables and their indexes: {@code DISK_SPACE_USED} of all tables
+ * divided by {@code info.PAGE_COUNT * info.PAGE_SIZE} of {@code INFORMATION_SCHEMA.SETTINGS}.
+ * PageStore has overhead, so even just compacted file is not filled completely.
+ * Fill rate is computed only when all other conditions are met and file has not grown, because it reads every table.
+ * <p>
+ * Scheduler can be used as Spring bean with {@link #start()} as init-method and {@link #stop()} as destroy-method.
+ * <pre>
+ *   H2CompactionScheduler scheduler = new H2CompactionScheduler(ds);
+ *   scheduler.setCheckInterval(60000);
+ *   scheduler.start();
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2DataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class H2CompactionScheduler {
+    private static final Log log = LogFactory.getLog(H2CompactionScheduler.class);
+
+    //defaults
+    private static final long DEFAULT_CHECK_INTERVAL = 60 * 1000L;
+    private static final long DEFAULT_MIN_COMPACTION_INTERVAL = 60 * 60 * 1000L;
+    private static final long DEFAULT_MIN_FILE_SIZE = 16 * 1024 * 1024L;
+    private static final double DEFAULT_GROWTH_RATIO = 0.5;
+    private static final long DEFAULT_QUIET_IO_THRESHOLD = 100;
+    private static final double DEFAULT_MIN_FILL_RATE = 0.3;
+
+    private final H2DataSource dataSource;
+    private final File databaseFile;
+
+    private long checkInterval = DEFAULT_CHECK_INTERVAL;
+    private long minCompactionInterval = DEFAULT_MIN_COMPACTION_INTERVAL;
+    private long minFileSize = DEFAULT_MIN_FILE_SIZE;
+    private double growthRatio = DEFAULT_GROWTH_RATIO;
+    private long quietIoThreshold = DEFAULT_QUIET_IO_THRESHOLD;
+    private double minFillRate = DEFAULT_MIN_FILL_RATE;
+
+    private ScheduledExecutorService executor;
+
+    //state. Baseline is size after last compaction, unknown till first one.
+    private long baselineSize = -1;
+    private long lastIoCount = -1;
+    private long lastCompactionAt = 0;
+
+    //metrics
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong compactionTimeMillis = new AtomicLong();
+    private volatile long lastCompactionTimeMillis = 0;
+
+    /**
+     * Creates scheduler for given DataSource. Scheduler is not started until {@link #start()} is called.
+     *
+     * @param dataSource DataSource of file-mode H2 database
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL or its URL does not point to file database
+     */
+    public H2CompactionScheduler(H2DataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.databaseFile = H2Files.databaseFile(dataSource.getUrl());
+    }
+
+    /**
+     * Starts periodical checks in background thread
+     *
+     * @throws java.lang.IllegalStateException when scheduler is already started
+     */
+    public synchronized void start(){
+        if(this.executor!=null){
+            throw new IllegalStateException("Scheduler is already started");
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-compaction-" + dataSource.getName());
+                t.setDaemon(true);
+                //protect foreground work
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try{
+                    check();
+                } catch (RuntimeException e){
+                    log.warn("Compaction check failed for DataSource " + dataSource.getName(), e);
+                }
+            }
+        }, this.checkInterval, this.checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background checks. Running compaction (if any) is not interrupted.
+     */
+    public synchronized void stop(){
+        if(this.executor!=null){
+            this.executor.shutdown();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Runs single check and compacts database if conditions are met.
+     * Normally called by background thread, but may be called directly.
+     * <p>
+     * Sessions are counted and database is compacted on same connection while database is in exclusive mode,
+     * so no session comes between check and compaction.
+     *
+     * @return true if compaction was done, false otherwise
+     */
+    public synchronized boolean check(){
+        long size = this.databaseFile.length();
+
+        boolean due = (System.currentTimeMillis() - this.lastCompactionAt) >= this.minCompactionInterval;
+        boolean bigEnough = size >= this.minFileSize;
+        boolean grown = this.baselineSize < 0 || size >= this.baselineSize * (1 + this.growthRatio);
+
+        Connection connection = null;
+        Statement statement = null;
+        try{
+            connection = this.dataSource.getConnection();
+            statement = connection.createStatement();
+            boolean quietIo = this.isQuietIo(statement);
+            if(!(quietIo && due && bigEnough)){
+                return false;
+            }
+            if(!grown){
+                if(this.minFillRate <= 0){
+                    return false;
+                }
+                boolean sparse = this.fillRate(statement) < this.minFillRate;
+                //reading of tables is not activity of application
+                this.lastIoCount = this.ioCount(statement);
+                if(!sparse){
+                    return false;
+                }
+            }
+            //new sessions are rejected and operations of others wait till exclusive mode ends
+            statement.execute("SET EXCLUSIVE 1");
+            if(this.countSessions(statement) > 1){
+                statement.execute("SET EXCLUSIVE 0");
+                return false;
+            }
+            this.compact(statement);
+            return true;
+        } catch (SQLException e){
+            log.warn("Compaction check failed for DataSource " + this.dataSource.getName(), e);
+            return false;
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Compacts database immediately regardless of conditions.
+     * All open connections to database are closed by H2 during compaction.
+     *
+     * @return number of bytes reclaimed by this compaction
+     */
+    public synchronized long compactNow(){
+        Connection connection = null;
+        Statement statement = null;
+        try{
+            connection = this.dataSource.getConnection();
+            statement = connection.createStatement();
+            return this.compact(statement);
+        } catch (SQLException e){
+            throw new IllegalStateException("Cannot compact DataSource " + this.dataSource.getName(), e);
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private long compact(Statement statement) throws SQLException {
+        long before = this.databaseFile.length();
+        long started = System.currentTimeMillis();
+
+        statement.execute("SHUTDOWN COMPACT");
+
+        long took = System.currentTimeMillis() - started;
+        long after = this.databaseFile.length();
+        long reclaimed = Math.max(0, before - after);
+
+        this.baselineSize = after;
+        this.lastCompactionAt = System.currentTimeMillis();
+        //I/O counters are reset by re-opening database
+        this.lastIoCount = -1;
+
+        this.compactionCount.incrementAndGet();
+        this.bytesReclaimed.addAndGet(reclaimed);
+        this.compactionTimeMillis.addAndGet(took);
+        this.lastCompactionTimeMillis = took;
+
+        if(log.isInfoEnabled()){
+            log.info("Compacted DataSource " + this.dataSource.getName() + " in " + took + " ms, reclaimed " + reclaimed + " bytes");
+        }
+        return reclaimed;
+    }
+
+    private boolean isQuietIo(Statement statement) throws SQLException {
+        long ioCount = this.ioCount(statement);
+        long previous = this.lastIoCount;
+        this.lastIoCount = ioCount;
+        //first sample has nothing to compare with
+        return previous >= 0 && (ioCount - previous) <= this.quietIoThreshold;
+    }
+
+    private long ioCount(Statement statement) throws SQLException {
+        return queryLong(statement, "SELECT SUM(CAST(VALUE AS BIGINT)) FROM INFORMATION_SCHEMA.SETTINGS " +
+                "WHERE NAME IN ('info.FILE_WRITE_TOTAL','info.FILE_READ')");
+    }
+
+    private double fillRate(Statement statement) throws SQLException {
+        long used = queryLong(statement, "SELECT SUM(DISK_SPACE_USED('\"' || REPLACE(TABLE_SCHEMA, '\"', '\"\"') || " +
+                "'\".\"' || REPLACE(TABLE_NAME, '\"', '\"\"') || '\"')) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_TYPE = 'TABLE'");
+        long allocated = queryLong(statement, "SELECT CAST(P.VALUE AS BIGINT) * CAST(S.VALUE AS BIGINT) " +
+                "FROM INFORMATION_SCHEMA.SETTINGS P, INFORMATION_SCHEMA.SETTINGS S " +
+                "WHERE P.NAME = 'info.PAGE_COUNT' AND S.NAME = 'info.PAGE_SIZE'");
+        double fillRate = allocated > 0 ? (double) used / allocated : 1;
+        if(log.isDebugEnabled()){
+            log.debug("Fill rate of DataSource " + this.dataSource.getName() + " is " + fillRate);
+        }
+        return fillRate;
+    }
+
+    private static long queryLong(Statement statement, String sql) throws SQLException {
+        ResultSet rs = statement.executeQuery(sql);
+        try{
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+        }
+    }
+
+    private int countSessions(Statement statement) throws SQLException {
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS");
+        try{
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+        }
+    }
+
+    /**
+     * Reports number of compactions done
+     *
+     * @return compaction count
+     */
+    public long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    /**
+     * Reports total bytes reclaimed by all compactions
+     *
+     * @return reclaimed bytes
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Reports total time spent by all compactions
+     *
+     * @return time in milliseconds
+     */
+    public long getCompactionTimeMillis() {
+        return compactionTimeMillis.get();
+    }
+
+    /**
+     * Reports time spent by last compaction
+     *
+     * @return time in milliseconds or 0 when no compaction was done yet
+     */
+    public long getLastCompactionTimeMillis() {
+        return lastCompactionTimeMillis;
+    }
+
+    /**
+     * Reports database file which is watched by scheduler
+     *
+     * @return database file
+     */
+    public File getDatabaseFile() {
+        return databaseFile;
+    }
+
+    /**
+     * How often checks run
+     *
+     * @param checkInterval interval in milliseconds. Should be positive. Takes effect on next {@link #start()}.
+     */
+    public void setCheckInterval(long checkInterval) {
+        if(checkInterval < 1){
+            throw new IllegalArgumentException("Check interval cannot be less than 1");
+        }
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Rate limit: minimal time between two compactions
+     *
+     * @param minCompactionInterval interval in milliseconds
+     */
+    public void setMinCompactionInterval(long minCompactionInterval) {
+        this.minCompactionInterval = minCompactionInterval;
+    }
+
+    /**
+     * Files smaller than this are never compacted
+     *
+     * @param minFileSize size in bytes
+     */
+    public void setMinFileSize(long minFileSize) {
+        this.minFileSize = minFileSize;
+    }
+
+    /**
+     * How much file should grow since last compaction before it is compacted again.
+     * For example, 0.5 means file should become 50% bigger.
+     *
+     * @param growthRatio ratio, 0 or more
+     */
+    public void setGrowthRatio(double growthRatio) {
+        this.growthRatio = growthRatio;
+    }
+
+    /**
+     * Maximum number of file reads and writes between two checks, for database to be considered quiet
+     *
+     * @param quietIoThreshold number of I/O operations
+     */
+    public void setQuietIoThreshold(long quietIoThreshold) {
+        this.quietIoThreshold = quietIoThreshold;
+    }
+
+    /**
+     * File which has not grown enough is compacted anyway when part of it used by tables falls below this,
+     * for example after big deletes. Default is 0.3.
+     *
+     * @param minFillRate fill rate from 0 to 1. 0 turns fill rate check off.
+     */
+    public void setMinFillRate(double minFillRate) {
+        this.minFillRate = minFillRate;
+    }
+}
@@ -3,11 +3,16 @@ package net.virtalab.databazer.h2;
 import net.virtalab.databazer.NamedDataSource;
 
 import java.lang.reflect.Field;
+import java.sql.Connection;
 import java.sql.Driver;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The H2DataSource represents implementation of DataSource interface {@link javax.sql.DataSource} for H2 Databases
@@ -59,6 +64,21 @@ import java.util.Map;
  * @since 0.1
  */
 public class H2DataSource extends NamedDataSource {
+    /**
+     * Released when DataSource is ready to serve traffic. NULL means always ready.
+     */
+    private CountDownLatch ready;
+
+    /**
+     * Tracks access to this DataSource, if it is registered at {@link H2MemoryManager}
+     */
+    private volatile H2MemoryManager memoryManager;
+
+    /**
+     * All connections are marked read-only
+     */
+    private boolean readOnly = false;
+
     /**
      * Constructor invoked by Spring when creating bean, sets default values.
      */
@@ -164,6 +184,12 @@ public class H2DataSource extends NamedDataSource {
 
         String url;
 
+        private List<String> warmUpTables = new ArrayList<String>();
+        private int warmUpThreads = 1;
+        private boolean warmUpInBackground = true;
+
+        private boolean readOnly = false;
+
         /**
          * Constructs DataSource with defaults
          */
@@ -378,6 +404,99 @@ public class H2DataSource extends NamedDataSource {
             return this;
         }
 
+        /**
+         * Tables which are loaded into H2 cache (together with their indexes) right after DataSource creation.
+         * <p>
+         * Warm-up makes sense for file (or server+file) databases, which stay open after last connection is closed.
+         * That's why option {@code DB_CLOSE_DELAY=-1} is added, unless you set DB_CLOSE_DELAY yourself.
+         * <p>
+         * Until warm-up is finished DataSource reports that it is {@link H2DataSource#isReady() not ready}.
+         *
+         * @param tables table names. Can be called several times, tables are accumulated.
+         * @return {@link #Creator() Creator} instance
+         */
+        public Creator warmUp(String... tables){
+            for(String table: tables){
+                this.warmUpTables.add(table);
+            }
+            return this;
+        }
+
+        /**
+         * Number of parallel scans used while {@link #warmUp(String...) warming up}. Default is 1.
+         *
+         * @param threads number of threads (and connections). Should be 1 or more.
+         * @return {@link #Creator() Creator} instance
+         */
+        public Creator warmUpThreads(int threads){
+            this.warmUpThreads = threads;
+            return this;
+        }
+
+        /**
+         * Defines if {@link #create()} waits for {@link #warmUp(String...) warm-up}.
+         * By default warm-up runs in background and {@link #create()} returns immediately.
+         *
+         * @param background true - run in background, false - {@link #create()} returns after warm-up is done
+         * @return {@link #Creator() Creator} instance
+         */
+        public Creator warmUpInBackground(boolean background){
+            this.warmUpInBackground = background;
+            return this;
+        }
+
+        /**
+         * Read-only mode for database.
+         * Database is opened with {@code ACCESS_MODE_DATA=r}, so no file lock is taken,
+         * and all connections are marked {@link java.sql.Connection#setReadOnly(boolean) read-only}
+         * and reject statements other than reads with {@link java.sql.SQLException}.
+         * <p>
+         * Please note, that database opened inside same JVM by other DataSource is shared, and its access mode wins.
+         * To read database which is written by same JVM use {@link #createReadWrite()}.
+         *
+         * @return {@link #Creator() Creator} instance
+         */
+        public Creator readOnly(){
+            this.readOnly = true;
+            return this;
+        }
+
+        /**
+         * Triggers creation of writer and reader DataSources of same database paired together.
+         * <p>
+         * Reads are routed to reader, writes - to writer. See {@link H2ReadWriteDataSource} for routing rules.
+         * Database is opened in MVCC mode, unless {@code MVCC} or {@code MULTI_THREADED} option is set,
+         * so long reads do not block writer.
+         * Reader DataSource is named as writer with {@code -reader} suffix.
+         *
+         * @return generated {@link H2ReadWriteDataSource}
+         * @throws java.lang.IllegalArgumentException same as {@link #create()}
+         * @throws java.lang.IllegalStateException same as {@link #create()} and when Creator is in {@link #readOnly() read-only mode}
+         * or database is unnamed in-memory database (every connection gets its own database there)
+         */
+        public H2ReadWriteDataSource createReadWrite(){
+            if(this.readOnly){
+                throw new IllegalStateException("Read-only Creator cannot create writer. Remove readOnly()");
+            }
+            if(this.url==null && this.storageType==StorageType.MEMORY && this.databaseName.equals(DEFAULT_DBNAME)){
+                throw new IllegalStateException("Unnamed in-memory database cannot be shared by writer and reader. Use databaseName()");
+            }
+            String upperUrl = (this.url==null) ? "" : this.url.toUpperCase();
+            boolean concurrencySet = this.options.containsKey("MVCC") || this.options.containsKey("MULTI_THREADED")
+                    || upperUrl.contains("MVCC") || upperUrl.contains("MULTI_THREADED");
+            if(!concurrencySet){
+                this.options.put("MVCC","TRUE");
+            }
+
+            H2DataSource writer = this.create();
+
+            H2DataSource reader = new H2DataSource(this);
+            reader.setName(this.name + "-reader");
+            reader.readOnly = true;
+
+            return new H2ReadWriteDataSource(this.name, writer, reader);
+        }
+
         /**
          * Triggers DataSource creation.
          *
@@ -450,7 +569,28 @@ public class H2DataSource extends NamedDataSource {
                 throw new IllegalArgumentException("Empty name is not allowed");
             }
 
-            return new H2DataSource(this);
+            if(this.warmUpThreads < 1){
+                throw new IllegalArgumentException("Warm-up threads cannot be less than 1");
+            }
+            if(this.warmUpTables.size() > 0){
+                //warmed cache is useless if DB closes together with last connection
+                boolean closeDelaySet = this.options.containsKey("DB_CLOSE_DELAY")
+                        || (isURLDefined && this.url.toUpperCase().contains("DB_CLOSE_DELAY"));
+                if(!closeDelaySet){
+                    this.options.put("DB_CLOSE_DELAY","-1");
+                }
+            }
+
+            if(this.readOnly){
+                this.options.put("ACCESS_MODE_DATA","r");
+            }
+
+            H2DataSource dataSource = new H2DataSource(this);
+            dataSource.readOnly = this.readOnly;
+            if(this.warmUpTables.size() > 0){
+                dataSource.warmUp(this.warmUpTables, this.warmUpThreads, this.warmUpInBackground);
+            }
+            return dataSource;
         }
         /**
          * Validates if creator instance has null values at fields
@@ -541,6 +681,77 @@ public class H2DataSource extends NamedDataSource {
         this.setUrl(URLBuilder.toString());
     }
 
+    /**
+     * Reports if DataSource is ready to serve traffic.
+     * DataSource is not ready while {@link Creator#warmUp(String...) warm-up} is in progress.
+     *
+     * @return true when ready
+     */
+    public boolean isReady(){
+        return this.ready==null || this.ready.getCount()==0;
+    }
+
+    /**
+     * Waits until DataSource becomes {@link #isReady() ready}
+     *
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return true when ready, false when timeout elapsed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.ready==null || this.ready.await(timeout, unit);
+    }
+
+    /**
+     * Reports if DataSource gives out read-only connections only
+     *
+     * @return true for {@link Creator#readOnly() read-only} DataSource and for reader of {@link H2ReadWriteDataSource}
+     */
+    public boolean isReadOnly(){
+        return this.readOnly;
+    }
+
+    /**
+     * Gives out connection and reports access to {@link H2MemoryManager} (if registered there),
+     * so evicted database is restored before connection is used.
+     * Connection of read-only DataSource rejects statements which are not reads.
+     */
+    @Override
+    protected Connection getConnectionFromDriver(Properties props) throws SQLException {
+        H2MemoryManager manager = this.memoryManager;
+        Connection connection = manager==null ? super.getConnectionFromDriver(props) : manager.connect(this, props);
+        if(this.readOnly){
+            //H2 takes read-only flag as hint only, so statements are checked by wrapper
+            connection.setReadOnly(true);
+            connection = ReadOnlyConnection.wrap(connection, this.getName());
+        }
+        return connection;
+    }
+
+    /**
+     * Opens connection without memory manager: used by manager, which opens it under its own lock
+     */
+    Connection connectUnmanaged(Properties props) throws SQLException {
+        return super.getConnectionFromDriver(props);
+    }
+
+    void setMemoryManager(H2MemoryManager memoryManager){
+        this.memoryManager = memoryManager;
+    }
+
+    private void warmUp(List<String> tables, int threads, boolean background){
+        this.ready = new CountDownLatch(1);
+        H2WarmUp warmUp = new H2WarmUp(this, tables, threads, this.ready);
+        if(background){
+            Thread t = new Thread(warmUp, "databazer-warmup-" + this.getName());
+            t.setDaemon(true);
+            t.start();
+        } else {
+            warmUp.run();
+        }
+    }
+
     private String createMemoryDB(Creator creator){
         StringBuilder builder = new StringBuilder();
         //adding prefix "mem" (but not for MEMORY mode DB, because it already has it)
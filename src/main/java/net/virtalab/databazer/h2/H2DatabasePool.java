@@ -0,0 +1,322 @@
+package net.virtalab.databazer.h2;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of ready-made, isolated in-memory H2 databases which share same schema.
+ * <p>
+ * Each database in pool is uniquely named {@code jdbc:h2:mem:} database, created from template schema.
+ * Template schema is either list of SQL statements or existing DataSource,
+ * which is cloned (schema and data) by using H2 {@code SCRIPT} command.
+ * <p>
+ * Typical usage in tests which run in parallel:
+ * <pre>
+ *   H2DatabasePool pool = new H2DatabasePool(schema, 4);
+ *
+ *   H2DataSource ds = pool.acquire();
+ *   try{
+ *       //test body
+ *   } finally {
+ *       pool.release(ds);
+ *   }
+ * </pre>
+ * <p>
+ * Released database is reset in background (all objects dropped and template schema applied again)
+ * and then returned to pool, so next {@link #acquire()} gets clean database without paying for schema creation.
+ * Database which cannot be reset is dropped and replaced by new one.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2DataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class H2DatabasePool {
+    private static final Log log = LogFactory.getLog(H2DatabasePool.class);
+
+    private static final String NAME_PREFIX = "databazer_pool_";
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+    //put into queue when pool closes, so waiters wake up
+    private static final H2DataSource CLOSED = new H2DataSource();
+
+    private final List<String> script;
+    private final int size;
+    private final String namePrefix;
+
+    private final BlockingQueue<H2DataSource> ready;
+    private final List<H2DataSource> all = Collections.synchronizedList(new ArrayList<H2DataSource>());
+    private final Set<H2DataSource> acquired = Collections.synchronizedSet(new HashSet<H2DataSource>());
+    private final CountDownLatch filled;
+    private final AtomicInteger dbCounter = new AtomicInteger();
+    private final ExecutorService maintainer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates pool, which clones schema and data of template DataSource.
+     *
+     * @param template DataSource of H2 database, which is used as template
+     * @param size number of databases kept ready. Should be 1 or more.
+     */
+    public H2DatabasePool(NamedDataSource template, int size){
+        this(scriptOf(template), size);
+    }
+
+    /**
+     * Creates pool with databases initialized by given SQL statements.
+     *
+     * @param script SQL statements creating template schema. Executed one-by-one for each database.
+     * @param size number of databases kept ready. Should be 1 or more.
+     * @throws java.lang.IllegalArgumentException when script is NULL or size is less than 1
+     */
+    public H2DatabasePool(List<String> script, int size){
+        if(script==null){
+            throw new IllegalArgumentException("Script cannot be NULL");
+        }
+        if(size < 1){
+            throw new IllegalArgumentException("Pool size cannot be less than 1");
+        }
+        this.script = new ArrayList<String>(script);
+        this.size = size;
+        this.namePrefix = NAME_PREFIX + POOL_COUNTER.incrementAndGet() + "_";
+        this.ready = new LinkedBlockingQueue<H2DataSource>();
+        this.filled = new CountDownLatch(size);
+        this.maintainer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, namePrefix + "maintainer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        //first one is built synchronously: so broken template fails fast
+        this.ready.add(this.build());
+        this.filled.countDown();
+        for(int i=1;i<size;i++){
+            this.maintainer.execute(new Runnable() {
+                public void run() {
+                    try{
+                        replenish();
+                    } finally {
+                        filled.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes ready database from pool, waiting if needed.
+     *
+     * @return DataSource of clean database, which is exclusively used by caller until {@link #release(H2DataSource) released}
+     * @throws InterruptedException when interrupted while waiting
+     * @throws java.lang.IllegalStateException when pool is already closed or closes while waiting
+     */
+    public H2DataSource acquire() throws InterruptedException {
+        this.checkOpen();
+        return this.taken(this.ready.take());
+    }
+
+    /**
+     * Takes ready database from pool, waiting up to given timeout.
+     *
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return DataSource of clean database or NULL if none became ready within timeout
+     * @throws InterruptedException when interrupted while waiting
+     * @throws java.lang.IllegalStateException when pool is already closed or closes while waiting
+     */
+    public H2DataSource acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        this.checkOpen();
+        H2DataSource dataSource = this.ready.poll(timeout, unit);
+        return dataSource==null ? null : this.taken(dataSource);
+    }
+
+    private H2DataSource taken(H2DataSource dataSource){
+        if(dataSource==CLOSED){
+            //next waiter should wake up as well
+            this.ready.add(CLOSED);
+            throw new IllegalStateException("Pool is already closed");
+        }
+        this.acquired.add(dataSource);
+        return dataSource;
+    }
+
+    /**
+     * Returns database to pool. Database is reset in background and becomes available again.
+     *
+     * @param dataSource DataSource previously got from {@link #acquire()}
+     * @throws java.lang.IllegalArgumentException when DataSource does not belong to this pool,
+     * is not acquired or is already released
+     */
+    public void release(final H2DataSource dataSource){
+        if(!this.all.contains(dataSource)){
+            throw new IllegalArgumentException("DataSource "+dataSource.getName()+" does not belong to this pool");
+        }
+        if(!this.acquired.remove(dataSource)){
+            throw new IllegalArgumentException("DataSource "+dataSource.getName()+" is not acquired or already released");
+        }
+        if(this.closed){
+            destroy(dataSource);
+            return;
+        }
+        this.maintainer.execute(new Runnable() {
+            public void run() {
+                try{
+                    reset(dataSource);
+                } catch (RuntimeException e){
+                    log.warn("Cannot reset database " + dataSource.getName() + ", replacing it", e);
+                    all.remove(dataSource);
+                    destroy(dataSource);
+                    replenish();
+                    return;
+                }
+                if(closed){
+                    destroy(dataSource);
+                } else {
+                    ready.add(dataSource);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits till all databases of pool are built once. Databases which failed to build are counted as well.
+     *
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return true when all databases are built, false when timeout elapsed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitFilled(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.filled.await(timeout, unit);
+    }
+
+    /**
+     * Reports number of databases maintained by this pool
+     *
+     * @return pool size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Reports number of databases which are ready to be acquired right now
+     *
+     * @return number of ready databases
+     */
+    public int getReadyCount(){
+        return this.closed ? 0 : this.ready.size();
+    }
+
+    /**
+     * Stops background maintenance and drops all databases created by this pool.
+     * Callers waiting at {@link #acquire()} fail with {@link IllegalStateException}.
+     */
+    public void close(){
+        this.closed = true;
+        this.maintainer.shutdown();
+        try {
+            this.maintainer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this.all){
+            for(H2DataSource ds: this.all){
+                destroy(ds);
+            }
+            this.all.clear();
+        }
+        this.acquired.clear();
+        this.ready.clear();
+        this.ready.add(CLOSED);
+    }
+
+    /**
+     * Builds new database into pool. Failure is logged: pool then has one database less.
+     */
+    private void replenish(){
+        if(this.closed){
+            return;
+        }
+        try{
+            this.ready.add(this.build());
+        } catch (RuntimeException e){
+            log.error("Cannot build database of pool " + this.namePrefix, e);
+        }
+    }
+
+    private H2DataSource build(){
+        String dbName = this.namePrefix + this.dbCounter.incrementAndGet();
+        H2DataSource ds = H2DataSource.Creator()
+                .name(dbName)
+                .mem().databaseName(dbName)
+                //keep DB alive between connections
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        this.apply(ds);
+        this.all.add(ds);
+        return ds;
+    }
+
+    private void reset(H2DataSource ds){
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+        this.apply(ds);
+    }
+
+    private void apply(H2DataSource ds){
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        for(String statement: this.script){
+            jdbc.execute(statement);
+        }
+    }
+
+    private void destroy(H2DataSource ds){
+        Connection connection = null;
+        Statement statement = null;
+        try{
+            connection = ds.getConnection();
+            statement = connection.createStatement();
+            statement.execute("SHUTDOWN");
+        } catch (SQLException e){
+            //already gone, nothing to do
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private void checkOpen(){
+        if(this.closed){
+            throw new IllegalStateException("Pool is already closed");
+        }
+    }
+
+    private static List<String> scriptOf(NamedDataSource template){
+        if(template==null){
+            throw new IllegalArgumentException("Template DataSource cannot be NULL");
+        }
+        return new JdbcTemplate(template).queryForList("SCRIPT", String.class);
+    }
+}
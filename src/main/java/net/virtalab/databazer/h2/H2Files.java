@@ -0,0 +1,76 @@
+package net.virtalab.databazer.h2;
+
+import java.io.File;
+
+/**
+ * Helpers for locating files of file-mode H2 databases by their JDBC URL.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+final class H2Files {
+    private static final String PREFIX = "jdbc:h2:";
+    private static final String FILE_PREFIX = "file:";
+
+    private static final String PAGE_STORE_SUFFIX = ".h2.db";
+    private static final String MV_STORE_SUFFIX = ".mv.db";
+
+    private H2Files(){}
+
+    /**
+     * Tells if URL points to embedded file database
+     *
+     * @param url H2 JDBC URL
+     * @return true for file database, false for memory or server database
+     */
+    static boolean isFileUrl(String url){
+        if(url==null || !url.startsWith(PREFIX)){
+            return false;
+        }
+        String rest = url.substring(PREFIX.length());
+        return !(rest.startsWith("mem:") || rest.startsWith("tcp:") || rest.startsWith("ssl:") || rest.startsWith("zip:"));
+    }
+
+    /**
+     * Strips URL prefix and options, leaving path to database (without file suffix)
+     *
+     * @param url H2 JDBC URL of file database
+     * @return path to database as written at URL
+     * @throws java.lang.IllegalArgumentException when URL does not point to file database
+     */
+    static String databasePath(String url){
+        if(!isFileUrl(url)){
+            throw new IllegalArgumentException("URL " + url + " does not point to file database");
+        }
+        String path = url.substring(PREFIX.length());
+        if(path.startsWith(FILE_PREFIX)){
+            path = path.substring(FILE_PREFIX.length());
+        }
+        int optionsStart = path.indexOf(';');
+        if(optionsStart >= 0){
+            path = path.substring(0, optionsStart);
+        }
+        if(path.startsWith("~")){
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+        return path;
+    }
+
+    /**
+     * Finds database file. PageStore file wins when both store files exist.
+     *
+     * @param url H2 JDBC URL of file database
+     * @return database file (may not exist yet)
+     * @throws java.lang.IllegalArgumentException when URL does not point to file database
+     */
+    static File databaseFile(String url){
+        String path = databasePath(url);
+        File mvStore = new File(path + MV_STORE_SUFFIX);
+        File pageStore = new File(path + PAGE_STORE_SUFFIX);
+        if(!pageStore.exists() && mvStore.exists()){
+            return mvStore;
+        }
+        return pageStore;
+    }
+}
@@ -0,0 +1,532 @@
+package net.virtalab.databazer.h2;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory accounting and eviction for named in-memory H2 Databases.
+ * <p>
+ * Named in-memory databases kept alive by {@code DB_CLOSE_DELAY} live at heap until JVM exits.
+ * Manager tracks memory used by each {@link #register(H2DataSource) registered} DataSource
+ * and keeps sum of them within memory budget. When budget is exceeded, least-recently-used databases are evicted
+ * according to {@link EvictionMode eviction mode}:
+ * <ul>
+ *     <li>{@link EvictionMode#DROP} - database is just closed</li>
+ *     <li>{@link EvictionMode#SPILL} - database is written to compressed script at {@link #setSpillDirectory(java.io.File) spill directory}
+ *     and restored transparently, when DataSource gives out next connection</li>
+ * </ul>
+ * Databases with open connections are never evicted.
+ * <p>
+ * Please note that memory usage is an estimate: H2 does not report heap used by in-memory database,
+ * so it is calculated from row count estimates, column types and number of indexes of each table.
+ * <p>
+ * One manager is meant to be shared by all in-memory DataSources of process.
+ * It can be used as Spring bean with {@link #start()} as init-method and {@link #stop()} as destroy-method.
+ * <pre>
+ *   H2MemoryManager manager = new H2MemoryManager(256 * 1024 * 1024);
+ *   manager.setEvictionMode(EvictionMode.SPILL);
+ *   manager.register(ds);
+ *   manager.start();
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2DataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class H2MemoryManager {
+    private static final Log log = LogFactory.getLog(H2MemoryManager.class);
+
+    private static final String MEMORY_PREFIX = "jdbc:h2:mem:";
+    private static final long DEFAULT_CHECK_INTERVAL = 10 * 1000L;
+
+    //estimation constants (bytes)
+    private static final long ROW_OVERHEAD = 40;
+    private static final long VALUE_REFERENCE = 8;
+    private static final long FIXED_VALUE = 24;
+    private static final long VARIABLE_VALUE = 48;
+    private static final long LOB_VALUE = 128;
+    private static final long INDEX_ENTRY = 48;
+    private static final long AVERAGE_LENGTH_CAP = 64;
+
+    private final long budget;
+    private final Map<H2DataSource,Entry> entries = new ConcurrentHashMap<H2DataSource, Entry>();
+
+    private EvictionMode evictionMode = EvictionMode.DROP;
+    private File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+    private long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    private ScheduledExecutorService executor;
+
+    //metrics
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong restoreCount = new AtomicLong();
+
+    /**
+     * Creates manager with given budget.
+     *
+     * @param budget maximum memory (in bytes) used by all registered databases together. Should be positive.
+     * @throws java.lang.IllegalArgumentException when budget is not positive
+     */
+    public H2MemoryManager(long budget){
+        if(budget <= 0){
+            throw new IllegalArgumentException("Budget should be positive");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Starts tracking of DataSource
+     *
+     * @param dataSource DataSource of named in-memory database
+     * @throws java.lang.IllegalArgumentException when DataSource does not point to named in-memory database
+     */
+    public void register(H2DataSource dataSource){
+        String url = dataSource.getUrl();
+        if(url==null || !url.startsWith(MEMORY_PREFIX)){
+            throw new IllegalArgumentException("Only in-memory databases can be managed, got " + url);
+        }
+        String dbName = url.substring(MEMORY_PREFIX.length());
+        int optionsStart = dbName.indexOf(';');
+        if(optionsStart >= 0){
+            dbName = dbName.substring(0, optionsStart);
+        }
+        if(dbName.length()==0){
+            throw new IllegalArgumentException("Unnamed in-memory database cannot be managed: every connection gets its own database");
+        }
+        this.entries.put(dataSource, new Entry(dataSource, dbName));
+        dataSource.setMemoryManager(this);
+    }
+
+    /**
+     * Stops tracking of DataSource. Spilled database is restored.
+     *
+     * @param dataSource previously registered DataSource
+     */
+    public void unregister(H2DataSource dataSource){
+        dataSource.setMemoryManager(null);
+        Entry entry = this.entries.remove(dataSource);
+        if(entry==null){
+            return;
+        }
+        synchronized (entry){
+            if(entry.spillFile!=null){
+                Connection connection = null;
+                try{
+                    connection = rawConnection(dataSource);
+                    this.restore(entry, connection);
+                } catch (SQLException e){
+                    log.warn("Cannot restore DataSource " + dataSource.getName(), e);
+                } finally {
+                    JdbcUtils.closeConnection(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts periodical budget checks in background thread
+     *
+     * @throws java.lang.IllegalStateException when manager is already started
+     */
+    public synchronized void start(){
+        if(this.executor!=null){
+            throw new IllegalStateException("Manager is already started");
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-h2-memory");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try{
+                    enforce();
+                } catch (RuntimeException e){
+                    log.warn("Memory budget check failed", e);
+                }
+            }
+        }, this.checkInterval, this.checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops periodical budget checks
+     */
+    public synchronized void stop(){
+        if(this.executor!=null){
+            this.executor.shutdown();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Measures all databases and evicts least-recently-used ones until total usage fits budget.
+     * Normally called by background thread, but may be called directly.
+     *
+     * @return number of evicted databases
+     */
+    public synchronized int enforce(){
+        long total = this.measure();
+        if(total <= this.budget){
+            return 0;
+        }
+
+        List<Entry> candidates = new ArrayList<Entry>(this.entries.values());
+        Collections.sort(candidates, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.lastAccess < b.lastAccess ? -1 : (a.lastAccess == b.lastAccess ? 0 : 1);
+            }
+        });
+
+        int evicted = 0;
+        for(Entry entry: candidates){
+            if(total <= this.budget){
+                break;
+            }
+            long usage = entry.usage;
+            if(usage > 0 && this.evict(entry)){
+                total -= usage;
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Re-calculates memory usage of all databases, which are currently in memory.
+     *
+     * @return total usage in bytes
+     */
+    public synchronized long measure(){
+        long total = 0;
+        for(Entry entry: this.entries.values()){
+            synchronized (entry){
+                if(entry.evicted){
+                    continue;
+                }
+                Connection connection = null;
+                try{
+                    connection = rawConnection(entry.dataSource);
+                    entry.usage = estimate(connection);
+                } catch (SQLException e){
+                    log.warn("Cannot measure DataSource " + entry.dataSource.getName(), e);
+                } finally {
+                    JdbcUtils.closeConnection(connection);
+                }
+                total += entry.usage;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Called by DataSource each time it gives out connection.
+     * Opens connection, updates last access time and restores evicted database.
+     * Runs under lock of entry, so connection is never opened while database is being evicted.
+     */
+    Connection connect(H2DataSource dataSource, Properties props) throws SQLException {
+        Entry entry = this.entries.get(dataSource);
+        if(entry==null){
+            return dataSource.connectUnmanaged(props);
+        }
+        synchronized (entry){
+            Connection connection = dataSource.connectUnmanaged(props);
+            entry.lastAccess = System.currentTimeMillis();
+            if(entry.evicted){
+                try{
+                    this.restore(entry, connection);
+                } catch (SQLException e){
+                    JdbcUtils.closeConnection(connection);
+                    throw e;
+                }
+            }
+            return connection;
+        }
+    }
+
+    private boolean evict(Entry entry){
+        synchronized (entry){
+            Connection connection = null;
+            Statement statement = null;
+            ResultSet rs = null;
+            File spillFile = null;
+            try{
+                connection = rawConnection(entry.dataSource);
+                statement = connection.createStatement();
+
+                rs = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS");
+                rs.next();
+                if(rs.getInt(1) > 1){
+                    //in use
+                    return false;
+                }
+
+                if(this.evictionMode==EvictionMode.SPILL){
+                    //unique name: spill directory may be shared by managers and processes
+                    spillFile = File.createTempFile("databazer-" + entry.dbName + "-", ".sql.gz", this.spillDirectory);
+                    statement.execute("SCRIPT TO '" + spillFile.getAbsolutePath().replace("'","''") + "' COMPRESSION DEFLATE");
+                }
+                statement.execute("SHUTDOWN");
+
+                entry.spillFile = spillFile;
+                entry.evicted = true;
+                entry.usage = 0;
+                this.evictionCount.incrementAndGet();
+                if(log.isInfoEnabled()){
+                    log.info("Evicted (" + this.evictionMode + ") DataSource " + entry.dataSource.getName());
+                }
+                return true;
+            } catch (SQLException e){
+                log.warn("Cannot evict DataSource " + entry.dataSource.getName(), e);
+                deleteSpill(spillFile);
+                return false;
+            } catch (IOException e){
+                log.warn("Cannot create spill file for DataSource " + entry.dataSource.getName(), e);
+                return false;
+            } finally {
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(statement);
+                JdbcUtils.closeConnection(connection);
+            }
+        }
+    }
+
+    private static void deleteSpill(File spillFile){
+        if(spillFile!=null && !spillFile.delete()){
+            log.debug("Cannot delete spill file " + spillFile);
+        }
+    }
+
+    private void restore(Entry entry, Connection connection) throws SQLException {
+        if(entry.spillFile!=null){
+            Statement statement = connection.createStatement();
+            try{
+                statement.execute("RUNSCRIPT FROM '" + entry.spillFile.getAbsolutePath().replace("'","''") + "' COMPRESSION DEFLATE");
+            } finally {
+                JdbcUtils.closeStatement(statement);
+            }
+            deleteSpill(entry.spillFile);
+            entry.spillFile = null;
+            this.restoreCount.incrementAndGet();
+        }
+        entry.evicted = false;
+    }
+
+    /**
+     * Connection which bypasses access tracking of DataSource
+     */
+    private static Connection rawConnection(H2DataSource dataSource) throws SQLException {
+        Properties props = new Properties();
+        if(dataSource.getUsername()!=null){ props.setProperty("user", dataSource.getUsername()); }
+        if(dataSource.getPassword()!=null){ props.setProperty("password", dataSource.getPassword()); }
+        return dataSource.getDriver().connect(dataSource.getUrl(), props);
+    }
+
+    private static long estimate(Connection connection) throws SQLException {
+        Map<String,Long> rows = new HashMap<String, Long>();
+        Map<String,Long> rowSize = new HashMap<String, Long>();
+        Map<String,Long> indexes = new HashMap<String, Long>();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = null;
+        try{
+            rs = statement.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME, ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES " +
+                    "WHERE TABLE_TYPE = 'TABLE'");
+            while (rs.next()){
+                rows.put(rs.getString(1) + "." + rs.getString(2), rs.getLong(3));
+            }
+            JdbcUtils.closeResultSet(rs);
+
+            rs = statement.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME, DATA_TYPE, CHARACTER_MAXIMUM_LENGTH " +
+                    "FROM INFORMATION_SCHEMA.COLUMNS");
+            while (rs.next()){
+                String table = rs.getString(1) + "." + rs.getString(2);
+                Long size = rowSize.get(table);
+                long valueSize = VALUE_REFERENCE + valueMemory(rs.getInt(3), rs.getLong(4));
+                rowSize.put(table, (size==null ? ROW_OVERHEAD : size) + valueSize);
+            }
+            JdbcUtils.closeResultSet(rs);
+
+            rs = statement.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME, COUNT(DISTINCT INDEX_NAME) " +
+                    "FROM INFORMATION_SCHEMA.INDEXES GROUP BY TABLE_SCHEMA, TABLE_NAME");
+            while (rs.next()){
+                indexes.put(rs.getString(1) + "." + rs.getString(2), rs.getLong(3));
+            }
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+        }
+
+        long total = 0;
+        for(Map.Entry<String,Long> table: rows.entrySet()){
+            Long size = rowSize.get(table.getKey());
+            Long indexCount = indexes.get(table.getKey());
+            long perRow = (size==null ? ROW_OVERHEAD : size) + (indexCount==null ? 0 : indexCount * INDEX_ENTRY);
+            total += table.getValue() * perRow;
+        }
+        return total;
+    }
+
+    private static long valueMemory(int sqlType, long maxLength){
+        switch (sqlType){
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+                //chars are 2 bytes each
+                return VARIABLE_VALUE + 2 * Math.min(maxLength, AVERAGE_LENGTH_CAP);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return VARIABLE_VALUE + Math.min(maxLength, AVERAGE_LENGTH_CAP);
+            case Types.BLOB:
+            case Types.CLOB:
+                return LOB_VALUE;
+            default:
+                return FIXED_VALUE;
+        }
+    }
+
+    /**
+     * Reports estimated memory used by database of DataSource
+     *
+     * @param dataSource registered DataSource
+     * @return usage in bytes as of last measure, 0 for evicted or unknown DataSource
+     */
+    public long getMemoryUsed(H2DataSource dataSource){
+        Entry entry = this.entries.get(dataSource);
+        return entry==null ? 0 : entry.usage;
+    }
+
+    /**
+     * Reports estimated memory used by all registered databases
+     *
+     * @return usage in bytes as of last measure
+     */
+    public long getTotalMemoryUsed(){
+        long total = 0;
+        for(Entry entry: this.entries.values()){
+            total += entry.usage;
+        }
+        return total;
+    }
+
+    /**
+     * Reports estimated memory used by each registered database
+     *
+     * @return map where key is DataSource {@link H2DataSource#getName() name} and value is usage in bytes
+     */
+    public Map<String,Long> getUsage(){
+        Map<String,Long> usage = new LinkedHashMap<String, Long>();
+        for(Entry entry: this.entries.values()){
+            usage.put(entry.dataSource.getName(), entry.usage);
+        }
+        return usage;
+    }
+
+    /**
+     * Tells if database of DataSource is evicted right now
+     *
+     * @param dataSource registered DataSource
+     * @return true when evicted and not accessed since
+     */
+    public boolean isEvicted(H2DataSource dataSource){
+        Entry entry = this.entries.get(dataSource);
+        return entry!=null && entry.evicted;
+    }
+
+    /**
+     * Reports number of evictions done
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Reports number of spilled databases restored
+     *
+     * @return restore count
+     */
+    public long getRestoreCount() {
+        return restoreCount.get();
+    }
+
+    /**
+     * Reports memory budget
+     *
+     * @return budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Defines what happens with evicted database. Default is {@link EvictionMode#DROP}
+     *
+     * @param evictionMode eviction mode
+     */
+    public void setEvictionMode(EvictionMode evictionMode) {
+        this.evictionMode = evictionMode;
+    }
+
+    /**
+     * Directory where spilled databases are stored. Default is {@code java.io.tmpdir}
+     *
+     * @param spillDirectory existing writable directory
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * How often budget is checked
+     *
+     * @param checkInterval interval in milliseconds. Takes effect on next {@link #start()}.
+     */
+    public void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    private static class Entry {
+        private final H2DataSource dataSource;
+        private final String dbName;
+
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile long usage = 0;
+        private volatile boolean evicted = false;
+        private File spillFile;
+
+        private Entry(H2DataSource dataSource, String dbName){
+            this.dataSource = dataSource;
+            this.dbName = dbName;
+        }
+    }
+}
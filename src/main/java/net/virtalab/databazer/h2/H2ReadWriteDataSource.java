@@ -0,0 +1,170 @@
+package net.virtalab.databazer.h2;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Pair of writer and reader DataSources of same H2 database, which routes read-only work to reader.
+ * <p>
+ * Created by {@link H2DataSource.Creator#createReadWrite()}. Connections given out by this DataSource are lazy:
+ * real connection is taken on first statement, from reader when connection is marked
+ * {@link Connection#setReadOnly(boolean) read-only} (which is what Spring does for {@code readOnly} transactions)
+ * or when current Spring transaction is read-only, and from writer otherwise.
+ * <pre>
+ *   H2ReadWriteDataSource ds = H2DataSource.Creator().file().databaseName("reports").createReadWrite();
+ *
+ *   Connection connection = ds.getConnection();
+ *   connection.setReadOnly(true);
+ *   //goes to reader
+ *   connection.createStatement().executeQuery("SELECT ...");
+ * </pre>
+ * Reader and writer share one database inside JVM, so readers do not fight for file lock.
+ * Database is opened in MVCC mode (unless you set {@code MVCC} or {@code MULTI_THREADED} option yourself),
+ * so readers see committed snapshot and do not block writer.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2DataSource.Creator#createReadWrite()
+ * @version 0.5
+ * @since 0.5
+ */
+public class H2ReadWriteDataSource extends AbstractDataSource {
+    private final String name;
+    private final H2DataSource writer;
+    private final H2DataSource reader;
+
+    H2ReadWriteDataSource(String name, H2DataSource writer, H2DataSource reader){
+        this.name = name;
+        this.writer = writer;
+        this.reader = reader;
+    }
+
+    /**
+     * Gives out lazy connection, which is routed on first use
+     *
+     * @return connection proxy
+     */
+    public Connection getConnection() throws SQLException {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new RoutingConnection());
+    }
+
+    /**
+     * Credentials are defined by Creator, so custom ones are not supported
+     *
+     * @throws java.lang.UnsupportedOperationException always
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new UnsupportedOperationException("Credentials are defined by Creator");
+    }
+
+    /**
+     * Reports name of DataSource pair
+     *
+     * @return name of writer DataSource
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Writer DataSource, for cases when routing should be bypassed
+     *
+     * @return writer
+     */
+    public H2DataSource getWriter() {
+        return writer;
+    }
+
+    /**
+     * Reader DataSource, for cases when routing should be bypassed. Its connections are always read-only:
+     * statements other than reads are rejected with {@link SQLException}.
+     *
+     * @return reader
+     */
+    public H2DataSource getReader() {
+        return reader;
+    }
+
+    /**
+     * Collects connection settings until first real call and then picks reader or writer
+     */
+    private class RoutingConnection implements InvocationHandler {
+        private Connection target;
+
+        private boolean readOnly = false;
+        private Boolean autoCommit;
+        private Integer isolation;
+        private boolean closed = false;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return "Routing connection of " + name + (target==null ? " (not routed yet)" : " to " + target);
+            }
+
+            if(this.target==null){
+                if(methodName.equals("setReadOnly")){
+                    this.readOnly = (Boolean) args[0];
+                    return null;
+                } else if(methodName.equals("isReadOnly")){
+                    return this.readOnly;
+                } else if(methodName.equals("setAutoCommit")){
+                    this.autoCommit = (Boolean) args[0];
+                    return null;
+                } else if(methodName.equals("getAutoCommit")){
+                    return this.autoCommit==null ? Boolean.TRUE : this.autoCommit;
+                } else if(methodName.equals("setTransactionIsolation")){
+                    this.isolation = (Integer) args[0];
+                    return null;
+                } else if(methodName.equals("getTransactionIsolation")){
+                    return this.isolation==null ? Connection.TRANSACTION_READ_COMMITTED : this.isolation;
+                } else if(methodName.equals("commit") || methodName.equals("rollback") || methodName.equals("clearWarnings")){
+                    //nothing done yet
+                    return null;
+                } else if(methodName.equals("getWarnings")){
+                    return null;
+                } else if(methodName.equals("close")){
+                    this.closed = true;
+                    return null;
+                } else if(methodName.equals("isClosed")){
+                    return this.closed;
+                }
+                if(this.closed){
+                    throw new SQLException("Connection is closed");
+                }
+                this.target = this.route();
+            }
+
+            try{
+                return method.invoke(this.target, args);
+            } catch (InvocationTargetException e){
+                throw e.getTargetException();
+            }
+        }
+
+        private Connection route() throws SQLException {
+            boolean useReader = this.readOnly || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+            Connection connection = useReader ? reader.getConnection() : writer.getConnection();
+            try{
+                if(this.autoCommit!=null){ connection.setAutoCommit(this.autoCommit); }
+                if(this.isolation!=null){ connection.setTransactionIsolation(this.isolation); }
+            } catch (SQLException e){
+                connection.close();
+                throw e;
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,616 @@
+package net.virtalab.databazer.h2;
+
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.query.StreamingQuery;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory H2 copy of hot tables of other database (normally MySQL), for sub-millisecond in-process reads.
+ * <p>
+ * Replica is DataSource itself: its connections go to current version of in-memory database.
+ * Tables are refreshed in two ways:
+ * <ul>
+ *     <li>full reload ({@link #reload()}) - all tables are loaded into new in-memory database at background,
+ *     which then replaces current one at once. Readers see either old or new version, never half-loaded table.
+ *     Previous version is kept until next reload, so connections taken before reload keep working.</li>
+ *     <li>incremental refresh ({@link #refresh()}) - for tables added with watermark column (like {@code updated_at}),
+ *     rows changed since last seen watermark are merged by key into current version, one transaction per table.
+ *     Versions are opened in MVCC mode, so readers see table before or after refresh. Rows deleted at source
+ *     are not noticed by incremental refresh, only by full reload.</li>
+ * </ul>
+ * {@link #start()} makes first full reload and schedules next ones by {@link #setReloadInterval(long) reload}
+ * and {@link #setRefreshInterval(long) refresh} intervals.
+ * <pre>
+ *   H2Replica replica = new H2Replica(mysql, "reference");
+ *   replica.addTable("country");
+ *   replica.addTable("currency_rate", "id", "updated_at");
+ *   replica.setRefreshInterval(5000);
+ *   replica.start();
+ *
+ *   new JdbcTemplate(replica).queryForList("SELECT * FROM country");
+ * </pre>
+ * Table schema at H2 is built from JDBC metadata of source: column types and primary key, no other indexes.
+ * Table and column names are put into SQL as is, so they should not come from untrusted input.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2DataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class H2Replica extends AbstractDataSource {
+    private static final Log log = LogFactory.getLog(H2Replica.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final NamedDataSource source;
+    private final String name;
+    private final Map<String, ReplicatedTable> tables = new LinkedHashMap<String, ReplicatedTable>();
+
+    private long reloadInterval = 0;
+    private long refreshInterval = 0;
+
+    private final Object refreshLock = new Object();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private volatile H2DataSource current;
+    private H2DataSource previous;
+    private int versionCounter = 0;
+
+    private Thread scheduler;
+    private volatile boolean running = false;
+
+    //metrics
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong rowsMerged = new AtomicLong();
+    private volatile long lastReloadMillis = 0;
+
+    /**
+     * Creates replica. Tables should be added before first load.
+     *
+     * @param source DataSource to copy tables from
+     * @param name name of replica, used for names of in-memory databases
+     * @throws java.lang.IllegalArgumentException when any argument is NULL
+     */
+    public H2Replica(NamedDataSource source, String name){
+        if(source==null || name==null){
+            throw new IllegalArgumentException("Source and name cannot be NULL");
+        }
+        this.source = source;
+        this.name = name;
+    }
+
+    /**
+     * Adds table, which is refreshed only by full reload
+     *
+     * @param table table name
+     */
+    public void addTable(String table){
+        this.addTable(new ReplicatedTable(table, null, null));
+    }
+
+    /**
+     * Adds table, which is refreshed incrementally by watermark column
+     *
+     * @param table table name
+     * @param keyColumn unique key, used to merge changed rows
+     * @param watermarkColumn column which grows on every change of row, for example {@code updated_at} timestamp
+     */
+    public void addTable(String table, String keyColumn, String watermarkColumn){
+        if(keyColumn==null || watermarkColumn==null){
+            throw new IllegalArgumentException("Key and watermark columns cannot be NULL");
+        }
+        this.addTable(new ReplicatedTable(table, keyColumn, watermarkColumn));
+    }
+
+    private void addTable(ReplicatedTable table){
+        if(table.name==null){
+            throw new IllegalArgumentException("Table cannot be NULL");
+        }
+        synchronized (this.refreshLock){
+            this.tables.put(table.name, table);
+        }
+    }
+
+    /**
+     * Loads all tables into new version and starts background refreshing
+     *
+     * @throws SQLException when first load fails
+     * @throws java.lang.IllegalStateException when replica is already started
+     */
+    public synchronized void start() throws SQLException {
+        if(this.running){
+            throw new IllegalStateException("Replica is already started");
+        }
+        this.reload();
+        this.running = true;
+        if(this.reloadInterval > 0 || this.refreshInterval > 0){
+            this.scheduler = new Thread(new Scheduler(), "databazer-replica-" + this.name);
+            this.scheduler.setDaemon(true);
+            this.scheduler.start();
+        }
+    }
+
+    /**
+     * Stops background refreshing and drops all versions
+     */
+    public synchronized void stop(){
+        this.running = false;
+        if(this.scheduler!=null){
+            this.scheduler.interrupt();
+            try{
+                this.scheduler.join();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+        synchronized (this.refreshLock){
+            shutdown(this.previous);
+            shutdown(this.current);
+            this.previous = null;
+            this.current = null;
+        }
+    }
+
+    /**
+     * Loads all tables into new in-memory database and makes it current
+     *
+     * @throws SQLException when load fails. Current version stays as it was.
+     */
+    public void reload() throws SQLException {
+        synchronized (this.refreshLock){
+            long started = System.currentTimeMillis();
+            int version = ++this.versionCounter;
+            H2DataSource next = H2DataSource.Creator()
+                    .mem().databaseName(this.name + "_v" + version)
+                    .option("DB_CLOSE_DELAY", "-1")
+                    .option("MVCC", "TRUE")
+                    .create();
+            next.setName(this.name);
+            try{
+                for(ReplicatedTable table: this.tables.values()){
+                    this.createTable(table, next);
+                    table.nextWatermark = this.copyRows(table, next, null, false);
+                }
+            } catch (SQLException e){
+                shutdown(next);
+                throw e;
+            }
+
+            //swap
+            for(ReplicatedTable table: this.tables.values()){
+                table.watermark = table.nextWatermark;
+            }
+            shutdown(this.previous);
+            this.previous = this.current;
+            this.current = next;
+            this.loaded.countDown();
+
+            this.lastReloadMillis = System.currentTimeMillis() - started;
+            this.reloadCount.incrementAndGet();
+            log.info("Replica " + this.name + " version " + version + " loaded in " + this.lastReloadMillis + " ms");
+        }
+    }
+
+    /**
+     * Merges rows changed since last refresh into current version, for tables with watermark column.
+     * Does nothing before first {@link #reload()}.
+     *
+     * @throws SQLException when refresh of table fails. Table stays as it was, other tables are refreshed.
+     */
+    public void refresh() throws SQLException {
+        synchronized (this.refreshLock){
+            H2DataSource target = this.current;
+            if(target==null){
+                return;
+            }
+            SQLException failure = null;
+            for(ReplicatedTable table: this.tables.values()){
+                if(table.watermarkColumn==null){
+                    continue;
+                }
+                try{
+                    Timestamp watermark = this.copyRows(table, target, table.watermark, true);
+                    if(watermark!=null){
+                        table.watermark = watermark;
+                    }
+                } catch (SQLException e){
+                    log.warn("Refresh of " + table.name + " at replica " + this.name + " failed", e);
+                    if(failure==null){
+                        failure = e;
+                    }
+                }
+            }
+            this.refreshCount.incrementAndGet();
+            if(failure!=null){
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Creates table at H2 like one at source
+     */
+    private void createTable(ReplicatedTable table, H2DataSource target) throws SQLException {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table.name).append("(");
+        Connection connection = this.source.getConnection();
+        Statement statement = null;
+        ResultSet rs = null;
+        List<String> keys = new ArrayList<String>();
+        try{
+            statement = connection.createStatement();
+            rs = statement.executeQuery("SELECT * FROM " + table.name + " WHERE 1 = 0");
+            ResultSetMetaData meta = rs.getMetaData();
+            for(int i=1;i<=meta.getColumnCount();i++){
+                ddl.append(i > 1 ? ", " : "").append(meta.getColumnName(i)).append(' ').append(h2Type(meta, i));
+            }
+            JdbcUtils.closeResultSet(rs);
+            rs = null;
+
+            DatabaseMetaData databaseMeta = connection.getMetaData();
+            for(String candidate: new String[]{table.name, table.name.toUpperCase(), table.name.toLowerCase()}){
+                rs = databaseMeta.getPrimaryKeys(connection.getCatalog(), null, candidate);
+                while (rs.next()){
+                    keys.add(rs.getString("COLUMN_NAME"));
+                }
+                JdbcUtils.closeResultSet(rs);
+                rs = null;
+                if(!keys.isEmpty()){
+                    break;
+                }
+            }
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+        if(keys.isEmpty() && table.keyColumn!=null){
+            keys.add(table.keyColumn);
+        }
+        if(!keys.isEmpty()){
+            ddl.append(", PRIMARY KEY(");
+            for(int i=0;i<keys.size();i++){
+                ddl.append(i > 0 ? ", " : "").append(keys.get(i));
+            }
+            ddl.append(")");
+        }
+        ddl.append(")");
+
+        Connection h2 = target.getConnection();
+        Statement create = null;
+        try{
+            create = h2.createStatement();
+            create.execute(ddl.toString());
+        } finally {
+            JdbcUtils.closeStatement(create);
+            JdbcUtils.closeConnection(h2);
+        }
+    }
+
+    /**
+     * Maps JDBC type of source column to H2 type
+     */
+    private static String h2Type(ResultSetMetaData meta, int column) throws SQLException {
+        switch (meta.getColumnType(column)){
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return meta.isSigned(column) ? "SMALLINT" : "INT";
+            case Types.INTEGER:
+                return meta.isSigned(column) ? "INT" : "BIGINT";
+            case Types.BIGINT:
+                return meta.isSigned(column) ? "BIGINT" : "DECIMAL(20, 0)";
+            case Types.REAL:
+                return "REAL";
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return "DECIMAL(" + Math.max(1, meta.getPrecision(column)) + ", " + Math.max(0, meta.getScale(column)) + ")";
+            case Types.DATE:
+                return "DATE";
+            case Types.TIME:
+                return "TIME";
+            case Types.TIMESTAMP:
+                return "TIMESTAMP";
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return "VARBINARY";
+            case Types.BLOB:
+                return "BLOB";
+            case Types.CLOB:
+            case Types.NCLOB:
+                return "CLOB";
+            default:
+                return "VARCHAR";
+        }
+    }
+
+    /**
+     * Streams rows of table from source into target in one transaction
+     *
+     * @param since watermark to start from or NULL for all rows
+     * @param merge when true, rows are merged by key, otherwise inserted
+     * @return highest watermark seen or NULL when table has no watermark or no rows
+     */
+    private Timestamp copyRows(final ReplicatedTable table, H2DataSource target, Timestamp since, final boolean merge)
+            throws SQLException {
+        final Connection connection = target.getConnection();
+        final PreparedStatement[] statement = new PreparedStatement[1];
+        final Timestamp[] watermark = new Timestamp[1];
+        final int[] batched = new int[1];
+        final StringBuilder sql = new StringBuilder(merge ? "MERGE INTO " : "INSERT INTO ").append(table.name);
+        try{
+            connection.setAutoCommit(false);
+            String select = "SELECT * FROM " + table.name;
+            Object[] params = new Object[0];
+            if(since!=null){
+                //rows changed in same moment as watermark may be committed after previous refresh
+                select += " WHERE " + table.watermarkColumn + " >= ?";
+                params = new Object[]{since};
+            }
+            long rows = new StreamingQuery(this.source).forEach(select, new RowCallbackHandler() {
+                private int columnCount;
+                private int watermarkIndex = -1;
+
+                public void processRow(ResultSet rs) throws SQLException {
+                    if(statement[0]==null){
+                        ResultSetMetaData meta = rs.getMetaData();
+                        this.columnCount = meta.getColumnCount();
+                        StringBuilder values = new StringBuilder();
+                        sql.append("(");
+                        for(int i=1;i<=this.columnCount;i++){
+                            sql.append(i > 1 ? ", " : "").append(meta.getColumnName(i));
+                            values.append(i > 1 ? ", " : "").append('?');
+                            if(meta.getColumnName(i).equalsIgnoreCase(table.watermarkColumn)){
+                                this.watermarkIndex = i;
+                            }
+                        }
+                        sql.append(")");
+                        if(merge){
+                            sql.append(" KEY(").append(table.keyColumn).append(")");
+                        }
+                        sql.append(" VALUES(").append(values).append(")");
+                        statement[0] = connection.prepareStatement(sql.toString());
+                    }
+                    for(int i=1;i<=this.columnCount;i++){
+                        statement[0].setObject(i, rs.getObject(i));
+                    }
+                    if(this.watermarkIndex > 0){
+                        Timestamp value = rs.getTimestamp(this.watermarkIndex);
+                        if(value!=null && (watermark[0]==null || value.after(watermark[0]))){
+                            watermark[0] = value;
+                        }
+                    }
+                    statement[0].addBatch();
+                    if(++batched[0] >= BATCH_SIZE){
+                        statement[0].executeBatch();
+                        batched[0] = 0;
+                    }
+                }
+            }, params);
+            if(batched[0] > 0){
+                statement[0].executeBatch();
+            }
+            connection.commit();
+            if(merge){
+                this.rowsMerged.addAndGet(rows);
+            }
+            return watermark[0];
+        } catch (SQLException e){
+            try{
+                connection.rollback();
+            } catch (SQLException re){
+                log.debug("Rollback failed", re);
+            }
+            throw e;
+        } finally {
+            JdbcUtils.closeStatement(statement[0]);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private static void shutdown(H2DataSource ds){
+        if(ds==null){
+            return;
+        }
+        Connection connection = null;
+        Statement statement = null;
+        try{
+            connection = ds.getConnection();
+            statement = connection.createStatement();
+            statement.execute("SHUTDOWN");
+        } catch (SQLException e){
+            //already gone, nothing to do
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Gives out connection to current version
+     *
+     * @return connection
+     * @throws SQLException when replica is not loaded yet
+     */
+    public Connection getConnection() throws SQLException {
+        H2DataSource version = this.current;
+        if(version==null){
+            throw new SQLException("Replica " + this.name + " is not loaded");
+        }
+        return version.getConnection();
+    }
+
+    /**
+     * Credentials are defined by replica, so custom ones are not supported
+     *
+     * @throws java.lang.UnsupportedOperationException always
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new UnsupportedOperationException("Credentials are defined by replica");
+    }
+
+    /**
+     * Waits for first load
+     *
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return true when replica is loaded, false when timeout elapsed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.loaded.await(timeout, unit);
+    }
+
+    /**
+     * Reports name of replica
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Current version of in-memory database. Changes on every {@link #reload()}.
+     *
+     * @return DataSource of current version or NULL before first load
+     */
+    public H2DataSource getCurrent() {
+        return current;
+    }
+
+    /**
+     * Reports number of full reloads
+     *
+     * @return reload count
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * Reports number of incremental refreshes
+     *
+     * @return refresh count
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Reports number of rows merged by incremental refreshes
+     *
+     * @return row count
+     */
+    public long getRowsMerged() {
+        return rowsMerged.get();
+    }
+
+    /**
+     * Reports duration of last full reload
+     *
+     * @return milliseconds
+     */
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
+    }
+
+    /**
+     * How often all tables are fully reloaded. Default is 0: only at {@link #start()}.
+     *
+     * @param reloadInterval interval in milliseconds. Takes effect on next {@link #start()}.
+     */
+    public void setReloadInterval(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * How often tables with watermark are refreshed incrementally. Default is 0: never.
+     *
+     * @param refreshInterval interval in milliseconds. Takes effect on next {@link #start()}.
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    private class Scheduler implements Runnable {
+        public void run() {
+            long now = System.currentTimeMillis();
+            long nextReload = reloadInterval > 0 ? now + reloadInterval : Long.MAX_VALUE;
+            long nextRefresh = refreshInterval > 0 ? now + refreshInterval : Long.MAX_VALUE;
+            while (running){
+                try{
+                    long wait = Math.min(nextReload, nextRefresh) - System.currentTimeMillis();
+                    if(wait > 0){
+                        Thread.sleep(wait);
+                    }
+                } catch (InterruptedException e){
+                    return;
+                }
+                now = System.currentTimeMillis();
+                boolean reloadDue = now >= nextReload;
+                try{
+                    if(reloadDue){
+                        reload();
+                    } else if(now >= nextRefresh){
+                        refresh();
+                    }
+                } catch (SQLException e){
+                    log.warn("Refresh of replica " + name + " failed", e);
+                } catch (RuntimeException e){
+                    //scheduler keeps running: next attempt may succeed
+                    log.error("Refresh of replica " + name + " failed", e);
+                }
+                if(reloadDue){
+                    nextReload = now + reloadInterval;
+                } else if(now >= nextRefresh){
+                    nextRefresh = now + refreshInterval;
+                }
+            }
+        }
+    }
+
+    /**
+     * Table of replica and its watermark
+     */
+    private static class ReplicatedTable {
+        private final String name;
+        private final String keyColumn;
+        private final String watermarkColumn;
+        private Timestamp watermark;
+        private Timestamp nextWatermark;
+
+        private ReplicatedTable(String name, String keyColumn, String watermarkColumn){
+            this.name = name;
+            this.keyColumn = keyColumn;
+            this.watermarkColumn = watermarkColumn;
+        }
+    }
+}
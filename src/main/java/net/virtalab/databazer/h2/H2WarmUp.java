@@ -0,0 +1,156 @@
+package net.virtalab.databazer.h2;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads tables and their indexes into H2 cache by scanning them.
+ * <p>
+ * Table is scanned by {@code SELECT *}, each index - by selecting index columns ordered by those columns.
+ * Scans run in parallel (one connection per scan) when more than one thread is configured.
+ * When done (successfully or not) ready latch is released.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.h2.H2DataSource.Creator#warmUp(String...)
+ * @version 0.5
+ * @since 0.5
+ */
+final class H2WarmUp implements Runnable {
+    private static final Log log = LogFactory.getLog(H2WarmUp.class);
+
+    private final H2DataSource dataSource;
+    private final List<String> tables;
+    private final int threads;
+    private final CountDownLatch ready;
+
+    H2WarmUp(H2DataSource dataSource, List<String> tables, int threads, CountDownLatch ready){
+        this.dataSource = dataSource;
+        this.tables = new ArrayList<String>(tables);
+        this.threads = threads;
+        this.ready = ready;
+    }
+
+    public void run() {
+        long started = System.currentTimeMillis();
+        ExecutorService executor = null;
+        try{
+            List<Callable<Long>> scans = new ArrayList<Callable<Long>>();
+            for(String sql: this.scanQueries()){
+                scans.add(new Scan(sql));
+            }
+
+            executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+                private int counter = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "databazer-warmup-" + dataSource.getName() + "-" + (++counter));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.invokeAll(scans);
+
+            if(log.isInfoEnabled()){
+                log.info("Warmed up " + scans.size() + " tables and indexes of DataSource " + this.dataSource.getName() +
+                        " in " + (System.currentTimeMillis() - started) + " ms");
+            }
+        } catch (SQLException e){
+            log.warn("Warm-up of DataSource " + this.dataSource.getName() + " failed", e);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } finally {
+            if(executor!=null){ executor.shutdownNow(); }
+            this.ready.countDown();
+        }
+    }
+
+    /**
+     * Builds list of scan queries: table scans first, index scans next.
+     */
+    private List<String> scanQueries() throws SQLException {
+        List<String> queries = new ArrayList<String>();
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        try{
+            statement = connection.prepareStatement("SELECT INDEX_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.INDEXES " +
+                    "WHERE UPPER(TABLE_NAME) = UPPER(?) ORDER BY INDEX_NAME, ORDINAL_POSITION");
+            for(String table: this.tables){
+                queries.add("SELECT * FROM " + table);
+
+                Map<String,StringBuilder> indexColumns = new LinkedHashMap<String, StringBuilder>();
+                statement.setString(1, table);
+                ResultSet rs = statement.executeQuery();
+                try{
+                    while (rs.next()){
+                        String index = rs.getString(1);
+                        StringBuilder columns = indexColumns.get(index);
+                        if(columns==null){
+                            columns = new StringBuilder();
+                            indexColumns.put(index, columns);
+                        } else {
+                            columns.append(",");
+                        }
+                        columns.append('"').append(rs.getString(2)).append('"');
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                }
+                for(StringBuilder columns: indexColumns.values()){
+                    queries.add("SELECT " + columns + " FROM " + table + " ORDER BY " + columns);
+                }
+            }
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+        return queries;
+    }
+
+    /**
+     * Reads all rows of query, so pages are loaded into cache
+     */
+    private class Scan implements Callable<Long> {
+        private final String sql;
+
+        Scan(String sql){
+            this.sql = sql;
+        }
+
+        public Long call() {
+            long rows = 0;
+            Connection connection = null;
+            Statement statement = null;
+            ResultSet rs = null;
+            try{
+                connection = dataSource.getConnection();
+                statement = connection.createStatement();
+                rs = statement.executeQuery(this.sql);
+                while (rs.next()){
+                    rows++;
+                }
+            } catch (SQLException e){
+                log.warn("Warm-up scan failed: " + this.sql, e);
+            } finally {
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(statement);
+                JdbcUtils.closeConnection(connection);
+            }
+            return rows;
+        }
+    }
+}
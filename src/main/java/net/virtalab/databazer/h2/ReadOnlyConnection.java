@@ -0,0 +1,170 @@
+package net.virtalab.databazer.h2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Connection of read-only DataSource, which rejects statements other than reads.
+ * <p>
+ * H2 ignores {@link Connection#setReadOnly(boolean)}, and database shared with writer inside JVM is opened
+ * for writes, so check is done here: every statement of SQL (split by {@code ;}) should start with
+ * read or session command ({@code SELECT}, {@code SHOW}, {@code SET}, {@code COMMIT} etc.),
+ * otherwise {@link SQLException} is thrown before SQL reaches database.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+class ReadOnlyConnection implements InvocationHandler {
+    private static final Set<String> ALLOWED = new HashSet<String>(Arrays.asList("SELECT", "WITH", "VALUES", "SHOW",
+            "EXPLAIN", "SCRIPT", "SET", "COMMIT", "ROLLBACK", "SAVEPOINT"));
+
+    private final Connection target;
+    private final String name;
+
+    private ReadOnlyConnection(Connection target, String name){
+        this.target = target;
+        this.name = name;
+    }
+
+    /**
+     * Wraps connection
+     *
+     * @param connection connection of read-only DataSource
+     * @param name name of DataSource, for messages
+     * @return connection proxy
+     */
+    static Connection wrap(Connection connection, String name){
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new ReadOnlyConnection(connection, name));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+
+        if(methodName.equals("equals")){
+            return proxy == args[0];
+        } else if(methodName.equals("hashCode")){
+            return System.identityHashCode(proxy);
+        } else if(methodName.equals("toString")){
+            return "Read-only connection to " + this.target;
+        } else if(methodName.equals("prepareStatement") || methodName.equals("prepareCall")){
+            this.check((String) args[0]);
+        }
+
+        Object result = call(this.target, method, args);
+        if(result instanceof Statement && methodName.equals("createStatement")){
+            return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{Statement.class},
+                    new ReadOnlyStatement((Statement) result, (Connection) proxy));
+        }
+        return result;
+    }
+
+    private void check(String sql) throws SQLException {
+        if(!isRead(sql)){
+            throw new SQLException("Connection of " + this.name + " is read-only, statement rejected: " + sql);
+        }
+    }
+
+    /**
+     * Tells if all statements of SQL are reads. String literals, quoted names and comments are skipped.
+     */
+    static boolean isRead(String sql){
+        if(sql==null){
+            return false;
+        }
+        int length = sql.length();
+        StringBuilder word = new StringBuilder();
+        //first word of current statement is looked for
+        boolean statementStart = true;
+        int i = 0;
+        while (i < length){
+            char c = sql.charAt(i);
+            if(statementStart && Character.isLetter(c)){
+                word.append(c);
+                i++;
+                continue;
+            }
+            if(word.length() > 0){
+                if(!ALLOWED.contains(word.toString().toUpperCase(Locale.US))){
+                    return false;
+                }
+                word.setLength(0);
+                statementStart = false;
+            }
+            if(c=='\'' || c=='"'){
+                if(statementStart){
+                    return false;
+                }
+                int end = sql.indexOf(c, i + 1);
+                while (end!=-1 && end + 1 < length && sql.charAt(end + 1)==c){
+                    end = sql.indexOf(c, end + 2);
+                }
+                i = end==-1 ? length : end + 1;
+            } else if(c=='-' && i + 1 < length && sql.charAt(i + 1)=='-' || c=='/' && i + 1 < length && sql.charAt(i + 1)=='/'){
+                int end = sql.indexOf('\n', i);
+                i = end==-1 ? length : end + 1;
+            } else if(c=='/' && i + 1 < length && sql.charAt(i + 1)=='*'){
+                int end = sql.indexOf("*/", i + 2);
+                i = end==-1 ? length : end + 2;
+            } else if(c==';'){
+                statementStart = true;
+                i++;
+            } else if(statementStart && !Character.isWhitespace(c)){
+                //statement starts with symbol: not a known read
+                return false;
+            } else {
+                i++;
+            }
+        }
+        return word.length()==0 || ALLOWED.contains(word.toString().toUpperCase(Locale.US));
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Statement of read-only connection: checks SQL given at execution
+     */
+    private class ReadOnlyStatement implements InvocationHandler {
+        private final Statement target;
+        private final Connection connection;
+
+        private ReadOnlyStatement(Statement target, Connection connection){
+            this.target = target;
+            this.connection = connection;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.target.toString();
+            } else if(methodName.equals("getConnection")){
+                return this.connection;
+            } else if((methodName.startsWith("execute") || methodName.equals("addBatch")) && args!=null
+                    && args.length > 0 && args[0] instanceof String){
+                check((String) args[0]);
+            }
+            return call(this.target, method, args);
+        }
+    }
+}
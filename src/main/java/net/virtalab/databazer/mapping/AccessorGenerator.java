@@ -0,0 +1,231 @@
+package net.virtalab.databazer.mapping;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates {@link RowAccessor} for class: straight-line bytecode, which calls public no-arg constructor
+ * and public setters with values of typed getters of {@link ResultSet}.
+ * <p>
+ * For each property with column generated code is like:
+ * <pre>
+ *   if(columns[3] != 0) target.setAge(rs.getInt(columns[3]));
+ *   if(columns[4] != 0) { long v = rs.getLong(columns[4]); target.setParent(rs.wasNull() ? null : Long.valueOf(v)); }
+ * </pre>
+ * so primitive properties are set without boxing.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+final class AccessorGenerator implements Opcodes {
+    private static final String BASE = Type.getInternalName(RowAccessor.class);
+    private static final String RESULT_SET = Type.getInternalName(ResultSet.class);
+    private static final String MAP_DESCRIPTOR = "(Ljava/sql/ResultSet;[I)Ljava/lang/Object;";
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    //locals of map()
+    private static final int RS = 1;
+    private static final int COLUMNS = 2;
+    private static final int TARGET = 3;
+    private static final int COLUMN = 4;
+    private static final int VALUE = 5;
+
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+    private static final Map<Class<?>, String> GETTERS = new HashMap<Class<?>, String>();
+    static {
+        WRAPPERS.put(Integer.class, int.class);
+        WRAPPERS.put(Long.class, long.class);
+        WRAPPERS.put(Double.class, double.class);
+        WRAPPERS.put(Float.class, float.class);
+        WRAPPERS.put(Short.class, short.class);
+        WRAPPERS.put(Byte.class, byte.class);
+        WRAPPERS.put(Boolean.class, boolean.class);
+
+        GETTERS.put(int.class, "getInt");
+        GETTERS.put(long.class, "getLong");
+        GETTERS.put(double.class, "getDouble");
+        GETTERS.put(float.class, "getFloat");
+        GETTERS.put(short.class, "getShort");
+        GETTERS.put(byte.class, "getByte");
+        GETTERS.put(boolean.class, "getBoolean");
+        GETTERS.put(String.class, "getString");
+        GETTERS.put(BigDecimal.class, "getBigDecimal");
+        GETTERS.put(java.sql.Timestamp.class, "getTimestamp");
+        GETTERS.put(java.sql.Date.class, "getDate");
+        GETTERS.put(java.sql.Time.class, "getTime");
+        GETTERS.put(java.util.Date.class, "getTimestamp");
+        GETTERS.put(byte[].class, "getBytes");
+    }
+
+    private AccessorGenerator(){}
+
+    /**
+     * Generates and loads accessor
+     *
+     * @param type public class with public no-arg constructor
+     * @param properties writable properties, in order of column indexes given to {@link RowAccessor#map(ResultSet, int[])}
+     * @return accessor instance
+     */
+    static RowAccessor generate(Class<?> type, List<PropertyDescriptor> properties){
+        String owner = Type.getInternalName(type);
+        String name = owner + "$$DatabazerAccessor$$" + counter.incrementAndGet();
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SYNTHETIC, name, null, BASE, null);
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "map", MAP_DESCRIPTOR, null, new String[]{"java/sql/SQLException"});
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, owner);
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, owner, "<init>", "()V", false);
+        mv.visitVarInsn(ASTORE, TARGET);
+
+        for(int i=0;i<properties.size();i++){
+            Method setter = properties.get(i).getWriteMethod();
+            Label skip = new Label();
+            //int column = columns[i]; if(column != 0) {...}
+            mv.visitVarInsn(ALOAD, COLUMNS);
+            pushInt(mv, i);
+            mv.visitInsn(IALOAD);
+            mv.visitVarInsn(ISTORE, COLUMN);
+            mv.visitVarInsn(ILOAD, COLUMN);
+            mv.visitJumpInsn(IFEQ, skip);
+            setProperty(mv, owner, setter);
+            mv.visitLabel(skip);
+        }
+
+        mv.visitVarInsn(ALOAD, TARGET);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        Class<?> accessor = new AccessorLoader(type.getClassLoader()).define(name.replace('/', '.'), cw.toByteArray());
+        try{
+            return (RowAccessor) accessor.getDeclaredConstructor().newInstance();
+        } catch (NoSuchMethodException e){
+            throw new IllegalStateException("Cannot create accessor for " + type.getName(), e);
+        } catch (InvocationTargetException e){
+            throw new IllegalStateException("Cannot create accessor for " + type.getName(), e.getCause());
+        } catch (InstantiationException e){
+            throw new IllegalStateException("Cannot create accessor for " + type.getName(), e);
+        } catch (IllegalAccessException e){
+            throw new IllegalStateException("Cannot create accessor for " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Tells if property of this type can be set. Primitives without getter at {@link ResultSet} ({@code char}) cannot.
+     */
+    static boolean supports(Class<?> type){
+        return !type.isPrimitive() || GETTERS.containsKey(type);
+    }
+
+    private static void setProperty(MethodVisitor mv, String owner, Method setter){
+        Class<?> type = setter.getParameterTypes()[0];
+        Class<?> primitive = WRAPPERS.get(type);
+        String setterDescriptor = Type.getMethodDescriptor(setter);
+
+        if(primitive!=null){
+            //primitive getter, then NULL check and boxing
+            Type primitiveType = Type.getType(primitive);
+            readColumn(mv, GETTERS.get(primitive), primitiveType);
+            mv.visitVarInsn(primitiveType.getOpcode(ISTORE), VALUE);
+            Label notNull = new Label();
+            Label set = new Label();
+            mv.visitVarInsn(ALOAD, TARGET);
+            mv.visitVarInsn(ALOAD, RS);
+            mv.visitMethodInsn(INVOKEINTERFACE, RESULT_SET, "wasNull", "()Z", true);
+            mv.visitJumpInsn(IFEQ, notNull);
+            mv.visitInsn(ACONST_NULL);
+            mv.visitJumpInsn(GOTO, set);
+            mv.visitLabel(notNull);
+            mv.visitVarInsn(primitiveType.getOpcode(ILOAD), VALUE);
+            String wrapper = Type.getInternalName(type);
+            mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + primitiveType.getDescriptor() + ")L" + wrapper + ";", false);
+            mv.visitLabel(set);
+        } else {
+            mv.visitVarInsn(ALOAD, TARGET);
+            String getter = GETTERS.get(type);
+            if(getter!=null){
+                readColumn(mv, getter, getterType(type));
+            } else {
+                readColumn(mv, "getObject", Type.getType(Object.class));
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+            }
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, owner, setter.getName(), setterDescriptor, false);
+        //fluent setters
+        Type returned = Type.getReturnType(setter);
+        if(returned.getSize()==1){
+            mv.visitInsn(POP);
+        } else if(returned.getSize()==2){
+            mv.visitInsn(POP2);
+        }
+    }
+
+    private static Type getterType(Class<?> type){
+        return type==java.util.Date.class ? Type.getType(java.sql.Timestamp.class) : Type.getType(type);
+    }
+
+    private static void readColumn(MethodVisitor mv, String getter, Type returned){
+        mv.visitVarInsn(ALOAD, RS);
+        mv.visitVarInsn(ILOAD, COLUMN);
+        mv.visitMethodInsn(INVOKEINTERFACE, RESULT_SET, getter, "(I)" + returned.getDescriptor(), true);
+    }
+
+    private static void pushInt(MethodVisitor mv, int value){
+        if(value <= 5){
+            mv.visitInsn(ICONST_0 + value);
+        } else if(value <= Byte.MAX_VALUE){
+            mv.visitIntInsn(BIPUSH, value);
+        } else if(value <= Short.MAX_VALUE){
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * Loads generated class next to mapped class, but sees {@link RowAccessor} even if mapped class loader does not
+     */
+    private static class AccessorLoader extends ClassLoader {
+        private AccessorLoader(ClassLoader parent){
+            super(parent==null ? AccessorGenerator.class.getClassLoader() : parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if(name.equals(RowAccessor.class.getName())){
+                return RowAccessor.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        private Class<?> define(String name, byte[] bytecode){
+            return this.defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package net.virtalab.databazer.mapping;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link RowMapper} for JavaBeans, which maps columns to properties like
+ * {@link org.springframework.jdbc.core.BeanPropertyRowMapper}, but without reflection per row.
+ * <p>
+ * For each class accessor is generated once (bytecode, see {@link RowAccessor}) and shared by all mappers of class.
+ * It calls constructor and setters directly and reads columns by typed getters:
+ * {@code int} property is set from {@link ResultSet#getInt(int)}, {@code long} from {@link ResultSet#getLong(int)} etc.,
+ * so primitive values are not boxed, and mapping of row allocates nothing but mapped object itself
+ * (and values, which are objects anyway: strings, dates, wrappers of nullable columns).
+ * <p>
+ * Column is matched to property by name ignoring case and underscores: {@code first_name} goes to {@code firstName}.
+ * Columns without property are skipped. Match is found once per result set and kept per thread,
+ * so mapper can read several result sets in turn.
+ * <pre>
+ *   private static final FastRowMapper&lt;Person&gt; PERSON = new FastRowMapper&lt;Person&gt;(Person.class);
+ *
+ *   List&lt;Person&gt; people = jdbc.query("SELECT id, first_name, age FROM person", PERSON);
+ * </pre>
+ * Class should be public, with public no-arg constructor, properties are set by public setters.
+ * Properties of types other than primitives, wrappers, {@code String}, {@code BigDecimal}, dates and {@code byte[]}
+ * are read by {@link ResultSet#getObject(int)} and cast.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.mapping.RowAccessor
+ * @version 0.5
+ * @since 0.5
+ * @param <T> type of mapped object
+ */
+public class FastRowMapper<T> implements RowMapper<T> {
+    private static final ConcurrentMap<Class<?>, Accessor> accessors = new ConcurrentHashMap<Class<?>, Accessor>();
+
+    private final Class<T> type;
+    private final Accessor accessor;
+    private final ThreadLocal<Plan> plans = new ThreadLocal<Plan>();
+
+    /**
+     * Creates mapper. Accessor of class is generated on first mapper of class.
+     *
+     * @param type class of mapped objects
+     * @throws java.lang.IllegalArgumentException when class is NULL, not public or has no public no-arg constructor
+     */
+    public FastRowMapper(Class<T> type){
+        if(type==null){
+            throw new IllegalArgumentException("Class cannot be NULL");
+        }
+        this.type = type;
+        this.accessor = accessorOf(type);
+    }
+
+    public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Plan plan = this.plans.get();
+        if(plan==null || plan.resultSet.get()!=rs){
+            plan = this.plan(rs);
+            this.plans.set(plan);
+        }
+        return this.type.cast(this.accessor.accessor.map(rs, plan.columns));
+    }
+
+    /**
+     * Matches columns of result to properties
+     */
+    private Plan plan(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        String[] labels = new String[meta.getColumnCount()];
+        for(int i=0;i<labels.length;i++){
+            labels[i] = JdbcUtils.lookupColumnName(meta, i + 1);
+        }
+        Plan current = this.plans.get();
+        if(current!=null && Arrays.equals(current.labels, labels)){
+            return new Plan(rs, labels, current.columns);
+        }
+        int[] columns = new int[this.accessor.names.length];
+        for(int i=0;i<labels.length;i++){
+            String label = normalize(labels[i]);
+            for(int p=0;p<columns.length;p++){
+                if(columns[p]==0 && this.accessor.names[p].equals(label)){
+                    columns[p] = i + 1;
+                    break;
+                }
+            }
+        }
+        return new Plan(rs, labels, columns);
+    }
+
+    private static String normalize(String name){
+        return name.replace("_", "").toLowerCase(Locale.US);
+    }
+
+    private static Accessor accessorOf(Class<?> type){
+        Accessor accessor = accessors.get(type);
+        if(accessor!=null){
+            return accessor;
+        }
+        if(!Modifier.isPublic(type.getModifiers()) || Modifier.isAbstract(type.getModifiers()) ||
+                (type.getEnclosingClass()!=null && !Modifier.isStatic(type.getModifiers()))){
+            throw new IllegalArgumentException(type.getName() + " should be public concrete top level or static nested class");
+        }
+        try{
+            if(!Modifier.isPublic(type.getConstructor().getModifiers())){
+                throw new IllegalArgumentException(type.getName() + " has no public no-arg constructor");
+            }
+        } catch (NoSuchMethodException e){
+            throw new IllegalArgumentException(type.getName() + " has no public no-arg constructor");
+        }
+
+        List<PropertyDescriptor> properties = new ArrayList<PropertyDescriptor>();
+        try{
+            BeanInfo info = Introspector.getBeanInfo(type);
+            for(PropertyDescriptor property: info.getPropertyDescriptors()){
+                if(property.getWriteMethod()!=null && AccessorGenerator.supports(property.getPropertyType()) &&
+                        Modifier.isPublic(property.getWriteMethod().getDeclaringClass().getModifiers())){
+                    properties.add(property);
+                }
+            }
+        } catch (IntrospectionException e){
+            throw new IllegalArgumentException("Cannot introspect " + type.getName(), e);
+        }
+        String[] names = new String[properties.size()];
+        for(int i=0;i<names.length;i++){
+            names[i] = normalize(properties.get(i).getName());
+        }
+        accessor = new Accessor(AccessorGenerator.generate(type, properties), names);
+        Accessor existing = accessors.putIfAbsent(type, accessor);
+        return existing==null ? accessor : existing;
+    }
+
+    /**
+     * Generated accessor and normalized names of its properties
+     */
+    private static class Accessor {
+        private final RowAccessor accessor;
+        private final String[] names;
+
+        private Accessor(RowAccessor accessor, String[] names){
+            this.accessor = accessor;
+            this.names = names;
+        }
+    }
+
+    /**
+     * Column index of each property for result set it was made for.
+     * Result set is referenced weakly, so thread does not keep it after query.
+     */
+    private static class Plan {
+        private final WeakReference<ResultSet> resultSet;
+        private final String[] labels;
+        private final int[] columns;
+
+        private Plan(ResultSet resultSet, String[] labels, int[] columns){
+            this.resultSet = new WeakReference<ResultSet>(resultSet);
+            this.labels = labels;
+            this.columns = columns;
+        }
+    }
+}
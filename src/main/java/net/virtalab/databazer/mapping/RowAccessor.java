@@ -0,0 +1,26 @@
+package net.virtalab.databazer.mapping;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Base of classes generated by {@link FastRowMapper}: creates object and fills its properties from current row.
+ * <p>
+ * It is public only because generated classes live at other class loader. Not for direct use.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.mapping.FastRowMapper
+ * @version 0.5
+ * @since 0.5
+ */
+public abstract class RowAccessor {
+    /**
+     * Creates object and sets its properties
+     *
+     * @param rs result set at current row
+     * @param columns column index for each property in order of {@link FastRowMapper} properties, 0 when there is no column
+     * @return new object
+     * @throws SQLException when column cannot be read
+     */
+    public abstract Object map(ResultSet rs, int[] columns) throws SQLException;
+}
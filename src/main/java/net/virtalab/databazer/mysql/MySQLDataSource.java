@@ -1,6 +1,8 @@
 package net.virtalab.databazer.mysql;
 
 import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.tx.TransactionRunner;
+import net.virtalab.databazer.tx.TransactionWork;
 
 import java.lang.reflect.Field;
 import java.sql.Driver;
@@ -55,6 +57,11 @@ import java.util.*;
  * @since 0.1
  */
 public class MySQLDataSource extends NamedDataSource {
+    /**
+     * Runs transactions of {@link #inTransaction(TransactionWork)}
+     */
+    private final TransactionRunner transactionRunner = new TransactionRunner(this);
+
     /**
      * Constructor invoked by Spring, this constructor sets default values.
      */
@@ -86,6 +93,28 @@ public class MySQLDataSource extends NamedDataSource {
         return new Creator(url);
     }
 
+    /**
+     * Runs work in transaction. Transaction which fails by deadlock (error 1213) or lock wait timeout (error 1205)
+     * is rolled back and run again after random growing pause. See {@link TransactionRunner} for details.
+     *
+     * @param work unit of work, may be run more than once
+     * @param <T> type of result
+     * @return result of work
+     * @throws java.sql.SQLException failure of last run
+     */
+    public <T> T inTransaction(TransactionWork<T> work) throws java.sql.SQLException {
+        return this.transactionRunner.execute(work);
+    }
+
+    /**
+     * Provides runner of {@link #inTransaction(TransactionWork)} to configure retries and read their metrics
+     *
+     * @return transaction runner of this DataSource
+     */
+    public TransactionRunner getTransactionRunner() {
+        return transactionRunner;
+    }
+
     /**
      * Class that creates MySQLDataSource using fluent interface approach.
      * Also it contains methods that allow to build JDBC URL step-by-step by setting each single component.
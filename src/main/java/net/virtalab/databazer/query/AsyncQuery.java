@@ -0,0 +1,552 @@
+package net.virtalab.databazer.query;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs queries and updates of DataSource in background and gives out {@link ListenableFuture}s of their results,
+ * so caller may either wait for result or {@link ListenableFuture#addCallback register callback}.
+ * <p>
+ * Work runs on bounded pool: {@link #setMaxConnections(int) max connections} threads, each holds at most one connection,
+ * so DataSource never sees more connections from this runner than that. Calls which wait for free thread
+ * are kept at queue of {@link #setQueueCapacity(int) limited capacity}; when it is full, call is rejected
+ * with {@link RejectedExecutionException} at once. That is backpressure: caller learns that database is saturated
+ * instead of piling up work.
+ * <p>
+ * Each call has deadline ({@link #setDefaultTimeout(long) default} or given per call). Call which waited at queue
+ * past deadline fails without taking connection. Running statement gets
+ * {@link java.sql.Statement#setQueryTimeout(int) query timeout} from time left and is
+ * {@link java.sql.Statement#cancel() cancelled} when deadline comes. {@link Future#cancel(boolean)} cancels
+ * running statement as well, so database stops working on it. Calls which fail by deadline end with
+ * {@link SQLTimeoutException} as cause of {@link java.util.concurrent.ExecutionException}.
+ * <pre>
+ *   AsyncQuery async = new AsyncQuery(ds);
+ *   async.setMaxConnections(8);
+ *   async.start();
+ *
+ *   ListenableFuture&lt;List&lt;Order&gt;&gt; orders = async.query(2, TimeUnit.SECONDS, "SELECT * FROM orders WHERE user_id = ?", ORDER_MAPPER, userId);
+ *   orders.addCallback(new ListenableFutureCallback&lt;List&lt;Order&gt;&gt;() { ... });
+ *   Future&lt;Integer&gt; updated = async.update("UPDATE user SET seen = NOW() WHERE id = ?", userId);
+ * </pre>
+ * Spring's {@link ListenableFuture} is used instead of Java 8 {@code CompletableFuture},
+ * so library stays usable with Java 5 and later. Callbacks run at thread, which completed call:
+ * worker thread, or caller thread for cancel. They should be short and should not block.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class AsyncQuery {
+    private static final Log log = LogFactory.getLog(AsyncQuery.class);
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 10;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final long DEFAULT_TIMEOUT = 30000;
+    //how often cancelled deadline timers are removed from timer queue
+    private static final long PURGE_INTERVAL = 1000;
+
+    private final NamedDataSource dataSource;
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private long defaultTimeout = DEFAULT_TIMEOUT;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledThreadPoolExecutor timer;
+
+    //metrics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates runner. It does not accept calls until {@link #start()} is called.
+     *
+     * @param dataSource DataSource to work with
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public AsyncQuery(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Starts worker threads and deadline timer
+     *
+     * @throws java.lang.IllegalStateException when runner is already started
+     */
+    public synchronized void start(){
+        if(this.executor!=null){
+            throw new IllegalStateException("Runner is already started");
+        }
+        final String name = this.dataSource.getName();
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.maxConnections, this.maxConnections, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(this.queueCapacity), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-async-" + name + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-async-timer-" + name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        //calls mostly finish before deadline and cancel their timers. Cancelled timers stay at queue till
+        //their delay passes, so they are purged regularly (remove-on-cancel policy needs Java 7)
+        final ScheduledThreadPoolExecutor timer = this.timer;
+        this.timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                timer.purge();
+            }
+        }, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops accepting calls, lets accepted ones finish and stops threads
+     *
+     * @param timeout how long to wait for accepted calls
+     * @param unit unit of timeout
+     * @return true when all calls finished within timeout
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        ThreadPoolExecutor executor;
+        ScheduledThreadPoolExecutor timer;
+        synchronized (this){
+            executor = this.executor;
+            timer = this.timer;
+            this.executor = null;
+            this.timer = null;
+        }
+        if(executor==null){
+            return true;
+        }
+        executor.shutdown();
+        boolean finished = executor.awaitTermination(timeout, unit);
+        timer.shutdownNow();
+        return finished;
+    }
+
+    /**
+     * Runs query with default timeout
+     *
+     * @param sql query with {@code ?} placeholders
+     * @param rowMapper maps current row to object
+     * @param params query parameters in placeholder order
+     * @param <T> type of row object
+     * @return future of mapped rows
+     * @throws RejectedExecutionException when queue is full
+     * @throws java.lang.IllegalStateException when runner is not started
+     */
+    public <T> ListenableFuture<List<T>> query(String sql, RowMapper<T> rowMapper, Object... params){
+        return this.query(this.defaultTimeout, TimeUnit.MILLISECONDS, sql, rowMapper, params);
+    }
+
+    /**
+     * Runs query with deadline
+     *
+     * @param timeout time from now till deadline
+     * @param unit unit of timeout
+     * @param sql query with {@code ?} placeholders
+     * @param rowMapper maps current row to object
+     * @param params query parameters in placeholder order
+     * @param <T> type of row object
+     * @return future of mapped rows
+     * @throws RejectedExecutionException when queue is full
+     * @throws java.lang.IllegalStateException when runner is not started
+     */
+    public <T> ListenableFuture<List<T>> query(long timeout, TimeUnit unit, String sql, final RowMapper<T> rowMapper, Object... params){
+        if(rowMapper==null){
+            throw new IllegalArgumentException("RowMapper cannot be NULL");
+        }
+        return this.submit(timeout, unit, sql, params, new Work<List<T>>() {
+            public List<T> run(PreparedStatement statement) throws SQLException {
+                ResultSet rs = statement.executeQuery();
+                try{
+                    List<T> rows = new ArrayList<T>();
+                    int rowNum = 0;
+                    while (rs.next()){
+                        rows.add(rowMapper.mapRow(rs, rowNum++));
+                    }
+                    return rows;
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs update with default timeout. Statement runs at auto-commit.
+     *
+     * @param sql statement with {@code ?} placeholders
+     * @param params statement parameters in placeholder order
+     * @return future of update count
+     * @throws RejectedExecutionException when queue is full
+     * @throws java.lang.IllegalStateException when runner is not started
+     */
+    public ListenableFuture<Integer> update(String sql, Object... params){
+        return this.update(this.defaultTimeout, TimeUnit.MILLISECONDS, sql, params);
+    }
+
+    /**
+     * Runs update with deadline. Statement runs at auto-commit.
+     *
+     * @param timeout time from now till deadline
+     * @param unit unit of timeout
+     * @param sql statement with {@code ?} placeholders
+     * @param params statement parameters in placeholder order
+     * @return future of update count
+     * @throws RejectedExecutionException when queue is full
+     * @throws java.lang.IllegalStateException when runner is not started
+     */
+    public ListenableFuture<Integer> update(long timeout, TimeUnit unit, String sql, Object... params){
+        return this.submit(timeout, unit, sql, params, new Work<Integer>() {
+            public Integer run(PreparedStatement statement) throws SQLException {
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    private <V> ListenableFuture<V> submit(long timeout, TimeUnit unit, String sql, Object[] params, Work<V> work){
+        if(sql==null){
+            throw new IllegalArgumentException("SQL cannot be NULL");
+        }
+        if(timeout < 1){
+            throw new IllegalArgumentException("Timeout cannot be less than 1");
+        }
+        ThreadPoolExecutor executor;
+        ScheduledThreadPoolExecutor timer;
+        synchronized (this){
+            executor = this.executor;
+            timer = this.timer;
+        }
+        if(executor==null){
+            throw new IllegalStateException("Runner is not started");
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final Call<V> call = new Call<V>(new Task<V>(sql, params, work, deadline));
+        //timer is set before call may run, so call which finishes at once still cancels it
+        call.timer = timer.schedule(new Runnable() {
+            public void run() {
+                call.expire();
+            }
+        }, timeout, unit);
+        try{
+            executor.execute(call);
+        } catch (RejectedExecutionException e){
+            call.timer.cancel(false);
+            this.rejected.incrementAndGet();
+            throw e;
+        }
+        this.submitted.incrementAndGet();
+        return call;
+    }
+
+    /**
+     * Number of calls running now
+     *
+     * @return call count
+     */
+    public int getActiveCount(){
+        ThreadPoolExecutor executor = this.executor;
+        return executor==null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Number of calls waiting for free connection
+     *
+     * @return call count
+     */
+    public int getQueueSize(){
+        ThreadPoolExecutor executor = this.executor;
+        return executor==null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Reports number of accepted calls
+     *
+     * @return call count
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Reports number of calls finished with result
+     *
+     * @return call count
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Reports number of calls failed by error, including timed out ones
+     *
+     * @return call count
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Reports number of calls failed by deadline
+     *
+     * @return call count
+     */
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * Reports number of calls cancelled by caller
+     *
+     * @return call count
+     */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * Reports number of calls rejected because queue was full
+     *
+     * @return call count
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Number of worker threads, which is most connections taken at once. Default is 10.
+     * Should not be more than connections DataSource (or database) allows.
+     *
+     * @param maxConnections thread count. Should be 1 or more. Takes effect on next {@link #start()}.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if(maxConnections < 1){
+            throw new IllegalArgumentException("Max connections cannot be less than 1");
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Maximum number of calls waiting for connection. Default is 1000.
+     *
+     * @param queueCapacity call count. Should be 1 or more. Takes effect on next {@link #start()}.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 1){
+            throw new IllegalArgumentException("Queue capacity cannot be less than 1");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Deadline of calls without own timeout, from submit. Default is 30 seconds.
+     *
+     * @param defaultTimeout time in milliseconds. Should be positive.
+     */
+    public void setDefaultTimeout(long defaultTimeout) {
+        if(defaultTimeout < 1){
+            throw new IllegalArgumentException("Timeout cannot be less than 1");
+        }
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * What call does with prepared statement
+     */
+    private interface Work<V> {
+        V run(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * Body of call: takes connection, prepares statement and runs work within deadline
+     */
+    private class Task<V> implements Callable<V> {
+        private final String sql;
+        private final Object[] params;
+        private final Work<V> work;
+        private final long deadline;
+
+        private Call<V> call;
+
+        private Task(String sql, Object[] params, Work<V> work, long deadline){
+            this.sql = sql;
+            this.params = params;
+            this.work = work;
+            this.deadline = deadline;
+        }
+
+        public V call() throws Exception {
+            //counted before future is done, so metrics are up to date when caller gets result
+            try{
+                V result = this.execute();
+                completed.incrementAndGet();
+                return result;
+            } catch (Exception e){
+                if(!this.call.isCancelled()){
+                    failed.incrementAndGet();
+                    if(e instanceof SQLTimeoutException){
+                        timedOut.incrementAndGet();
+                    }
+                }
+                throw e;
+            }
+        }
+
+        private V execute() throws SQLException {
+            long left = this.deadline - System.nanoTime();
+            if(left <= 0){
+                throw new SQLTimeoutException("Deadline passed while call waited for connection");
+            }
+            Connection connection = dataSource.getConnection();
+            PreparedStatement statement = null;
+            try{
+                statement = connection.prepareStatement(this.sql);
+                for(int i=0;i<this.params.length;i++){
+                    statement.setObject(i + 1, this.params[i]);
+                }
+                left = this.deadline - System.nanoTime();
+                if(left <= 0){
+                    throw new SQLTimeoutException("Deadline passed while connection was taken");
+                }
+                //seconds, rounded up: timer cancels at exact deadline
+                statement.setQueryTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(left + 999999999L)));
+                if(!this.call.running(statement)){
+                    if(this.call.expired){
+                        throw new SQLTimeoutException("Deadline passed while statement was prepared");
+                    }
+                    throw new SQLException("Call is cancelled");
+                }
+                try{
+                    return this.work.run(statement);
+                } catch (SQLException e){
+                    if(this.call.expired){
+                        throw new SQLTimeoutException("Deadline passed while statement ran: " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+                    }
+                    throw e;
+                } finally {
+                    this.call.running(null);
+                }
+            } finally {
+                JdbcUtils.closeStatement(statement);
+                JdbcUtils.closeConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Future of call, which cancels running statement when cancelled or expired
+     */
+    private class Call<V> extends ListenableFutureTask<V> {
+        private volatile boolean expired = false;
+        private volatile ScheduledFuture<?> timer;
+        //guarded by this
+        private PreparedStatement statement;
+        private boolean stopped = false;
+
+        private Call(Task<V> task){
+            super(task);
+            task.call = this;
+            //registered first, so deadline timer is cancelled before callbacks of caller run
+            this.addCallback(new ListenableFutureCallback<V>() {
+                public void onSuccess(V result) {
+                    stopTimer();
+                }
+
+                public void onFailure(Throwable t) {
+                    stopTimer();
+                }
+            });
+        }
+
+        /**
+         * Registers running statement
+         *
+         * @return false when call was stopped before statement started
+         */
+        private synchronized boolean running(PreparedStatement statement){
+            this.statement = statement;
+            return statement==null || !this.stopped;
+        }
+
+        private void expire(){
+            if(this.isDone()){
+                return;
+            }
+            this.expired = true;
+            this.stopStatement();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if(cancelled){
+                AsyncQuery.this.cancelled.incrementAndGet();
+                this.stopStatement();
+            }
+            return cancelled;
+        }
+
+        private void stopStatement(){
+            PreparedStatement statement;
+            synchronized (this){
+                this.stopped = true;
+                statement = this.statement;
+            }
+            if(statement==null){
+                return;
+            }
+            try{
+                statement.cancel();
+            } catch (SQLException e){
+                log.debug("Statement cancel failed", e);
+            }
+        }
+
+        private void stopTimer() {
+            ScheduledFuture<?> timer = this.timer;
+            if(timer!=null){
+                timer.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package net.virtalab.databazer.query;
+
+/**
+ * How column of {@link ColumnarResult} stores its values
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.ResultColumn
+ * @version 0.5
+ * @since 0.5
+ */
+public enum ColumnType {
+    /**
+     * {@code int} per row: INTEGER, SMALLINT, TINYINT. BOOLEAN and BIT are stored as 1 and 0.
+     */
+    INT(4),
+    /**
+     * {@code long} per row: BIGINT, DECIMAL without fraction up to 18 digits.
+     * DATE, TIME and TIMESTAMP are stored as milliseconds since epoch.
+     */
+    LONG(8),
+    /**
+     * {@code double} per row: DOUBLE, FLOAT, REAL, other DECIMAL and NUMERIC
+     */
+    DOUBLE(8),
+    /**
+     * Object per row, as given by {@link java.sql.ResultSet#getObject(int)}: strings and everything else
+     */
+    OBJECT(0);
+
+    private final int width;
+
+    ColumnType(int width){
+        this.width = width;
+    }
+
+    /**
+     * Reports bytes per value for primitive types
+     *
+     * @return width in bytes or 0 for {@link #OBJECT}
+     */
+    public int getWidth() {
+        return width;
+    }
+}
@@ -0,0 +1,339 @@
+package net.virtalab.databazer.query;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams query result into columnar binary file, which other process reads by {@link ColumnarFile} without database.
+ * <p>
+ * Rows are collected into groups of {@link #setGroupSize(int) group size} rows, column by column, at direct buffers.
+ * Each full group is put into memory-mapped region of file, so data goes from buffer to page cache
+ * without serialization to objects or streams. Memory use is bounded by one group, whatever result size is.
+ * <p>
+ * Column types are picked like by {@link ColumnarQuery} (see {@link ColumnType}); {@link ColumnType#OBJECT} columns
+ * are stored as UTF-8 text of {@link ResultSet#getString(int)}.
+ * <p>
+ * File layout (little-endian, sections aligned to 8 bytes):
+ * <pre>
+ *   header:  "DBZC" | int version | int columnCount | int 0 | per column: byte type, int sqlType, short nameLength, UTF-8 name | padding
+ *   group:   int rowCount | int 0 | long sectionLength per column | sections
+ *   section: NULL bitmap (long per 64 rows) | values: int[rows], long[rows], double[rows]
+ *            or int offsets[rows + 1] + UTF-8 bytes for text | padding
+ *   footer:  long groupOffset per group | long rowCount | int groupCount | "DBZC"
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.ColumnarFile
+ * @version 0.5
+ * @since 0.5
+ */
+public class ColumnarExporter {
+    static final byte[] MAGIC = {'D', 'B', 'Z', 'C'};
+    static final int VERSION = 1;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int FOOTER_SIZE = 16;
+
+    private static final int DEFAULT_GROUP_SIZE = 65536;
+    private static final String CHARSET = "UTF-8";
+
+    private final NamedDataSource dataSource;
+    private final StreamingQuery streaming;
+
+    private int groupSize = DEFAULT_GROUP_SIZE;
+
+    /**
+     * Creates exporter for DataSource
+     *
+     * @param dataSource DataSource to query
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public ColumnarExporter(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.streaming = new StreamingQuery(dataSource);
+    }
+
+    /**
+     * Runs query and writes its result to file. Existing file is replaced.
+     *
+     * @param file file to write
+     * @param sql query with {@code ?} placeholders
+     * @param params query parameters in placeholder order
+     * @return number of rows written
+     * @throws SQLException when query fails
+     * @throws IOException when file cannot be written
+     */
+    public long export(File file, String sql, Object... params) throws SQLException, IOException {
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        RandomAccessFile raf = null;
+        try{
+            statement = this.streaming.prepare(connection, sql, params);
+            rs = statement.executeQuery();
+            ResultSetMetaData meta = rs.getMetaData();
+
+            GroupColumn[] columns = new GroupColumn[meta.getColumnCount()];
+            for(int i=0;i<columns.length;i++){
+                columns[i] = new GroupColumn(JdbcUtils.lookupColumnName(meta, i + 1), meta.getColumnType(i + 1),
+                        ResultColumn.typeOf(meta, i + 1), this.groupSize);
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            long position = writeHeader(channel, columns);
+
+            List<Long> groups = new ArrayList<Long>();
+            long rows = 0;
+            int groupRows = 0;
+            while (rs.next()){
+                for(int i=0;i<columns.length;i++){
+                    columns[i].read(rs, i + 1, groupRows);
+                }
+                groupRows++;
+                if(groupRows==this.groupSize){
+                    groups.add(position);
+                    position = writeGroup(channel, position, columns, groupRows);
+                    rows += groupRows;
+                    groupRows = 0;
+                }
+            }
+            if(groupRows > 0){
+                groups.add(position);
+                position = writeGroup(channel, position, columns, groupRows);
+                rows += groupRows;
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(groups.size() * 8 + FOOTER_SIZE).order(ORDER);
+            for(Long offset: groups){
+                footer.putLong(offset);
+            }
+            footer.putLong(rows).putInt(groups.size()).put(MAGIC);
+            footer.flip();
+            writeFully(channel, footer, position);
+            raf.setLength(position + footer.limit());
+            channel.force(true);
+            return rows;
+        } finally {
+            //closed first: they do not throw, while file close may
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+            if(raf!=null){
+                raf.close();
+            }
+        }
+    }
+
+    private static long writeHeader(FileChannel channel, GroupColumn[] columns) throws IOException {
+        int size = 16;
+        byte[][] names = new byte[columns.length][];
+        for(int i=0;i<columns.length;i++){
+            names[i] = columns[i].name.getBytes(CHARSET);
+            size += 1 + 4 + 2 + names[i].length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(align(size)).order(ORDER);
+        header.put(MAGIC).putInt(VERSION).putInt(columns.length).putInt(0);
+        for(int i=0;i<columns.length;i++){
+            header.put((byte) columns[i].type.ordinal()).putInt(columns[i].sqlType).putShort((short) names[i].length).put(names[i]);
+        }
+        header.clear();
+        writeFully(channel, header, 0);
+        return header.limit();
+    }
+
+    /**
+     * Puts group into mapped region of file and flushes region to disk
+     *
+     * @return position after group
+     */
+    private static long writeGroup(FileChannel channel, long position, GroupColumn[] columns, int rows) throws IOException {
+        long size = 8 + 8L * columns.length;
+        long[] sections = new long[columns.length];
+        for(int i=0;i<columns.length;i++){
+            sections[i] = columns[i].sectionLength(rows);
+            size += sections[i];
+        }
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        region.order(ORDER);
+        region.putInt(rows).putInt(0);
+        for(long section: sections){
+            region.putLong(section);
+        }
+        for(GroupColumn column: columns){
+            column.writeTo(region, rows);
+        }
+        //channel.force() does not cover mapped regions: group is on disk before footer points to it
+        region.force();
+        return position + size;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+
+    static int align(int size){
+        return (size + 7) & ~7;
+    }
+
+    static long align(long size){
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Rows per group. Memory use of export is about one group. Default is 65536.
+     *
+     * @param groupSize row count. Should be 1 or more.
+     */
+    public void setGroupSize(int groupSize) {
+        if(groupSize < 1){
+            throw new IllegalArgumentException("Group size cannot be less than 1");
+        }
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Rows fetched per round trip. See {@link StreamingQuery#setFetchSize(int)}.
+     *
+     * @param fetchSize fetch size. Should be positive.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.streaming.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Values of one column for current group, at direct buffers reused between groups
+     */
+    private static class GroupColumn {
+        private final String name;
+        private final int sqlType;
+        private final ColumnType type;
+        private final boolean temporal;
+        private final long[] nulls;
+        private final ByteBuffer values;
+        private ByteBuffer text;
+
+        private GroupColumn(String name, int sqlType, ColumnType type, int groupSize){
+            this.name = name;
+            this.sqlType = sqlType;
+            this.type = type;
+            this.temporal = sqlType==Types.DATE || sqlType==Types.TIME || sqlType==Types.TIMESTAMP;
+            this.nulls = new long[(groupSize + 63) / 64];
+            //text columns keep offsets here
+            int width = type==ColumnType.OBJECT ? 4 : type.getWidth();
+            this.values = ByteBuffer.allocateDirect(width * (groupSize + 1)).order(ORDER);
+            if(type==ColumnType.OBJECT){
+                this.text = ByteBuffer.allocateDirect(16 * groupSize).order(ORDER);
+            }
+        }
+
+        private void read(ResultSet rs, int column, int row) throws SQLException, IOException {
+            if(row==0){
+                Arrays.fill(this.nulls, 0);
+                this.values.clear();
+                if(this.text!=null){
+                    this.text.clear();
+                    this.values.putInt(0);
+                }
+            }
+            boolean isNull;
+            switch (this.type){
+                case INT:
+                    this.values.putInt(rs.getInt(column));
+                    isNull = rs.wasNull();
+                    break;
+                case LONG:
+                    if(this.temporal){
+                        java.util.Date date = rs.getTimestamp(column);
+                        this.values.putLong(date==null ? 0 : date.getTime());
+                        isNull = date==null;
+                    } else {
+                        this.values.putLong(rs.getLong(column));
+                        isNull = rs.wasNull();
+                    }
+                    break;
+                case DOUBLE:
+                    this.values.putDouble(rs.getDouble(column));
+                    isNull = rs.wasNull();
+                    break;
+                default:
+                    String value = rs.getString(column);
+                    isNull = value==null;
+                    if(!isNull){
+                        byte[] bytes = value.getBytes(CHARSET);
+                        this.ensureText(bytes.length);
+                        this.text.put(bytes);
+                    }
+                    this.values.putInt(this.text.position());
+                    break;
+            }
+            if(isNull){
+                this.nulls[row >>> 6] |= 1L << (row & 63);
+            }
+        }
+
+        private void ensureText(int more){
+            if(this.text.remaining() >= more){
+                return;
+            }
+            int capacity = Math.max(this.text.capacity() * 2, this.text.position() + more);
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ORDER);
+            this.text.flip();
+            grown.put(this.text);
+            this.text = grown;
+        }
+
+        private long sectionLength(int rows){
+            long bitmap = 8L * ((rows + 63) / 64);
+            if(this.type==ColumnType.OBJECT){
+                return bitmap + align(4L * (rows + 1)) + align((long) this.text.position());
+            }
+            return bitmap + align((long) this.type.getWidth() * rows);
+        }
+
+        private void writeTo(ByteBuffer region, int rows){
+            int words = (rows + 63) / 64;
+            for(int i=0;i<words;i++){
+                region.putLong(this.nulls[i]);
+            }
+            ByteBuffer values = this.values.duplicate();
+            values.flip();
+            region.put(values);
+            pad(region);
+            if(this.text!=null){
+                ByteBuffer text = this.text.duplicate();
+                text.flip();
+                region.put(text);
+                pad(region);
+            }
+        }
+
+        private static void pad(ByteBuffer region){
+            while ((region.position() & 7) != 0){
+                region.put((byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package net.virtalab.databazer.query;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reader of file written by {@link ColumnarExporter}.
+ * <p>
+ * Groups of rows are memory-mapped read-only on first access, and columns are given out as buffer views of mapping,
+ * so values are read straight from page cache, without copying or decoding.
+ * <pre>
+ *   ColumnarFile file = ColumnarFile.open(new File("payments.dbzc"));
+ *   try{
+ *       int amount = file.getColumnIndex("amount");
+ *       for(int g=0;g&lt;file.getGroupCount();g++){
+ *           DoubleBuffer values = file.getDoubles(g, amount);
+ *           while(values.hasRemaining()){
+ *               total += values.get();
+ *           }
+ *       }
+ *   } finally {
+ *       file.close();
+ *   }
+ * </pre>
+ * Reader is not thread-safe while groups are mapped; buffers it gives out are independent views and may be shared.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.ColumnarExporter
+ * @version 0.5
+ * @since 0.5
+ */
+public class ColumnarFile implements Closeable {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final String[] names;
+    private final ColumnType[] types;
+    private final int[] sqlTypes;
+    private final long[] groupOffsets;
+    private final long rowCount;
+    private final MappedByteBuffer[] groups;
+    private final int[] groupRows;
+    private final int[][] sectionOffsets;
+
+    private ColumnarFile(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+
+        long size = this.channel.size();
+        if(size < ColumnarExporter.FOOTER_SIZE + 16){
+            throw new IOException("File is too short for columnar file");
+        }
+        ByteBuffer tail = this.read(size - ColumnarExporter.FOOTER_SIZE, ColumnarExporter.FOOTER_SIZE);
+        this.rowCount = tail.getLong();
+        int groupCount = tail.getInt();
+        checkMagic(tail);
+
+        ByteBuffer offsets = this.read(size - ColumnarExporter.FOOTER_SIZE - 8L * groupCount, 8 * groupCount);
+        this.groupOffsets = new long[groupCount];
+        for(int i=0;i<groupCount;i++){
+            this.groupOffsets[i] = offsets.getLong();
+        }
+
+        ByteBuffer header = this.read(0, 16);
+        checkMagic(header);
+        int version = header.getInt();
+        if(version!=ColumnarExporter.VERSION){
+            throw new IOException("Unsupported version of columnar file: " + version);
+        }
+        int columnCount = header.getInt();
+        long headerEnd = groupCount > 0 ? this.groupOffsets[0] : size - ColumnarExporter.FOOTER_SIZE;
+        header = this.read(16, (int) (headerEnd - 16));
+        this.names = new String[columnCount];
+        this.types = new ColumnType[columnCount];
+        this.sqlTypes = new int[columnCount];
+        for(int i=0;i<columnCount;i++){
+            this.types[i] = ColumnType.values()[header.get()];
+            this.sqlTypes[i] = header.getInt();
+            byte[] name = new byte[header.getShort()];
+            header.get(name);
+            this.names[i] = new String(name, "UTF-8");
+        }
+
+        this.groups = new MappedByteBuffer[groupCount];
+        this.groupRows = new int[groupCount];
+        this.sectionOffsets = new int[groupCount][];
+    }
+
+    /**
+     * Opens file for reading
+     *
+     * @param file file written by {@link ColumnarExporter}
+     * @return reader
+     * @throws IOException when file cannot be read or is not columnar file
+     */
+    public static ColumnarFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try{
+            return new ColumnarFile(raf);
+        } catch (IOException e){
+            raf.close();
+            throw e;
+        } catch (RuntimeException e){
+            raf.close();
+            throw new IOException("Broken columnar file " + file + ": " + e);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ColumnarExporter.ORDER);
+        while (buffer.hasRemaining()){
+            if(this.channel.read(buffer, position + buffer.position()) < 0){
+                throw new IOException("Unexpected end of columnar file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void checkMagic(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        if(!Arrays.equals(magic, ColumnarExporter.MAGIC)){
+            throw new IOException("Not a columnar file");
+        }
+    }
+
+    /**
+     * Maps group on first access
+     */
+    private MappedByteBuffer group(int group) throws IOException {
+        MappedByteBuffer mapped = this.groups[group];
+        if(mapped!=null){
+            return mapped;
+        }
+        long start = this.groupOffsets[group];
+        long end = group + 1 < this.groupOffsets.length ? this.groupOffsets[group + 1] :
+                this.channel.size() - ColumnarExporter.FOOTER_SIZE - 8L * this.groupOffsets.length;
+        mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        mapped.order(ColumnarExporter.ORDER);
+        int rows = mapped.getInt(0);
+        int[] sections = new int[this.names.length];
+        long offset = 8 + 8L * this.names.length;
+        for(int i=0;i<sections.length;i++){
+            sections[i] = (int) offset;
+            offset += mapped.getLong(8 + 8 * i);
+        }
+        this.groupRows[group] = rows;
+        this.sectionOffsets[group] = sections;
+        this.groups[group] = mapped;
+        return mapped;
+    }
+
+    /**
+     * View of part of section
+     */
+    private ByteBuffer slice(int group, int column, int offset, int length) throws IOException {
+        ByteBuffer view = this.group(group).duplicate();
+        int start = this.sectionOffsets[group][column] + offset;
+        view.limit(start + length).position(start);
+        return view.slice().order(ColumnarExporter.ORDER);
+    }
+
+    private int bitmapLength(int group){
+        return 8 * ((this.groupRows[group] + 63) / 64);
+    }
+
+    private void check(int column, ColumnType expected){
+        if(this.types[column]!=expected){
+            throw new IllegalStateException("Column " + this.names[column] + " is " + this.types[column] + ", not " + expected);
+        }
+    }
+
+    /**
+     * Values of {@link ColumnType#INT} column at group
+     *
+     * @param group group number, from 0
+     * @param column column index, from 0
+     * @return read-only view of mapped file, one value per row of group
+     * @throws IOException when group cannot be mapped
+     */
+    public IntBuffer getInts(int group, int column) throws IOException {
+        this.check(column, ColumnType.INT);
+        this.group(group);
+        return this.slice(group, column, this.bitmapLength(group), 4 * this.groupRows[group]).asIntBuffer();
+    }
+
+    /**
+     * Values of {@link ColumnType#LONG} column at group
+     *
+     * @param group group number, from 0
+     * @param column column index, from 0
+     * @return read-only view of mapped file, one value per row of group
+     * @throws IOException when group cannot be mapped
+     */
+    public LongBuffer getLongs(int group, int column) throws IOException {
+        this.check(column, ColumnType.LONG);
+        this.group(group);
+        return this.slice(group, column, this.bitmapLength(group), 8 * this.groupRows[group]).asLongBuffer();
+    }
+
+    /**
+     * Values of {@link ColumnType#DOUBLE} column at group
+     *
+     * @param group group number, from 0
+     * @param column column index, from 0
+     * @return read-only view of mapped file, one value per row of group
+     * @throws IOException when group cannot be mapped
+     */
+    public DoubleBuffer getDoubles(int group, int column) throws IOException {
+        this.check(column, ColumnType.DOUBLE);
+        this.group(group);
+        return this.slice(group, column, this.bitmapLength(group), 8 * this.groupRows[group]).asDoubleBuffer();
+    }
+
+    /**
+     * Text value of {@link ColumnType#OBJECT} column
+     *
+     * @param group group number, from 0
+     * @param column column index, from 0
+     * @param row row number within group, from 0
+     * @return value or NULL
+     * @throws IOException when group cannot be mapped
+     */
+    public String getString(int group, int column, int row) throws IOException {
+        this.check(column, ColumnType.OBJECT);
+        if(this.isNull(group, column, row)){
+            return null;
+        }
+        int rows = this.groupRows[group];
+        IntBuffer offsets = this.slice(group, column, this.bitmapLength(group), 4 * (rows + 1)).asIntBuffer();
+        int from = offsets.get(row);
+        int to = offsets.get(row + 1);
+        int textStart = this.bitmapLength(group) + (int) ColumnarExporter.align(4L * (rows + 1));
+        ByteBuffer text = this.slice(group, column, textStart + from, to - from);
+        byte[] bytes = new byte[to - from];
+        text.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Tells if value is NULL
+     *
+     * @param group group number, from 0
+     * @param column column index, from 0
+     * @param row row number within group, from 0
+     * @return true for NULL
+     * @throws IOException when group cannot be mapped
+     */
+    public boolean isNull(int group, int column, int row) throws IOException {
+        MappedByteBuffer mapped = this.group(group);
+        if(row < 0 || row >= this.groupRows[group]){
+            throw new IndexOutOfBoundsException("Row " + row + " is not in group " + group);
+        }
+        long word = mapped.getLong(this.sectionOffsets[group][column] + 8 * (row >>> 6));
+        return (word & (1L << (row & 63))) != 0;
+    }
+
+    /**
+     * Reports number of rows at group
+     *
+     * @param group group number, from 0
+     * @return row count
+     * @throws IOException when group cannot be mapped
+     */
+    public int getGroupRowCount(int group) throws IOException {
+        this.group(group);
+        return this.groupRows[group];
+    }
+
+    /**
+     * Reports number of groups
+     *
+     * @return group count
+     */
+    public int getGroupCount(){
+        return this.groupOffsets.length;
+    }
+
+    /**
+     * Reports number of rows at file
+     *
+     * @return row count
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Reports number of columns
+     *
+     * @return column count
+     */
+    public int getColumnCount(){
+        return this.names.length;
+    }
+
+    /**
+     * Reports name of column
+     *
+     * @param column column index, from 0
+     * @return name
+     */
+    public String getColumnName(int column){
+        return this.names[column];
+    }
+
+    /**
+     * Finds column by name, ignoring case
+     *
+     * @param name column name
+     * @return column index, from 0
+     * @throws java.lang.IllegalArgumentException when there is no such column
+     */
+    public int getColumnIndex(String name){
+        for(int i=0;i<this.names.length;i++){
+            if(this.names[i].equalsIgnoreCase(name)){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No column " + name + " in file");
+    }
+
+    /**
+     * Reports storage type of column
+     *
+     * @param column column index, from 0
+     * @return type
+     */
+    public ColumnType getColumnType(int column){
+        return this.types[column];
+    }
+
+    /**
+     * Reports JDBC type column had at database
+     *
+     * @param column column index, from 0
+     * @return one of {@link java.sql.Types}
+     */
+    public int getSqlType(int column){
+        return this.sqlTypes[column];
+    }
+
+    /**
+     * Closes file. Mappings are released by GC, buffers given out before should not be used after close.
+     *
+     * @throws IOException when file cannot be closed
+     */
+    public void close() throws IOException {
+        Arrays.fill(this.groups, null);
+        this.file.close();
+    }
+}
@@ -0,0 +1,126 @@
+package net.virtalab.databazer.query;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Reads whole query result into columns of primitive arrays instead of rows of objects.
+ * <p>
+ * Each numeric column becomes {@code int[]}, {@code long[]} or {@code double[]} (see {@link ColumnType}) with
+ * {@link java.util.BitSet} of NULLs, so memory use is close to raw data size and there is no per-value garbage.
+ * With {@link #setOffHeap(boolean) off-heap} mode, numeric columns are stored at direct {@link java.nio.ByteBuffer}s
+ * and do not load heap and GC at all.
+ * <p>
+ * Query is run in streaming mode of vendor (see {@link StreamingQuery}), so driver does not keep its own copy of result.
+ * <pre>
+ *   ColumnarResult result = new ColumnarQuery(ds).query("SELECT user_id, amount FROM payment WHERE day = ?", day);
+ *   double[] amounts = result.getColumn("amount").getDoubles();
+ *   double total = 0;
+ *   for(double amount: amounts){
+ *       total += amount;
+ *   }
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.ColumnarResult
+ * @version 0.5
+ * @since 0.5
+ */
+public class ColumnarQuery {
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private final NamedDataSource dataSource;
+    private final StreamingQuery streaming;
+
+    private boolean offHeap = false;
+    private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+
+    /**
+     * Creates columnar query runner for DataSource
+     *
+     * @param dataSource DataSource to query
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public ColumnarQuery(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.streaming = new StreamingQuery(dataSource);
+    }
+
+    /**
+     * Runs query and reads all its rows into columns
+     *
+     * @param sql query with {@code ?} placeholders
+     * @param params query parameters in placeholder order
+     * @return columns of result
+     * @throws SQLException when query fails
+     */
+    public ColumnarResult query(String sql, Object... params) throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try{
+            statement = this.streaming.prepare(connection, sql, params);
+            rs = statement.executeQuery();
+            ResultSetMetaData meta = rs.getMetaData();
+            ResultColumn[] columns = new ResultColumn[meta.getColumnCount()];
+            for(int i=0;i<columns.length;i++){
+                columns[i] = new ResultColumn(JdbcUtils.lookupColumnName(meta, i + 1), meta.getColumnType(i + 1),
+                        ResultColumn.typeOf(meta, i + 1), this.offHeap, this.initialCapacity);
+            }
+            int rows = 0;
+            while (rs.next()){
+                for(int i=0;i<columns.length;i++){
+                    columns[i].read(rs, i + 1);
+                }
+                rows++;
+            }
+            for(ResultColumn column: columns){
+                column.trim();
+            }
+            return new ColumnarResult(columns, rows);
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Store numeric columns at direct (off-heap) buffers instead of arrays. Default is false.
+     *
+     * @param offHeap true for off-heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Rows column has space for before it grows. Set to expected row count to avoid copying. Default is 1024.
+     *
+     * @param initialCapacity row count. Should be 0 or more.
+     */
+    public void setInitialCapacity(int initialCapacity) {
+        if(initialCapacity < 0){
+            throw new IllegalArgumentException("Initial capacity cannot be negative");
+        }
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * Rows fetched per round trip. See {@link StreamingQuery#setFetchSize(int)}.
+     *
+     * @param fetchSize fetch size. Should be positive.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.streaming.setFetchSize(fetchSize);
+    }
+}
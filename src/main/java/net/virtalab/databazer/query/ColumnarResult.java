@@ -0,0 +1,100 @@
+package net.virtalab.databazer.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Query result stored by columns: one {@link ResultColumn} per column, each holding values of all rows.
+ * <p>
+ * Numeric column of million rows takes 4 or 8 MB instead of million boxed values in million maps.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.ColumnarQuery
+ * @version 0.5
+ * @since 0.5
+ */
+public class ColumnarResult {
+    private final List<ResultColumn> columns;
+    private final Map<String, ResultColumn> byName = new LinkedHashMap<String, ResultColumn>();
+    private final int rowCount;
+
+    ColumnarResult(ResultColumn[] columns, int rowCount){
+        this.columns = Collections.unmodifiableList(Arrays.asList(columns));
+        for(ResultColumn column: columns){
+            String key = column.getName().toLowerCase(Locale.US);
+            if(!this.byName.containsKey(key)){
+                this.byName.put(key, column);
+            }
+        }
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Reports number of rows
+     *
+     * @return row count
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Reports number of columns
+     *
+     * @return column count
+     */
+    public int getColumnCount(){
+        return this.columns.size();
+    }
+
+    /**
+     * Column by position
+     *
+     * @param index column index, from 0
+     * @return column
+     */
+    public ResultColumn getColumn(int index){
+        return this.columns.get(index);
+    }
+
+    /**
+     * Column by name, ignoring case
+     *
+     * @param name column name (label)
+     * @return column
+     * @throws java.lang.IllegalArgumentException when there is no such column
+     */
+    public ResultColumn getColumn(String name){
+        ResultColumn column = this.byName.get(name.toLowerCase(Locale.US));
+        if(column==null){
+            throw new IllegalArgumentException("No column " + name + " in result");
+        }
+        return column;
+    }
+
+    /**
+     * All columns in query order
+     *
+     * @return unmodifiable list of columns
+     */
+    public List<ResultColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Reports memory taken by all columns (see {@link ResultColumn#getMemoryBytes()})
+     *
+     * @return bytes
+     */
+    public long getMemoryBytes(){
+        long bytes = 0;
+        for(ResultColumn column: this.columns){
+            bytes += column.getMemoryBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,200 @@
+package net.virtalab.databazer.query;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns how many rows and how many bytes per row queries return and sets fetch size of their next executions.
+ * <p>
+ * Tuner is set by {@link net.virtalab.databazer.NamedDataSource#setFetchSizeTuner(FetchSizeTuner)}. Then connections
+ * of DataSource count rows read from every result set and size of values taken from them, separately for every SQL.
+ * Next execution of same SQL gets fetch size to take whole result in one round trip, when it fits into
+ * {@link #setMaxBufferBytes(long) memory limit} (and {@link #setMaxFetchSize(int) row limit}), or as many rows as fit
+ * there otherwise. Point lookups get small fetch size and do not allocate big buffers; scans get big one and
+ * make less round trips. Statements with fetch size set by application are not changed.
+ * <pre>
+ *   FetchSizeTuner tuner = new FetchSizeTuner();
+ *   tuner.setMaxBufferBytes(8 * 1024 * 1024);
+ *   ds.setFetchSizeTuner(tuner);
+ * </pre>
+ * Fetch size is hint for driver: MySQL uses it only with {@code useCursorFetch=true}, embedded H2 does not need it.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource#setFetchSizeTuner(FetchSizeTuner)
+ * @version 0.5
+ * @since 0.5
+ */
+public class FetchSizeTuner {
+    private static final long DEFAULT_MAX_BUFFER_BYTES = 4L * 1024 * 1024;
+    private static final int DEFAULT_MAX_FETCH_SIZE = 10000;
+    private static final int DEFAULT_MAX_STATEMENTS = 10000;
+    //weight of last execution in averages
+    private static final double WEIGHT = 0.25;
+    //rough size of row before values are seen
+    private static final int DEFAULT_ROW_BYTES = 256;
+
+    private volatile long maxBufferBytes = DEFAULT_MAX_BUFFER_BYTES;
+    private volatile int maxFetchSize = DEFAULT_MAX_FETCH_SIZE;
+    private volatile int maxStatements = DEFAULT_MAX_STATEMENTS;
+
+    private final ConcurrentMap<String, Stats> statements = new ConcurrentHashMap<String, Stats>();
+
+    //metrics
+    private final AtomicLong tuned = new AtomicLong();
+    private final AtomicLong observed = new AtomicLong();
+
+    /**
+     * Wraps connection of DataSource, so its queries are measured and tuned.
+     * Used by {@link net.virtalab.databazer.NamedDataSource}, there is no need to call it directly.
+     *
+     * @param connection connection of DataSource
+     * @return connection proxy
+     */
+    public Connection wrap(Connection connection){
+        if(connection==null){
+            throw new IllegalArgumentException("Connection cannot be NULL");
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new TuningConnection(this, connection));
+    }
+
+    /**
+     * Reports fetch size for next execution of SQL
+     *
+     * @param sql SQL of statement
+     * @return fetch size or 0 when SQL was not seen yet
+     */
+    public int getFetchSize(String sql){
+        Stats stats = this.statements.get(sql);
+        return stats==null ? 0 : stats.fetchSize;
+    }
+
+    /**
+     * Fetch size to set before execution, counted as tuned execution
+     *
+     * @return fetch size or 0 to leave driver default
+     */
+    int tune(String sql){
+        int fetchSize = this.getFetchSize(sql);
+        if(fetchSize > 0){
+            this.tuned.incrementAndGet();
+        }
+        return fetchSize;
+    }
+
+    /**
+     * Takes into account result set which is read
+     *
+     * @param sql SQL of statement
+     * @param rows rows read
+     * @param bytes size of values taken from those rows
+     */
+    void observe(String sql, long rows, long bytes){
+        Stats stats = this.statements.get(sql);
+        if(stats==null){
+            if(this.statements.size() >= this.maxStatements){
+                //too many different statements (SQL with literals): start learning again
+                this.statements.clear();
+            }
+            stats = new Stats();
+            Stats existing = this.statements.putIfAbsent(sql, stats);
+            if(existing!=null){
+                stats = existing;
+            }
+        }
+        this.observed.incrementAndGet();
+        stats.add(rows, bytes, this);
+    }
+
+    private int fetchSize(double rows, double rowBytes){
+        //room for growth, and at least one row besides last, so driver learns that there are no more
+        long wanted = (long) Math.ceil(rows * (1 + WEIGHT));
+        long fit = Math.max(1, (long) (this.maxBufferBytes / Math.max(1, rowBytes)));
+        return (int) Math.max(1, Math.min(Math.min(Math.max(wanted, (long) rows + 1), fit), this.maxFetchSize));
+    }
+
+    /**
+     * Reports number of executions which got learnt fetch size
+     *
+     * @return execution count
+     */
+    public long getTunedCount() {
+        return tuned.get();
+    }
+
+    /**
+     * Reports number of result sets measured
+     *
+     * @return result set count
+     */
+    public long getObservedCount() {
+        return observed.get();
+    }
+
+    /**
+     * Reports number of SQL statements with learnt fetch size
+     *
+     * @return statement count
+     */
+    public int getStatementCount(){
+        return this.statements.size();
+    }
+
+    /**
+     * Most memory for rows fetched at once by one result set. Default is 4 MB.
+     *
+     * @param maxBufferBytes bytes. Should be positive.
+     */
+    public void setMaxBufferBytes(long maxBufferBytes) {
+        if(maxBufferBytes < 1){
+            throw new IllegalArgumentException("Max buffer bytes cannot be less than 1");
+        }
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * Most fetch size set by tuner. Default is 10000.
+     *
+     * @param maxFetchSize row count. Should be 1 or more.
+     */
+    public void setMaxFetchSize(int maxFetchSize) {
+        if(maxFetchSize < 1){
+            throw new IllegalArgumentException("Max fetch size cannot be less than 1");
+        }
+        this.maxFetchSize = maxFetchSize;
+    }
+
+    /**
+     * Most SQL statements remembered. When there are more, everything learnt is forgotten. Default is 10000.
+     *
+     * @param maxStatements statement count. Should be 1 or more.
+     */
+    public void setMaxStatements(int maxStatements) {
+        if(maxStatements < 1){
+            throw new IllegalArgumentException("Max statements cannot be less than 1");
+        }
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * Averages of one SQL
+     */
+    private static final class Stats {
+        //guarded by this, negative until first result is seen
+        private double rows = -1;
+        private double rowBytes = -1;
+        private volatile int fetchSize;
+
+        private synchronized void add(long rows, long bytes, FetchSizeTuner tuner){
+            this.rows = this.rows < 0 ? rows : this.rows + WEIGHT * (rows - this.rows);
+            if(rows > 0 && bytes > 0){
+                double rowBytes = (double) bytes / rows;
+                this.rowBytes = this.rowBytes < 0 ? rowBytes : this.rowBytes + WEIGHT * (rowBytes - this.rowBytes);
+            }
+            this.fetchSize = tuner.fetchSize(this.rows, this.rowBytes < 0 ? DEFAULT_ROW_BYTES : this.rowBytes);
+        }
+    }
+}
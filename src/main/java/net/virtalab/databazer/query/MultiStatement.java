@@ -0,0 +1,352 @@
+package net.virtalab.databazer.query;
+
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.Vendor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs several independent statements with as few round trips to database as possible and gives their results in order.
+ * <p>
+ * Statements are added by {@link #query(String, RowMapper, Object...)} and {@link #update(String, Object...)} and
+ * run by {@link #execute()} on one connection:
+ * <ul>
+ *     <li>MySQL with {@code allowMultiQueries=true} at URL or connection properties - all statements are joined into one multi-statement
+ *     and sent at once; results are read one after another.</li>
+ *     <li>H2 and MySQL without {@code allowMultiQueries} - consecutive updates with same SQL are sent as one
+ *     batch of prepared statement, consecutive updates without parameters as one batch of statement,
+ *     queries one by one.</li>
+ * </ul>
+ * <pre>
+ *   MultiStatement multi = new MultiStatement(ds);
+ *   multi.query("SELECT * FROM user WHERE id = ?", USER_MAPPER, userId)
+ *        .query("SELECT * FROM orders WHERE user_id = ?", ORDER_MAPPER, userId)
+ *        .update("UPDATE user SET seen = NOW() WHERE id = ?", userId);
+ *   List&lt;Object&gt; results = multi.execute();
+ *   List&lt;User&gt; users = (List&lt;User&gt;) results.get(0);
+ * </pre>
+ * Statements run at auto-commit mode of connection, each is its own transaction by default.
+ * Object is not thread-safe and can be executed again after {@link #clear()} or with same statements.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.Vendor
+ * @version 0.5
+ * @since 0.5
+ */
+public class MultiStatement {
+    private static final String MULTI_QUERIES_OPTION = "allowMultiQueries";
+
+    private final NamedDataSource dataSource;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private int roundTrips = 0;
+
+    /**
+     * Creates empty multi-statement
+     *
+     * @param dataSource DataSource to run statements at
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public MultiStatement(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Adds query. Its result is list of mapped rows.
+     *
+     * @param sql query with {@code ?} placeholders
+     * @param rowMapper maps current row to object
+     * @param params query parameters in placeholder order
+     * @param <T> type of row object
+     * @return this multi-statement
+     */
+    public <T> MultiStatement query(String sql, RowMapper<T> rowMapper, Object... params){
+        if(rowMapper==null){
+            throw new IllegalArgumentException("RowMapper cannot be NULL");
+        }
+        this.entries.add(new Entry(statement(sql), rowMapper, params));
+        return this;
+    }
+
+    /**
+     * Adds update. Its result is {@link Integer} update count.
+     *
+     * @param sql statement with {@code ?} placeholders
+     * @param params statement parameters in placeholder order
+     * @return this multi-statement
+     */
+    public MultiStatement update(String sql, Object... params){
+        this.entries.add(new Entry(statement(sql), null, params));
+        return this;
+    }
+
+    private static String statement(String sql){
+        if(sql==null){
+            throw new IllegalArgumentException("SQL cannot be NULL");
+        }
+        String trimmed = sql.trim();
+        while (trimmed.endsWith(";")){
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        if(trimmed.length()==0){
+            throw new IllegalArgumentException("SQL cannot be empty");
+        }
+        return trimmed;
+    }
+
+    /**
+     * Runs all added statements
+     *
+     * @return results in order of statements: {@link List} of mapped rows for query,
+     *         {@link Integer} update count for update ({@link Statement#SUCCESS_NO_INFO} when driver does not report it)
+     * @throws SQLException when statement fails. Statements before it may be done already.
+     */
+    public List<Object> execute() throws SQLException {
+        this.roundTrips = 0;
+        List<Object> results = new ArrayList<Object>(this.entries.size());
+        if(this.entries.isEmpty()){
+            return results;
+        }
+        Connection connection = this.dataSource.getConnection();
+        try{
+            if(this.isMultiQueries()){
+                this.executeJoined(connection, results);
+            } else {
+                this.executeBatched(connection, results);
+            }
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+        return results;
+    }
+
+    private boolean isMultiQueries(){
+        String url = this.dataSource.getUrl();
+        if(this.entries.size() < 2 || Vendor.of(url)!=Vendor.MYSQL){
+            return false;
+        }
+        //Connector/J takes option of URL over connection property
+        String value = urlOption(url, MULTI_QUERIES_OPTION);
+        Properties properties = this.dataSource.getConnectionProperties();
+        if(value==null && properties!=null){
+            for(String name: properties.stringPropertyNames()){
+                if(name.equalsIgnoreCase(MULTI_QUERIES_OPTION)){
+                    value = properties.getProperty(name);
+                }
+            }
+        }
+        return value!=null && (value.trim().equalsIgnoreCase("true") || value.trim().equalsIgnoreCase("yes"));
+    }
+
+    private static String urlOption(String url, String name){
+        int query = url.indexOf('?');
+        if(query==-1){
+            return null;
+        }
+        String value = null;
+        for(String pair: url.substring(query + 1).split("&")){
+            int eq = pair.indexOf('=');
+            if(eq!=-1 && pair.substring(0, eq).trim().equalsIgnoreCase(name)){
+                value = pair.substring(eq + 1);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * One multi-statement, results are read by {@link Statement#getMoreResults()}
+     */
+    private void executeJoined(Connection connection, List<Object> results) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        for(Entry entry: this.entries){
+            if(sql.length() > 0){
+                sql.append(";\n");
+            }
+            sql.append(entry.sql);
+        }
+        PreparedStatement statement = connection.prepareStatement(sql.toString());
+        try{
+            int index = 1;
+            for(Entry entry: this.entries){
+                for(Object param: entry.params){
+                    statement.setObject(index++, param);
+                }
+            }
+            this.roundTrips++;
+            boolean isResultSet = statement.execute();
+            for(int i=0;i<this.entries.size();i++){
+                Entry entry = this.entries.get(i);
+                if(isResultSet){
+                    if(entry.rowMapper==null){
+                        throw new SQLException("Statement " + (i + 1) + " gave result set, but update was expected: " + entry.sql);
+                    }
+                    ResultSet rs = statement.getResultSet();
+                    try{
+                        results.add(entry.map(rs));
+                    } finally {
+                        JdbcUtils.closeResultSet(rs);
+                    }
+                } else {
+                    int count = statement.getUpdateCount();
+                    if(count==-1){
+                        throw new SQLException("Database gave " + i + " results for " + this.entries.size() + " statements");
+                    }
+                    if(entry.rowMapper!=null){
+                        throw new SQLException("Statement " + (i + 1) + " gave update count, but query was expected: " + entry.sql);
+                    }
+                    results.add(count);
+                }
+                isResultSet = statement.getMoreResults();
+            }
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Runs of updates as JDBC batches, queries one by one
+     */
+    private void executeBatched(Connection connection, List<Object> results) throws SQLException {
+        int i = 0;
+        while (i < this.entries.size()){
+            Entry entry = this.entries.get(i);
+            if(entry.rowMapper!=null){
+                PreparedStatement statement = connection.prepareStatement(entry.sql);
+                try{
+                    entry.bind(statement);
+                    this.roundTrips++;
+                    ResultSet rs = statement.executeQuery();
+                    try{
+                        results.add(entry.map(rs));
+                    } finally {
+                        JdbcUtils.closeResultSet(rs);
+                    }
+                } finally {
+                    JdbcUtils.closeStatement(statement);
+                }
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            if(entry.params.length==0){
+                while (end < this.entries.size() && this.entries.get(end).rowMapper==null &&
+                        this.entries.get(end).params.length==0){
+                    end++;
+                }
+            } else {
+                while (end < this.entries.size() && this.entries.get(end).rowMapper==null &&
+                        this.entries.get(end).sql.equals(entry.sql)){
+                    end++;
+                }
+            }
+            int[] counts = end - i==1 ? new int[]{this.executeUpdate(connection, entry)} :
+                    this.executeBatch(connection, i, end);
+            for(int count: counts){
+                results.add(count);
+            }
+            i = end;
+        }
+    }
+
+    private int executeUpdate(Connection connection, Entry entry) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(entry.sql);
+        try{
+            entry.bind(statement);
+            this.roundTrips++;
+            return statement.executeUpdate();
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    private int[] executeBatch(Connection connection, int from, int to) throws SQLException {
+        Entry first = this.entries.get(from);
+        Statement statement = null;
+        try{
+            if(first.params.length==0){
+                statement = connection.createStatement();
+                for(int i=from;i<to;i++){
+                    statement.addBatch(this.entries.get(i).sql);
+                }
+            } else {
+                PreparedStatement prepared = connection.prepareStatement(first.sql);
+                statement = prepared;
+                for(int i=from;i<to;i++){
+                    this.entries.get(i).bind(prepared);
+                    prepared.addBatch();
+                }
+            }
+            this.roundTrips++;
+            return statement.executeBatch();
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Removes all added statements
+     */
+    public void clear(){
+        this.entries.clear();
+    }
+
+    /**
+     * Reports number of added statements
+     *
+     * @return statement count
+     */
+    public int size(){
+        return this.entries.size();
+    }
+
+    /**
+     * Reports number of executions sent to database by last {@link #execute()}
+     *
+     * @return execution count
+     */
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Added statement
+     */
+    private static final class Entry {
+        private final String sql;
+        private final RowMapper<?> rowMapper;
+        private final Object[] params;
+
+        private Entry(String sql, RowMapper<?> rowMapper, Object[] params){
+            this.sql = sql;
+            this.rowMapper = rowMapper;
+            this.params = params==null ? new Object[0] : params.clone();
+        }
+
+        private void bind(PreparedStatement statement) throws SQLException {
+            for(int i=0;i<this.params.length;i++){
+                statement.setObject(i + 1, this.params[i]);
+            }
+        }
+
+        private List<Object> map(ResultSet rs) throws SQLException {
+            List<Object> rows = new ArrayList<Object>();
+            int rowNum = 0;
+            while (rs.next()){
+                rows.add(this.rowMapper.mapRow(rs, rowNum++));
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package net.virtalab.databazer.query;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * One column of {@link ColumnarResult}: values of all rows in one primitive array (or off-heap buffer) and bitmap of NULLs.
+ * <p>
+ * Primitive arrays are exactly {@link #size()} long, so they can be processed by plain loops, which JIT turns
+ * into vectorized code. NULL rows hold 0 at array, check {@link #getNulls()} when column is nullable.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.ColumnarResult
+ * @version 0.5
+ * @since 0.5
+ */
+public class ResultColumn {
+    private final String name;
+    private final int sqlType;
+    private final ColumnType type;
+    private final boolean temporal;
+    private final boolean offHeap;
+    private final BitSet nulls = new BitSet();
+
+    private int size = 0;
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+    private ByteBuffer buffer;
+
+    ResultColumn(String name, int sqlType, ColumnType type, boolean offHeap, int capacity){
+        this.name = name;
+        this.sqlType = sqlType;
+        this.type = type;
+        this.temporal = sqlType==Types.DATE || sqlType==Types.TIME || sqlType==Types.TIMESTAMP;
+        this.offHeap = offHeap && type!=ColumnType.OBJECT;
+        if(this.offHeap){
+            this.buffer = ByteBuffer.allocateDirect(capacity * type.getWidth()).order(ByteOrder.nativeOrder());
+            return;
+        }
+        switch (type){
+            case INT:
+                this.ints = new int[capacity];
+                break;
+            case LONG:
+                this.longs = new long[capacity];
+                break;
+            case DOUBLE:
+                this.doubles = new double[capacity];
+                break;
+            default:
+                this.objects = new Object[capacity];
+                break;
+        }
+    }
+
+    /**
+     * Picks storage for column by its JDBC type
+     */
+    static ColumnType typeOf(ResultSetMetaData meta, int column) throws SQLException {
+        switch (meta.getColumnType(column)){
+            case Types.BIT:
+            case Types.BOOLEAN:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return ColumnType.INT;
+            case Types.INTEGER:
+                return meta.isSigned(column) ? ColumnType.INT : ColumnType.LONG;
+            case Types.BIGINT:
+                return meta.isSigned(column) ? ColumnType.LONG : ColumnType.OBJECT;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                int precision = meta.getPrecision(column);
+                return meta.getScale(column)==0 && precision > 0 && precision <= 18 ? ColumnType.LONG : ColumnType.DOUBLE;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return ColumnType.DOUBLE;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return ColumnType.LONG;
+            default:
+                return ColumnType.OBJECT;
+        }
+    }
+
+    /**
+     * Appends value of current row
+     */
+    void read(ResultSet rs, int column) throws SQLException {
+        this.ensureCapacity(this.size + 1);
+        int row = this.size;
+        switch (this.type){
+            case INT:
+                int intValue = rs.getInt(column);
+                if(this.offHeap){
+                    this.buffer.putInt(row * 4, intValue);
+                } else {
+                    this.ints[row] = intValue;
+                }
+                break;
+            case LONG:
+                long longValue;
+                if(this.temporal){
+                    java.util.Date date = rs.getTimestamp(column);
+                    longValue = date==null ? 0 : date.getTime();
+                } else {
+                    longValue = rs.getLong(column);
+                }
+                if(this.offHeap){
+                    this.buffer.putLong(row * 8, longValue);
+                } else {
+                    this.longs[row] = longValue;
+                }
+                break;
+            case DOUBLE:
+                double doubleValue = rs.getDouble(column);
+                if(this.offHeap){
+                    this.buffer.putDouble(row * 8, doubleValue);
+                } else {
+                    this.doubles[row] = doubleValue;
+                }
+                break;
+            default:
+                this.objects[row] = rs.getObject(column);
+                break;
+        }
+        if(rs.wasNull()){
+            this.nulls.set(row);
+        }
+        this.size++;
+    }
+
+    private void ensureCapacity(int needed){
+        int capacity = this.capacity();
+        if(needed <= capacity){
+            return;
+        }
+        int grown = Math.max(needed, capacity + (capacity >> 1) + 16);
+        this.resize(grown);
+    }
+
+    private int capacity(){
+        if(this.offHeap){
+            return this.buffer.capacity() / this.type.getWidth();
+        }
+        switch (this.type){
+            case INT:
+                return this.ints.length;
+            case LONG:
+                return this.longs.length;
+            case DOUBLE:
+                return this.doubles.length;
+            default:
+                return this.objects.length;
+        }
+    }
+
+    private void resize(int capacity){
+        if(this.offHeap){
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity * this.type.getWidth()).order(ByteOrder.nativeOrder());
+            ByteBuffer old = this.buffer.duplicate();
+            old.position(0).limit(this.size * this.type.getWidth());
+            grown.put(old);
+            grown.clear();
+            this.buffer = grown;
+            return;
+        }
+        switch (this.type){
+            case INT:
+                this.ints = Arrays.copyOf(this.ints, capacity);
+                break;
+            case LONG:
+                this.longs = Arrays.copyOf(this.longs, capacity);
+                break;
+            case DOUBLE:
+                this.doubles = Arrays.copyOf(this.doubles, capacity);
+                break;
+            default:
+                this.objects = Arrays.copyOf(this.objects, capacity);
+                break;
+        }
+    }
+
+    /**
+     * Cuts storage to number of rows
+     */
+    void trim(){
+        if(this.capacity() != this.size){
+            this.resize(this.size);
+        }
+        if(this.offHeap){
+            this.buffer.limit(this.size * this.type.getWidth());
+        }
+    }
+
+    /**
+     * Reports column name (label)
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Reports JDBC type of column
+     *
+     * @return one of {@link java.sql.Types}
+     */
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * Reports storage of column
+     *
+     * @return type
+     */
+    public ColumnType getType() {
+        return type;
+    }
+
+    /**
+     * Tells if values are stored at off-heap buffer instead of array
+     *
+     * @return true for off-heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Reports number of rows
+     *
+     * @return row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tells if value at row is NULL
+     *
+     * @param row row number, from 0
+     * @return true for NULL
+     */
+    public boolean isNull(int row){
+        return this.nulls.get(row);
+    }
+
+    /**
+     * Bitmap of NULL rows. Not a copy, do not change it.
+     *
+     * @return bit per row, set for NULL
+     */
+    public BitSet getNulls() {
+        return nulls;
+    }
+
+    /**
+     * Values of {@link ColumnType#INT} column
+     *
+     * @return array of {@link #size()} values. Not a copy.
+     * @throws java.lang.IllegalStateException when column is of other type or off-heap
+     */
+    public int[] getInts(){
+        this.check(ColumnType.INT);
+        return this.ints;
+    }
+
+    /**
+     * Values of {@link ColumnType#LONG} column
+     *
+     * @return array of {@link #size()} values. Not a copy.
+     * @throws java.lang.IllegalStateException when column is of other type or off-heap
+     */
+    public long[] getLongs(){
+        this.check(ColumnType.LONG);
+        return this.longs;
+    }
+
+    /**
+     * Values of {@link ColumnType#DOUBLE} column
+     *
+     * @return array of {@link #size()} values. Not a copy.
+     * @throws java.lang.IllegalStateException when column is of other type or off-heap
+     */
+    public double[] getDoubles(){
+        this.check(ColumnType.DOUBLE);
+        return this.doubles;
+    }
+
+    /**
+     * Values of {@link ColumnType#OBJECT} column
+     *
+     * @return array of {@link #size()} values. Not a copy.
+     * @throws java.lang.IllegalStateException when column is of other type
+     */
+    public Object[] getObjects(){
+        this.check(ColumnType.OBJECT);
+        return this.objects;
+    }
+
+    /**
+     * Off-heap storage of primitive column, in native byte order
+     *
+     * @return read-only view of buffer from 0 to {@link #size()} values
+     * @throws java.lang.IllegalStateException when column is not off-heap
+     */
+    public ByteBuffer getBuffer(){
+        if(!this.offHeap){
+            throw new IllegalStateException("Column " + this.name + " is not off-heap");
+        }
+        return this.buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Off-heap values of {@link ColumnType#INT} column
+     *
+     * @return read-only buffer of {@link #size()} values
+     */
+    public IntBuffer getIntBuffer(){
+        this.checkBuffer(ColumnType.INT);
+        return this.getBuffer().asIntBuffer();
+    }
+
+    /**
+     * Off-heap values of {@link ColumnType#LONG} column
+     *
+     * @return read-only buffer of {@link #size()} values
+     */
+    public LongBuffer getLongBuffer(){
+        this.checkBuffer(ColumnType.LONG);
+        return this.getBuffer().asLongBuffer();
+    }
+
+    /**
+     * Off-heap values of {@link ColumnType#DOUBLE} column
+     *
+     * @return read-only buffer of {@link #size()} values
+     */
+    public DoubleBuffer getDoubleBuffer(){
+        this.checkBuffer(ColumnType.DOUBLE);
+        return this.getBuffer().asDoubleBuffer();
+    }
+
+    /**
+     * Value at row as {@code long}, whatever storage is. Works for primitive columns.
+     *
+     * @param row row number, from 0
+     * @return value, 0 for NULL
+     */
+    public long getLong(int row){
+        switch (this.type){
+            case INT:
+                return this.offHeap ? this.buffer.getInt(row * 4) : this.ints[row];
+            case LONG:
+                return this.offHeap ? this.buffer.getLong(row * 8) : this.longs[row];
+            case DOUBLE:
+                return (long) this.getDouble(row);
+            default:
+                throw new IllegalStateException("Column " + this.name + " is not primitive");
+        }
+    }
+
+    /**
+     * Value at row as {@code double}, whatever storage is. Works for primitive columns.
+     *
+     * @param row row number, from 0
+     * @return value, 0 for NULL
+     */
+    public double getDouble(int row){
+        if(this.type==ColumnType.DOUBLE){
+            return this.offHeap ? this.buffer.getDouble(row * 8) : this.doubles[row];
+        }
+        return this.getLong(row);
+    }
+
+    /**
+     * Reports memory taken by values and NULL bitmap. Objects referenced by {@link ColumnType#OBJECT} column are not counted.
+     *
+     * @return bytes, on heap and off heap together
+     */
+    public long getMemoryBytes(){
+        long bitmap = this.nulls.size() / 8;
+        if(this.type==ColumnType.OBJECT){
+            //compressed references
+            return bitmap + 4L * this.capacity();
+        }
+        return bitmap + (long) this.type.getWidth() * this.capacity();
+    }
+
+    private void check(ColumnType expected){
+        if(this.type!=expected){
+            throw new IllegalStateException("Column " + this.name + " is " + this.type + ", not " + expected);
+        }
+        if(this.offHeap){
+            throw new IllegalStateException("Column " + this.name + " is off-heap, use buffer");
+        }
+    }
+
+    private void checkBuffer(ColumnType expected){
+        if(this.type!=expected){
+            throw new IllegalStateException("Column " + this.name + " is " + this.type + ", not " + expected);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package net.virtalab.databazer.query;
+
+/**
+ * Receives rows produced by scanners and readers of this package.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.TableScanner
+ * @version 0.5
+ * @since 0.5
+ * @param <T> type of row object
+ */
+public interface RowConsumer<T> {
+    /**
+     * Handles one row
+     *
+     * @param row row object
+     * @throws java.sql.SQLException when row cannot be handled. Stops scan.
+     */
+    void accept(T row) throws java.sql.SQLException;
+}
@@ -0,0 +1,110 @@
+package net.virtalab.databazer.query;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over rows of query, which owns connection, statement and result set of query.
+ * <p>
+ * Resources are closed when last row is read, when reading fails or when {@link #close()} is called.
+ * Errors are thrown as {@link org.springframework.dao.DataAccessException}, because {@link Iterator} cannot throw {@link SQLException}.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.query.StreamingQuery
+ * @version 0.5
+ * @since 0.5
+ * @param <T> type of row object
+ */
+public class RowIterator<T> implements Iterator<T>, Closeable {
+    private final String sql;
+    private final Connection connection;
+    private final Statement statement;
+    private final ResultSet rs;
+    private final RowMapper<T> rowMapper;
+
+    private boolean closed = false;
+    private boolean hasRow = false;
+    private boolean advanced = false;
+    private int rowNum = 0;
+
+    RowIterator(String sql, Connection connection, Statement statement, ResultSet rs, RowMapper<T> rowMapper){
+        this.sql = sql;
+        this.connection = connection;
+        this.statement = statement;
+        this.rs = rs;
+        this.rowMapper = rowMapper;
+    }
+
+    public boolean hasNext() {
+        if(this.closed){
+            return false;
+        }
+        if(!this.advanced){
+            try{
+                this.hasRow = this.rs.next();
+            } catch (SQLException e){
+                this.close();
+                throw new SQLStateSQLExceptionTranslator().translate("RowIterator", this.sql, e);
+            }
+            this.advanced = true;
+            if(!this.hasRow){
+                this.close();
+            }
+        }
+        return this.hasRow;
+    }
+
+    public T next() {
+        if(!this.hasNext()){
+            throw new NoSuchElementException();
+        }
+        this.advanced = false;
+        try{
+            return this.rowMapper.mapRow(this.rs, this.rowNum++);
+        } catch (SQLException e){
+            this.close();
+            throw new SQLStateSQLExceptionTranslator().translate("RowIterator", this.sql, e);
+        }
+    }
+
+    /**
+     * Rows cannot be removed
+     *
+     * @throws java.lang.UnsupportedOperationException always
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("Rows cannot be removed");
+    }
+
+    /**
+     * Closes result set, statement and connection. Safe to call several times.
+     */
+    public void close() {
+        if(this.closed){
+            return;
+        }
+        this.closed = true;
+        this.hasRow = false;
+        JdbcUtils.closeResultSet(this.rs);
+        JdbcUtils.closeStatement(this.statement);
+        JdbcUtils.closeConnection(this.connection);
+    }
+
+    /**
+     * Tells if resources are already closed
+     *
+     * @return true when closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+}
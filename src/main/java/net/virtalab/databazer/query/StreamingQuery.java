@@ -0,0 +1,188 @@
+package net.virtalab.databazer.query;
+
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.Vendor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Runs queries with constant memory use, whatever size of result is.
+ * <p>
+ * By default JDBC drivers may read whole result into heap before first row is given out.
+ * This class picks streaming mode for vendor of DataSource:
+ * <ul>
+ *     <li>MySQL - row-by-row streaming ({@code fetchSize = Integer.MIN_VALUE}, forward-only, read-only result),
+ *     or cursor fetch with {@link #setFetchSize(int) fetch size} when URL has {@code useCursorFetch=true}</li>
+ *     <li>H2 - lazy query execution where supported by H2 version (1.4.193 and later).
+ *     Older H2 versions keep at most {@code MAX_MEMORY_ROWS} rows in memory and buffer the rest at disk.</li>
+ *     <li>Other - {@link #setFetchSize(int) fetch size} as hint to driver</li>
+ * </ul>
+ * <p>
+ * Rows are given out either by {@link #iterate(String, RowMapper, Object...) iterator}
+ * or by {@link #forEach(String, RowCallbackHandler, Object...) callback}.
+ * Each query uses its own connection, which is closed when iterator is exhausted or {@link RowIterator#close() closed}.
+ * <pre>
+ *   RowIterator&lt;String&gt; names = new StreamingQuery(ds).iterate("SELECT name FROM person", new SingleColumnRowMapper&lt;String&gt;());
+ *   try{
+ *       while(names.hasNext()){
+ *           export(names.next());
+ *       }
+ *   } finally {
+ *       names.close();
+ *   }
+ * </pre>
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class StreamingQuery {
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final String MYSQL_CURSOR_FETCH = "usecursorfetch=true";
+
+    private final NamedDataSource dataSource;
+    private final Vendor vendor;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * Creates streaming query runner for DataSource
+     *
+     * @param dataSource DataSource to query
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public StreamingQuery(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.vendor = Vendor.of(dataSource);
+    }
+
+    /**
+     * Runs query and gives out its rows one-by-one.
+     * Caller must {@link RowIterator#close() close} iterator, unless it is read till the end.
+     *
+     * @param sql query with {@code ?} placeholders
+     * @param rowMapper maps current row to object
+     * @param params query parameters in placeholder order
+     * @param <T> type of row object
+     * @return iterator over rows
+     * @throws SQLException when query cannot be executed
+     */
+    public <T> RowIterator<T> iterate(String sql, RowMapper<T> rowMapper, Object... params) throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        try{
+            statement = this.prepare(connection, sql, params);
+            ResultSet rs = statement.executeQuery();
+            return new RowIterator<T>(sql, connection, statement, rs, rowMapper);
+        } catch (SQLException e){
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+            throw e;
+        } catch (RuntimeException e){
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs query and passes each row to handler. All resources are closed on return.
+     *
+     * @param sql query with {@code ?} placeholders
+     * @param handler called for each row
+     * @param params query parameters in placeholder order
+     * @return number of rows processed
+     * @throws SQLException when query fails or handler throws it
+     */
+    public long forEach(String sql, RowCallbackHandler handler, Object... params) throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try{
+            statement = this.prepare(connection, sql, params);
+            rs = statement.executeQuery();
+            long rows = 0;
+            while (rs.next()){
+                handler.processRow(rs);
+                rows++;
+            }
+            return rows;
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Creates statement in streaming mode for vendor
+     */
+    PreparedStatement prepare(Connection connection, String sql, Object[] params) throws SQLException {
+        PreparedStatement statement;
+        switch (this.vendor){
+            case MYSQL:
+                statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                boolean cursorFetch = this.dataSource.getUrl().toLowerCase().contains(MYSQL_CURSOR_FETCH);
+                //MIN_VALUE is signal to Connector/J to stream row-by-row
+                statement.setFetchSize(cursorFetch ? this.fetchSize : Integer.MIN_VALUE);
+                break;
+            case H2:
+                enableLazyExecution(connection);
+                statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(this.fetchSize);
+                break;
+            default:
+                statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(this.fetchSize);
+                break;
+        }
+        for(int i=0;i<params.length;i++){
+            statement.setObject(i + 1, params[i]);
+        }
+        return statement;
+    }
+
+    private static void enableLazyExecution(Connection connection){
+        Statement statement = null;
+        try{
+            statement = connection.createStatement();
+            statement.execute("SET LAZY_QUERY_EXECUTION 1");
+        } catch (SQLException e){
+            //H2 before 1.4.193 has no lazy execution, it buffers big results at disk instead
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Rows fetched per round trip where driver supports it (H2, MySQL with cursor fetch, other vendors). Default is 1000.
+     *
+     * @param fetchSize fetch size. Should be positive.
+     */
+    public void setFetchSize(int fetchSize) {
+        if(fetchSize < 1){
+            throw new IllegalArgumentException("Fetch size should be positive");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Reports vendor detected for DataSource
+     *
+     * @return vendor
+     */
+    public Vendor getVendor() {
+        return vendor;
+    }
+}
@@ -0,0 +1,376 @@
+package net.virtalab.databazer.query;
+
+import net.virtalab.databazer.NamedDataSource;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans whole table in parallel by ranges of numeric primary key.
+ * <p>
+ * Table is split into key ranges: by equal width between {@code MIN} and {@code MAX} of key, or, when
+ * {@link #setSampleRate(double) sample rate} is set, by quantiles of random sample of keys (good for skewed keys).
+ * Each range is read by its own thread and connection using keyset pagination:
+ * <pre>
+ *   SELECT columns FROM table WHERE key &gt; :lastKey AND key &lt;= :rangeEnd ORDER BY key LIMIT :pageSize
+ * </pre>
+ * so every page is index range read, no matter how deep in table it is.
+ * <p>
+ * Rows are mapped by worker threads and handed over to single consumer (thread which called {@link #scan(RowMapper, RowConsumer)})
+ * through bounded buffer, so slow consumer slows down readers instead of filling heap.
+ * Rows of one range come in key order, rows of different ranges are interleaved.
+ * <p>
+ * Table, key and column names are put into SQL as is, so they should not come from untrusted input.
+ * Key column should be part of {@link #setColumns(String) columns}.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @version 0.5
+ * @since 0.5
+ */
+public class TableScanner {
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_BUFFER_SIZE = 10000;
+    private static final int RANGES_PER_THREAD = 4;
+    //how long worker waits for space at buffer before it checks if scan is still going on
+    private static final long OFFER_TIMEOUT = 100;
+
+    private final NamedDataSource dataSource;
+    private final String table;
+    private final String keyColumn;
+
+    private String columns = "*";
+    private int threads = DEFAULT_THREADS;
+    private int rangeCount = 0;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private double sampleRate = 0;
+
+    /**
+     * Creates scanner for table
+     *
+     * @param dataSource DataSource to read from
+     * @param table table name
+     * @param keyColumn name of numeric unique key column, normally primary key
+     * @throws java.lang.IllegalArgumentException when any argument is NULL
+     */
+    public TableScanner(NamedDataSource dataSource, String table, String keyColumn){
+        if(dataSource==null || table==null || keyColumn==null){
+            throw new IllegalArgumentException("DataSource, table and key column cannot be NULL");
+        }
+        this.dataSource = dataSource;
+        this.table = table;
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * Scans table and passes each row to consumer
+     *
+     * @param rowMapper maps row to object, called by worker threads
+     * @param consumer receives rows, called by current thread only
+     * @param <T> type of row object
+     * @return number of rows scanned
+     * @throws SQLException when reading of table fails or consumer throws it
+     * @throws InterruptedException when interrupted while waiting for rows
+     */
+    public <T> long scan(final RowMapper<T> rowMapper, RowConsumer<T> consumer) throws SQLException, InterruptedException {
+        List<long[]> ranges = this.split();
+        if(ranges.isEmpty()){
+            return 0;
+        }
+
+        final BlockingQueue<Row<T>> buffer = new ArrayBlockingQueue<Row<T>>(this.bufferSize);
+        //marks end of range in buffer
+        final Row<T> endOfRange = new Row<T>(null);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        //set when consumer stops taking rows, so workers do not wait for buffer any more
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, ranges.size()), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-scan-" + table + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        long rows = 0;
+        try{
+            for(final long[] range: ranges){
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try{
+                            readRange(range[0], range[1], rowMapper, buffer, failure, stopped);
+                        } catch (Throwable e){
+                            //interruption after scan is stopped is not a failure of scan
+                            if(!stopped.get()){
+                                failure.compareAndSet(null, e);
+                            }
+                        } finally {
+                            //not put: after stop nobody frees space in buffer, and interrupt may be consumed already
+                            offer(buffer, endOfRange, stopped);
+                        }
+                    }
+                });
+            }
+
+            int finished = 0;
+            while (finished < ranges.size()){
+                Row<T> row = buffer.take();
+                if(row==endOfRange){
+                    finished++;
+                    continue;
+                }
+                if(failure.get()!=null){
+                    break;
+                }
+                consumer.accept(row.value);
+                rows++;
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdownNow();
+            //frees workers, which wait for space at buffer
+            buffer.clear();
+        }
+
+        Throwable error = failure.get();
+        if(error instanceof SQLException){
+            throw (SQLException) error;
+        } else if(error instanceof InterruptedException){
+            throw (InterruptedException) error;
+        } else if(error instanceof RuntimeException){
+            throw (RuntimeException) error;
+        } else if(error instanceof Error){
+            throw (Error) error;
+        } else if(error!=null){
+            throw new IllegalStateException("Scan of " + this.table + " failed", error);
+        }
+        return rows;
+    }
+
+    /**
+     * Splits table into key ranges
+     *
+     * @return list of ranges, each one is {@code {exclusiveStart, inclusiveEnd}}. Empty for empty table.
+     * @throws SQLException when table cannot be read
+     */
+    public List<long[]> split() throws SQLException {
+        int count = this.rangeCount > 0 ? this.rangeCount : this.threads * RANGES_PER_THREAD;
+        List<long[]> ranges = new ArrayList<long[]>();
+
+        Connection connection = this.dataSource.getConnection();
+        Statement statement = null;
+        ResultSet rs = null;
+        try{
+            statement = connection.createStatement();
+            rs = statement.executeQuery("SELECT MIN(" + this.keyColumn + "), MAX(" + this.keyColumn + ") FROM " + this.table);
+            rs.next();
+            long min = rs.getLong(1);
+            if(rs.wasNull()){
+                return ranges;
+            }
+            long max = rs.getLong(2);
+            JdbcUtils.closeResultSet(rs);
+            rs = null;
+
+            List<Long> boundaries = new ArrayList<Long>();
+            if(this.sampleRate > 0){
+                List<Long> sample = new ArrayList<Long>();
+                PreparedStatement sampling = connection.prepareStatement("SELECT " + this.keyColumn + " FROM " + this.table +
+                        " WHERE RAND() < ? ORDER BY " + this.keyColumn);
+                try{
+                    sampling.setDouble(1, this.sampleRate);
+                    rs = sampling.executeQuery();
+                    while (rs.next()){
+                        sample.add(rs.getLong(1));
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                    rs = null;
+                    JdbcUtils.closeStatement(sampling);
+                }
+                for(int i=1;i<count && !sample.isEmpty();i++){
+                    boundaries.add(sample.get((int) ((long) i * sample.size() / count)));
+                }
+            } else {
+                double width = ((double) max - min + 1) / count;
+                for(int i=1;i<count;i++){
+                    boundaries.add(min - 1 + (long) Math.ceil(width * i));
+                }
+            }
+            boundaries.add(max);
+
+            long start = min - 1;
+            for(Long end: boundaries){
+                if(end > start && end <= max){
+                    ranges.add(new long[]{start, end});
+                    start = end;
+                }
+            }
+            return ranges;
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private <T> void readRange(long start, long end, RowMapper<T> rowMapper, BlockingQueue<Row<T>> buffer,
+                               AtomicReference<Throwable> failure, AtomicBoolean stopped) throws SQLException {
+        String sql = "SELECT " + this.columns + " FROM " + this.table +
+                " WHERE " + this.keyColumn + " > ? AND " + this.keyColumn + " <= ? ORDER BY " + this.keyColumn + " LIMIT ?";
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = null;
+        try{
+            statement = connection.prepareStatement(sql);
+            long lastKey = start;
+            int rowNum = 0;
+            boolean fullPage = true;
+            while (fullPage && failure.get()==null && !stopped.get()){
+                statement.setLong(1, lastKey);
+                statement.setLong(2, end);
+                statement.setInt(3, this.pageSize);
+                ResultSet rs = statement.executeQuery();
+                int pageRows = 0;
+                try{
+                    while (rs.next()){
+                        lastKey = rs.getLong(this.keyColumn);
+                        //mapper may give NULL, which queue does not take
+                        if(!offer(buffer, new Row<T>(rowMapper.mapRow(rs, rowNum++)), stopped)){
+                            return;
+                        }
+                        pageRows++;
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                }
+                fullPage = (pageRows == this.pageSize);
+            }
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Puts row to buffer, waiting for space while scan goes on
+     *
+     * @return false when scan was stopped before row was put
+     */
+    private static <T> boolean offer(BlockingQueue<Row<T>> buffer, Row<T> row, AtomicBoolean stopped) {
+        boolean interrupted = false;
+        try{
+            while (!stopped.get()){
+                try{
+                    if(buffer.offer(row, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)){
+                        return true;
+                    }
+                } catch (InterruptedException e){
+                    interrupted = true;
+                }
+            }
+            return false;
+        } finally {
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Columns to select. Default is {@code *}. Should include key column.
+     *
+     * @param columns comma separated list of columns
+     */
+    public void setColumns(String columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Number of parallel readers (and connections). Default is 4.
+     *
+     * @param threads thread count. Should be 1 or more.
+     */
+    public void setThreads(int threads) {
+        if(threads < 1){
+            throw new IllegalArgumentException("Thread count cannot be less than 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Number of key ranges. Default is 4 ranges per thread, so fast threads take over ranges of slow ones.
+     *
+     * @param rangeCount number of ranges. Should be 1 or more.
+     */
+    public void setRangeCount(int rangeCount) {
+        if(rangeCount < 1){
+            throw new IllegalArgumentException("Range count cannot be less than 1");
+        }
+        this.rangeCount = rangeCount;
+    }
+
+    /**
+     * Rows read by one keyset page query. Default is 1000.
+     *
+     * @param pageSize page size. Should be 1 or more.
+     */
+    public void setPageSize(int pageSize) {
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size cannot be less than 1");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Maximum number of rows read, but not consumed yet. Default is 10000.
+     *
+     * @param bufferSize buffer size. Should be 1 or more.
+     */
+    public void setBufferSize(int bufferSize) {
+        if(bufferSize < 1){
+            throw new IllegalArgumentException("Buffer size cannot be less than 1");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Share of keys sampled to find range boundaries. Default is 0: ranges of equal width between min and max key.
+     * Sampling reads keys of whole table once, but gives ranges of equal row count for skewed keys.
+     *
+     * @param sampleRate from 0 (no sampling) to 1
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Row object at buffer
+     */
+    private static class Row<T> {
+        private final T value;
+
+        private Row(T value){
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package net.virtalab.databazer.query;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Connection of DataSource with {@link FetchSizeTuner}: measures result sets and sets fetch size of statements.
+ *
+ * @author Alexander Muravya
+ * @version 0.5
+ * @since 0.5
+ */
+class TuningConnection implements InvocationHandler {
+    //rough sizes of values at 64-bit JVM
+    private static final int OBJECT_SIZE = 16;
+    private static final int STRING_SIZE = 40;
+    private static final int DECIMAL_SIZE = 40;
+    private static final int DATE_SIZE = 24;
+
+    private final FetchSizeTuner tuner;
+    private final Connection target;
+
+    TuningConnection(FetchSizeTuner tuner, Connection target){
+        this.tuner = tuner;
+        this.target = target;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+
+        if(methodName.equals("equals")){
+            return proxy == args[0];
+        } else if(methodName.equals("hashCode")){
+            return System.identityHashCode(proxy);
+        } else if(methodName.equals("toString")){
+            return "Tuning connection to " + this.target;
+        }
+
+        Object result = call(this.target, method, args);
+        if(result instanceof Statement && (methodName.equals("prepareStatement") || methodName.equals("createStatement") ||
+                methodName.equals("prepareCall"))){
+            Class<?> type = method.getReturnType();
+            String sql = methodName.equals("createStatement") ? null : (String) args[0];
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new TuningStatement((Statement) result, (Connection) proxy, sql));
+        }
+        return result;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Estimates heap size of value taken from result set
+     */
+    private static long sizeOf(Object value){
+        if(value==null){
+            return 0;
+        } else if(value instanceof String){
+            return STRING_SIZE + 2L * ((String) value).length();
+        } else if(value instanceof byte[]){
+            return OBJECT_SIZE + ((byte[]) value).length;
+        } else if(value instanceof BigDecimal){
+            return DECIMAL_SIZE;
+        } else if(value instanceof java.util.Date){
+            return DATE_SIZE;
+        }
+        return OBJECT_SIZE;
+    }
+
+    /**
+     * Statement of tuning connection
+     */
+    private class TuningStatement implements InvocationHandler {
+        private final Statement target;
+        private final Connection connection;
+        private final String sql;
+        private final int defaultFetchSize;
+
+        //fetch size set by application is kept
+        private boolean fetchSizeSet = false;
+        //fetch size of statement was changed by tuner
+        private boolean tuned = false;
+        private Measure measure;
+
+        private TuningStatement(Statement target, Connection connection, String sql) throws java.sql.SQLException {
+            this.target = target;
+            this.connection = connection;
+            this.sql = sql;
+            this.defaultFetchSize = target.getFetchSize();
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.target.toString();
+            } else if(methodName.equals("getConnection")){
+                return this.connection;
+            } else if(methodName.equals("setFetchSize")){
+                this.fetchSizeSet = true;
+            } else if(methodName.equals("close")){
+                this.report();
+            } else if(methodName.equals("executeQuery") || methodName.equals("execute")){
+                String sql = args!=null && args.length > 0 && args[0] instanceof String ? (String) args[0] : this.sql;
+                this.report();
+                this.tune(sql);
+                Object result = call(this.target, method, args);
+                if(result instanceof ResultSet){
+                    return this.measure((ResultSet) result, sql);
+                }
+                this.measure = sql==null ? null : new Measure(sql);
+                return result;
+            } else if(methodName.equals("getResultSet")){
+                ResultSet rs = (ResultSet) call(this.target, method, args);
+                //result of execute(): measure was created there
+                if(rs==null || this.measure==null || this.measure.resultSet!=null){
+                    return rs;
+                }
+                return this.measure.wrap(rs);
+            }
+            return call(this.target, method, args);
+        }
+
+        /**
+         * Sets learnt fetch size, not above max rows of statement. Statement without learnt size keeps its own.
+         */
+        private void tune(String sql) throws java.sql.SQLException {
+            if(this.fetchSizeSet || sql==null){
+                return;
+            }
+            int fetchSize = tuner.tune(sql);
+            if(fetchSize <= 0){
+                if(!this.tuned){
+                    return;
+                }
+                //learnt size of other SQL was set before
+                fetchSize = this.defaultFetchSize;
+            }
+            int maxRows = this.target.getMaxRows();
+            if(maxRows > 0 && fetchSize > maxRows){
+                fetchSize = maxRows;
+            }
+            this.target.setFetchSize(fetchSize);
+            this.tuned = fetchSize!=this.defaultFetchSize;
+        }
+
+        private ResultSet measure(ResultSet rs, String sql){
+            if(sql==null){
+                return rs;
+            }
+            this.measure = new Measure(sql);
+            return this.measure.wrap(rs);
+        }
+
+        /**
+         * Reports result set of last execution, if it was not reported when read or closed
+         */
+        private void report(){
+            if(this.measure!=null){
+                this.measure.report();
+                this.measure = null;
+            }
+        }
+    }
+
+    /**
+     * Counts rows and value sizes of one result set
+     */
+    private class Measure implements InvocationHandler {
+        private final String sql;
+        private ResultSet resultSet;
+        private long rows = 0;
+        private long bytes = 0;
+        private boolean reported = false;
+
+        private Measure(String sql){
+            this.sql = sql;
+        }
+
+        private ResultSet wrap(ResultSet rs){
+            this.resultSet = rs;
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if(methodName.equals("equals")){
+                return proxy == args[0];
+            } else if(methodName.equals("hashCode")){
+                return System.identityHashCode(proxy);
+            } else if(methodName.equals("toString")){
+                return this.resultSet.toString();
+            }
+
+            Object result = call(this.resultSet, method, args);
+            if(methodName.equals("next")){
+                if((Boolean) result){
+                    this.rows++;
+                } else {
+                    this.report();
+                }
+            } else if(methodName.equals("close")){
+                this.report();
+            } else if(methodName.startsWith("get") && args!=null && args.length > 0 && !methodName.equals("getStatement")){
+                this.bytes += sizeOf(result);
+            }
+            return result;
+        }
+
+        private void report(){
+            if(!this.reported && this.resultSet!=null){
+                this.reported = true;
+                tuner.observe(this.sql, this.rows, this.bytes);
+            }
+        }
+    }
+}
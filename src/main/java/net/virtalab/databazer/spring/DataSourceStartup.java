@@ -0,0 +1,321 @@
+package net.virtalab.databazer.spring;
+
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.h2.H2DatabasePool;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes all databazer DataSources of Spring context ready in parallel while context starts.
+ * <p>
+ * Bean is {@link SmartLifecycle} of lowest phase, so it runs when all singletons are created and before other
+ * lifecycle beans start. For every {@link NamedDataSource} bean it checks settings which setters left
+ * (URL and driver, as Creator does), opens connection and checks that it is valid. For {@link H2DataSource} it waits
+ * for end of {@link H2DataSource.Creator#warmUp(String...) warm-up}, for {@link H2DatabasePool} it waits till all
+ * databases of pool are built. Work is spread over {@link #setThreads(int) threads}, so startup of context
+ * with many DataSources takes about as long as slowest of them, not as sum of all.
+ * <p>
+ * Context refresh ends only when all DataSources are ready. When any of them fails or is not ready within
+ * {@link #setTimeout(long) timeout}, refresh fails with {@link IllegalStateException} naming all such beans.
+ * Time taken by each DataSource is logged and reported by {@link #getTimings()}.
+ * <pre>
+ *   &lt;bean class="net.virtalab.databazer.spring.DataSourceStartup"&gt;
+ *       &lt;property name="threads" value="16"/&gt;
+ *       &lt;property name="excludedBeans"&gt;
+ *           &lt;set&gt;&lt;value&gt;archiveDb&lt;/value&gt;&lt;/set&gt;
+ *       &lt;/property&gt;
+ *   &lt;/bean&gt;
+ * </pre>
+ * There is no connection pool in databazer DataSources, so first connection is only connection opened here:
+ * it fails fast on wrong settings and makes driver, DNS and database ready for traffic.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.NamedDataSource
+ * @see net.virtalab.databazer.h2.H2DataSource#awaitReady(long, java.util.concurrent.TimeUnit)
+ * @version 0.5
+ * @since 0.5
+ */
+public class DataSourceStartup implements SmartLifecycle, ApplicationContextAware {
+    private static final Log log = LogFactory.getLog(DataSourceStartup.class);
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final long DEFAULT_TIMEOUT = 60000;
+
+    private ApplicationContext context;
+
+    private int threads = DEFAULT_THREADS;
+    private long timeout = DEFAULT_TIMEOUT;
+    private Set<String> excludedBeans = new HashSet<String>();
+
+    private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile boolean running = false;
+
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.context = applicationContext;
+    }
+
+    /**
+     * Makes all DataSources of context ready. Called by Spring at context refresh.
+     *
+     * @throws java.lang.IllegalStateException when some DataSources are not ready
+     */
+    public synchronized void start() {
+        if(this.running){
+            return;
+        }
+        if(this.context==null){
+            throw new IllegalStateException("Application context is not set");
+        }
+        Map<String, Callable<Void>> checks = new LinkedHashMap<String, Callable<Void>>();
+        for(Map.Entry<String, NamedDataSource> bean: this.context.getBeansOfType(NamedDataSource.class, false, true).entrySet()){
+            if(!this.excludedBeans.contains(bean.getKey())){
+                checks.put(bean.getKey(), new DataSourceCheck(bean.getValue()));
+            }
+        }
+        for(Map.Entry<String, H2DatabasePool> bean: this.context.getBeansOfType(H2DatabasePool.class, false, true).entrySet()){
+            if(!this.excludedBeans.contains(bean.getKey())){
+                checks.put(bean.getKey(), new PoolCheck(bean.getValue()));
+            }
+        }
+
+        long started = System.currentTimeMillis();
+        if(!checks.isEmpty()){
+            this.run(checks);
+        }
+        long total = System.currentTimeMillis() - started;
+        log.info(checks.size() + " DataSources are ready in " + total + " ms");
+
+        this.running = true;
+        this.ready.countDown();
+    }
+
+    private void run(Map<String, Callable<Void>> checks){
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, checks.size()), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "databazer-startup-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long deadline = System.currentTimeMillis() + this.timeout;
+        List<String> failed = new ArrayList<String>();
+        Throwable firstCause = null;
+        try{
+            Map<String, Future<Void>> futures = new LinkedHashMap<String, Future<Void>>();
+            for(Map.Entry<String, Callable<Void>> check: checks.entrySet()){
+                futures.put(check.getKey(), executor.submit(new Timed(check.getKey(), check.getValue())));
+            }
+            for(Map.Entry<String, Future<Void>> future: futures.entrySet()){
+                String name = future.getKey();
+                try{
+                    future.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e){
+                    log.error("DataSource " + name + " failed to start", e.getCause());
+                    failed.add(name);
+                    firstCause = firstCause==null ? e.getCause() : firstCause;
+                } catch (TimeoutException e){
+                    log.error("DataSource " + name + " is not ready within " + this.timeout + " ms");
+                    failed.add(name);
+                    future.getValue().cancel(true);
+                }
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for DataSources", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if(!failed.isEmpty()){
+            throw new IllegalStateException("DataSources are not ready: " + failed, firstCause);
+        }
+    }
+
+    public void stop() {
+        this.running = false;
+    }
+
+    public void stop(Runnable callback) {
+        this.stop();
+        callback.run();
+    }
+
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    /**
+     * Lowest phase: DataSources are ready before other lifecycle beans start
+     *
+     * @return phase
+     */
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Waits until all DataSources are ready. Useful for components, which are not Spring lifecycle beans.
+     *
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return true when ready, false when timeout elapsed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.ready.await(timeout, unit);
+    }
+
+    /**
+     * Reports time taken by each DataSource which became ready
+     *
+     * @return milliseconds by bean name, in order of beans in context
+     */
+    public Map<String, Long> getTimings() {
+        synchronized (this.timings){
+            return new LinkedHashMap<String, Long>(this.timings);
+        }
+    }
+
+    /**
+     * Number of DataSources made ready at same time. Default is 8.
+     *
+     * @param threads thread count. Should be 1 or more.
+     */
+    public void setThreads(int threads) {
+        if(threads < 1){
+            throw new IllegalArgumentException("Threads cannot be less than 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * How long to wait for all DataSources together. Default is 60 seconds.
+     *
+     * @param timeout time in milliseconds. Should be positive.
+     */
+    public void setTimeout(long timeout) {
+        if(timeout < 1){
+            throw new IllegalArgumentException("Timeout cannot be less than 1");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Names of beans which are left as they are, for example DataSources of databases which may be down at startup
+     *
+     * @param excludedBeans bean names
+     */
+    public void setExcludedBeans(Set<String> excludedBeans) {
+        if(excludedBeans==null){
+            throw new IllegalArgumentException("Excluded beans cannot be NULL");
+        }
+        this.excludedBeans = new HashSet<String>(excludedBeans);
+    }
+
+    /**
+     * Check which records its time
+     */
+    private class Timed implements Callable<Void> {
+        private final String name;
+        private final Callable<Void> check;
+
+        private Timed(String name, Callable<Void> check){
+            this.name = name;
+            this.check = check;
+        }
+
+        public Void call() throws Exception {
+            long started = System.currentTimeMillis();
+            this.check.call();
+            long took = System.currentTimeMillis() - started;
+            timings.put(this.name, took);
+            log.info("DataSource " + this.name + " is ready in " + took + " ms");
+            return null;
+        }
+    }
+
+    /**
+     * Validates DataSource, opens its first connection and waits for warm-up
+     */
+    private class DataSourceCheck implements Callable<Void> {
+        private final NamedDataSource dataSource;
+
+        private DataSourceCheck(NamedDataSource dataSource){
+            this.dataSource = dataSource;
+        }
+
+        public Void call() throws SQLException, InterruptedException {
+            String url = this.dataSource.getUrl();
+            if(url==null || url.length()==0){
+                throw new IllegalStateException("URL is not set");
+            }
+            if(this.dataSource.getDriver()==null){
+                throw new IllegalStateException("Driver is not set");
+            }
+            Connection connection = this.dataSource.getConnection();
+            try{
+                int seconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout));
+                if(!connection.isValid(seconds)){
+                    throw new SQLException("Connection to " + url + " is not valid");
+                }
+            } finally {
+                JdbcUtils.closeConnection(connection);
+            }
+            if(this.dataSource instanceof H2DataSource
+                    && !((H2DataSource) this.dataSource).awaitReady(timeout, TimeUnit.MILLISECONDS)){
+                throw new IllegalStateException("Warm-up of " + url + " is not finished");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Waits till pool has all its databases built. Databases may be already acquired by other beans.
+     */
+    private class PoolCheck implements Callable<Void> {
+        private final H2DatabasePool pool;
+
+        private PoolCheck(H2DatabasePool pool){
+            this.pool = pool;
+        }
+
+        public Void call() throws InterruptedException {
+            if(!this.pool.awaitFilled(timeout, TimeUnit.MILLISECONDS)){
+                throw new IllegalStateException("Databases of pool are not built");
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package net.virtalab.databazer.tx;
+
+import net.virtalab.databazer.Deadline;
+import net.virtalab.databazer.NamedDataSource;
+import net.virtalab.databazer.Vendor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs units of work in transactions and runs them again when transaction fails by conflict with other transactions.
+ * <p>
+ * Deadlocks and lock wait timeouts (MySQL errors 1213 and 1205, H2 errors 40001 and 50200, serialization failures
+ * of other databases, see {@link Vendor#isRetryable(Throwable)}) roll transaction back and it is run again after
+ * pause. Pause grows exponentially from {@link #setInitialBackoff(long) initial backoff} up to
+ * {@link #setMaxBackoff(long) max backoff} and is random within this bound ("full jitter"), so transactions
+ * which collided once do not collide again at same moment. Other failures are thrown at once.
+ * <p>
+ * Number of attempts per transaction is {@link #setMaxAttempts(int) limited}. Besides that, retries of all transactions
+ * share {@link #setRetryBudget(double) budget}: each transaction adds part of token and each retry spends whole one.
+ * When database is overloaded and most transactions fail, retries stop soon instead of multiplying load.
+ * Under {@link Deadline} no retry is done when pause would not fit into time left.
+ * <pre>
+ *   TransactionRunner runner = new TransactionRunner(ds);
+ *   long id = runner.execute(new TransactionWork&lt;Long&gt;() {
+ *       public Long run(Connection connection) throws SQLException {
+ *           ...
+ *       }
+ *   });
+ * </pre>
+ * Runner is thread-safe and should be shared by all users of DataSource, so budget and metrics cover them all.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.tx.TransactionWork
+ * @see net.virtalab.databazer.Vendor#isRetryable(Throwable)
+ * @version 0.5
+ * @since 0.5
+ */
+public class TransactionRunner {
+    private static final Log log = LogFactory.getLog(TransactionRunner.class);
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_INITIAL_BACKOFF = 10;
+    private static final long DEFAULT_MAX_BACKOFF = 1000;
+    private static final double DEFAULT_RETRY_BUDGET = 0.2;
+    //tokens at start and most tokens saved for bursts of conflicts
+    private static final double MAX_TOKENS = 10;
+
+    private final NamedDataSource dataSource;
+    private final Random random = new Random();
+
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private volatile double retryBudget = DEFAULT_RETRY_BUDGET;
+
+    //guarded by this
+    private double tokens = MAX_TOKENS;
+
+    //metrics
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    /**
+     * Creates runner for DataSource
+     *
+     * @param dataSource DataSource to take connections from
+     * @throws java.lang.IllegalArgumentException when DataSource is NULL
+     */
+    public TransactionRunner(NamedDataSource dataSource){
+        if(dataSource==null){
+            throw new IllegalArgumentException("DataSource cannot be NULL");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Runs work in transaction, again on retryable failures
+     *
+     * @param work unit of work
+     * @param <T> type of result
+     * @return result of successful run
+     * @throws SQLException failure of last run, or when pause before retry was interrupted
+     */
+    public <T> T execute(TransactionWork<T> work) throws SQLException {
+        if(work==null){
+            throw new IllegalArgumentException("Work cannot be NULL");
+        }
+        this.transactions.incrementAndGet();
+        this.deposit();
+        Vendor vendor = Vendor.of(this.dataSource);
+        for(int attempt = 1; ; attempt++){
+            try{
+                T result = this.runOnce(work);
+                if(attempt > 1){
+                    this.recovered.incrementAndGet();
+                }
+                return result;
+            } catch (SQLException e){
+                if(!vendor.isRetryable(e)){
+                    throw e;
+                }
+                if(attempt >= this.maxAttempts){
+                    this.exhausted.incrementAndGet();
+                    throw e;
+                }
+                long backoff = this.backoff(attempt);
+                Deadline deadline = Deadline.current();
+                if(deadline!=null && deadline.remaining(TimeUnit.MILLISECONDS) <= backoff){
+                    throw e;
+                }
+                if(!this.withdraw()){
+                    this.budgetExhausted.incrementAndGet();
+                    throw e;
+                }
+                this.retries.incrementAndGet();
+                if(log.isDebugEnabled()){
+                    log.debug("Transaction at " + this.dataSource.getName() + " failed by conflict (attempt " + attempt +
+                            "), retrying in " + backoff + " ms: " + e.getMessage());
+                }
+                this.pause(backoff, e);
+            }
+        }
+    }
+
+    private <T> T runOnce(TransactionWork<T> work) throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        boolean autoCommit = true;
+        try{
+            autoCommit = connection.getAutoCommit();
+            if(autoCommit){
+                connection.setAutoCommit(false);
+            }
+            T result;
+            try{
+                result = work.run(connection);
+                connection.commit();
+            } catch (SQLException e){
+                rollback(connection);
+                throw e;
+            } catch (RuntimeException e){
+                rollback(connection);
+                throw e;
+            } catch (Error e){
+                rollback(connection);
+                throw e;
+            }
+            return result;
+        } finally {
+            try{
+                if(autoCommit){
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e){
+                log.debug("Could not restore auto-commit", e);
+            }
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private static void rollback(Connection connection){
+        try{
+            connection.rollback();
+        } catch (SQLException e){
+            log.debug("Rollback failed", e);
+        }
+    }
+
+    /**
+     * Random pause before retry
+     *
+     * @param attempt number of failed attempt, from 1
+     * @return pause in milliseconds
+     */
+    private long backoff(int attempt){
+        long bound = this.initialBackoff << Math.min(attempt - 1, 30);
+        if(bound <= 0 || bound > this.maxBackoff){
+            bound = this.maxBackoff;
+        }
+        long backoff;
+        synchronized (this.random){
+            backoff = (long) (this.random.nextDouble() * bound);
+        }
+        return backoff;
+    }
+
+    private void pause(long backoff, SQLException failure) throws SQLException {
+        this.backoffMillis.addAndGet(backoff);
+        try{
+            Thread.sleep(backoff);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            SQLException interrupted = new SQLException("Interrupted before retry of transaction", e);
+            interrupted.setNextException(failure);
+            throw interrupted;
+        }
+    }
+
+    private synchronized void deposit(){
+        this.tokens = Math.min(MAX_TOKENS, this.tokens + this.retryBudget);
+    }
+
+    private synchronized boolean withdraw(){
+        if(this.tokens < 1){
+            return false;
+        }
+        this.tokens--;
+        return true;
+    }
+
+    /**
+     * Reports number of executed transactions (not counting retries)
+     *
+     * @return transaction count
+     */
+    public long getTransactionCount() {
+        return transactions.get();
+    }
+
+    /**
+     * Reports number of retries of all transactions
+     *
+     * @return retry count
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Reports number of transactions which succeeded after retry
+     *
+     * @return transaction count
+     */
+    public long getRecoveredCount() {
+        return recovered.get();
+    }
+
+    /**
+     * Reports number of transactions which failed by conflict on last allowed attempt
+     *
+     * @return transaction count
+     */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    /**
+     * Reports number of transactions which were not retried because retry budget was spent
+     *
+     * @return transaction count
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.get();
+    }
+
+    /**
+     * Reports total time spent in pauses before retries
+     *
+     * @return time in milliseconds
+     */
+    public long getBackoffMillis() {
+        return backoffMillis.get();
+    }
+
+    /**
+     * Most runs of one transaction, first one included. Default is 5.
+     *
+     * @param maxAttempts attempt count. Should be 1 or more, 1 turns retries off.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if(maxAttempts < 1){
+            throw new IllegalArgumentException("Max attempts cannot be less than 1");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Bound of pause after first failure, doubled after each next one. Default is 10 ms.
+     *
+     * @param initialBackoff time in milliseconds. Should be positive.
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        if(initialBackoff < 1){
+            throw new IllegalArgumentException("Initial backoff cannot be less than 1");
+        }
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * Most pause before retry. Default is 1 second.
+     *
+     * @param maxBackoff time in milliseconds. Should be positive.
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        if(maxBackoff < 1){
+            throw new IllegalArgumentException("Max backoff cannot be less than 1");
+        }
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Retries allowed per transaction, on average over time. Default is 0.2: one retry per five transactions,
+     * besides small reserve for bursts.
+     *
+     * @param retryBudget share of transactions. Should be 0 or more.
+     */
+    public void setRetryBudget(double retryBudget) {
+        if(retryBudget < 0){
+            throw new IllegalArgumentException("Retry budget cannot be less than 0");
+        }
+        this.retryBudget = retryBudget;
+    }
+}
@@ -0,0 +1,27 @@
+package net.virtalab.databazer.tx;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Unit of work run in one transaction by {@link TransactionRunner}.
+ * <p>
+ * Work may be run more than once, so it should not have effects outside of database
+ * (or those effects should tolerate repeating) and should not keep state between runs.
+ *
+ * @author Alexander Muravya
+ * @see net.virtalab.databazer.tx.TransactionRunner
+ * @version 0.5
+ * @since 0.5
+ * @param <T> type of result
+ */
+public interface TransactionWork<T> {
+    /**
+     * Does work of transaction
+     *
+     * @param connection connection with open transaction. Work should not commit, roll back or close it.
+     * @return result of work
+     * @throws SQLException when work fails. Transaction is rolled back and may be run again.
+     */
+    T run(Connection connection) throws SQLException;
+}
@@ -0,0 +1,173 @@
+package net.virtalab.databazer.test;
+
+import net.virtalab.databazer.Deadline;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for deadlines of connections
+ */
+public class DeadlineTest extends Assert {
+    private static final String LONG_QUERY = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b";
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("deadline")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE item(id INT PRIMARY KEY)");
+        jdbc.update("INSERT INTO item VALUES(1), (2)");
+    }
+
+    @After
+    public void tearDown(){
+        while (Deadline.current()!=null){
+            Deadline.current().end();
+        }
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void queriesWithinDeadlineWork(){
+        Deadline deadline = Deadline.start(5, TimeUnit.SECONDS);
+        try{
+            assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM item", Integer.class).intValue());
+            assertEquals(1, jdbc.update("DELETE FROM item WHERE id = ?", 2));
+        } finally {
+            deadline.end();
+        }
+        assertNull(Deadline.current());
+    }
+
+    @Test(expected = SQLTimeoutException.class)
+    public void connectionIsNotTakenAfterDeadline() throws Exception {
+        Deadline deadline = Deadline.start(0, TimeUnit.SECONDS);
+        try{
+            ds.getConnection();
+        } finally {
+            deadline.end();
+        }
+    }
+
+    @Test
+    public void statementIsNotExecutedAfterDeadline() throws Exception {
+        Deadline outer = Deadline.start(5, TimeUnit.SECONDS);
+        Connection connection = ds.getConnection();
+        try{
+            Statement statement = connection.createStatement();
+            Deadline deadline = Deadline.start(0, TimeUnit.SECONDS);
+            try{
+                statement.executeQuery("SELECT id FROM item");
+                fail("Statement should not be executed");
+            } catch (SQLTimeoutException e){
+                //expected
+            } finally {
+                deadline.end();
+            }
+        } finally {
+            JdbcUtils.closeConnection(connection);
+            outer.end();
+        }
+    }
+
+    @Test
+    public void deadlineIsFollowedAtExecution() throws Exception {
+        ds.setFollowDeadlines(true);
+        Connection connection = ds.getConnection();
+        try{
+            Statement statement = connection.createStatement();
+            //connection taken before deadline obeys it
+            Deadline deadline = Deadline.start(0, TimeUnit.SECONDS);
+            try{
+                statement.executeQuery("SELECT id FROM item");
+                fail("Statement should not be executed");
+            } catch (SQLTimeoutException e){
+                //expected
+            } finally {
+                deadline.end();
+            }
+            //and works again after deadline ended
+            ResultSet rs = statement.executeQuery("SELECT id FROM item");
+            assertTrue(rs.next());
+            rs.close();
+            assertEquals(0, statement.getQueryTimeout());
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    @Test
+    public void connectionWithoutDeadlineIsNotWrapped() throws Exception {
+        Connection connection = ds.getConnection();
+        try{
+            assertTrue(connection.getClass().getName(), connection.getClass().getName().startsWith("org.h2."));
+            Statement statement = connection.createStatement();
+            Deadline deadline = Deadline.start(0, TimeUnit.SECONDS);
+            try{
+                //deadlines are not followed by default
+                ResultSet rs = statement.executeQuery("SELECT id FROM item");
+                assertTrue(rs.next());
+                rs.close();
+            } finally {
+                deadline.end();
+            }
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    @Test
+    public void longQueryIsStoppedByTimeout() throws Exception {
+        Deadline deadline = Deadline.start(1, TimeUnit.SECONDS);
+        Connection connection = ds.getConnection();
+        long started = System.currentTimeMillis();
+        try{
+            Statement statement = connection.createStatement();
+            //longer own timeout is cut to time left
+            statement.setQueryTimeout(60);
+            ResultSet rs = statement.executeQuery(LONG_QUERY);
+            rs.next();
+            fail("Query should time out");
+        } catch (SQLException e){
+            assertTrue("Query was not stopped by timeout", System.currentTimeMillis() - started < 5000);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+            deadline.end();
+        }
+    }
+
+    @Test
+    public void innerDeadlineDoesNotOutliveOuter(){
+        Deadline outer = Deadline.start(1, TimeUnit.SECONDS);
+        Deadline inner = Deadline.start(1, TimeUnit.HOURS);
+        assertSame(inner, Deadline.current());
+        assertTrue(inner.remaining(TimeUnit.MILLISECONDS) <= 1000);
+        try{
+            outer.end();
+            fail("Outer deadline should not be ended before inner");
+        } catch (IllegalStateException e){
+            //expected
+        }
+        inner.end();
+        assertSame(outer, Deadline.current());
+        outer.end();
+        assertNull(Deadline.current());
+    }
+}
@@ -0,0 +1,75 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.BatchingWriter;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Rows per second of {@link BatchingWriter} against batch size.
+ * <p>
+ * Not a unit test: run it by hand, for example from IDE. Writes to H2 file database at temporary directory.
+ */
+public class BatchingWriterBenchmark {
+    private static final int THREADS = 64;
+    private static final int ROWS_PER_THREAD = 200;
+    private static final int[] BATCH_SIZES = {1, 10, 50, 100, 500, 1000};
+
+    public static void main(String[] args) throws Exception {
+        File dir = File.createTempFile("databazer", "benchmark");
+        if(!dir.delete() || !dir.mkdir()){
+            throw new IllegalStateException("Cannot create " + dir);
+        }
+        H2DataSource ds = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("writer")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE event(id INT PRIMARY KEY, payload VARCHAR(100))");
+
+        System.out.println("batch size\trows/s");
+        for(int batchSize: BATCH_SIZES){
+            jdbc.execute("TRUNCATE TABLE event");
+            long rowsPerSecond = run(ds, batchSize);
+            System.out.println(batchSize + "\t" + rowsPerSecond);
+        }
+    }
+
+    private static long run(H2DataSource ds, int batchSize) throws Exception {
+        final BatchingWriter writer = new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)");
+        writer.setBatchSize(batchSize);
+        writer.start();
+
+        long started = System.nanoTime();
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t=0;t<THREADS;t++){
+            final int offset = t * ROWS_PER_THREAD;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try{
+                        //each request thread waits for its row, like real request would
+                        for(int i=0;i<ROWS_PER_THREAD;i++){
+                            Future<Integer> written = writer.write(offset + i, "payload of row " + i);
+                            written.get();
+                        }
+                    } catch (Exception e){
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for(Thread worker: workers){
+            worker.join();
+        }
+        long took = System.nanoTime() - started;
+        writer.stop();
+
+        return (long) (THREADS * ROWS_PER_THREAD / (took / 1e9));
+    }
+}
@@ -0,0 +1,176 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.BatchingWriter;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for batching writer
+ */
+public class BatchingWriterTest extends Assert {
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("batchingWriter")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE event(id INT PRIMARY KEY, payload VARCHAR(50))");
+    }
+
+    @After
+    public void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void rowsFromManyThreadsAreWritten() throws Exception {
+        final BatchingWriter writer = new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)");
+        writer.setBatchSize(50);
+        writer.start();
+
+        final int threads = 8;
+        final int rowsPerThread = 250;
+        final List<Future<Integer>> futures = Collections.synchronizedList(new ArrayList<Future<Integer>>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t=0;t<threads;t++){
+            final int offset = t * rowsPerThread;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try{
+                        for(int i=0;i<rowsPerThread;i++){
+                            futures.add(writer.write(offset + i, "row" + i));
+                        }
+                    } catch (InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for(Thread worker: workers){
+            worker.join();
+        }
+        for(Future<Integer> future: futures){
+            assertEquals(Integer.valueOf(1), future.get(10, TimeUnit.SECONDS));
+        }
+        writer.stop();
+
+        int rows = jdbc.queryForObject("SELECT COUNT(*) FROM event", Integer.class);
+        assertEquals(threads * rowsPerThread, rows);
+        assertEquals(threads * rowsPerThread, writer.getRowsWritten());
+        assertTrue("Rows were not batched", writer.getBatchCount() < rows);
+    }
+
+    @Test
+    public void brokenRowFailsAlone() throws Exception {
+        BatchingWriter writer = new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)");
+        writer.setMaxDelay(200);
+        writer.start();
+
+        Future<Integer> first = writer.write(1, "first");
+        Future<Integer> duplicate = writer.write(1, "duplicate");
+        Future<Integer> second = writer.write(2, "second");
+
+        assertEquals(Integer.valueOf(1), first.get());
+        assertEquals(Integer.valueOf(1), second.get());
+        try{
+            duplicate.get();
+            fail("Duplicate row was written");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        writer.stop();
+
+        assertEquals(1, writer.getRowsFailed());
+        int rows = jdbc.queryForObject("SELECT COUNT(*) FROM event", Integer.class);
+        assertEquals(2, rows);
+    }
+
+    @Test
+    public void unexpectedFailureStopsWriter() throws Exception {
+        H2DataSource broken = new H2DataSource(){
+            @Override
+            protected Connection getConnectionFromDriver(Properties props) throws SQLException {
+                throw new IllegalStateException("Driver is broken");
+            }
+        };
+        BatchingWriter writer = new BatchingWriter(broken, "INSERT INTO event(id, payload) VALUES(?, ?)");
+        writer.start();
+        Future<Integer> written = writer.write(1, "lost");
+        try{
+            written.get(5, TimeUnit.SECONDS);
+            fail("Write should fail");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+        try{
+            writer.write(2, "late");
+            fail("Stopped writer should not accept rows");
+        } catch (IllegalStateException e){
+            //expected
+        }
+        writer.stop();
+    }
+
+    @Test
+    public void interruptedFlusherWritesTakenRows() throws Exception {
+        BatchingWriter writer = new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)");
+        writer.setMaxDelay(10000);
+        writer.start();
+        Future<Integer> written = writer.write(1, "taken");
+        //flusher has taken row and waits for more
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getQueueSize() > 0){
+            assertTrue("Row was not taken", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Thread flusher = null;
+        for(Thread thread: Thread.getAllStackTraces().keySet()){
+            if(thread.getName().startsWith("databazer-writer-")){
+                flusher = thread;
+            }
+        }
+        assertNotNull("Flusher thread not found", flusher);
+        flusher.interrupt();
+
+        assertEquals(1, (int) written.get(5, TimeUnit.SECONDS));
+        assertEquals(1, (int) jdbc.queryForObject("SELECT COUNT(*) FROM event", Integer.class));
+        try{
+            writer.write(2, "late");
+            fail("Interrupted writer should not accept rows");
+        } catch (IllegalStateException e){
+            //expected
+        }
+        writer.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongQueueCapacity(){
+        new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)").setQueueCapacity(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notStarted() throws InterruptedException {
+        new BatchingWriter(ds, "INSERT INTO event(id, payload) VALUES(?, ?)").write(1, "row");
+    }
+}
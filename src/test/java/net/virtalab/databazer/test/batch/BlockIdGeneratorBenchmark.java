@@ -0,0 +1,81 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.BlockIdGenerator;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IDs per second of {@link BlockIdGenerator} at different thread counts and block sizes.
+ * Block of 1 ID without prefetch is one database transaction per ID, like reading sequence for every row.
+ * <p>
+ * Not a unit test: run it by hand, for example from IDE.
+ */
+public class BlockIdGeneratorBenchmark {
+    private static final long DURATION = 2000;
+    private static final int[] THREADS = {1, 4, 8};
+    private static final int[] BLOCK_SIZES = {1, 100, 1000, 10000};
+
+    public static void main(String[] args) throws Exception {
+        H2DataSource ds = H2DataSource.Creator()
+                .mem().databaseName("idsBenchmark")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+
+        System.out.println("block\tthreads\tIDs/s\tblocks\twaits");
+        for(int blockSize: BLOCK_SIZES){
+            for(int threads: THREADS){
+                BlockIdGenerator ids = new BlockIdGenerator(ds, "bench" + blockSize + "_" + threads);
+                ids.createTable();
+                ids.setBlockSize(blockSize);
+                if(blockSize==1){
+                    ids.setPrefetchThreshold(1);
+                }
+                //warm up
+                run(ids, threads, DURATION / 4);
+                long count = run(ids, threads, DURATION);
+                System.out.println(blockSize + "\t" + threads + "\t" + (count * 1000 / DURATION) + "\t" +
+                        ids.getBlockCount() + "\t" + ids.getWaitCount());
+            }
+        }
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    private static long run(final BlockIdGenerator ids, int threads, final long duration) throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t=0;t<threads;t++){
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try{
+                        start.await();
+                        long until = System.currentTimeMillis() + duration;
+                        long count = 0;
+                        while (System.currentTimeMillis() < until){
+                            for(int i=0;i<100;i++){
+                                ids.next();
+                            }
+                            count += 100;
+                        }
+                        total.addAndGet(count);
+                    } catch (Exception e){
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for(Thread worker: workers){
+            worker.join();
+        }
+        return total.get();
+    }
+}
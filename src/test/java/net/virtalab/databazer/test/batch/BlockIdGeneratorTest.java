@@ -0,0 +1,117 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.BlockIdGenerator;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for block allocation of IDs
+ */
+public class BlockIdGeneratorTest extends Assert {
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("ids")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+    }
+
+    @After
+    public void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void idsAreGivenOutByBlocks() throws SQLException {
+        BlockIdGenerator ids = new BlockIdGenerator(ds, "orders");
+        ids.createTable();
+        ids.setBlockSize(10);
+        ids.setPrefetchThreshold(1);
+        for(long expected = 1; expected <= 25; expected++){
+            assertEquals(expected, ids.next());
+        }
+        assertEquals(3, ids.getBlockCount());
+        assertEquals(31L, jdbc.queryForObject("SELECT next_value FROM databazer_sequence WHERE name = 'orders'", Long.class).longValue());
+    }
+
+    @Test
+    public void nextBlockIsPrefetched() throws Exception {
+        BlockIdGenerator ids = new BlockIdGenerator(ds, "orders");
+        ids.createTable();
+        ids.setBlockSize(100);
+        ids.setInitialValue(1000);
+        for(int i=0;i<60;i++){
+            ids.next();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ids.getBlockCount() < 2){
+            assertTrue("Next block was not prefetched", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        for(int i=60;i<100;i++){
+            assertEquals(1000 + i, ids.next());
+        }
+        assertEquals(1100, ids.next());
+        //only first block was waited for
+        assertEquals(1, ids.getWaitCount());
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreadsAndGenerators() throws Exception {
+        final BlockIdGenerator first = new BlockIdGenerator(ds, "orders");
+        first.createTable();
+        first.setBlockSize(50);
+        final BlockIdGenerator second = new BlockIdGenerator(ds, "orders");
+        second.setBlockSize(70);
+        final int threads = 8;
+        final int perThread = 5000;
+        final List<Long> all = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t=0;t<threads;t++){
+            final BlockIdGenerator ids = t % 2==0 ? first : second;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    List<Long> own = new ArrayList<Long>(perThread);
+                    try{
+                        for(int i=0;i<perThread;i++){
+                            own.add(ids.next());
+                        }
+                    } catch (SQLException e){
+                        failures.add(e);
+                    }
+                    all.addAll(own);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for(Thread worker: workers){
+            worker.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        Set<Long> unique = new HashSet<Long>(all);
+        assertEquals(threads * perThread, all.size());
+        assertEquals(all.size(), unique.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tableShouldBeIdentifier(){
+        new BlockIdGenerator(ds, "orders").setTable("seq; DROP TABLE orders");
+    }
+}
@@ -0,0 +1,172 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.BulkLoadResult;
+import net.virtalab.databazer.batch.BulkLoader;
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.mysql.MySQLDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Tests for bulk loader
+ */
+public class BulkLoaderTest extends Assert {
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("bulk")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE person(id INT PRIMARY KEY, name VARCHAR(100), active BOOLEAN, born TIMESTAMP)");
+    }
+
+    @After
+    public void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void loadRows() throws InterruptedException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        Timestamp born = Timestamp.valueOf("1985-03-01 10:15:00");
+        for(int i=1;i<=25000;i++){
+            rows.add(new Object[]{i, "person " + i, i % 2 == 0, born});
+        }
+        BulkLoader loader = new BulkLoader(ds, "person", "id", "name", "active", "born");
+        loader.setChunkSize(1000);
+        loader.setThreads(3);
+
+        BulkLoadResult result = loader.load(rows.iterator());
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(25000, result.getRowsLoaded());
+        assertEquals(25, result.getChunkCount());
+        assertEquals(25000, jdbc.queryForObject("SELECT COUNT(*) FROM person", Integer.class).intValue());
+        assertEquals(12500, jdbc.queryForObject("SELECT COUNT(*) FROM person WHERE active", Integer.class).intValue());
+        assertEquals(born, jdbc.queryForObject("SELECT born FROM person WHERE id = 777", Timestamp.class));
+    }
+
+    @Test
+    public void specialValues() throws InterruptedException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{1, "comma, \"quotes\"\nand new line", null, null});
+        rows.add(new Object[]{2, "NULL", true, null});
+        rows.add(new Object[]{3, "back\\slash", false, null});
+        rows.add(new Object[]{4, null, null, null});
+
+        BulkLoadResult result = new BulkLoader(ds, "person", "id", "name", "active", "born").load(rows.iterator());
+        assertTrue(result.toString(), result.isSuccess());
+
+        assertEquals("comma, \"quotes\"\nand new line", name(1));
+        assertEquals("NULL", name(2));
+        assertEquals("back\\slash", name(3));
+        assertNull(name(4));
+        assertNull(jdbc.queryForObject("SELECT active FROM person WHERE id = 1", Boolean.class));
+    }
+
+    @Test
+    public void loadCsvStream() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for(int i=1;i<=1000;i++){
+            csv.append(i).append(",\"line\n").append(i).append("\"\n");
+        }
+        //last line without line end
+        csv.append("1001,NULL");
+
+        BulkLoader loader = new BulkLoader(ds, "person", "id", "name");
+        loader.setChunkSize(100);
+        BulkLoadResult result = loader.load(new ByteArrayInputStream(csv.toString().getBytes("UTF-8")));
+
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(1001, result.getRowsLoaded());
+        assertEquals(11, result.getChunkCount());
+        assertEquals("line\n500", name(500));
+        assertNull(name(1001));
+    }
+
+    @Test
+    public void failedChunkIsReported() throws InterruptedException {
+        jdbc.update("INSERT INTO person(id, name) VALUES(250, 'already here')");
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for(int i=1;i<=1000;i++){
+            rows.add(new Object[]{i, "person " + i});
+        }
+        BulkLoader loader = new BulkLoader(ds, "person", "id", "name");
+        loader.setChunkSize(100);
+
+        BulkLoadResult result = loader.load(rows.iterator());
+        assertFalse(result.isSuccess());
+        assertEquals(900, result.getRowsLoaded());
+        assertEquals(1, result.getErrors().size());
+
+        BulkLoadResult.ChunkError error = result.getErrors().get(0);
+        assertEquals(2, error.getChunk());
+        assertEquals(200, error.getFirstRow());
+        assertEquals(100, error.getRowCount());
+        assertNotNull(error.getCause());
+
+        //other rows of failed chunk are rolled back
+        List<Map<String, Object>> left = jdbc.queryForList("SELECT id FROM person WHERE id BETWEEN 201 AND 300");
+        assertEquals(1, left.size());
+    }
+
+    @Test
+    public void unexpectedChunkFailureIsReported() throws InterruptedException {
+        H2DataSource failing = new H2DataSource(){
+            @Override
+            protected Connection getConnectionFromDriver(Properties props) {
+                throw new IllegalStateException("Broken driver");
+            }
+        };
+        failing.setUrl(ds.getUrl());
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for(int i=1;i<=300;i++){
+            rows.add(new Object[]{i, "person " + i});
+        }
+        BulkLoader loader = new BulkLoader(failing, "person", "id", "name");
+        loader.setChunkSize(100);
+
+        BulkLoadResult result = loader.load(rows.iterator());
+        assertFalse(result.isSuccess());
+        assertEquals(0, result.getRowsLoaded());
+        assertEquals(3, result.getErrors().size());
+        assertTrue(result.getErrors().get(0).getCause().getCause() instanceof IllegalStateException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongRowSize() throws InterruptedException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{1});
+        new BulkLoader(ds, "person", "id", "name").load(rows.iterator());
+    }
+
+    @Test
+    public void supportedVendors(){
+        new BulkLoader(MySQLDataSource.Creator().create(), "person", "id");
+        try{
+            new BulkLoader(H2DataSource.Creator().tcp().server("localhost").databaseName("remote").create(), "person", "id");
+            fail("Remote H2 cannot read memFS of client");
+        } catch (IllegalArgumentException e){
+            //expected
+        }
+    }
+
+    private String name(int id){
+        return jdbc.queryForObject("SELECT name FROM person WHERE id = ?", String.class, id);
+    }
+}
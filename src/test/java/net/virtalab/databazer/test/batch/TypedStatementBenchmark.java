@@ -0,0 +1,113 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.TypedStatement;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Bytes allocated per inserted row and rows per second of {@link TypedStatement} compared with binding
+ * of boxed values by {@code setObject}, and with typed setters of plain JDBC as lower bound (what driver allocates itself).
+ * <p>
+ * Not a unit test: run it by hand, for example from IDE. Allocation is measured by HotSpot thread allocation counter.
+ */
+public class TypedStatementBenchmark {
+    private static final int ROWS = 200000;
+    private static final int BATCH = 1000;
+    private static final int WARM_UP = 5;
+    private static final int RUNS = 10;
+    private static final String INSERT = "INSERT INTO tick(id, instrument, time, price) VALUES(?, ?, ?, ?)";
+
+    public static void main(String[] args) throws Exception {
+        H2DataSource ds = H2DataSource.Creator()
+                .mem().databaseName("typedBenchmark")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE tick(id BIGINT, instrument BIGINT, time BIGINT, price DOUBLE)");
+
+        System.out.println("binding\trows/s\tbytes/row");
+        run(jdbc, "setObject", new Insert() {
+            public void insert(H2DataSource ds) throws SQLException {
+                Connection connection = ds.getConnection();
+                connection.setAutoCommit(false);
+                PreparedStatement statement = connection.prepareStatement(INSERT);
+                for(int i=0;i<ROWS;i++){
+                    Object[] params = {(long) i, (long) (i % 500) + 1000, 1400000000000L + i, i * 0.25};
+                    for(int p=0;p<params.length;p++){
+                        statement.setObject(p + 1, params[p]);
+                    }
+                    statement.addBatch();
+                    if((i + 1) % BATCH==0){
+                        statement.executeBatch();
+                    }
+                }
+                connection.commit();
+                statement.close();
+                connection.close();
+            }
+        });
+        run(jdbc, "JDBC setters", new Insert() {
+            public void insert(H2DataSource ds) throws SQLException {
+                Connection connection = ds.getConnection();
+                connection.setAutoCommit(false);
+                PreparedStatement statement = connection.prepareStatement(INSERT);
+                for(int i=0;i<ROWS;i++){
+                    statement.setLong(1, i);
+                    statement.setLong(2, (i % 500) + 1000);
+                    statement.setLong(3, 1400000000000L + i);
+                    statement.setDouble(4, i * 0.25);
+                    statement.addBatch();
+                    if((i + 1) % BATCH==0){
+                        statement.executeBatch();
+                    }
+                }
+                connection.commit();
+                statement.close();
+                connection.close();
+            }
+        });
+        run(jdbc, "TypedStatement", new Insert() {
+            public void insert(H2DataSource ds) throws SQLException {
+                TypedStatement statement = new TypedStatement(ds, INSERT);
+                statement.setBatchSize(BATCH);
+                try{
+                    for(int i=0;i<ROWS;i++){
+                        statement.addBatch(i, (i % 500) + 1000, 1400000000000L + i, i * 0.25);
+                    }
+                    statement.commit();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+    }
+
+    private static void run(JdbcTemplate jdbc, String name, Insert insert) throws SQLException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        H2DataSource ds = (H2DataSource) jdbc.getDataSource();
+        long bestTime = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for(int run=0;run<WARM_UP + RUNS;run++){
+            jdbc.execute("TRUNCATE TABLE tick");
+            long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long started = System.nanoTime();
+            insert.insert(ds);
+            long took = System.nanoTime() - started;
+            bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+            if(run >= WARM_UP){
+                bestTime = Math.min(bestTime, took);
+                bestBytes = Math.min(bestBytes, bytes);
+            }
+        }
+        System.out.println(name + "\t" + (long) (ROWS / (bestTime / 1e9)) + "\t" + bestBytes / ROWS);
+    }
+
+    private interface Insert {
+        void insert(H2DataSource ds) throws SQLException;
+    }
+}
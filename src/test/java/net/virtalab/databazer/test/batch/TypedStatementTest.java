@@ -0,0 +1,131 @@
+package net.virtalab.databazer.test.batch;
+
+import net.virtalab.databazer.batch.TypedStatement;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Map;
+
+/**
+ * Tests for typed statement
+ */
+public class TypedStatementTest extends Assert {
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("typedStatement")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE tick(id BIGINT PRIMARY KEY, instrument INT, price DOUBLE, active BOOLEAN, note VARCHAR(20))");
+    }
+
+    @After
+    public void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void batchesAreSentAndCommitted() throws SQLException {
+        TypedStatement insert = new TypedStatement(ds, "INSERT INTO tick(id, price, instrument, active, note) VALUES(?, ?, ?, ?, ?)");
+        insert.setBatchSize(100);
+        try{
+            //constant parameters are set once
+            insert.setBoolean(4, true).setString(5, "const");
+            for(int i=1;i<=1050;i++){
+                insert.setInt(3, i % 7);
+                insert.addBatch(i, i / 2.0);
+            }
+            assertEquals(10, insert.getBatchCount());
+            insert.commit();
+        } finally {
+            insert.close();
+        }
+        assertEquals(1050, insert.getRowsAdded());
+        assertEquals(11, insert.getBatchCount());
+        assertEquals(1050, jdbc.queryForObject("SELECT COUNT(*) FROM tick WHERE active AND note = 'const'", Integer.class).intValue());
+
+        Map<String, Object> row = jdbc.queryForMap("SELECT instrument, price FROM tick WHERE id = 99");
+        assertEquals(99 % 7, row.get("INSTRUMENT"));
+        assertEquals(49.5, (Double) row.get("PRICE"), 0.0001);
+    }
+
+    @Test
+    public void nullsAndExecuteUpdate() throws SQLException {
+        TypedStatement insert = new TypedStatement(ds, "INSERT INTO tick(id, instrument, price, active, note) VALUES(?, ?, ?, ?, ?)");
+        try{
+            insert.setLong(1, 1).setNull(2, Types.INTEGER).setDouble(3, 1.5).setBoolean(4, false).setString(5, null);
+            assertEquals(1, insert.executeUpdate());
+            //NULL is replaced by value
+            insert.setLong(1, 2).setInt(2, 5);
+            assertEquals(1, insert.executeUpdate());
+            insert.commit();
+        } finally {
+            insert.close();
+        }
+        assertNull(jdbc.queryForObject("SELECT instrument FROM tick WHERE id = 1", Integer.class));
+        assertEquals(5, jdbc.queryForObject("SELECT instrument FROM tick WHERE id = 2", Integer.class).intValue());
+        assertNull(jdbc.queryForObject("SELECT note FROM tick WHERE id = 2", String.class));
+    }
+
+    @Test
+    public void reusedMutableObjectIsBoundAgain() throws SQLException {
+        jdbc.execute("CREATE TABLE event(id INT PRIMARY KEY, time TIMESTAMP)");
+        TypedStatement insert = new TypedStatement(ds, "INSERT INTO event(id, time) VALUES(?, ?)");
+        Timestamp time = new Timestamp(0);
+        try{
+            for(int i=1;i<=3;i++){
+                time.setTime(i * 1000L);
+                insert.setInt(1, i).setObject(2, time);
+                insert.addBatch();
+            }
+            insert.commit();
+        } finally {
+            insert.close();
+        }
+        assertEquals(new Timestamp(2000), jdbc.queryForObject("SELECT time FROM event WHERE id = 2", Timestamp.class));
+        assertEquals(new Timestamp(3000), jdbc.queryForObject("SELECT time FROM event WHERE id = 3", Timestamp.class));
+    }
+
+    @Test
+    public void closeRollsBack() throws SQLException {
+        TypedStatement insert = new TypedStatement(ds, "INSERT INTO tick(id, instrument) VALUES(?, ?)");
+        insert.setBatchSize(2);
+        insert.addBatch(1, 1);
+        insert.addBatch(2, 2);
+        insert.addBatch(3, 3);
+        insert.close();
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM tick", Integer.class).intValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unsetParameter() throws SQLException {
+        TypedStatement insert = new TypedStatement(ds, "INSERT INTO tick(id, instrument) VALUES(?, ?)");
+        try{
+            insert.addBatch(1);
+        } finally {
+            insert.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongIndex() throws SQLException {
+        TypedStatement insert = new TypedStatement(ds, "INSERT INTO tick(id, instrument) VALUES(?, ?)");
+        try{
+            insert.setLong(3, 1);
+        } finally {
+            insert.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.virtalab.databazer.test.cache;
+
+import net.virtalab.databazer.cache.CoalescingQuery;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for coalescing of concurrent identical queries
+ */
+public class CoalescingQueryTest extends Assert {
+    private static final AtomicInteger calls = new AtomicInteger();
+    private static volatile CountDownLatch release;
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    /**
+     * SQL function, which holds query until test releases it
+     */
+    public static String hold(String value) throws InterruptedException {
+        calls.incrementAndGet();
+        if(!release.await(10, TimeUnit.SECONDS)){
+            throw new IllegalStateException("Query was not released");
+        }
+        return value;
+    }
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("coalescing")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE ALIAS HOLD FOR \"" + CoalescingQueryTest.class.getName() + ".hold\"");
+        jdbc.execute("CREATE TABLE rate(currency VARCHAR(3) PRIMARY KEY, title VARCHAR(20))");
+        jdbc.update("INSERT INTO rate VALUES('EUR', 'Euro'), ('USD', 'Dollar')");
+        calls.set(0);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown(){
+        release.countDown();
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void concurrentIdenticalQueriesShareExecution() throws Exception {
+        final CoalescingQuery coalescing = new CoalescingQuery(ds);
+        final int threads = 10;
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t=0;t<threads;t++){
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try{
+                        results.add(coalescing.query("SELECT HOLD(title) FROM rate WHERE currency = ?",
+                                new SingleColumnRowMapper<String>(String.class), "EUR"));
+                    } catch (SQLException e){
+                        results.add(e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (coalescing.getCoalescedCount() < threads - 1){
+            assertTrue("Calls were not coalesced", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(1, coalescing.getInFlightCount());
+        release.countDown();
+        for(Thread worker: workers){
+            worker.join();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescing.getExecutionCount());
+        assertEquals(threads, results.size());
+        for(Object result: results){
+            assertEquals(Collections.singletonList("Euro"), result);
+        }
+        assertEquals(0, coalescing.getInFlightCount());
+
+        //finished query is run again
+        coalescing.query("SELECT HOLD(title) FROM rate WHERE currency = ?", new SingleColumnRowMapper<String>(String.class), "EUR");
+        assertEquals(2, coalescing.getExecutionCount());
+    }
+
+    @Test
+    public void otherParametersAreNotCoalesced() throws SQLException {
+        release.countDown();
+        CoalescingQuery coalescing = new CoalescingQuery(ds);
+        assertEquals(Collections.singletonList("Dollar"), coalescing.query("SELECT title FROM rate WHERE currency = ?",
+                new SingleColumnRowMapper<String>(String.class), "USD"));
+        assertEquals(2, coalescing.query("SELECT currency FROM rate", new SingleColumnRowMapper<String>(String.class)).size());
+        assertEquals(2, coalescing.getExecutionCount());
+        assertEquals(0, coalescing.getCoalescedCount());
+    }
+
+    @Test
+    public void failureReachesAllCallers() throws Exception {
+        final CoalescingQuery coalescing = new CoalescingQuery(ds);
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t=0;t<3;t++){
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try{
+                        results.add(coalescing.query("SELECT HOLD(title) / 0 FROM rate WHERE currency = ?",
+                                new SingleColumnRowMapper<Object>(), "EUR"));
+                    } catch (SQLException e){
+                        results.add(e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (coalescing.getCoalescedCount() < 2){
+            assertTrue("Calls were not coalesced", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for(Thread worker: workers){
+            worker.join();
+        }
+        assertEquals(3, results.size());
+        for(Object result: results){
+            assertTrue(result instanceof SQLException);
+        }
+    }
+}
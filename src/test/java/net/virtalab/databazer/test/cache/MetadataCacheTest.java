@@ -0,0 +1,122 @@
+package net.virtalab.databazer.test.cache;
+
+import net.virtalab.databazer.cache.MetadataCache;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for cache of metadata
+ */
+public class MetadataCacheTest extends Assert {
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+    private MetadataCache cache;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("metadata")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE orders(id INT PRIMARY KEY, user_id INT)");
+        jdbc.execute("CREATE INDEX orders_user ON orders(user_id)");
+        cache = new MetadataCache();
+        ds.setMetadataCache(cache);
+    }
+
+    @After
+    public void tearDown(){
+        ds.setMetadataCache(null);
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void connectionsShareMetadata() throws SQLException {
+        assertEquals(Arrays.asList("ID", "USER_ID"), this.columns("ORDERS"));
+        assertEquals(Arrays.asList("ID", "USER_ID"), this.columns("ORDERS"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        Connection connection = ds.getConnection();
+        try{
+            DatabaseMetaData meta = connection.getMetaData();
+            assertSame(connection, meta.getConnection());
+            assertEquals("H2", meta.getDatabaseProductName());
+            List<String> indexes = new ArrayList<String>();
+            for(int i=0;i<2;i++){
+                indexes.clear();
+                ResultSet rs = meta.getIndexInfo(null, null, "ORDERS", false, false);
+                while (rs.next()){
+                    indexes.add(rs.getString("INDEX_NAME"));
+                }
+                rs.close();
+            }
+            assertTrue(indexes.toString(), indexes.contains("ORDERS_USER"));
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void ddlInvalidatesMetadata() throws SQLException {
+        assertEquals(Arrays.asList("ID", "USER_ID"), this.columns("ORDERS"));
+        jdbc.execute("ALTER TABLE orders ADD COLUMN total DECIMAL(10, 2)");
+        assertEquals(Arrays.asList("ID", "USER_ID", "TOTAL"), this.columns("ORDERS"));
+        assertEquals(1, cache.getInvalidationCount());
+
+        //writes of data do not change schema
+        jdbc.update("INSERT INTO orders VALUES(1, 1, 10)");
+        this.columns("ORDERS");
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void ddlAfterReadInOneSqlInvalidates() throws SQLException {
+        assertEquals(Arrays.asList("ID", "USER_ID"), this.columns("ORDERS"));
+        jdbc.execute("SELECT 1; ALTER TABLE orders ADD COLUMN total DECIMAL(10, 2)");
+        assertEquals(Arrays.asList("ID", "USER_ID", "TOTAL"), this.columns("ORDERS"));
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void explicitInvalidation() throws SQLException {
+        this.columns("ORDERS");
+        cache.invalidateAll();
+        assertEquals(0, cache.getSize());
+        this.columns("ORDERS");
+        assertEquals(2, cache.getMissCount());
+    }
+
+    private List<String> columns(String table) throws SQLException {
+        Connection connection = ds.getConnection();
+        try{
+            ResultSet rs = connection.getMetaData().getColumns(null, null, table, null);
+            List<String> columns = new ArrayList<String>();
+            while (rs.next()){
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+            rs.close();
+            return columns;
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package net.virtalab.databazer.test.cache;
+
+import net.virtalab.databazer.cache.QueryCache;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for query result cache
+ */
+public class QueryCacheTest extends Assert {
+
+    private H2DataSource ds;
+    private QueryCache cache;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("queryCache")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE country(code VARCHAR(2) PRIMARY KEY, title VARCHAR(50), population BIGINT)");
+        jdbc.execute("CREATE TABLE city(id INT PRIMARY KEY, country VARCHAR(2), name VARCHAR(50))");
+        jdbc.update("INSERT INTO country VALUES('FI', 'Finland', 5400000), ('SE', 'Sweden', 9600000), ('EE', 'Estonia', NULL)");
+        jdbc.update("INSERT INTO city VALUES(1, 'FI', 'Helsinki'), (2, 'SE', 'Stockholm')");
+        cache = new QueryCache();
+        ds.setQueryCache(cache);
+    }
+
+    @After
+    public void tearDown(){
+        ds.setQueryCache(null);
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void repeatedReadIsAnsweredFromCache(){
+        String sql = "SELECT title, population FROM country WHERE code = ?";
+        Map<String, Object> first = jdbc.queryForMap(sql, "FI");
+        Map<String, Object> second = jdbc.queryForMap(sql, "FI");
+        assertEquals(first, second);
+        assertEquals("Finland", second.get("TITLE"));
+        assertEquals(5400000L, second.get("POPULATION"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.0001);
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.getMemoryBytes() > 0);
+
+        //other parameter is other key
+        assertEquals("Sweden", jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "SE"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void readsOfTransactionAreNotCached() throws SQLException {
+        Connection connection = ds.getConnection();
+        try{
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT title FROM country WHERE code = 'FI'");
+            assertTrue(rs.next());
+            rs.close();
+            statement.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, cache.getSize());
+        jdbc.queryForObject("SELECT title FROM country WHERE code = 'FI'", String.class);
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void mutableValuesAreCopied(){
+        jdbc.execute("CREATE TABLE file(id INT PRIMARY KEY, body VARBINARY(10), created TIMESTAMP)");
+        jdbc.update("INSERT INTO file VALUES(1, X'0102', TIMESTAMP '2014-01-01 00:00:00')");
+        for(int run=0;run<2;run++){
+            byte[] body = jdbc.queryForObject("SELECT body FROM file WHERE id = 1", byte[].class);
+            assertEquals(1, body[0]);
+            body[0] = 42;
+            java.sql.Timestamp created = jdbc.queryForObject("SELECT created FROM file WHERE id = 1", java.sql.Timestamp.class);
+            assertEquals(java.sql.Timestamp.valueOf("2014-01-01 00:00:00"), created);
+            created.setTime(0);
+        }
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void typedGettersOfCachedResult() throws SQLException {
+        String sql = "SELECT code, population FROM country ORDER BY code";
+        for(int run=0;run<2;run++){
+            Connection connection = ds.getConnection();
+            try{
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(sql);
+                assertEquals(2, rs.getMetaData().getColumnCount());
+                assertTrue(rs.next());
+                assertEquals("EE", rs.getString("code"));
+                assertEquals(0, rs.getLong(2));
+                assertTrue(rs.wasNull());
+                assertTrue(rs.next());
+                assertEquals(5400000, rs.getInt("POPULATION"));
+                assertEquals("5400000", rs.getString(2));
+                assertFalse(rs.wasNull());
+                assertTrue(rs.next());
+                assertFalse(rs.next());
+                assertSame(statement, rs.getStatement());
+                rs.close();
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void writeInvalidatesTablesItTouches(){
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI");
+        jdbc.queryForObject("SELECT name FROM city WHERE id = ?", String.class, 1);
+        jdbc.queryForList("SELECT c.name, k.title FROM city c JOIN country k ON c.country = k.code");
+        assertEquals(3, cache.getSize());
+
+        jdbc.update("UPDATE country SET title = ? WHERE code = ?", "Suomi", "FI");
+        //result of city stays
+        assertEquals(1, cache.getSize());
+        assertEquals("Suomi", jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI"));
+        assertEquals("Helsinki", jdbc.queryForObject("SELECT name FROM city WHERE id = ?", String.class, 1));
+        assertEquals(1, cache.getHitCount());
+
+        //statement with unknown tables drops everything
+        jdbc.execute("CREATE INDEX city_country ON city(country)");
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void writeAfterReadInOneSqlInvalidates(){
+        String sql = "SELECT title FROM country WHERE code = 'FI'";
+        assertEquals("Finland", jdbc.queryForObject(sql, String.class));
+        jdbc.execute("SELECT 1; UPDATE country SET title = 'Suomi' WHERE code = 'FI'");
+        assertEquals("Suomi", jdbc.queryForObject(sql, String.class));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void nullParameterDiffersFromAnyString(){
+        String sql = "SELECT COALESCE(CAST(? AS VARCHAR), 'none') FROM country WHERE code = 'FI'";
+        assertEquals("<NULL>", jdbc.queryForObject(sql, String.class, "<NULL>"));
+        assertEquals("none", jdbc.queryForObject(sql, String.class, (Object) null));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void transactionReadsItsOwnWrites() throws SQLException {
+        String sql = "SELECT title FROM country WHERE code = 'FI'";
+        assertEquals("Finland", jdbc.queryForObject(sql, String.class));
+
+        Connection connection = ds.getConnection();
+        try{
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("UPDATE country SET title = 'Suomi' WHERE code = 'FI'");
+            ResultSet rs = statement.executeQuery(sql);
+            assertTrue(rs.next());
+            assertEquals("Suomi", rs.getString(1));
+            rs.close();
+            connection.rollback();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals("Finland", jdbc.queryForObject(sql, String.class));
+    }
+
+    @Test
+    public void volatileAndBigResultsAreNotCached(){
+        jdbc.queryForObject("SELECT COUNT(*) FROM country WHERE RAND() < 2", Integer.class);
+        jdbc.queryForObject("SELECT COUNT(*) FROM country WHERE RAND() < 2", Integer.class);
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getMissCount());
+
+        cache.setMaxRows(2);
+        List<Map<String, Object>> rows = jdbc.queryForList("SELECT * FROM country ORDER BY code");
+        assertEquals(3, rows.size());
+        assertEquals("SE", rows.get(2).get("CODE"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void timeToLiveAndEviction() throws Exception {
+        cache.setMaxEntries(2);
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI");
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "SE");
+        //touch FI, so SE is least recently used
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI");
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "EE");
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI");
+        assertEquals(2, cache.getHitCount());
+
+        cache.setTimeToLive(1);
+        Thread.sleep(5);
+        jdbc.queryForObject("SELECT title FROM country WHERE code = ?", String.class, "FI");
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void explicitInvalidation() throws SQLException {
+        Connection connection = ds.getConnection();
+        try{
+            PreparedStatement statement = connection.prepareStatement("SELECT name FROM PUBLIC.city WHERE id = ?");
+            statement.setInt(1, 2);
+            statement.executeQuery().close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(1, cache.getSize());
+        cache.invalidate("City");
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getInvalidationCount());
+    }
+}
@@ -0,0 +1,86 @@
+package net.virtalab.databazer.test.copy;
+
+import net.virtalab.databazer.copy.TableCopier;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Rows per second of {@link TableCopier} against thread count and page size, compared with simple copy loop.
+ * <p>
+ * Not a unit test: run it by hand, for example from IDE. Copies between two H2 file databases at temporary directory.
+ */
+public class TableCopierBenchmark {
+    private static final int ROWS = 200000;
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int[] PAGE_SIZES = {100, 1000, 5000};
+
+    public static void main(String[] args) throws Exception {
+        File dir = File.createTempFile("databazer", "benchmark");
+        if(!dir.delete() || !dir.mkdir()){
+            throw new IllegalStateException("Cannot create " + dir);
+        }
+        H2DataSource source = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("source")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        H2DataSource target = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("target")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate sourceJdbc = new JdbcTemplate(source);
+        JdbcTemplate targetJdbc = new JdbcTemplate(target);
+        String ddl = "CREATE TABLE item(id BIGINT PRIMARY KEY, title VARCHAR(100), price DECIMAL(10,2), created TIMESTAMP)";
+        sourceJdbc.execute(ddl);
+        targetJdbc.execute(ddl);
+        sourceJdbc.update("INSERT INTO item SELECT X, 'title of item ' || X, X / 100.0, CURRENT_TIMESTAMP() FROM SYSTEM_RANGE(1, " + ROWS + ")");
+
+        targetJdbc.execute("TRUNCATE TABLE item");
+        System.out.println("simple loop\t" + loop(source, target) + " rows/s");
+
+        System.out.println("threads\tpage size\trows/s");
+        for(int threads: THREADS){
+            for(int pageSize: PAGE_SIZES){
+                targetJdbc.execute("TRUNCATE TABLE item");
+                TableCopier copier = new TableCopier(source, target, "item", "id");
+                copier.setName("benchmark-" + threads + "-" + pageSize);
+                copier.setThreads(threads);
+                copier.setPageSize(pageSize);
+                copier.copy();
+                System.out.println(threads + "\t" + pageSize + "\t" + (long) copier.getRowsPerSecond());
+            }
+        }
+    }
+
+    /**
+     * Ad hoc copy: read everything, insert row by row with auto-commit
+     */
+    private static long loop(H2DataSource source, H2DataSource target) throws Exception {
+        long started = System.nanoTime();
+        Connection in = source.getConnection();
+        Connection out = target.getConnection();
+        try{
+            PreparedStatement select = in.prepareStatement("SELECT id, title, price, created FROM item");
+            PreparedStatement insert = out.prepareStatement("INSERT INTO item(id, title, price, created) VALUES(?, ?, ?, ?)");
+            ResultSet rs = select.executeQuery();
+            while (rs.next()){
+                for(int i=1;i<=4;i++){
+                    insert.setObject(i, rs.getObject(i));
+                }
+                insert.executeUpdate();
+            }
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(select);
+            JdbcUtils.closeStatement(insert);
+        } finally {
+            JdbcUtils.closeConnection(in);
+            JdbcUtils.closeConnection(out);
+        }
+        return (long) (ROWS / ((System.nanoTime() - started) / 1e9));
+    }
+}
@@ -0,0 +1,152 @@
+package net.virtalab.databazer.test.copy;
+
+import net.virtalab.databazer.copy.TableCopier;
+import net.virtalab.databazer.copy.ValueConverter;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for table copy pipeline
+ */
+public class TableCopierTest extends Assert {
+
+    private H2DataSource source;
+    private H2DataSource target;
+    private JdbcTemplate sourceJdbc;
+    private JdbcTemplate targetJdbc;
+
+    @Before
+    public void setUp(){
+        source = H2DataSource.Creator().mem().databaseName("copySource").option("DB_CLOSE_DELAY", "-1").create();
+        target = H2DataSource.Creator().mem().databaseName("copyTarget").option("DB_CLOSE_DELAY", "-1").create();
+        sourceJdbc = new JdbcTemplate(source);
+        targetJdbc = new JdbcTemplate(target);
+
+        sourceJdbc.execute("CREATE TABLE item(id BIGINT PRIMARY KEY, title VARCHAR(50), note CLOB, price DECIMAL(10,2))");
+        sourceJdbc.update("INSERT INTO item SELECT X, 'item' || X, 'note' || X, X / 100.0 FROM SYSTEM_RANGE(1, 10000)");
+        targetJdbc.execute("CREATE TABLE item(id BIGINT PRIMARY KEY, title VARCHAR(50), note CLOB, price DECIMAL(10,2))");
+    }
+
+    @After
+    public void tearDown(){
+        sourceJdbc.execute("DROP ALL OBJECTS");
+        targetJdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void copyWholeTable() throws Exception {
+        TableCopier copier = new TableCopier(source, target, "item", "id");
+        copier.setThreads(3);
+        copier.setPageSize(250);
+
+        assertEquals(10000, copier.copy());
+        assertEquals(10000, count());
+        assertEquals(copier.getRangesTotal(), copier.getRangesDone());
+        assertEquals(1.0, copier.getProgress(), 0.0001);
+        assertTrue(copier.getRowsPerSecond() > 0);
+        assertEquals("note777", targetJdbc.queryForObject("SELECT note FROM item WHERE id = 777", String.class));
+        assertEquals(sourceJdbc.queryForObject("SELECT SUM(price) FROM item", Double.class),
+                targetJdbc.queryForObject("SELECT SUM(price) FROM item", Double.class));
+
+        //completed copy is not repeated
+        assertEquals(0, copier.copy());
+        copier.reset();
+        targetJdbc.execute("DELETE FROM item");
+        assertEquals(10000, copier.copy());
+    }
+
+    @Test
+    public void resumeAfterFailure() throws Exception {
+        TableCopier copier = new TableCopier(source, target, "item", "id");
+        copier.setThreads(2);
+        copier.setRangeCount(4);
+        copier.setPageSize(100);
+        final AtomicInteger values = new AtomicInteger();
+        copier.setConverter(new ValueConverter() {
+            public Object convert(String column, Object value) throws SQLException {
+                if(values.incrementAndGet() > 4 * 3000){
+                    throw new SQLException("Source is gone");
+                }
+                return value;
+            }
+        });
+        try{
+            copier.copy();
+            fail("Copy should fail");
+        } catch (SQLException e){
+            assertEquals("Source is gone", e.getMessage());
+        }
+        int copied = count();
+        assertTrue("Nothing copied before failure", copied > 0);
+        assertTrue("Everything copied before failure", copied < 10000);
+        assertTrue(copier.getProgress() < 1);
+
+        copier.setConverter(null);
+        assertEquals(10000 - copied, copier.copy());
+        assertEquals(10000, count());
+        assertEquals(10000, targetJdbc.queryForObject("SELECT COUNT(DISTINCT id) FROM item", Integer.class).intValue());
+    }
+
+    @Test
+    public void converterRuntimeExceptionFailsCopy() throws Exception {
+        TableCopier copier = new TableCopier(source, target, "item", "id");
+        copier.setThreads(2);
+        copier.setPageSize(100);
+        final AtomicInteger values = new AtomicInteger();
+        copier.setConverter(new ValueConverter() {
+            public Object convert(String column, Object value) {
+                if(values.incrementAndGet() > 3000){
+                    throw new IllegalArgumentException("Bad value");
+                }
+                return value;
+            }
+        });
+        try{
+            copier.copy();
+            fail("Copy should fail");
+        } catch (SQLException e){
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(copier.getProgress() < 1);
+        assertTrue("Everything copied before failure", count() < 10000);
+
+        copier.setConverter(null);
+        copier.copy();
+        assertEquals(10000, count());
+    }
+
+    @Test
+    public void convertValues() throws Exception {
+        targetJdbc.execute("CREATE TABLE short_item(id BIGINT PRIMARY KEY, title VARCHAR(50))");
+        TableCopier copier = new TableCopier(source, target, "item", "id");
+        copier.setTargetTable("short_item");
+        copier.setColumns("id, title");
+        copier.setConverter(new ValueConverter() {
+            public Object convert(String column, Object value) {
+                return column.equalsIgnoreCase("title") ? ((String) value).toUpperCase() : value;
+            }
+        });
+
+        assertEquals(10000, copier.copy());
+        assertEquals("ITEM42", targetJdbc.queryForObject("SELECT title FROM short_item WHERE id = 42", String.class));
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        sourceJdbc.execute("DELETE FROM item");
+        TableCopier copier = new TableCopier(source, target, "item", "id");
+        assertEquals(0, copier.copy());
+        assertEquals(0, count());
+    }
+
+    private int count(){
+        return targetJdbc.queryForObject("SELECT COUNT(*) FROM item", Integer.class);
+    }
+}
@@ -0,0 +1,156 @@
+package net.virtalab.databazer.test.driver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Driver without database, which records calls to its connections and statements
+ * and gives out scripted results: update count for {@link Integer}, one-column result set for {@link List} of values
+ */
+public class RecordingDriver extends DummyDriver {
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private final LinkedList<Object> results = new LinkedList<Object>();
+
+    private Properties info;
+
+    /**
+     * Sets results given by statements in order of execution
+     *
+     * @param results update counts and lists of values
+     */
+    public synchronized void results(Object... results){
+        this.results.clear();
+        this.results.addAll(Arrays.asList(results));
+    }
+
+    /**
+     * Calls made, as method name with its arguments, like {@code setFetchSize[100]}
+     *
+     * @return calls in order
+     */
+    public List<String> getCalls() {
+        synchronized (this.calls){
+            return new ArrayList<String>(this.calls);
+        }
+    }
+
+    /**
+     * Properties connection was taken with
+     *
+     * @return properties of last connection
+     */
+    public synchronized Properties getInfo() {
+        return info;
+    }
+
+    @Override
+    public synchronized Connection connect(String url, Properties info) throws SQLException {
+        this.info = info;
+        return (Connection) proxy(Connection.class, new Recorder());
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return true;
+    }
+
+    private synchronized Object nextResult(){
+        return this.results.isEmpty() ? null : this.results.removeFirst();
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler){
+        return Proxy.newProxyInstance(RecordingDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type){
+        if(type==boolean.class){
+            return false;
+        } else if(type==int.class){
+            return 0;
+        } else if(type==long.class){
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * Records calls of connection and statements, answers by script
+     */
+    private class Recorder implements InvocationHandler {
+        private Object current;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            calls.add(name + (args==null ? "[]" : Arrays.toString(args)));
+            Class<?> type = method.getReturnType();
+            if(type==Statement.class || type==PreparedStatement.class){
+                return proxy(PreparedStatement.class, new Recorder());
+            }
+            if(name.equals("execute") || name.equals("getMoreResults")){
+                this.current = nextResult();
+                return this.current instanceof List;
+            }
+            if(name.equals("executeQuery") || name.equals("executeUpdate")){
+                this.current = nextResult();
+            }
+            if(name.equals("getUpdateCount")){
+                return this.current instanceof Integer ? this.current : -1;
+            }
+            if(name.equals("executeUpdate")){
+                return this.current instanceof Integer ? this.current : 0;
+            }
+            if(name.equals("getResultSet") || name.equals("executeQuery")){
+                List<?> rows = this.current instanceof List ? (List<?>) this.current : Collections.emptyList();
+                return proxy(ResultSet.class, new Rows(rows));
+            }
+            if(name.equals("isClosed") || name.equals("isWrapperFor")){
+                return false;
+            }
+            if(name.equals("getAutoCommit") || name.equals("isValid")){
+                return true;
+            }
+            return defaultValue(type);
+        }
+    }
+
+    /**
+     * One-column result set
+     */
+    private static class Rows implements InvocationHandler {
+        private final Iterator<?> rows;
+        private Object current;
+
+        private Rows(List<?> rows){
+            this.rows = rows.iterator();
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if(name.equals("next")){
+                boolean hasNext = this.rows.hasNext();
+                this.current = hasNext ? this.rows.next() : null;
+                return hasNext;
+            }
+            if(name.equals("getObject")){
+                return this.current;
+            }
+            if(name.equals("wasNull")){
+                return this.current==null;
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+}
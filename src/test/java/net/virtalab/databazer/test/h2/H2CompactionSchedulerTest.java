@@ -0,0 +1,185 @@
+package net.virtalab.databazer.test.h2;
+
+import net.virtalab.databazer.h2.H2CompactionScheduler;
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.File;
+import java.sql.Connection;
+
+/**
+ * Tests for compaction of H2 file databases
+ */
+public class H2CompactionSchedulerTest extends Assert {
+
+    private File dir;
+    private H2DataSource ds;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("databazer", "compaction");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+
+        ds = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("compacted")
+                .create();
+    }
+
+    @After
+    public void tearDown(){
+        File[] files = dir.listFiles();
+        if(files!=null){
+            for(File f: files){
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void compactionReclaimsSpace() throws Exception {
+        H2CompactionScheduler scheduler = new H2CompactionScheduler(ds);
+
+        //keep connection open, so database is not compacted on close
+        Connection connection = ds.getConnection();
+        JdbcTemplate jdbc = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+        jdbc.execute("CREATE TABLE garbage(id INT PRIMARY KEY, payload VARCHAR(1000))");
+        jdbc.update("INSERT INTO garbage SELECT X, SPACE(1000) FROM SYSTEM_RANGE(1, 5000)");
+        jdbc.update("DELETE FROM garbage");
+        jdbc.execute("CHECKPOINT SYNC");
+
+        long sizeBefore = scheduler.getDatabaseFile().length();
+        long reclaimed = scheduler.compactNow();
+        connection.close();
+
+        assertEquals(1,scheduler.getCompactionCount());
+        assertTrue("Nothing reclaimed",reclaimed > 0);
+        assertEquals(reclaimed,scheduler.getBytesReclaimed());
+        assertEquals(sizeBefore - reclaimed, scheduler.getDatabaseFile().length());
+
+        //database is usable after compaction
+        int rows = new JdbcTemplate(ds).queryForObject("SELECT COUNT(*) FROM garbage", Integer.class);
+        assertEquals(0,rows);
+    }
+
+    @Test
+    public void noCompactionOfSmallFile(){
+        new JdbcTemplate(ds).execute("CREATE TABLE small(id INT)");
+
+        H2CompactionScheduler scheduler = new H2CompactionScheduler(ds);
+        scheduler.setMinCompactionInterval(0);
+
+        //first check only takes samples
+        assertFalse(scheduler.check());
+        assertFalse(scheduler.check());
+        assertEquals(0,scheduler.getCompactionCount());
+    }
+
+    @Test
+    public void checkCompactsQuietDatabase() throws Exception {
+        //database stays open without connections, so it is not compacted on close
+        H2DataSource kept = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("kept")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(kept);
+        jdbc.execute("CREATE TABLE garbage(id INT PRIMARY KEY, payload VARCHAR(1000))");
+        jdbc.update("INSERT INTO garbage SELECT X, SPACE(1000) FROM SYSTEM_RANGE(1, 5000)");
+        jdbc.update("DELETE FROM garbage");
+        jdbc.execute("CHECKPOINT SYNC");
+
+        H2CompactionScheduler scheduler = new H2CompactionScheduler(kept);
+        scheduler.setMinCompactionInterval(0);
+        scheduler.setMinFileSize(0);
+        scheduler.setGrowthRatio(0);
+        scheduler.setQuietIoThreshold(Long.MAX_VALUE);
+
+        //first check only takes samples
+        assertFalse(scheduler.check());
+        //other session is open
+        Connection connection = kept.getConnection();
+        assertFalse(scheduler.check());
+        connection.close();
+
+        long sizeBefore = scheduler.getDatabaseFile().length();
+        assertTrue(scheduler.check());
+        assertEquals(1,scheduler.getCompactionCount());
+        assertTrue("Nothing reclaimed",scheduler.getBytesReclaimed() > 0);
+        assertTrue(scheduler.getDatabaseFile().length() < sizeBefore);
+
+        assertEquals(0,jdbc.queryForObject("SELECT COUNT(*) FROM garbage", Integer.class).intValue());
+        //close database before its files are deleted
+        scheduler.compactNow();
+    }
+
+    @Test
+    public void firstCheckCompactsBigFile() throws Exception {
+        H2DataSource kept = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("first")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(kept);
+        jdbc.execute("CREATE TABLE garbage(id INT PRIMARY KEY, payload VARCHAR(1000))");
+        jdbc.update("INSERT INTO garbage SELECT X, SPACE(1000) FROM SYSTEM_RANGE(1, 5000)");
+        jdbc.update("DELETE FROM garbage");
+        jdbc.execute("CHECKPOINT SYNC");
+
+        //default growth ratio: file is not compared with its size at first check
+        H2CompactionScheduler scheduler = new H2CompactionScheduler(kept);
+        scheduler.setMinCompactionInterval(0);
+        scheduler.setMinFileSize(1024 * 1024);
+        scheduler.setQuietIoThreshold(Long.MAX_VALUE);
+
+        assertFalse(scheduler.check());
+        assertTrue(scheduler.check());
+        assertEquals(1,scheduler.getCompactionCount());
+        scheduler.compactNow();
+    }
+
+    @Test
+    public void sparseFileIsCompacted() throws Exception {
+        H2DataSource kept = H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("sparse")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(kept);
+        jdbc.execute("CREATE TABLE payload(id INT PRIMARY KEY, payload VARCHAR(1000))");
+        jdbc.update("INSERT INTO payload SELECT X, SPACE(1000) FROM SYSTEM_RANGE(1, 5000)");
+
+        H2CompactionScheduler scheduler = new H2CompactionScheduler(kept);
+        scheduler.setMinCompactionInterval(0);
+        scheduler.setMinFileSize(0);
+        scheduler.setGrowthRatio(10);
+        scheduler.setMinFillRate(0.1);
+        scheduler.setQuietIoThreshold(Long.MAX_VALUE);
+        scheduler.compactNow();
+
+        //file has not grown and is filled by data
+        assertFalse(scheduler.check());
+        assertFalse(scheduler.check());
+
+        jdbc.update("DELETE FROM payload");
+        jdbc.execute("CHECKPOINT SYNC");
+        assertTrue(scheduler.check());
+        assertEquals(2,scheduler.getCompactionCount());
+        scheduler.compactNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCheckIntervalRejected(){
+        new H2CompactionScheduler(ds).setCheckInterval(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void memoryDatabaseRejected(){
+        new H2CompactionScheduler(H2DataSource.Creator().mem().create());
+    }
+}
@@ -0,0 +1,151 @@
+package net.virtalab.databazer.test.h2;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.h2.H2DatabasePool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for pool of in-memory H2 databases
+ */
+public class H2DatabasePoolTest extends Assert {
+
+    private H2DatabasePool pool;
+
+    @Before
+    public void setUp(){
+        List<String> schema = new ArrayList<String>();
+        schema.add("CREATE TABLE person(id INT PRIMARY KEY, name VARCHAR(50))");
+        schema.add("INSERT INTO person VALUES(1,'template')");
+        pool = new H2DatabasePool(schema, 2);
+    }
+
+    @After
+    public void tearDown(){
+        pool.close();
+    }
+
+    @Test
+    public void databasesAreIsolated() throws InterruptedException {
+        H2DataSource first = pool.acquire();
+        H2DataSource second = pool.acquire();
+
+        assertFalse(first.getUrl().equals(second.getUrl()));
+
+        new JdbcTemplate(first).update("INSERT INTO person VALUES(2,'first')");
+
+        int rowsInFirst = new JdbcTemplate(first).queryForObject("SELECT COUNT(*) FROM person", Integer.class);
+        int rowsInSecond = new JdbcTemplate(second).queryForObject("SELECT COUNT(*) FROM person", Integer.class);
+
+        assertEquals(2,rowsInFirst);
+        assertEquals(1,rowsInSecond);
+    }
+
+    @Test
+    public void releasedDatabaseIsReset() throws InterruptedException {
+        H2DataSource first = pool.acquire();
+        H2DataSource second = pool.acquire();
+        new JdbcTemplate(first).update("INSERT INTO person VALUES(2,'dirty')");
+
+        pool.release(first);
+        H2DataSource recycled = pool.acquire(10, TimeUnit.SECONDS);
+
+        assertNotNull("Released database did not come back",recycled);
+        assertEquals(first.getUrl(),recycled.getUrl());
+        int rows = new JdbcTemplate(recycled).queryForObject("SELECT COUNT(*) FROM person", Integer.class);
+        assertEquals(1,rows);
+
+        pool.release(second);
+        pool.release(recycled);
+    }
+
+    @Test
+    public void cloneFromTemplateDataSource() throws InterruptedException {
+        H2DataSource template = H2DataSource.Creator()
+                .mem().databaseName("poolTemplate")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(template);
+        jdbc.execute("CREATE TABLE city(id INT PRIMARY KEY, title VARCHAR(20))");
+        jdbc.update("INSERT INTO city VALUES(1,'Tallinn')");
+
+        H2DatabasePool templatePool = new H2DatabasePool(template, 1);
+        try{
+            H2DataSource ds = templatePool.acquire();
+            String title = new JdbcTemplate(ds).queryForObject("SELECT title FROM city WHERE id=1", String.class);
+            assertEquals("Tallinn",title);
+        } finally {
+            templatePool.close();
+            jdbc.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    public void doubleReleaseIsRejected() throws InterruptedException {
+        H2DataSource first = pool.acquire();
+        pool.release(first);
+        try{
+            pool.release(first);
+            fail("Second release should be rejected");
+        } catch (IllegalArgumentException e){
+            //expected
+        }
+        H2DataSource again = pool.acquire(10, TimeUnit.SECONDS);
+        H2DataSource other = pool.acquire(10, TimeUnit.SECONDS);
+        assertNotNull(again);
+        assertNotNull(other);
+        assertNotSame(again, other);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void releaseOfIdleDatabase() throws InterruptedException {
+        H2DataSource first = pool.acquire();
+        pool.release(first);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getReadyCount() < 2 && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        //database is back at pool: nobody holds it
+        pool.release(first);
+    }
+
+    @Test
+    public void closeWakesWaiters() throws Exception {
+        pool.acquire();
+        pool.acquire();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try{
+                    pool.acquire();
+                } catch (Throwable e){
+                    failure.set(e);
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        pool.close();
+        waiter.join(5000);
+        assertFalse("Waiter still waits", waiter.isAlive());
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof IllegalStateException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foreignDataSource(){
+        pool.release(H2DataSource.Creator().create());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongSize(){
+        new H2DatabasePool(new ArrayList<String>(), 0);
+    }
+}
@@ -0,0 +1,109 @@
+package net.virtalab.databazer.test.h2;
+
+import net.virtalab.databazer.h2.EvictionMode;
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.h2.H2MemoryManager;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+
+/**
+ * Tests for memory accounting of in-memory H2 databases
+ */
+public class H2MemoryManagerTest extends Assert {
+
+    @Test
+    public void usageIsMeasured(){
+        H2DataSource ds = filled("measuredDb", 1000);
+        H2MemoryManager manager = new H2MemoryManager(Long.MAX_VALUE);
+        manager.register(ds);
+
+        long total = manager.measure();
+
+        assertTrue(total > 0);
+        assertEquals(total, manager.getMemoryUsed(ds));
+        Map<String,Long> usage = manager.getUsage();
+        assertEquals(Long.valueOf(total), usage.get("measuredDb"));
+
+        manager.unregister(ds);
+        drop(ds);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsDropped() throws Exception {
+        H2DataSource old = filled("oldDb", 1000);
+        H2DataSource recent = filled("recentDb", 1000);
+
+        //budget fits only one of equal databases
+        H2MemoryManager probe = new H2MemoryManager(Long.MAX_VALUE);
+        probe.register(recent);
+        long oneDatabase = probe.measure();
+        probe.unregister(recent);
+
+        H2MemoryManager manager = new H2MemoryManager(oneDatabase);
+        manager.register(old);
+        Thread.sleep(5);
+        manager.register(recent);
+
+        assertEquals(1, manager.enforce());
+        assertTrue(manager.isEvicted(old));
+        assertFalse(manager.isEvicted(recent));
+        assertEquals(1, manager.getEvictionCount());
+
+        //dropped database comes back empty
+        int tables = new JdbcTemplate(old).queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME='ITEM'", Integer.class);
+        assertEquals(0, tables);
+        assertFalse(manager.isEvicted(old));
+
+        manager.unregister(old);
+        manager.unregister(recent);
+        drop(old);
+        drop(recent);
+    }
+
+    @Test
+    public void spilledDatabaseIsRestored(){
+        H2DataSource ds = filled("spilledDb", 500);
+        H2MemoryManager manager = new H2MemoryManager(1);
+        manager.setEvictionMode(EvictionMode.SPILL);
+        manager.register(ds);
+
+        assertEquals(1, manager.enforce());
+        assertTrue(manager.isEvicted(ds));
+
+        int rows = new JdbcTemplate(ds).queryForObject("SELECT COUNT(*) FROM item", Integer.class);
+        assertEquals(500, rows);
+        assertEquals(1, manager.getRestoreCount());
+
+        manager.unregister(ds);
+        drop(ds);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unnamedDatabaseRejected(){
+        new H2MemoryManager(1024).register(H2DataSource.Creator().mem().create());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongBudget(){
+        new H2MemoryManager(0);
+    }
+
+    private static H2DataSource filled(String name, int rows){
+        H2DataSource ds = H2DataSource.Creator()
+                .name(name)
+                .mem().databaseName(name)
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE item(id INT PRIMARY KEY, title VARCHAR(100))");
+        jdbc.update("INSERT INTO item SELECT X, 'item' || X FROM SYSTEM_RANGE(1, " + rows + ")");
+        return ds;
+    }
+
+    private static void drop(H2DataSource ds){
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+    }
+}
@@ -0,0 +1,190 @@
+package net.virtalab.databazer.test.h2;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.h2.H2ReadWriteDataSource;
+import org.h2.Driver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for read-only and read-write modes of H2 DataSource
+ */
+public class H2ReadWriteDataSourceTest extends Assert {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("databazer", "readwrite");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown(){
+        File[] files = dir.listFiles();
+        if(files!=null){
+            for(File f: files){
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void pairSharesDatabase(){
+        H2ReadWriteDataSource ds = fileDb().name("reports").createReadWrite();
+
+        assertEquals("reports", ds.getName());
+        assertEquals("reports", ds.getWriter().getName());
+        assertEquals("reports-reader", ds.getReader().getName());
+        assertFalse(ds.getWriter().isReadOnly());
+        assertTrue(ds.getReader().isReadOnly());
+        assertEquals(ds.getWriter().getUrl(), ds.getReader().getUrl());
+        assertTrue(ds.getWriter().getUrl().contains("MVCC=TRUE"));
+
+        //keep database open
+        JdbcTemplate writer = new JdbcTemplate(ds.getWriter());
+        writer.execute("SET DB_CLOSE_DELAY -1");
+        writer.execute("CREATE TABLE report(id INT PRIMARY KEY)");
+        writer.update("INSERT INTO report VALUES(1)");
+
+        int rows = new JdbcTemplate(ds.getReader()).queryForObject("SELECT COUNT(*) FROM report", Integer.class);
+        assertEquals(1, rows);
+
+        shutdown(writer);
+    }
+
+    @Test
+    public void readOnlyTransactionsAreRouted(){
+        final H2ReadWriteDataSource ds = fileDb().createReadWrite();
+        final JdbcTemplate jdbc = new JdbcTemplate(ds);
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+
+        jdbc.execute("SET DB_CLOSE_DELAY -1");
+        jdbc.execute("CREATE TABLE report(id INT PRIMARY KEY)");
+
+        //drivers count connections opened by each DataSource
+        CountingDriver writerDriver = new CountingDriver();
+        CountingDriver readerDriver = new CountingDriver();
+        ds.getWriter().setDriver(writerDriver);
+        ds.getReader().setDriver(readerDriver);
+        TransactionCallback<Integer> count = new TransactionCallback<Integer>() {
+            public Integer doInTransaction(TransactionStatus status) {
+                return jdbc.queryForObject("SELECT COUNT(*) FROM report", Integer.class);
+            }
+        };
+
+        tx.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                return jdbc.update("INSERT INTO report VALUES(1)");
+            }
+        });
+        assertEquals(1, tx.execute(count).intValue());
+        assertEquals(2, writerDriver.connections.get());
+        assertEquals(0, readerDriver.connections.get());
+
+        tx.setReadOnly(true);
+        assertEquals(1, tx.execute(count).intValue());
+        assertEquals(2, writerDriver.connections.get());
+        assertEquals(1, readerDriver.connections.get());
+
+        shutdown(jdbc);
+    }
+
+    @Test
+    public void readerRejectsWrites(){
+        H2ReadWriteDataSource ds = fileDb().createReadWrite();
+        JdbcTemplate writer = new JdbcTemplate(ds.getWriter());
+        writer.execute("SET DB_CLOSE_DELAY -1");
+        writer.execute("CREATE TABLE report(id INT PRIMARY KEY)");
+
+        JdbcTemplate reader = new JdbcTemplate(ds.getReader());
+        try{
+            reader.update("INSERT INTO report VALUES(1)");
+            fail("Reader accepted write");
+        } catch (DataAccessException e){
+            //expected
+        }
+        try{
+            reader.execute("SELECT 1; DELETE FROM report");
+            fail("Reader accepted write after read");
+        } catch (DataAccessException e){
+            //expected
+        }
+        assertEquals(0, reader.queryForObject("SELECT COUNT(*) FROM report WHERE id <> ';'", Integer.class).intValue());
+
+        shutdown(writer);
+    }
+
+    @Test
+    public void readOnlyDatabaseRejectsWrites(){
+        new JdbcTemplate(fileDb().create()).execute("CREATE TABLE report(id INT PRIMARY KEY)");
+
+        H2DataSource ds = fileDb().readOnly().create();
+        assertTrue(ds.isReadOnly());
+        assertTrue(ds.getUrl().contains("ACCESS_MODE_DATA=r"));
+
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        int rows = jdbc.queryForObject("SELECT COUNT(*) FROM report", Integer.class);
+        assertEquals(0, rows);
+        try{
+            jdbc.update("INSERT INTO report VALUES(1)");
+            fail("Read-only database accepted write");
+        } catch (DataAccessException e){
+            //expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unnamedMemoryDatabaseCannotBePaired(){
+        H2DataSource.Creator().mem().createReadWrite();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readOnlyCreatorCannotCreateWriter(){
+        fileDb().readOnly().createReadWrite();
+    }
+
+    private H2DataSource.Creator fileDb(){
+        return H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("shared");
+    }
+
+    private static void shutdown(JdbcTemplate jdbc){
+        try{
+            jdbc.execute("SHUTDOWN");
+        } catch (DataAccessException e){
+            //closed
+        }
+    }
+
+    /**
+     * H2 driver which counts opened connections
+     */
+    private static class CountingDriver extends Driver {
+        private final AtomicInteger connections = new AtomicInteger();
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            this.connections.incrementAndGet();
+            return super.connect(url, info);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package net.virtalab.databazer.test.h2;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.h2.H2Replica;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for in-memory replica
+ */
+public class H2ReplicaTest extends Assert {
+
+    private H2DataSource source;
+    private JdbcTemplate sourceJdbc;
+    private H2Replica replica;
+
+    @Before
+    public void setUp(){
+        source = H2DataSource.Creator().mem().databaseName("replicaSource").option("DB_CLOSE_DELAY", "-1").create();
+        source.setName("source");
+        sourceJdbc = new JdbcTemplate(source);
+        sourceJdbc.execute("CREATE TABLE country(code CHAR(2) PRIMARY KEY, title VARCHAR(100))");
+        sourceJdbc.update("INSERT INTO country VALUES('EE', 'Estonia'), ('FI', 'Finland'), ('LV', 'Latvia')");
+        sourceJdbc.execute("CREATE TABLE rate(id INT PRIMARY KEY, currency VARCHAR(10), rate DECIMAL(12,6), updated_at TIMESTAMP)");
+        sourceJdbc.update("INSERT INTO rate SELECT X, 'C' || X, X / 1000.0, TIMESTAMP '2014-01-01 00:00:00' FROM SYSTEM_RANGE(1, 500)");
+
+        replica = new H2Replica(source, "replicaTest");
+        replica.addTable("country");
+        replica.addTable("rate", "id", "updated_at");
+    }
+
+    @After
+    public void tearDown(){
+        replica.stop();
+        sourceJdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void tablesAreCopied() throws Exception {
+        replica.start();
+        //first load is done by start()
+        assertTrue(replica.awaitReady(0, TimeUnit.SECONDS));
+
+        JdbcTemplate jdbc = new JdbcTemplate(replica);
+        assertEquals("Finland", jdbc.queryForObject("SELECT title FROM country WHERE code = 'FI'", String.class));
+        assertEquals(500, jdbc.queryForObject("SELECT COUNT(*) FROM rate", Integer.class).intValue());
+        assertEquals(0, new BigDecimal("0.042").compareTo(jdbc.queryForObject("SELECT rate FROM rate WHERE id = 42", BigDecimal.class)));
+        //primary key is copied
+        assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.CONSTRAINTS " +
+                "WHERE TABLE_NAME = 'COUNTRY' AND CONSTRAINT_TYPE = 'PRIMARY KEY'", Integer.class).intValue());
+    }
+
+    @Test
+    public void incrementalRefresh() throws Exception {
+        replica.start();
+        sourceJdbc.update("UPDATE rate SET rate = 1.5, updated_at = TIMESTAMP '2014-01-02 00:00:00' WHERE id = 7");
+        sourceJdbc.update("INSERT INTO rate VALUES(501, 'NEW', 2.5, TIMESTAMP '2014-01-02 00:00:00')");
+        sourceJdbc.update("UPDATE country SET title = 'Suomi' WHERE code = 'FI'");
+
+        H2DataSource version = replica.getCurrent();
+        replica.refresh();
+        assertSame("Refresh should not create new version", version, replica.getCurrent());
+
+        JdbcTemplate jdbc = new JdbcTemplate(replica);
+        assertEquals(1.5, jdbc.queryForObject("SELECT rate FROM rate WHERE id = 7", Double.class), 0.0001);
+        assertEquals(501, jdbc.queryForObject("SELECT COUNT(*) FROM rate", Integer.class).intValue());
+        //table without watermark waits for reload
+        assertEquals("Finland", jdbc.queryForObject("SELECT title FROM country WHERE code = 'FI'", String.class));
+
+        //watermark moved: only rows at watermark itself are read again
+        long merged = replica.getRowsMerged();
+        replica.refresh();
+        assertEquals(2, replica.getRowsMerged() - merged);
+    }
+
+    @Test
+    public void reloadSwapsVersion() throws Exception {
+        replica.start();
+        Connection old = replica.getConnection();
+        try{
+            sourceJdbc.update("DELETE FROM country WHERE code = 'LV'");
+            sourceJdbc.update("UPDATE country SET title = 'Suomi' WHERE code = 'FI'");
+
+            H2DataSource version = replica.getCurrent();
+            replica.reload();
+            assertNotSame(version, replica.getCurrent());
+            assertEquals(2, replica.getReloadCount());
+
+            JdbcTemplate jdbc = new JdbcTemplate(replica);
+            assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM country", Integer.class).intValue());
+            assertEquals("Suomi", jdbc.queryForObject("SELECT title FROM country WHERE code = 'FI'", String.class));
+
+            //connection taken before reload still reads previous version
+            Statement statement = old.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM country");
+            rs.next();
+            assertEquals(3, rs.getInt(1));
+            rs.close();
+            statement.close();
+        } finally {
+            old.close();
+        }
+    }
+
+    @Test
+    public void scheduledRefresh() throws Exception {
+        replica.setRefreshInterval(50);
+        replica.start();
+        sourceJdbc.update("UPDATE rate SET currency = 'XXX', updated_at = TIMESTAMP '2014-01-03 00:00:00' WHERE id = 1");
+
+        JdbcTemplate jdbc = new JdbcTemplate(replica);
+        long deadline = System.currentTimeMillis() + 5000;
+        //refresh is counted after its rows are committed
+        while (!"XXX".equals(jdbc.queryForObject("SELECT currency FROM rate WHERE id = 1", String.class)) ||
+                replica.getRefreshCount()==0){
+            assertTrue("Refresh did not happen", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void notLoaded() throws SQLException {
+        replica.getConnection();
+    }
+}
@@ -0,0 +1,111 @@
+package net.virtalab.databazer.test.h2;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for warm-up of H2 databases
+ */
+public class H2WarmUpTest extends Assert {
+
+    private static File dir;
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        dir = File.createTempFile("databazer", "warmup");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+
+        JdbcTemplate jdbc = new JdbcTemplate(fileDb().create());
+        jdbc.execute("CREATE TABLE person(id INT PRIMARY KEY, name VARCHAR(50))");
+        jdbc.execute("CREATE INDEX person_name ON person(name)");
+        jdbc.update("INSERT INTO person SELECT X, 'name' || X FROM SYSTEM_RANGE(1, 1000)");
+    }
+
+    @AfterClass
+    public static void removeDatabase(){
+        File[] files = dir.listFiles();
+        if(files!=null){
+            for(File f: files){
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void notWarmedIsAlwaysReady(){
+        H2DataSource ds = fileDb().create();
+        assertTrue(ds.isReady());
+        assertFalse(ds.getUrl().contains("DB_CLOSE_DELAY"));
+    }
+
+    @Test
+    public void blockingWarmUp(){
+        H2DataSource ds = fileDb()
+                .warmUp("person")
+                .warmUpInBackground(false)
+                .create();
+
+        assertTrue(ds.isReady());
+        assertTrue(ds.getUrl().contains("DB_CLOSE_DELAY=-1"));
+
+        shutdown(ds);
+    }
+
+    @Test
+    public void backgroundParallelWarmUp() throws InterruptedException {
+        H2DataSource ds = fileDb()
+                .warmUp("person", "no_such_table")
+                .warmUpThreads(2)
+                .create();
+
+        //broken table should not block readiness
+        assertTrue(ds.awaitReady(30, TimeUnit.SECONDS));
+        int rows = new JdbcTemplate(ds).queryForObject("SELECT COUNT(*) FROM person", Integer.class);
+        assertEquals(1000,rows);
+
+        shutdown(ds);
+    }
+
+    @Test
+    public void customCloseDelayRespected(){
+        H2DataSource ds = fileDb()
+                .option("DB_CLOSE_DELAY","10")
+                .warmUp("person")
+                .warmUpInBackground(false)
+                .create();
+
+        assertTrue(ds.getUrl().contains("DB_CLOSE_DELAY=10"));
+        assertFalse(ds.getUrl().contains("DB_CLOSE_DELAY=-1"));
+
+        shutdown(ds);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongThreadCount(){
+        fileDb().warmUp("person").warmUpThreads(0).create();
+    }
+
+    private static H2DataSource.Creator fileDb(){
+        return H2DataSource.Creator()
+                .file().path(dir.getAbsolutePath()).databaseName("warm");
+    }
+
+    private static void shutdown(H2DataSource ds){
+        try{
+            new JdbcTemplate(ds).execute("SHUTDOWN");
+        } catch (RuntimeException e){
+            //closed
+        }
+    }
+}
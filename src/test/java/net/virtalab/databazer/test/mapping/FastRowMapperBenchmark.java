@@ -0,0 +1,81 @@
+package net.virtalab.databazer.test.mapping;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.mapping.FastRowMapper;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Rows per second and bytes allocated per row of {@link FastRowMapper} compared with reflection-based
+ * {@link BeanPropertyRowMapper} of Spring, and with hand-written mapper as lower bound.
+ * <p>
+ * Not a unit test: run it by hand, for example from IDE. Allocation is measured by HotSpot thread allocation counter.
+ */
+public class FastRowMapperBenchmark {
+    private static final int ROWS = 100000;
+    private static final int WARM_UP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+        H2DataSource ds = H2DataSource.Creator()
+                .mem().databaseName("mappingBenchmark")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE person(id BIGINT PRIMARY KEY, first_name VARCHAR(50), age INT, parent_id BIGINT, " +
+                "score DOUBLE, active BOOLEAN)");
+        jdbc.update("INSERT INTO person SELECT X, 'name' || MOD(X, 100), MOD(X, 90), X / 2, X / 3.0, MOD(X, 2) = 0 " +
+                "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+
+        RowMapper<?> manual = new RowMapper<FastRowMapperTest.Person>() {
+            public FastRowMapperTest.Person mapRow(ResultSet rs, int rowNum) throws SQLException {
+                FastRowMapperTest.Person person = new FastRowMapperTest.Person();
+                person.setId(rs.getLong(1));
+                person.setFirstName(rs.getString(2));
+                person.setAge(rs.getInt(3));
+                long parent = rs.getLong(4);
+                person.setParentId(rs.wasNull() ? null : parent);
+                person.setScore(rs.getDouble(5));
+                person.setActive(rs.getBoolean(6));
+                return person;
+            }
+        };
+
+        System.out.println("mapper\trows/s\tbytes/row");
+        run(jdbc, "manual", manual);
+        run(jdbc, "BeanPropertyRowMapper", new BeanPropertyRowMapper<FastRowMapperTest.Person>(FastRowMapperTest.Person.class));
+        run(jdbc, "FastRowMapper", new FastRowMapper<FastRowMapperTest.Person>(FastRowMapperTest.Person.class));
+        //query alone, without mapping
+        run(jdbc, "no mapping", null);
+    }
+
+    private static void run(JdbcTemplate jdbc, String name, final RowMapper<?> mapper){
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final Object[] sink = new Object[1];
+        long bestTime = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for(int run=0;run<WARM_UP + RUNS;run++){
+            long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long started = System.nanoTime();
+            jdbc.query("SELECT id, first_name, age, parent_id, score, active FROM person", new RowCallbackHandler() {
+                private int rowNum = 0;
+                public void processRow(ResultSet rs) throws SQLException {
+                    sink[0] = mapper==null ? null : mapper.mapRow(rs, this.rowNum++);
+                }
+            });
+            long took = System.nanoTime() - started;
+            bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+            if(run >= WARM_UP){
+                bestTime = Math.min(bestTime, took);
+                bestBytes = Math.min(bestBytes, bytes);
+            }
+        }
+        System.out.println(name + "\t" + (long) (ROWS / (bestTime / 1e9)) + "\t" + bestBytes / ROWS);
+    }
+}
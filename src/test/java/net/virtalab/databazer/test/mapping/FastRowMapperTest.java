@@ -0,0 +1,165 @@
+package net.virtalab.databazer.test.mapping;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.mapping.FastRowMapper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for generated row mapping
+ */
+public class FastRowMapperTest extends Assert {
+
+    private static H2DataSource ds;
+    private static JdbcTemplate jdbc;
+
+    @BeforeClass
+    public static void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("mapping")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE person(id BIGINT PRIMARY KEY, first_name VARCHAR(50), age INT, parent_id BIGINT, " +
+                "score DOUBLE, active BOOLEAN, salary DECIMAL(10,2), created TIMESTAMP, photo VARBINARY(10), extra VARCHAR(10))");
+        jdbc.update("INSERT INTO person VALUES(1, 'Ann', 31, NULL, 4.5, TRUE, 1000.50, TIMESTAMP '2014-05-01 12:00:00', X'0102', 'x')");
+        jdbc.update("INSERT INTO person VALUES(2, 'Bob', 7, 1, NULL, FALSE, NULL, NULL, NULL, 'y')");
+    }
+
+    @AfterClass
+    public static void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void mapAllTypes(){
+        List<Person> people = jdbc.query("SELECT * FROM person ORDER BY id", new FastRowMapper<Person>(Person.class));
+        assertEquals(2, people.size());
+
+        Person ann = people.get(0);
+        assertEquals(1L, ann.getId());
+        assertEquals("Ann", ann.getFirstName());
+        assertEquals(31, ann.getAge());
+        assertNull(ann.getParentId());
+        assertEquals(4.5, ann.getScore(), 0.0001);
+        assertTrue(ann.isActive());
+        assertEquals(new BigDecimal("1000.50"), ann.getSalary());
+        assertEquals(Timestamp.valueOf("2014-05-01 12:00:00"), ann.getCreated());
+        assertArrayEquals(new byte[]{1, 2}, ann.getPhoto());
+
+        Person bob = people.get(1);
+        assertEquals(Long.valueOf(1), bob.getParentId());
+        assertEquals(0.0, bob.getScore(), 0.0);
+        assertFalse(bob.isActive());
+        assertNull(bob.getSalary());
+        assertNull(bob.getCreated());
+    }
+
+    @Test
+    public void missingColumnsAreSkipped(){
+        FastRowMapper<Person> mapper = new FastRowMapper<Person>(Person.class);
+        Person ann = jdbc.queryForObject("SELECT first_name AS FIRSTNAME FROM person WHERE id = 1", mapper);
+        assertEquals("Ann", ann.getFirstName());
+        assertEquals(0, ann.getAge());
+
+        //same mapper, other shape of result
+        Person bob = jdbc.queryForObject("SELECT age, id FROM person WHERE id = 2", mapper);
+        assertEquals(7, bob.getAge());
+        assertEquals(2L, bob.getId());
+        assertNull(bob.getFirstName());
+    }
+
+    @Test
+    public void columnAliases(){
+        Item item = jdbc.queryForObject("SELECT id, first_name AS title FROM person WHERE id = 2", new FastRowMapper<Item>(Item.class));
+        assertEquals(2, item.getId());
+        assertEquals("Bob", item.getTitle());
+    }
+
+    @Test
+    public void interleavedResultSets() throws SQLException {
+        FastRowMapper<Person> mapper = new FastRowMapper<Person>(Person.class);
+        Connection connection = ds.getConnection();
+        try{
+            ResultSet first = connection.createStatement().executeQuery("SELECT id, first_name FROM person ORDER BY id");
+            ResultSet second = connection.createStatement().executeQuery("SELECT first_name, age, id FROM person ORDER BY id");
+            assertTrue(first.next());
+            assertTrue(second.next());
+            assertEquals("Ann", mapper.mapRow(first, 0).getFirstName());
+            assertEquals(31, mapper.mapRow(second, 0).getAge());
+
+            //plan of second result set is not used for first one
+            assertTrue(first.next());
+            Person bob = mapper.mapRow(first, 1);
+            assertEquals(2L, bob.getId());
+            assertEquals("Bob", bob.getFirstName());
+            assertEquals(0, bob.getAge());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noDefaultConstructor(){
+        new FastRowMapper<NoConstructor>(NoConstructor.class);
+    }
+
+    public static class Person {
+        private long id;
+        private String firstName;
+        private int age;
+        private Long parentId;
+        private double score;
+        private boolean active;
+        private BigDecimal salary;
+        private Date created;
+        private byte[] photo;
+        private char ignored;
+
+        public long getId() { return id; }
+        public void setId(long id) { this.id = id; }
+        public String getFirstName() { return firstName; }
+        public void setFirstName(String firstName) { this.firstName = firstName; }
+        public int getAge() { return age; }
+        public void setAge(int age) { this.age = age; }
+        public Long getParentId() { return parentId; }
+        public void setParentId(Long parentId) { this.parentId = parentId; }
+        public double getScore() { return score; }
+        public void setScore(double score) { this.score = score; }
+        public boolean isActive() { return active; }
+        public void setActive(boolean active) { this.active = active; }
+        public BigDecimal getSalary() { return salary; }
+        public void setSalary(BigDecimal salary) { this.salary = salary; }
+        public Date getCreated() { return created; }
+        public void setCreated(Date created) { this.created = created; }
+        public byte[] getPhoto() { return photo; }
+        public void setPhoto(byte[] photo) { this.photo = photo; }
+        public char getIgnored() { return ignored; }
+        public void setIgnored(char ignored) { this.ignored = ignored; }
+    }
+
+    public static class Item {
+        private int id;
+        private String title;
+
+        public int getId() { return id; }
+        public void setId(int id) { this.id = id; }
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+    }
+
+    public static class NoConstructor {
+        public NoConstructor(int id) {}
+    }
+}
@@ -0,0 +1,189 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.query.AsyncQuery;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+
+import java.sql.SQLTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for asynchronous queries
+ */
+public class AsyncQueryTest extends Assert {
+    private static final String LONG_QUERY = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b";
+
+    private static volatile CountDownLatch release;
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+    private AsyncQuery async;
+
+    /**
+     * SQL function, which holds query until test releases it
+     */
+    public static int hold(int value) throws InterruptedException {
+        if(!release.await(10, TimeUnit.SECONDS)){
+            throw new IllegalStateException("Query was not released");
+        }
+        return value;
+    }
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("async")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE ALIAS HOLD FOR \"" + AsyncQueryTest.class.getName() + ".hold\"");
+        jdbc.execute("CREATE TABLE item(id INT PRIMARY KEY, title VARCHAR(20))");
+        jdbc.update("INSERT INTO item VALUES(1, 'first'), (2, 'second')");
+        release = new CountDownLatch(1);
+        async = new AsyncQuery(ds);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        release.countDown();
+        async.stop(10, TimeUnit.SECONDS);
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void queryAndUpdateGiveResults() throws Exception {
+        async.start();
+        Future<Integer> updated = async.update("UPDATE item SET title = ? WHERE id = ?", "one", 1);
+        assertEquals(Integer.valueOf(1), updated.get(5, TimeUnit.SECONDS));
+
+        Future<List<String>> titles = async.query("SELECT title FROM item ORDER BY id",
+                new SingleColumnRowMapper<String>(String.class));
+        assertEquals(Arrays.asList("one", "second"), titles.get(5, TimeUnit.SECONDS));
+        assertEquals(2, async.getSubmittedCount());
+        assertEquals(2, async.getCompletedCount());
+        assertEquals(0, async.getFailedCount());
+    }
+
+    @Test
+    public void deadlineStopsStatement() throws Exception {
+        async.start();
+        Future<List<Long>> count = async.query(300, TimeUnit.MILLISECONDS, LONG_QUERY, new SingleColumnRowMapper<Long>(Long.class));
+        long started = System.currentTimeMillis();
+        try{
+            count.get(10, TimeUnit.SECONDS);
+            fail("Query should time out");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof SQLTimeoutException);
+        }
+        assertTrue("Statement was not cancelled at deadline", System.currentTimeMillis() - started < 5000);
+        assertEquals(1, async.getTimedOutCount());
+        assertEquals(1, async.getFailedCount());
+    }
+
+    @Test
+    public void cancelStopsStatement() throws Exception {
+        async.setMaxConnections(1);
+        async.start();
+        Future<List<Long>> count = async.query(LONG_QUERY, new SingleColumnRowMapper<Long>(Long.class));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (async.getActiveCount() < 1){
+            assertTrue("Query was not started", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertTrue(count.cancel(true));
+        try{
+            count.get();
+            fail("Query should be cancelled");
+        } catch (CancellationException e){
+            //expected
+        }
+        //connection is free again only when statement has stopped
+        Future<List<String>> titles = async.query("SELECT title FROM item ORDER BY id",
+                new SingleColumnRowMapper<String>(String.class));
+        assertEquals(2, titles.get(5, TimeUnit.SECONDS).size());
+        assertEquals(1, async.getCancelledCount());
+    }
+
+    @Test
+    public void fullQueueRejectsCalls() throws Exception {
+        async.setMaxConnections(1);
+        async.setQueueCapacity(1);
+        async.start();
+        Future<List<Integer>> held = async.query("SELECT HOLD(id) FROM item WHERE id = ?",
+                new SingleColumnRowMapper<Integer>(Integer.class), 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (async.getActiveCount() < 1){
+            assertTrue("Query was not started", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Future<List<Integer>> queued = async.query("SELECT id FROM item WHERE id = ?",
+                new SingleColumnRowMapper<Integer>(Integer.class), 2);
+        assertEquals(1, async.getQueueSize());
+        try{
+            async.query("SELECT id FROM item", new SingleColumnRowMapper<Integer>(Integer.class));
+            fail("Call should be rejected");
+        } catch (RejectedExecutionException e){
+            //expected
+        }
+        assertEquals(1, async.getRejectedCount());
+
+        release.countDown();
+        assertEquals(Arrays.asList(1), held.get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2), queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queuedCallFailsAfterDeadline() throws Exception {
+        async.setMaxConnections(1);
+        async.start();
+        Future<List<Integer>> held = async.query("SELECT HOLD(id) FROM item WHERE id = ?",
+                new SingleColumnRowMapper<Integer>(Integer.class), 1);
+        //deadline passes long before held call frees connection
+        ListenableFuture<List<Integer>> queued = async.query(1, TimeUnit.NANOSECONDS, "SELECT id FROM item",
+                new SingleColumnRowMapper<Integer>(Integer.class));
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        queued.addCallback(new ListenableFutureCallback<List<Integer>>() {
+            public void onSuccess(List<Integer> result) {
+            }
+
+            public void onFailure(Throwable t) {
+                failure.set(t);
+                failed.countDown();
+            }
+        });
+        assertEquals(1, async.getQueueSize());
+        release.countDown();
+        assertEquals(Arrays.asList(1), held.get(5, TimeUnit.SECONDS));
+        assertTrue("Queued call should fail", failed.await(5, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof SQLTimeoutException);
+        try{
+            queued.get();
+            fail("Queued call should time out");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof SQLTimeoutException);
+        }
+        assertEquals(1, async.getTimedOutCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notStartedRunnerRejectsCalls(){
+        async.update("DELETE FROM item");
+    }
+}
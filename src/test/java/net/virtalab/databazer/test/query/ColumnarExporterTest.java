@@ -0,0 +1,162 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.query.ColumnType;
+import net.virtalab.databazer.query.ColumnarExporter;
+import net.virtalab.databazer.query.ColumnarFile;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Tests for columnar export to mapped files
+ */
+public class ColumnarExporterTest extends Assert {
+
+    private static H2DataSource ds;
+
+    @BeforeClass
+    public static void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("columnarExport")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE payment(id BIGINT PRIMARY KEY, user_id INT, amount DOUBLE, " +
+                "paid TIMESTAMP, note VARCHAR(20))");
+        jdbc.update("INSERT INTO payment SELECT X, MOD(X, 10), X / 4.0, " +
+                "TIMESTAMP '2014-01-01 00:00:00', 'note' || X FROM SYSTEM_RANGE(1, 2500)");
+        //nulls and non-ASCII text
+        jdbc.update("UPDATE payment SET amount = NULL, user_id = NULL, note = NULL WHERE MOD(id, 1000) = 0");
+        jdbc.update("UPDATE payment SET note = 'платёж' WHERE id = 7");
+    }
+
+    @AfterClass
+    public static void tearDown(){
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void exportAndRead() throws SQLException, IOException {
+        File file = File.createTempFile("databazer", ".dbzc");
+        try{
+            ColumnarExporter exporter = new ColumnarExporter(ds);
+            exporter.setGroupSize(1000);
+            long rows = exporter.export(file, "SELECT id, user_id, amount, paid, note FROM payment WHERE id > ? ORDER BY id", 0);
+            assertEquals(2500, rows);
+
+            ColumnarFile columnar = ColumnarFile.open(file);
+            try{
+                assertEquals(2500, columnar.getRowCount());
+                assertEquals(3, columnar.getGroupCount());
+                assertEquals(1000, columnar.getGroupRowCount(0));
+                assertEquals(500, columnar.getGroupRowCount(2));
+                assertEquals(5, columnar.getColumnCount());
+                assertEquals("ID", columnar.getColumnName(0));
+                assertEquals(ColumnType.LONG, columnar.getColumnType(0));
+                assertEquals(ColumnType.INT, columnar.getColumnType(1));
+                assertEquals(ColumnType.DOUBLE, columnar.getColumnType(2));
+                assertEquals(ColumnType.OBJECT, columnar.getColumnType(4));
+
+                int id = columnar.getColumnIndex("id");
+                int amount = columnar.getColumnIndex("amount");
+                long idSum = 0;
+                double amountSum = 0;
+                for(int g=0;g<columnar.getGroupCount();g++){
+                    LongBuffer ids = columnar.getLongs(g, id);
+                    assertEquals(columnar.getGroupRowCount(g), ids.remaining());
+                    while (ids.hasRemaining()){
+                        idSum += ids.get();
+                    }
+                    DoubleBuffer amounts = columnar.getDoubles(g, amount);
+                    while (amounts.hasRemaining()){
+                        amountSum += amounts.get();
+                    }
+                }
+                assertEquals(2500L * 2501 / 2, idSum);
+                assertEquals((2500.0 * 2501 / 2 - 1000 - 2000) / 4, amountSum, 0.001);
+
+                IntBuffer users = columnar.getInts(1, 1);
+                assertEquals(1, users.get(0));
+                assertTrue(columnar.isNull(0, 1, 999));
+                assertFalse(columnar.isNull(0, 1, 998));
+                assertTrue(columnar.isNull(1, 2, 999));
+
+                assertEquals(Timestamp.valueOf("2014-01-01 00:00:00").getTime(), columnar.getLongs(2, 3).get(499));
+
+                assertEquals("note1", columnar.getString(0, 4, 0));
+                assertEquals("платёж", columnar.getString(0, 4, 6));
+                assertNull(columnar.getString(1, 4, 999));
+                assertEquals("note2500", columnar.getString(2, 4, 499));
+            } finally {
+                columnar.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void emptyResult() throws SQLException, IOException {
+        File file = File.createTempFile("databazer", ".dbzc");
+        try{
+            long rows = new ColumnarExporter(ds).export(file, "SELECT id, note FROM payment WHERE id < 0");
+            assertEquals(0, rows);
+            ColumnarFile columnar = ColumnarFile.open(file);
+            try{
+                assertEquals(0, columnar.getRowCount());
+                assertEquals(0, columnar.getGroupCount());
+                assertEquals("NOTE", columnar.getColumnName(1));
+            } finally {
+                columnar.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrongType() throws SQLException, IOException {
+        File file = File.createTempFile("databazer", ".dbzc");
+        try{
+            new ColumnarExporter(ds).export(file, "SELECT id FROM payment");
+            ColumnarFile columnar = ColumnarFile.open(file);
+            try{
+                columnar.getInts(0, 0);
+            } finally {
+                columnar.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notColumnarFile() throws IOException {
+        File file = File.createTempFile("databazer", ".dbzc");
+        try{
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[64]);
+            out.close();
+            ColumnarFile.open(file);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noGroupSize(){
+        new ColumnarExporter(ds).setGroupSize(0);
+    }
+}
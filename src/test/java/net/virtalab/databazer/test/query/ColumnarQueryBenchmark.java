@@ -0,0 +1,69 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.query.ColumnarQuery;
+import net.virtalab.databazer.query.ColumnarResult;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap retained by result and heap allocated while reading it: {@code queryForList} against {@link ColumnarQuery}.
+ * <p>
+ * Not a unit test: run it by hand, for example from IDE, with enough heap ({@code -Xmx2g}).
+ */
+public class ColumnarQueryBenchmark {
+    private static final int ROWS = 1000000;
+    private static final String SQL = "SELECT id, user_id, amount FROM payment";
+
+    public static void main(String[] args) throws Exception {
+        H2DataSource ds = H2DataSource.Creator()
+                .mem().databaseName("columnarBenchmark")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE payment(id BIGINT PRIMARY KEY, user_id INT, amount DOUBLE)");
+        jdbc.update("INSERT INTO payment SELECT X, MOD(X, 1000), X / 7.0 FROM SYSTEM_RANGE(1, " + ROWS + ")");
+
+        ColumnarQuery columnar = new ColumnarQuery(ds);
+        columnar.setInitialCapacity(ROWS);
+
+        System.out.println("reader\trows\tretained MB\tallocated MB\tms");
+        long allocated = allocated();
+        long heap = usedHeap();
+        long started = System.currentTimeMillis();
+        List<Map<String, Object>> rows = jdbc.queryForList(SQL);
+        report("queryForList", rows.size(), heap, allocated, started);
+        rows = null;
+
+        allocated = allocated();
+        heap = usedHeap();
+        started = System.currentTimeMillis();
+        ColumnarResult columns = columnar.query(SQL);
+        report("ColumnarQuery", columns.getRowCount(), heap, allocated, started);
+        //result should stay reachable while heap is measured
+        System.out.println(columns.getColumnCount() + " columns");
+    }
+
+    private static void report(String name, int rows, long heapBefore, long allocatedBefore, long started){
+        long took = System.currentTimeMillis() - started;
+        long allocated = allocated() - allocatedBefore;
+        long retained = usedHeap() - heapBefore;
+        System.out.println(name + "\t" + rows + "\t" + retained / (1 << 20) + "\t" + allocated / (1 << 20) + "\t" + took);
+    }
+
+    private static long allocated(){
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long usedHeap(){
+        for(int i=0;i<3;i++){
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,121 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.query.ColumnType;
+import net.virtalab.databazer.query.ColumnarQuery;
+import net.virtalab.databazer.query.ColumnarResult;
+import net.virtalab.databazer.query.ResultColumn;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Tests for columnar results
+ */
+public class ColumnarQueryTest extends Assert {
+
+    private static H2DataSource ds;
+
+    @BeforeClass
+    public static void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("columnar")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE payment(id BIGINT PRIMARY KEY, user_id INT, amount DECIMAL(10,2), ok BOOLEAN, " +
+                "paid TIMESTAMP, note VARCHAR(20))");
+        jdbc.update("INSERT INTO payment SELECT X, MOD(X, 10), X / 4.0, MOD(X, 3) = 0, " +
+                "TIMESTAMP '2014-01-01 00:00:00', 'note' || X FROM SYSTEM_RANGE(1, 5000)");
+        //nulls
+        jdbc.update("UPDATE payment SET amount = NULL, user_id = NULL, paid = NULL WHERE MOD(id, 1000) = 0");
+    }
+
+    @AfterClass
+    public static void tearDown(){
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void readColumns() throws SQLException {
+        ColumnarQuery query = new ColumnarQuery(ds);
+        query.setInitialCapacity(16);
+        ColumnarResult result = query.query("SELECT id, user_id, amount, ok, paid, note FROM payment WHERE id <= ? ORDER BY id", 4000);
+
+        assertEquals(4000, result.getRowCount());
+        assertEquals(6, result.getColumnCount());
+
+        ResultColumn id = result.getColumn("ID");
+        assertEquals(ColumnType.LONG, id.getType());
+        assertEquals(4000, id.getLongs().length);
+        assertEquals(4000L, id.getLongs()[3999]);
+
+        ResultColumn userId = result.getColumn("user_id");
+        assertEquals(ColumnType.INT, userId.getType());
+        assertEquals(3, userId.getInts()[2]);
+        assertTrue(userId.isNull(999));
+        assertEquals(0, userId.getInts()[999]);
+        assertEquals(4, userId.getNulls().cardinality());
+
+        ResultColumn amount = result.getColumn("amount");
+        assertEquals(ColumnType.DOUBLE, amount.getType());
+        double sum = 0;
+        for(double value: amount.getDoubles()){
+            sum += value;
+        }
+        assertEquals((4000.0 * 4001 / 2 - (1000 + 2000 + 3000 + 4000)) / 4, sum, 0.001);
+
+        assertEquals(ColumnType.INT, result.getColumn("ok").getType());
+        assertEquals(1, result.getColumn("ok").getInts()[2]);
+        assertEquals(Timestamp.valueOf("2014-01-01 00:00:00").getTime(), result.getColumn("paid").getLong(0));
+
+        ResultColumn note = result.getColumn(5);
+        assertEquals(ColumnType.OBJECT, note.getType());
+        assertEquals("note1", note.getObjects()[0]);
+
+        assertTrue(result.getMemoryBytes() > 0);
+    }
+
+    @Test
+    public void offHeap() throws SQLException {
+        ColumnarQuery query = new ColumnarQuery(ds);
+        query.setOffHeap(true);
+        query.setInitialCapacity(10);
+        ColumnarResult result = query.query("SELECT id, amount, note FROM payment ORDER BY id");
+
+        ResultColumn id = result.getColumn("id");
+        assertTrue(id.isOffHeap());
+        LongBuffer ids = id.getLongBuffer();
+        assertEquals(5000, ids.remaining());
+        assertEquals(1L, ids.get(0));
+        assertEquals(5000L, ids.get(4999));
+
+        DoubleBuffer amounts = result.getColumn("amount").getDoubleBuffer();
+        assertEquals(1.25, amounts.get(4), 0.0001);
+        assertEquals(1.25, result.getColumn("amount").getDouble(4), 0.0001);
+        assertTrue(result.getColumn("amount").isNull(999));
+
+        //strings stay on heap
+        assertFalse(result.getColumn("note").isOffHeap());
+        assertEquals("note5000", result.getColumn("note").getObjects()[4999]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrongType() throws SQLException {
+        new ColumnarQuery(ds).query("SELECT id FROM payment").getColumn("id").getDoubles();
+    }
+
+    @Test
+    public void emptyResult() throws SQLException {
+        ColumnarResult result = new ColumnarQuery(ds).query("SELECT id FROM payment WHERE id < 0");
+        assertEquals(0, result.getRowCount());
+        assertEquals(0, result.getColumn("id").getLongs().length);
+    }
+}
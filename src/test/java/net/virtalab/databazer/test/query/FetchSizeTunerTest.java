@@ -0,0 +1,142 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.cache.QueryCache;
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.query.FetchSizeTuner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Tests for tuning of fetch size
+ */
+public class FetchSizeTunerTest extends Assert {
+    private static final String LOOKUP = "SELECT title FROM item WHERE id = ?";
+    private static final String SCAN = "SELECT id, title FROM item";
+
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+    private FetchSizeTuner tuner;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("fetchSize")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE item(id INT PRIMARY KEY, title VARCHAR(100))");
+        jdbc.update("INSERT INTO item SELECT X, 'title of item number ' || X FROM SYSTEM_RANGE(1, 5000)");
+        tuner = new FetchSizeTuner();
+        ds.setFetchSizeTuner(tuner);
+    }
+
+    @After
+    public void tearDown(){
+        ds.setFetchSizeTuner(null);
+        ds.setQueryCache(null);
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void lookupGetsSmallFetchSize() throws SQLException {
+        assertEquals(0, tuner.getFetchSize(LOOKUP));
+        jdbc.queryForObject(LOOKUP, String.class, 1);
+        assertEquals(2, tuner.getFetchSize(LOOKUP));
+        assertEquals(2, this.executedFetchSize(LOOKUP, 2));
+        assertEquals(1, tuner.getTunedCount());
+    }
+
+    @Test
+    public void scanGetsFetchSizeWithinLimits() throws SQLException {
+        jdbc.query(SCAN, new ColumnMapRowMapper());
+        int fetchSize = tuner.getFetchSize(SCAN);
+        assertTrue("Fetch size " + fetchSize + " does not cover scan", fetchSize > 5000);
+        assertEquals(fetchSize, this.executedFetchSize(SCAN, null));
+
+        tuner.setMaxFetchSize(1000);
+        jdbc.query(SCAN, new ColumnMapRowMapper());
+        assertEquals(1000, tuner.getFetchSize(SCAN));
+
+        //row of INT and ~45 chars is about 100 bytes
+        tuner.setMaxBufferBytes(10000);
+        jdbc.query(SCAN, new ColumnMapRowMapper());
+        fetchSize = tuner.getFetchSize(SCAN);
+        assertTrue("Fetch size " + fetchSize + " does not fit into memory limit", fetchSize > 10 && fetchSize < 500);
+    }
+
+    @Test
+    public void fetchSizeOfApplicationIsKept() throws SQLException {
+        jdbc.queryForObject(LOOKUP, String.class, 1);
+        Connection connection = ds.getConnection();
+        try{
+            PreparedStatement statement = connection.prepareStatement(LOOKUP);
+            statement.setFetchSize(7);
+            statement.setInt(1, 1);
+            ResultSet rs = statement.executeQuery();
+            rs.close();
+            assertEquals(7, statement.getFetchSize());
+            statement.close();
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+        assertEquals(0, tuner.getTunedCount());
+    }
+
+    @Test
+    public void fetchSizeFollowsMaxRows() throws SQLException {
+        JdbcTemplate limited = new JdbcTemplate(ds);
+        limited.setMaxRows(5);
+        assertEquals(5, limited.query(SCAN, new ColumnMapRowMapper()).size());
+        jdbc.query(SCAN, new ColumnMapRowMapper());
+        assertTrue(tuner.getFetchSize(SCAN) > 5);
+        assertEquals(5, limited.query(SCAN, new ColumnMapRowMapper()).size());
+
+        Connection connection = ds.getConnection();
+        try{
+            PreparedStatement statement = connection.prepareStatement(SCAN);
+            statement.setMaxRows(5);
+            statement.executeQuery().close();
+            assertEquals(5, statement.getFetchSize());
+            statement.close();
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    @Test
+    public void cachedResultsAreNotMeasured(){
+        ds.setQueryCache(new QueryCache());
+        jdbc.queryForObject(LOOKUP, String.class, 1);
+        jdbc.queryForObject(LOOKUP, String.class, 1);
+        jdbc.queryForObject(LOOKUP, String.class, 1);
+        assertEquals(1, tuner.getObservedCount());
+        assertEquals(1, tuner.getStatementCount());
+    }
+
+    private int executedFetchSize(String sql, Integer param) throws SQLException {
+        Connection connection = ds.getConnection();
+        try{
+            PreparedStatement statement = connection.prepareStatement(sql);
+            if(param!=null){
+                statement.setInt(1, param);
+            }
+            ResultSet rs = statement.executeQuery();
+            int fetchSize = statement.getFetchSize();
+            rs.close();
+            statement.close();
+            return fetchSize;
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.mysql.MySQLDataSource;
+import net.virtalab.databazer.query.MultiStatement;
+import net.virtalab.databazer.test.driver.RecordingDriver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests for statements run together
+ */
+public class MultiStatementTest extends Assert {
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("multi")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE item(id INT PRIMARY KEY, title VARCHAR(20))");
+        jdbc.update("INSERT INTO item VALUES(1, 'first'), (2, 'second')");
+    }
+
+    @After
+    public void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void resultsComeInOrder() throws SQLException {
+        MultiStatement multi = new MultiStatement(ds);
+        multi.query("SELECT title FROM item WHERE id = ?", new SingleColumnRowMapper<String>(String.class), 1)
+                .update("INSERT INTO item VALUES(?, ?)", 3, "third")
+                .update("INSERT INTO item VALUES(?, ?)", 4, "fourth")
+                .update("INSERT INTO item VALUES(?, ?);", 5, "fifth")
+                .update("UPDATE item SET title = 'one' WHERE id = 1")
+                .update("DELETE FROM item WHERE id = 2")
+                .query("SELECT id FROM item ORDER BY id", new SingleColumnRowMapper<Integer>(Integer.class));
+        assertEquals(7, multi.size());
+
+        List<Object> results = multi.execute();
+        assertEquals(7, results.size());
+        assertEquals(Collections.singletonList("first"), results.get(0));
+        assertEquals(1, results.get(1));
+        assertEquals(1, results.get(2));
+        assertEquals(1, results.get(3));
+        assertEquals(1, results.get(4));
+        assertEquals(1, results.get(5));
+        assertEquals(Arrays.asList(1, 3, 4, 5), results.get(6));
+        //query, batch of inserts, batch of plain updates, query
+        assertEquals(4, multi.getRoundTrips());
+        assertEquals("one", jdbc.queryForObject("SELECT title FROM item WHERE id = 1", String.class));
+    }
+
+    @Test
+    public void failureStopsExecution(){
+        MultiStatement multi = new MultiStatement(ds);
+        multi.update("UPDATE item SET title = ? WHERE id = ?", "one", 1)
+                .update("INSERT INTO item VALUES(2, 'again')")
+                .update("UPDATE item SET title = ? WHERE id = ?", "three", 3)
+                .query("SELECT id FROM item", new SingleColumnRowMapper<Integer>(Integer.class));
+        try{
+            multi.execute();
+            fail("Duplicate key should fail");
+        } catch (SQLException e){
+            //expected
+        }
+        //statements before failed one are done
+        assertEquals("one", jdbc.queryForObject("SELECT title FROM item WHERE id = 1", String.class));
+        assertEquals(2, multi.getRoundTrips());
+    }
+
+    @Test
+    public void emptyMultiStatement() throws SQLException {
+        MultiStatement multi = new MultiStatement(ds);
+        assertTrue(multi.execute().isEmpty());
+        multi.update("DELETE FROM item");
+        multi.clear();
+        assertTrue(multi.execute().isEmpty());
+        assertEquals(0, multi.getRoundTrips());
+        assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM item", Integer.class).intValue());
+    }
+
+    @Test
+    public void multiQueriesAreSentAtOnce() throws SQLException {
+        RecordingDriver driver = new RecordingDriver();
+        MySQLDataSource mysql = MySQLDataSource.Creator().driver(driver).option("ALLOWMULTIQUERIES", "True").create();
+        driver.results(Arrays.asList("a"), 2, Arrays.asList("b", "c"));
+
+        List<Object> results = joined(mysql).execute();
+        assertEquals(Arrays.<Object>asList(Arrays.asList("a"), 2, Arrays.asList("b", "c")), results);
+        assertEquals(Arrays.asList(
+                "prepareStatement[SELECT a;\nUPDATE b SET x = ?;\nSELECT c]",
+                "setObject[1, 5]",
+                "execute[]",
+                "getResultSet[]", "getMoreResults[]",
+                "getUpdateCount[]", "getMoreResults[]",
+                "getResultSet[]", "getMoreResults[]"), statementCalls(driver));
+    }
+
+    @Test
+    public void multiQueriesOfConnectionProperties() throws SQLException {
+        RecordingDriver driver = new RecordingDriver();
+        MySQLDataSource mysql = MySQLDataSource.Creator().driver(driver).create();
+        Properties properties = new Properties();
+        properties.setProperty("allowmultiqueries", "yes");
+        mysql.setConnectionProperties(properties);
+        driver.results(Arrays.asList("a"), 2, Arrays.asList("b", "c"));
+
+        MultiStatement multi = joined(mysql);
+        multi.execute();
+        assertEquals(1, multi.getRoundTrips());
+        assertEquals(1, Collections.frequency(statementCalls(driver), "execute[]"));
+    }
+
+    @Test
+    public void multiQueriesOffAtUrl() throws SQLException {
+        RecordingDriver driver = new RecordingDriver();
+        MySQLDataSource mysql = MySQLDataSource.Creator().driver(driver).option("allowMultiQueries", "false").create();
+        driver.results(Arrays.asList("a"), 2, Arrays.asList("b", "c"));
+
+        MultiStatement multi = joined(mysql);
+        multi.execute();
+        assertEquals(3, multi.getRoundTrips());
+        assertFalse(statementCalls(driver).contains("execute[]"));
+    }
+
+    private static MultiStatement joined(MySQLDataSource mysql){
+        RowMapper<Object> value = new RowMapper<Object>() {
+            public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return rs.getObject(1);
+            }
+        };
+        return new MultiStatement(mysql)
+                .query("SELECT a", value)
+                .update("UPDATE b SET x = ?", 5)
+                .query("SELECT c;", value);
+    }
+
+    private static List<String> statementCalls(RecordingDriver driver){
+        List<String> calls = new ArrayList<String>();
+        for(String call: driver.getCalls()){
+            if(call.startsWith("prepare") || call.startsWith("set") || call.startsWith("execute") || call.startsWith("get")){
+                calls.add(call);
+            }
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,142 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.Vendor;
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.mysql.MySQLDataSource;
+import net.virtalab.databazer.query.RowIterator;
+import net.virtalab.databazer.query.StreamingQuery;
+import net.virtalab.databazer.test.driver.RecordingDriver;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Tests for streaming queries
+ */
+public class StreamingQueryTest extends Assert {
+
+    private static final RowCallbackHandler NOTHING = new RowCallbackHandler() {
+        public void processRow(ResultSet rs) throws SQLException {
+            //rows are only counted
+        }
+    };
+
+    private static H2DataSource ds;
+
+    @BeforeClass
+    public static void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("streaming")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE item(id INT PRIMARY KEY, title VARCHAR(50))");
+        jdbc.update("INSERT INTO item SELECT X, 'item' || X FROM SYSTEM_RANGE(1, 10000)");
+    }
+
+    @AfterClass
+    public static void tearDown(){
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void vendorDetected(){
+        assertEquals(Vendor.H2, new StreamingQuery(ds).getVendor());
+        assertEquals(Vendor.MYSQL, new StreamingQuery(MySQLDataSource.Creator().create()).getVendor());
+        assertEquals(Vendor.OTHER, Vendor.of("jdbc:postgresql://localhost/db"));
+    }
+
+    @Test
+    public void iterateAllRows() throws SQLException {
+        StreamingQuery query = new StreamingQuery(ds);
+        query.setFetchSize(100);
+
+        RowIterator<Integer> ids = query.iterate("SELECT id FROM item WHERE id > ? ORDER BY id",
+                new SingleColumnRowMapper<Integer>(Integer.class), 5000);
+        int expected = 5001;
+        while (ids.hasNext()){
+            assertEquals(Integer.valueOf(expected++), ids.next());
+        }
+        assertEquals(10001, expected);
+        assertTrue("Exhausted iterator is not closed", ids.isClosed());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void earlyClose() throws SQLException {
+        RowIterator<Integer> ids = new StreamingQuery(ds).iterate("SELECT id FROM item",
+                new SingleColumnRowMapper<Integer>(Integer.class));
+        assertTrue(ids.hasNext());
+        ids.next();
+        ids.close();
+
+        assertFalse(ids.hasNext());
+        ids.next();
+    }
+
+    @Test
+    public void forEachRow() throws SQLException {
+        final long[] sum = {0};
+        long rows = new StreamingQuery(ds).forEach("SELECT id FROM item", new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                sum[0] += rs.getInt(1);
+            }
+        });
+        assertEquals(10000, rows);
+        assertEquals(10000L * 10001 / 2, sum[0]);
+    }
+
+    @Test
+    public void mysqlStreamsRowByRow() throws SQLException {
+        RecordingDriver driver = new RecordingDriver();
+        MySQLDataSource mysql = MySQLDataSource.Creator().driver(driver).create();
+        driver.results(Arrays.asList(1, 2, 3));
+
+        assertEquals(3, new StreamingQuery(mysql).forEach("SELECT id FROM item WHERE id > ?", NOTHING, 0));
+        assertEquals(Arrays.asList(
+                "prepareStatement[SELECT id FROM item WHERE id > ?, " + ResultSet.TYPE_FORWARD_ONLY + ", " + ResultSet.CONCUR_READ_ONLY + "]",
+                "setFetchSize[" + Integer.MIN_VALUE + "]",
+                "setObject[1, 0]",
+                "executeQuery[]"), statementCalls(driver));
+    }
+
+    @Test
+    public void mysqlCursorFetch() throws SQLException {
+        RecordingDriver driver = new RecordingDriver();
+        MySQLDataSource mysql = MySQLDataSource.Creator().driver(driver).option("useCursorFetch", "true").create();
+        driver.results(Arrays.asList(1, 2, 3));
+
+        StreamingQuery query = new StreamingQuery(mysql);
+        query.setFetchSize(500);
+        assertEquals(3, query.forEach("SELECT id FROM item", NOTHING));
+        assertEquals(Arrays.asList(
+                "prepareStatement[SELECT id FROM item, " + ResultSet.TYPE_FORWARD_ONLY + ", " + ResultSet.CONCUR_READ_ONLY + "]",
+                "setFetchSize[500]",
+                "executeQuery[]"), statementCalls(driver));
+    }
+
+    private static List<String> statementCalls(RecordingDriver driver){
+        List<String> calls = new ArrayList<String>();
+        for(String call: driver.getCalls()){
+            if(call.startsWith("prepare") || call.startsWith("set") || call.startsWith("execute")){
+                calls.add(call);
+            }
+        }
+        return calls;
+    }
+
+    @Test(expected = SQLException.class)
+    public void brokenQuery() throws SQLException {
+        new StreamingQuery(ds).iterate("SELECT nothing FROM nowhere", new SingleColumnRowMapper<Object>());
+    }
+}
@@ -0,0 +1,187 @@
+package net.virtalab.databazer.test.query;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.query.RowConsumer;
+import net.virtalab.databazer.query.TableScanner;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Tests for parallel table scanner
+ */
+public class TableScannerTest extends Assert {
+
+    private static H2DataSource ds;
+
+    @BeforeClass
+    public static void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("scanner")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE item(id BIGINT PRIMARY KEY, title VARCHAR(50))");
+        jdbc.update("INSERT INTO item SELECT X, 'item' || X FROM SYSTEM_RANGE(1, 20000)");
+        //most rows are at the start, few are far away
+        jdbc.execute("CREATE TABLE skewed(id BIGINT PRIMARY KEY)");
+        jdbc.update("INSERT INTO skewed SELECT X FROM SYSTEM_RANGE(1, 9000)");
+        jdbc.update("INSERT INTO skewed SELECT X * 1000000 FROM SYSTEM_RANGE(1, 1000)");
+        jdbc.execute("CREATE TABLE empty(id BIGINT PRIMARY KEY)");
+    }
+
+    @AfterClass
+    public static void tearDown(){
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void everyRowOnce() throws Exception {
+        TableScanner scanner = new TableScanner(ds, "item", "id");
+        scanner.setColumns("id");
+        scanner.setThreads(4);
+        scanner.setPageSize(300);
+        scanner.setBufferSize(50);
+
+        final BitSet seen = new BitSet();
+        long rows = scanner.scan(new SingleColumnRowMapper<Long>(Long.class), new RowConsumer<Long>() {
+            public void accept(Long id) {
+                assertFalse("Row " + id + " seen twice", seen.get(id.intValue()));
+                seen.set(id.intValue());
+            }
+        });
+        assertEquals(20000, rows);
+        assertEquals(20000, seen.cardinality());
+        assertEquals(1, seen.nextSetBit(0));
+    }
+
+    @Test
+    public void equalWidthRanges() throws SQLException {
+        TableScanner scanner = new TableScanner(ds, "item", "id");
+        scanner.setRangeCount(4);
+        List<long[]> ranges = scanner.split();
+
+        assertEquals(4, ranges.size());
+        assertEquals(0, ranges.get(0)[0]);
+        assertEquals(5000, ranges.get(0)[1]);
+        assertEquals(20000, ranges.get(3)[1]);
+        for(int i=1;i<ranges.size();i++){
+            assertEquals(ranges.get(i-1)[1], ranges.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void sampledRangesFollowData() throws Exception {
+        TableScanner scanner = new TableScanner(ds, "skewed", "id");
+        scanner.setRangeCount(10);
+        scanner.setSampleRate(0.2);
+        List<long[]> ranges = scanner.split();
+
+        assertTrue(ranges.size() > 5);
+        //equal width would put 9000 rows into first range, sample puts there about tenth of table
+        assertTrue("First range is too wide", ranges.get(0)[1] < 9000);
+        assertEquals(1000000000L, ranges.get(ranges.size() - 1)[1]);
+
+        final long[] sum = {0};
+        long rows = scanner.scan(new SingleColumnRowMapper<Long>(Long.class), new RowConsumer<Long>() {
+            public void accept(Long id) {
+                sum[0] += id;
+            }
+        });
+        assertEquals(10000, rows);
+        assertEquals(9000L * 9001 / 2 + 1000000L * 1000 * 1001 / 2, sum[0]);
+    }
+
+    @Test
+    public void nullRowsArePassed() throws Exception {
+        TableScanner scanner = new TableScanner(ds, "item", "id");
+        scanner.setColumns("id, CASE WHEN MOD(id, 2) = 0 THEN NULL ELSE title END AS title");
+        final int[] nulls = new int[1];
+        long rows = scanner.scan(new RowMapper<String>() {
+            public String mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return rs.getString("title");
+            }
+        }, new RowConsumer<String>() {
+            public void accept(String row) {
+                if(row==null){
+                    nulls[0]++;
+                }
+            }
+        });
+        assertEquals(20000, rows);
+        assertEquals(10000, nulls[0]);
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        TableScanner scanner = new TableScanner(ds, "empty", "id");
+        assertTrue(scanner.split().isEmpty());
+        assertEquals(0, scanner.scan(new SingleColumnRowMapper<Long>(Long.class), new RowConsumer<Long>() {
+            public void accept(Long id) {
+                fail("Empty table has no rows");
+            }
+        }));
+    }
+
+    @Test(expected = SQLException.class)
+    public void consumerStopsScan() throws Exception {
+        TableScanner scanner = new TableScanner(ds, "item", "id");
+        scanner.setColumns("id");
+        scanner.setBufferSize(10);
+        scanner.scan(new SingleColumnRowMapper<Long>(Long.class), new RowConsumer<Long>() {
+            public void accept(Long id) throws SQLException {
+                throw new SQLException("Consumer failed");
+            }
+        });
+    }
+
+    @Test
+    public void stoppedScanFreesWorkers() throws Exception {
+        TableScanner scanner = new TableScanner(ds, "item", "id");
+        scanner.setColumns("id");
+        scanner.setBufferSize(1);
+        try{
+            scanner.scan(new SingleColumnRowMapper<Long>(Long.class), new RowConsumer<Long>() {
+                public void accept(Long id) throws SQLException {
+                    throw new SQLException("Consumer failed");
+                }
+            });
+            fail("Scan should fail");
+        } catch (SQLException e){
+            //expected
+        }
+        //workers wait at full buffer when consumer stops, they should end anyway
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scanThreads() > 0){
+            assertTrue("Scan threads are still alive", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void brokenTable() throws Exception {
+        new TableScanner(ds, "nowhere", "id").scan(new SingleColumnRowMapper<Long>(Long.class), new RowConsumer<Long>() {
+            public void accept(Long id) {
+            }
+        });
+    }
+
+    private static int scanThreads(){
+        int count = 0;
+        for(Thread thread: Thread.getAllStackTraces().keySet()){
+            if(thread.getName().startsWith("databazer-scan-item-")){
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,113 @@
+package net.virtalab.databazer.test.spring;
+
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.h2.H2DatabasePool;
+import net.virtalab.databazer.spring.DataSourceStartup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for parallel startup of DataSources
+ */
+public class DataSourceStartupTest extends Assert {
+    private static final String BROKEN_URL = "jdbc:h2:tcp://localhost:1/nothing";
+
+    private GenericApplicationContext context;
+    private RootBeanDefinition startupDefinition;
+    private H2DataSource template;
+
+    @Before
+    public void setUp(){
+        template = H2DataSource.Creator()
+                .mem().databaseName("startup")
+                .option("DB_CLOSE_DELAY","-1")
+                .create();
+        JdbcTemplate jdbc = new JdbcTemplate(template);
+        jdbc.execute("CREATE TABLE person(id INT PRIMARY KEY, name VARCHAR(100))");
+        jdbc.update("INSERT INTO person SELECT X, 'person ' || X FROM SYSTEM_RANGE(1, 1000)");
+
+        context = new GenericApplicationContext();
+        startupDefinition = new RootBeanDefinition(DataSourceStartup.class);
+        context.registerBeanDefinition("startup", startupDefinition);
+    }
+
+    @After
+    public void tearDown(){
+        if(context.isActive()){
+            context.close();
+        }
+        new JdbcTemplate(template).execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void allDataSourcesReadyAtRefresh() throws InterruptedException {
+        H2DataSource warmed = H2DataSource.Creator()
+                .url(template.getUrl())
+                .warmUp("person")
+                .warmUpInBackground(true)
+                .create();
+        H2DatabasePool pool = new H2DatabasePool(Arrays.asList("CREATE TABLE item(id INT PRIMARY KEY)"), 3);
+        //held by some bean during startup
+        H2DataSource held = pool.acquire();
+        try{
+            context.getBeanFactory().registerSingleton("template", template);
+            context.getBeanFactory().registerSingleton("warmed", warmed);
+            context.getBeanFactory().registerSingleton("plain", new H2DataSource());
+            context.getBeanFactory().registerSingleton("pool", pool);
+            context.refresh();
+
+            DataSourceStartup startup = context.getBean(DataSourceStartup.class);
+            assertTrue(startup.isRunning());
+            assertTrue(startup.awaitReady(0, TimeUnit.MILLISECONDS));
+            assertTrue(warmed.isReady());
+            assertEquals(2, pool.getReadyCount());
+            pool.release(held);
+            Map<String, Long> timings = startup.getTimings();
+            assertEquals(new HashSet<String>(Arrays.asList("template", "warmed", "plain", "pool")), timings.keySet());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void brokenDataSourceFailsRefresh(){
+        H2DataSource broken = new H2DataSource();
+        broken.setUrl(BROKEN_URL);
+        context.getBeanFactory().registerSingleton("template", template);
+        context.getBeanFactory().registerSingleton("broken", broken);
+        try{
+            context.refresh();
+            fail("Refresh should fail");
+        } catch (RuntimeException e){
+            Throwable cause = e;
+            while (!(cause instanceof IllegalStateException) && cause.getCause()!=null){
+                cause = cause.getCause();
+            }
+            assertTrue(cause.getMessage(), cause.getMessage().contains("[broken]"));
+        }
+    }
+
+    @Test
+    public void excludedDataSourceIsLeftAsIs(){
+        H2DataSource broken = new H2DataSource();
+        broken.setUrl(BROKEN_URL);
+        context.getBeanFactory().registerSingleton("broken", broken);
+        startupDefinition.getPropertyValues().add("excludedBeans", Collections.singleton("broken"));
+        context.refresh();
+
+        DataSourceStartup startup = context.getBean(DataSourceStartup.class);
+        assertTrue(startup.isRunning());
+        assertTrue(startup.getTimings().isEmpty());
+    }
+}
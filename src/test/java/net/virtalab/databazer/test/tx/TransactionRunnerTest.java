@@ -0,0 +1,169 @@
+package net.virtalab.databazer.test.tx;
+
+import net.virtalab.databazer.Vendor;
+import net.virtalab.databazer.h2.H2DataSource;
+import net.virtalab.databazer.tx.TransactionRunner;
+import net.virtalab.databazer.tx.TransactionWork;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for retries of transactions
+ */
+public class TransactionRunnerTest extends Assert {
+    private H2DataSource ds;
+    private JdbcTemplate jdbc;
+    private TransactionRunner runner;
+
+    @Before
+    public void setUp(){
+        ds = H2DataSource.Creator()
+                .mem().databaseName("retry")
+                .option("DB_CLOSE_DELAY","-1")
+                .option("LOCK_TIMEOUT","100")
+                .create();
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE account(id INT PRIMARY KEY, balance INT)");
+        jdbc.update("INSERT INTO account VALUES(1, 100)");
+        runner = new TransactionRunner(ds);
+        runner.setInitialBackoff(20);
+        runner.setMaxBackoff(100);
+    }
+
+    @After
+    public void tearDown(){
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void lockTimeoutIsRetried() throws Exception {
+        runner.setMaxAttempts(50);
+        final Connection holder = ds.getConnection();
+        holder.setAutoCommit(false);
+        holder.createStatement().executeUpdate("UPDATE account SET balance = balance - 10 WHERE id = 1");
+        Thread releaser = new Thread(new Runnable() {
+            public void run() {
+                try{
+                    Thread.sleep(300);
+                    holder.commit();
+                    holder.close();
+                } catch (Exception e){
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        releaser.start();
+
+        int updated = runner.execute(new TransactionWork<Integer>() {
+            public Integer run(Connection connection) throws SQLException {
+                Statement statement = connection.createStatement();
+                try{
+                    return statement.executeUpdate("UPDATE account SET balance = balance + 5 WHERE id = 1");
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+        releaser.join();
+
+        assertEquals(1, updated);
+        assertEquals(95, jdbc.queryForObject("SELECT balance FROM account WHERE id = 1", Integer.class).intValue());
+        assertTrue(runner.getRetryCount() > 0);
+        assertEquals(1, runner.getRecoveredCount());
+        assertEquals(1, runner.getTransactionCount());
+    }
+
+    @Test
+    public void failedRunIsRolledBack() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        String result = runner.execute(new TransactionWork<String>() {
+            public String run(Connection connection) throws SQLException {
+                connection.createStatement().executeUpdate("UPDATE account SET balance = balance + 1 WHERE id = 1");
+                if(runs.incrementAndGet() < 3){
+                    throw new SQLException("Deadlock detected", "40001", 40001);
+                }
+                return "done";
+            }
+        });
+        assertEquals("done", result);
+        assertEquals(3, runs.get());
+        assertEquals(2, runner.getRetryCount());
+        assertEquals(101, jdbc.queryForObject("SELECT balance FROM account WHERE id = 1", Integer.class).intValue());
+    }
+
+    @Test
+    public void otherFailuresAreNotRetried(){
+        final AtomicInteger runs = new AtomicInteger();
+        try{
+            runner.execute(new TransactionWork<Object>() {
+                public Object run(Connection connection) throws SQLException {
+                    runs.incrementAndGet();
+                    return connection.createStatement().executeUpdate("INSERT INTO account VALUES(1, 0)");
+                }
+            });
+            fail("Duplicate key should fail");
+        } catch (SQLException e){
+            //expected
+        }
+        assertEquals(1, runs.get());
+        assertEquals(0, runner.getRetryCount());
+    }
+
+    @Test
+    public void attemptsAreLimited(){
+        runner.setMaxAttempts(3);
+        final AtomicInteger runs = new AtomicInteger();
+        try{
+            runner.execute(new TransactionWork<Object>() {
+                public Object run(Connection connection) throws SQLException {
+                    runs.incrementAndGet();
+                    throw new SQLException("Timeout trying to lock table", "HYT00", 50200);
+                }
+            });
+            fail("Conflict should be thrown after last attempt");
+        } catch (SQLException e){
+            assertEquals(50200, e.getErrorCode());
+        }
+        assertEquals(3, runs.get());
+        assertEquals(1, runner.getExhaustedCount());
+    }
+
+    @Test
+    public void retriesAreLimitedByBudget(){
+        runner.setMaxAttempts(100);
+        runner.setRetryBudget(0);
+        final AtomicInteger runs = new AtomicInteger();
+        try{
+            runner.execute(new TransactionWork<Object>() {
+                public Object run(Connection connection) throws SQLException {
+                    runs.incrementAndGet();
+                    throw new SQLException("Deadlock detected", "40001", 40001);
+                }
+            });
+            fail("Conflict should be thrown when budget is spent");
+        } catch (SQLException e){
+            //expected
+        }
+        //reserve for bursts is 10 retries
+        assertEquals(11, runs.get());
+        assertEquals(1, runner.getBudgetExhaustedCount());
+    }
+
+    @Test
+    public void retryableErrorsOfVendors(){
+        assertTrue(Vendor.MYSQL.isRetryable(new SQLException("Deadlock found when trying to get lock", "40001", 1213)));
+        assertTrue(Vendor.MYSQL.isRetryable(new SQLException("Lock wait timeout exceeded", "HY000", 1205)));
+        assertFalse(Vendor.MYSQL.isRetryable(new SQLException("Duplicate entry", "23000", 1062)));
+        assertTrue(Vendor.H2.isRetryable(new SQLException("Timeout trying to lock table", "HYT00", 50200)));
+        assertFalse(Vendor.H2.isRetryable(new SQLException("Lock wait timeout exceeded", "HY000", 1205)));
+        assertTrue(Vendor.OTHER.isRetryable(new IllegalStateException(new SQLException("could not serialize", "40001"))));
+    }
+}